@@ -10,12 +10,118 @@ public interface Constants {
 
     String ACTION_REQUEST_EVENT = "jp.gclue.deviceconnect.android.app.sample.action.REQUEST_EVENT";
 
+    String ACTION_CANCEL_EVENT = "jp.gclue.deviceconnect.android.app.sample.action.CANCEL_EVENT";
+
     String EXTRA_PATH = "path";
 
+    String EXTRA_PATHS = "paths";
+
+    /**
+     * イベントを購読するクライアントのID. 同じIDからの要求は同じ購読者として数える.
+     */
+    String EXTRA_SUBSCRIBER = "subscriber";
+
+    /**
+     * Device Web API Managerとの通信方法. 省略時は {@link #TRANSPORT_HTTP}.
+     *
+     * Managerにまだ接続していない場合のみ有効. 購読中に指定しても無視する.
+     */
+    String EXTRA_TRANSPORT = "transport";
+
+    /**
+     * HTTP で要求し、WebSocket でイベントを受信する.
+     */
+    String TRANSPORT_HTTP = "http";
+
+    /**
+     * 端末内のプロセス間通信 (Intent) で要求し、ブロードキャストでイベントを受信する.
+     * Managerが同じ端末で動作している場合のみ使用できる.
+     */
+    String TRANSPORT_INTENT = "intent";
+
+    /**
+     * イベントの受け渡し方法. 省略時は {@link #DELIVERY_BROADCAST}.
+     */
+    String EXTRA_DELIVERY = "delivery";
+
+    String DELIVERY_CHANNEL = "channel";
+
+    String DELIVERY_BROADCAST = "broadcast";
+
+    /**
+     * イベントから解析したサンプルを {@link #ACTION_NOTIFY_SAMPLES} でまとめてブロードキャストする.
+     *
+     * まとめる数と待ち時間は {@link #EXTRA_BATCH_SIZE}、{@link #EXTRA_BATCH_LATENCY} で指定する.
+     * サンプルを解析できないイベントは {@link #ACTION_NOTIFY_EVENT} でそのままブロードキャストする.
+     */
+    String DELIVERY_BATCH = "batch";
+
+    /**
+     * 1回のブロードキャストに含めるサンプル数の上限.
+     */
+    String EXTRA_BATCH_SIZE = "batchSize";
+
+    /**
+     * 先頭のサンプルを受信してからブロードキャストするまでの最大待ち時間. 単位はミリ秒.
+     */
+    String EXTRA_BATCH_LATENCY = "batchLatency";
+
+    /**
+     * まとめている途中のサンプルを直ちにブロードキャストさせる.
+     */
+    String ACTION_FLUSH_SAMPLES = "jp.gclue.deviceconnect.android.app.sample.action.FLUSH_SAMPLES";
+
+    /**
+     * {@link #EXTRA_SUBSCRIBER} のクライアントに配送する前のフィルタを設定する. 指定しなかったフィルタは使用しない.
+     * フィルタを1つも指定しなかった場合は、フィルタを使用せずにすべてのイベントを配送する.
+     *
+     * フィルタは {@link #EXTRA_LOW_PASS}、{@link #EXTRA_COMPLEMENTARY}、{@link #EXTRA_DEAD_BAND}、
+     * {@link #EXTRA_SIGNIFICANT_CHANGE} の順に適用し、通過したイベントのみ配送する.
+     * {@link #ACTION_REQUEST_EVENT} に同じエクストラを指定して、購読と同時に設定することもできる.
+     * フィルタは配送にのみ使用し、保存・記録・集計には受信したすべてのサンプルを使用する.
+     */
+    String ACTION_SET_FILTERS = "jp.gclue.deviceconnect.android.app.sample.action.SET_FILTERS";
+
+    /**
+     * 低域通過フィルタの新しいサンプルの重み (float). 0 より大きく 1 以下.
+     */
+    String EXTRA_LOW_PASS = "lowPass";
+
+    /**
+     * 重力成分を取り除く高域通過フィルタの、低域通過フィルタの重み (float). 0 より大きく 1 以下.
+     */
+    String EXTRA_COMPLEMENTARY = "complementary";
+
+    /**
+     * 不感帯の閾値 (float). 直前に配送したサンプルから、いずれかの軸がこの値以上変化した場合のみ配送する.
+     */
+    String EXTRA_DEAD_BAND = "deadBand";
+
+    /**
+     * 変化の大きさの閾値 (float). 直前に配送したサンプルからの変化のベクトルの長さと比較する.
+     */
+    String EXTRA_SIGNIFICANT_CHANGE = "significantChange";
+
+    /**
+     * {@link #EXTRA_SIGNIFICANT_CHANGE} で、変化がなくても配送する間隔 (long). 単位はミリ秒.
+     */
+    String EXTRA_HEARTBEAT_INTERVAL = "heartbeatInterval";
+
+    String ACTION_NOTIFY_FOREGROUND = "jp.gclue.deviceconnect.android.app.sample.action.NOTIFY_FOREGROUND";
+
+    /**
+     * クライアントがフォアグラウンドかどうか. イベントの通知間隔の調整に使用する.
+     */
+    String EXTRA_FOREGROUND = "foreground";
+
     String ACTION_NOTIFY_WAITING_MANAGER = "jp.gclue.deviceconnect.android.app.sample.action.WAITING_MANAGER";
 
     String ACTION_NOTIFY_MANAGER_AVAILABLE = "jp.gclue.deviceconnect.android.app.sample.action.MANAGER_AVAILABLE";
 
+    String EXTRA_ATTEMPTS = "attempts";
+
+    String EXTRA_TIME_TO_READY = "timeToReady";
+
     String ACTION_NOTIFY_WAITING_SERVICE = "jp.gclue.deviceconnect.android.app.sample.action.WAITING_SERVICE";
 
     String ACTION_NOTIFY_SERVICE_AVAILABLE = "jp.gclue.deviceconnect.android.app.sample.action.SERVICE_AVAILABLE";
@@ -26,4 +132,56 @@ public interface Constants {
 
     String EXTRA_EVENT = "event";
 
+    String ACTION_NOTIFY_SAMPLES = "jp.gclue.deviceconnect.android.app.sample.action.SAMPLES";
+
+    /**
+     * サンプルのタイムスタンプの配列 (long[]). 単位はミリ秒. 他の配列と同じ長さ.
+     */
+    String EXTRA_TIMESTAMPS = SampleBatchPayload.KEY_TIMESTAMPS;
+
+    /**
+     * サンプルのX軸の値の配列 (float[]).
+     */
+    String EXTRA_X = SampleBatchPayload.KEY_X;
+
+    /**
+     * サンプルのY軸の値の配列 (float[]).
+     */
+    String EXTRA_Y = SampleBatchPayload.KEY_Y;
+
+    /**
+     * サンプルのZ軸の値の配列 (float[]).
+     */
+    String EXTRA_Z = SampleBatchPayload.KEY_Z;
+
+    /**
+     * ブロードキャストを送信した時刻 ({@link System#nanoTime()}). 配送のレイテンシの計測に使用する.
+     */
+    String EXTRA_SENT_AT = "sentAt";
+
+    /**
+     * 受信したサンプルの記録を開始する. 記録先は {@link #EXTRA_FILE_NAME} で指定する.
+     */
+    String ACTION_START_RECORDING = "jp.gclue.deviceconnect.android.app.sample.action.START_RECORDING";
+
+    String ACTION_STOP_RECORDING = "jp.gclue.deviceconnect.android.app.sample.action.STOP_RECORDING";
+
+    /**
+     * 記録したサンプルの再生を開始する. 再生するファイルは {@link #EXTRA_FILE_NAME}、
+     * 速度は {@link #EXTRA_REPLAY_SPEED} で指定する.
+     */
+    String ACTION_START_REPLAY = "jp.gclue.deviceconnect.android.app.sample.action.START_REPLAY";
+
+    String ACTION_STOP_REPLAY = "jp.gclue.deviceconnect.android.app.sample.action.STOP_REPLAY";
+
+    /**
+     * 記録のファイル名. アプリの内部ストレージの recordings ディレクトリに置く.
+     */
+    String EXTRA_FILE_NAME = "fileName";
+
+    /**
+     * 再生速度の倍率 (float). 1 で記録時と同じ速度. 0 の場合は待たずにできるだけ速く再生する.
+     */
+    String EXTRA_REPLAY_SPEED = "speed";
+
 }
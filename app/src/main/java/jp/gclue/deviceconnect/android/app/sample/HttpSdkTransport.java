@@ -0,0 +1,25 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import android.content.Context;
+
+import org.deviceconnect.message.DConnectSDK;
+import org.deviceconnect.message.DConnectSDKFactory;
+
+
+/**
+ * HTTP で要求し、WebSocket でイベントを受信する通信方法.
+ */
+public class HttpSdkTransport implements SdkTransport {
+
+    @Override
+    public String getName() {
+        return Constants.TRANSPORT_HTTP;
+    }
+
+    @Override
+    public DConnectSDK create(final Context context) {
+        DConnectSDK sdk = DConnectSDKFactory.create(context.getApplicationContext(), DConnectSDKFactory.Type.HTTP);
+        sdk.setOrigin(context.getPackageName());
+        return sdk;
+    }
+}
@@ -0,0 +1,36 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import android.content.Intent;
+
+
+/**
+ * {@link Intent} のエクストラを {@link SampleBatchPayload.Extras} として読み書きするクラス.
+ */
+public class IntentExtras implements SampleBatchPayload.Extras {
+
+    private final Intent mIntent;
+
+    IntentExtras(final Intent intent) {
+        mIntent = intent;
+    }
+
+    @Override
+    public void putLongArray(final String key, final long[] value) {
+        mIntent.putExtra(key, value);
+    }
+
+    @Override
+    public void putFloatArray(final String key, final float[] value) {
+        mIntent.putExtra(key, value);
+    }
+
+    @Override
+    public long[] getLongArray(final String key) {
+        return mIntent.getLongArrayExtra(key);
+    }
+
+    @Override
+    public float[] getFloatArray(final String key) {
+        return mIntent.getFloatArrayExtra(key);
+    }
+}
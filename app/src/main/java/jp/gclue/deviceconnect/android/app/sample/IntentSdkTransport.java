@@ -0,0 +1,27 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import android.content.Context;
+
+import org.deviceconnect.message.DConnectSDK;
+import org.deviceconnect.message.DConnectSDKFactory;
+
+
+/**
+ * 端末内のプロセス間通信 (Intent) で要求し、ブロードキャストでイベントを受信する通信方法.
+ *
+ * Managerが同じ端末で動作している場合のみ使用できる.
+ */
+public class IntentSdkTransport implements SdkTransport {
+
+    @Override
+    public String getName() {
+        return Constants.TRANSPORT_INTENT;
+    }
+
+    @Override
+    public DConnectSDK create(final Context context) {
+        DConnectSDK sdk = DConnectSDKFactory.create(context.getApplicationContext(), DConnectSDKFactory.Type.INTENT);
+        sdk.setOrigin(context.getPackageName());
+        return sdk;
+    }
+}
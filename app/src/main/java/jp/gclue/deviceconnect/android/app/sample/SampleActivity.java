@@ -1,22 +1,23 @@
 package jp.gclue.deviceconnect.android.app.sample;
 
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.support.v4.content.LocalBroadcastManager;
+import android.support.v4.view.ViewCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.view.View;
-import android.widget.LinearLayout;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
 import android.widget.TextView;
 
-import org.deviceconnect.message.DConnectEventMessage;
-import org.deviceconnect.message.DConnectMessage;
-
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
 import java.util.logging.Logger;
 
 
@@ -30,10 +31,22 @@ public class SampleActivity extends AppCompatActivity implements Constants {
      */
     private static final String EVENT_API_PATH = "/gotapi/deviceOrientation/onDeviceOrientation"; // 加速度センサー値
 
+    /**
+     * 1回のブロードキャストで受け取るサンプル数の上限.
+     */
+    private static final int BATCH_SIZE = 32;
+
+    /**
+     * サンプルを受け取るまでの最大待ち時間. 単位はミリ秒.
+     *
+     * 1フレーム (約16ms) 程度の遅延を許容する代わりに、UIスレッドでの受信処理の回数を減らす.
+     */
+    private static final long BATCH_LATENCY = 16;
+
     /**
      * {@link SampleService} からのブロードキャストを受信するリスナー.
      *
-     * ブロードキャストの中に、Device Web API Managerからのイベントが格納されている.
+     * Device Web API Managerとサービスの状態の通知と、まとめたサンプルを受け取る.
      */
     private final BroadcastReceiver mLocalBroadcastReceiver = new BroadcastReceiver() {
         @Override
@@ -41,40 +54,133 @@ public class SampleActivity extends AppCompatActivity implements Constants {
             if (ACTION_NOTIFY_WAITING_MANAGER.equals(intent.getAction())) {
                 log("Waiting until Device Web API Manager become available...");
             } else if (ACTION_NOTIFY_MANAGER_AVAILABLE.equals(intent.getAction())) {
-                log("Device Web API Manager is available.");
+                long attempts = intent.getLongExtra(EXTRA_ATTEMPTS, 0);
+                long timeToReady = intent.getLongExtra(EXTRA_TIME_TO_READY, 0);
+                log("Device Web API Manager is available: attempts = " + attempts + ", time = " + timeToReady + "ms");
             } else if (ACTION_NOTIFY_WAITING_SERVICE.equals(intent.getAction())) {
                 log("Waiting until service which supports '" + EVENT_API_PATH + "'");
             } else if (ACTION_NOTIFY_SERVICE_AVAILABLE.equals(intent.getAction())) {
                 String name = intent.getStringExtra(EXTRA_SERVICE_NAME);
                 log("Service is available: name = " + name);
-            } else if (ACTION_NOTIFY_EVENT.equals(intent.getAction())) {
-                DConnectEventMessage event = (DConnectEventMessage) intent.getSerializableExtra(SampleService.EXTRA_EVENT);
-
-                // PUT /gotapi/deviceOrientation/onDeviceOrientation で定義されているイベントの内容を解析.
-                DConnectMessage orientation = event.getMessage("orientation");
-                DConnectMessage acceleration = orientation.getMessage("accelerationIncludingGravity");
-                float x = acceleration.getFloat("x");
-                float y = acceleration.getFloat("y");
-                float z = acceleration.getFloat("z");
-
-                log("x = " + String.format(Locale.ENGLISH, "%.2f", x) + ", " +
-                        "y = " + String.format(Locale.ENGLISH, "%.2f", y) + ", " +
-                        "z = " + String.format(Locale.ENGLISH, "%.2f", z));
+            } else if (ACTION_NOTIFY_SAMPLES.equals(intent.getAction())) {
+                PipelineMetrics metrics = mMetrics;
+                if (metrics != null && intent.hasExtra(EXTRA_SENT_AT)) {
+                    metrics.record(PipelineMetrics.STAGE_BROADCAST, intent.getLongExtra(EXTRA_SENT_AT, 0));
+                }
+                SampleBatchPayload payload = SampleBatchPayload.read(new IntentExtras(intent));
+                if (payload != null) {
+                    onBatch(payload);
+                }
+            }
+        }
+    };
+
+    /**
+     * 画面に表示する集計結果のウィンドウのサンプル数.
+     *
+     * 1行に {@link #AGGREGATE_WINDOW} 件分のサンプルをまとめて表示する.
+     */
+    private static final int AGGREGATE_WINDOW = 10;
+
+    /**
+     * UIスレッドへの受け渡しを待つ集計結果の最大数. 超えた場合は古いものから破棄する.
+     */
+    private static final int PENDING_AGGREGATE_CAPACITY = 16;
+
+    /**
+     * UIスレッドへの受け渡しを待つ集計結果. まとめたサンプルを受け取るたびに読み出す.
+     * 読み出し待ちのサンプル数は {@link SampleService} が通知間隔の調整に使用する.
+     */
+    private final AggregateHandOff mHandOff = new AggregateHandOff(PENDING_AGGREGATE_CAPACITY);
+
+    /**
+     * {@link #mHandOff} から最後に読み出した集計結果. UIスレッドからのみ参照する.
+     */
+    private final WindowAggregator.Aggregate mLatestAggregate = new WindowAggregator.Aggregate();
+
+    /**
+     * {@link #mLatestAggregate} に集計結果があるかどうか. UIスレッドからのみ参照する.
+     */
+    private boolean mHasAggregate;
+
+    /**
+     * {@link #mHandOff} から読み出した集計結果のうち、最新のものを {@link #mLatestAggregate} に残すオブジェクト.
+     */
+    private final AggregateHandOff.Consumer mAggregateConsumer = new AggregateHandOff.Consumer() {
+        @Override
+        public void onAggregate(final WindowAggregator.Aggregate aggregate, final long receivedAt) {
+            PipelineMetrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.record(PipelineMetrics.STAGE_HANDOFF, receivedAt);
+            }
+            mLatestAggregate.copyFrom(aggregate);
+            mHasAggregate = true;
+        }
+    };
+
+    /**
+     * {@link SampleService} のイベント受信スレッドで集計結果を受け取り、{@link #mHandOff} に追加するリスナー.
+     *
+     * UIスレッドには通知しない. 集計結果は、まとめたサンプルを受け取った時に一緒に読み出す.
+     */
+    private final WindowAggregator.Listener mAggregateListener = new WindowAggregator.Listener() {
+        @Override
+        public void onAggregate(final WindowAggregator.Aggregate aggregate) {
+            boolean overwritten = mHandOff.offer(aggregate, System.nanoTime());
+            PipelineMetrics metrics = mMetrics;
+            if (overwritten && metrics != null) {
+                metrics.addDropped(PipelineMetrics.STAGE_HANDOFF, 1);
             }
         }
     };
 
+    /**
+     * {@link SampleService} との接続状態を受け取るオブジェクト.
+     */
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(final ComponentName name, final IBinder binder) {
+            SampleService service = ((SampleService.LocalBinder) binder).getService();
+            WindowAggregator aggregator = WindowAggregator.tumbling(AGGREGATE_WINDOW, mAggregateListener);
+            mMetrics = service.getPipelineMetrics();
+            service.addHandOff(mHandOff);
+            service.addAggregator(aggregator);
+            mService = service;
+            mAggregator = aggregator;
+        }
+
+        @Override
+        public void onServiceDisconnected(final ComponentName name) {
+            detachAggregator();
+        }
+    };
+
+    /**
+     * バインドした {@link SampleService}.
+     */
+    private SampleService mService;
+
+    /**
+     * {@link #mService} に登録した集計処理.
+     */
+    private WindowAggregator mAggregator;
+
+    /**
+     * 画面側の段階を記録する計測値. {@link #mService} から取得する.
+     */
+    private volatile PipelineMetrics mMetrics;
+
     /**
      * {@link SampleService} からブロードキャストを受信するためのフィルター設定.
      */
     private final IntentFilter mIntentFilter;
     {
         mIntentFilter = new IntentFilter();
-        mIntentFilter.addAction(ACTION_NOTIFY_EVENT);
         mIntentFilter.addAction(ACTION_NOTIFY_WAITING_MANAGER);
         mIntentFilter.addAction(ACTION_NOTIFY_MANAGER_AVAILABLE);
         mIntentFilter.addAction(ACTION_NOTIFY_WAITING_SERVICE);
         mIntentFilter.addAction(ACTION_NOTIFY_SERVICE_AVAILABLE);
+        mIntentFilter.addAction(ACTION_NOTIFY_SAMPLES);
     }
 
     /**
@@ -88,11 +194,54 @@ public class SampleActivity extends AppCompatActivity implements Constants {
     private LocalBroadcastManager mLocalBroadcast;
 
     /**
-     * 通信ログを表示するビュー.
+     * 画面に表示するログの行数.
+     */
+    private static final int LOG_CAPACITY = 100;
+
+    /**
+     * 画面に表示するログ.
+     */
+    private final LogBuffer mLogBuffer = new LogBuffer(LOG_CAPACITY);
+
+    /**
+     * ログに出力する時刻の書式.
+     */
+    private final TimestampFormatter mTimestampFormatter = new TimestampFormatter();
+
+    /**
+     * {@link #mLogBuffer} の内容を表示するアダプタ.
      */
-    private LinearLayout mLogView;
+    private final LogAdapter mLogAdapter = new LogAdapter();
 
-    private SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SS", Locale.JAPAN);
+    /**
+     * {@link #mLogAdapter} に変更を通知する処理.
+     */
+    private final Runnable mLogUpdateTask = new Runnable() {
+        @Override
+        public void run() {
+            mLogUpdateScheduled = false;
+            mLogAdapter.notifyDataSetChanged();
+            PipelineMetrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.record(PipelineMetrics.STAGE_UI, mLogUpdateScheduledAt);
+            }
+        }
+    };
+
+    /**
+     * {@link #mLogUpdateTask} の実行を予約済みかどうか.
+     */
+    private boolean mLogUpdateScheduled;
+
+    /**
+     * {@link #mLogUpdateTask} の実行を予約した時刻. 単位はナノ秒.
+     */
+    private long mLogUpdateScheduledAt;
+
+    /**
+     * 通信ログを表示するビュー.
+     */
+    private ListView mLogView;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -101,6 +250,7 @@ public class SampleActivity extends AppCompatActivity implements Constants {
 
         mLocalBroadcast = LocalBroadcastManager.getInstance(getApplicationContext());
         mLogView = findViewById(R.id.log_view);
+        mLogView.setAdapter(mLogAdapter);
     }
 
     @Override
@@ -112,41 +262,162 @@ public class SampleActivity extends AppCompatActivity implements Constants {
         Intent intent = new Intent(getApplicationContext(), SampleService.class);
         intent.setAction(ACTION_REQUEST_EVENT);
         intent.putExtra(EXTRA_PATH, EVENT_API_PATH);
+        intent.putExtra(EXTRA_DELIVERY, DELIVERY_BATCH);
+        intent.putExtra(EXTRA_BATCH_SIZE, BATCH_SIZE);
+        intent.putExtra(EXTRA_BATCH_LATENCY, BATCH_LATENCY);
+        intent.putExtra(EXTRA_FOREGROUND, true);
         startService(intent);
+
+        bindService(new Intent(getApplicationContext(), SampleService.class), mServiceConnection, BIND_AUTO_CREATE);
     }
 
     @Override
     protected void onPause() {
         mLocalBroadcast.unregisterReceiver(mLocalBroadcastReceiver);
 
-        Intent intent = new Intent(getApplicationContext(), SampleService.class);
-        stopService(intent);
+        // バックグラウンドでも購読を続けるので、サービスは停止せずに通知間隔を広げさせる.
+        Intent foreground = new Intent(getApplicationContext(), SampleService.class);
+        foreground.setAction(ACTION_NOTIFY_FOREGROUND);
+        foreground.putExtra(EXTRA_FOREGROUND, false);
+        startService(foreground);
+
+        detachAggregator();
+        unbindService(mServiceConnection);
 
         super.onPause();
     }
 
-    private synchronized void log(final String message) {
-        // 画面上にログを追加.
-        int count = mLogView.getChildCount();
-        if (count >= 100) {
-            mLogView.removeViewAt(count - 1);
+    @Override
+    protected void onDestroy() {
+        // 画面を閉じた場合のみサービスを停止する. 画面の回転などによる再作成では停止しない.
+        if (isFinishing()) {
+            Intent intent = new Intent(getApplicationContext(), SampleService.class);
+            stopService(intent);
+        }
+        super.onDestroy();
+    }
+
+    private void detachAggregator() {
+        if (mService != null) {
+            mService.removeAggregator(mAggregator);
+            mService.removeHandOff(mHandOff);
+            mService = null;
+            mAggregator = null;
+            mMetrics = null;
         }
-        mLogView.addView(createView(currentTime() + ": " + message), 0);
+        mHandOff.clear();
+        mHasAggregate = false;
+    }
+
+    /**
+     * 画面にログを追加する.
+     *
+     * UIスレッドから呼び出すこと.
+     *
+     * @param message メッセージ
+     */
+    private void log(final String message) {
+        LogBuffer.Line line = appendLogLine();
+        line.append(message);
 
         mLogger.info(message);
     }
 
-    private View createView(final String message) {
-        TextView view = new TextView(getApplicationContext());
-        view.setText(message);
-        view.setTextColor(getResources().getColor(R.color.black));
-        view.setLayoutParams(new LinearLayout.LayoutParams(
-                LinearLayout.LayoutParams.MATCH_PARENT,
-                LinearLayout.LayoutParams.WRAP_CONTENT));
-        return view;
+    /**
+     * まとめて受け取ったサンプルを画面に表示する.
+     *
+     * UIスレッドから呼び出すこと. 1回の受信につき1行だけ追加する.
+     * 受信までの間に {@link #mHandOff} に溜まった集計結果も読み出し、最新のものを同じ行に表示する.
+     *
+     * @param payload まとめて受け取ったサンプル
+     */
+    private void onBatch(final SampleBatchPayload payload) {
+        mHandOff.drain(mAggregateConsumer);
+        logBatch(payload, mHasAggregate ? mLatestAggregate : null);
+    }
+
+    /**
+     * 画面にまとめて受け取ったサンプルの件数と最新の値、最新の集計結果を追加する.
+     *
+     * UIスレッドから呼び出すこと. 行の作成ではオブジェクトを生成しない.
+     *
+     * @param payload まとめて受け取ったサンプル
+     * @param aggregate 最新の集計結果. ない場合は <code>null</code>
+     */
+    private void logBatch(final SampleBatchPayload payload, final WindowAggregator.Aggregate aggregate) {
+        int last = payload.size() - 1;
+        LogBuffer.Line line = appendLogLine(payload.getTimestamp(last));
+        line.append("batch = ").append(payload.size())
+                .append(", x = ").append(payload.getX(last), 2)
+                .append(", y = ").append(payload.getY(last), 2)
+                .append(", z = ").append(payload.getZ(last), 2);
+        if (aggregate != null) {
+            line.append(", mean = (").append(aggregate.getMean(WindowAggregator.AXIS_X), 2)
+                    .append(", ").append(aggregate.getMean(WindowAggregator.AXIS_Y), 2)
+                    .append(", ").append(aggregate.getMean(WindowAggregator.AXIS_Z), 2)
+                    .append("), peak = ").append(aggregate.getMagnitudePeak(), 2);
+        }
     }
 
-    private String currentTime() {
-        return mDateFormat.format(new Date());
+    private LogBuffer.Line appendLogLine() {
+        return appendLogLine(System.currentTimeMillis());
+    }
+
+    private LogBuffer.Line appendLogLine(final long timestamp) {
+        LogBuffer.Line line = mLogBuffer.append();
+        mTimestampFormatter.format(timestamp, line);
+        line.append(": ");
+        scheduleLogUpdate();
+        return line;
+    }
+
+    /**
+     * 次の描画フレームで画面のログを更新する.
+     *
+     * 1フレームの間に追加されたログは、まとめて1回の更新で反映する.
+     */
+    private void scheduleLogUpdate() {
+        if (!mLogUpdateScheduled && mLogView != null) {
+            mLogUpdateScheduled = true;
+            mLogUpdateScheduledAt = System.nanoTime();
+            ViewCompat.postOnAnimation(mLogView, mLogUpdateTask);
+        }
+    }
+
+    /**
+     * {@link #mLogBuffer} の内容を新しい順に表示するアダプタ.
+     *
+     * 行のビューは {@link ListView} から渡されたものを再利用する.
+     */
+    private class LogAdapter extends BaseAdapter {
+        @Override
+        public int getCount() {
+            return mLogBuffer.size();
+        }
+
+        @Override
+        public Object getItem(final int position) {
+            return mLogBuffer.get(position);
+        }
+
+        @Override
+        public long getItemId(final int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(final int position, final View convertView, final ViewGroup parent) {
+            TextView view = (TextView) convertView;
+            if (view == null) {
+                view = new TextView(getApplicationContext());
+                view.setTextColor(getResources().getColor(R.color.black));
+                view.setLayoutParams(new AbsListView.LayoutParams(
+                        AbsListView.LayoutParams.MATCH_PARENT,
+                        AbsListView.LayoutParams.WRAP_CONTENT));
+            }
+            LogBuffer.Line line = mLogBuffer.get(position);
+            view.setText(line.getChars(), 0, line.length());
+            return view;
+        }
     }
 }
@@ -2,6 +2,7 @@ package jp.gclue.deviceconnect.android.app.sample;
 
 import android.app.Service;
 import android.content.Intent;
+import android.os.Binder;
 import android.os.IBinder;
 import android.support.annotation.Nullable;
 import android.support.v4.content.LocalBroadcastManager;
@@ -10,13 +11,34 @@ import org.deviceconnect.message.DConnectEventMessage;
 import org.deviceconnect.message.DConnectMessage;
 import org.deviceconnect.message.DConnectResponseMessage;
 import org.deviceconnect.message.DConnectSDK;
-import org.deviceconnect.message.DConnectSDKFactory;
 import org.deviceconnect.profile.ServiceDiscoveryProfileConstants;
 import org.deviceconnect.profile.ServiceInformationProfileConstants;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 
@@ -27,322 +49,2339 @@ import java.util.logging.Logger;
  *
  * 起動時に下記の処理を順に実行する.
  * 1. Device Web API Managerの起動確認.
- * 2. Service Discovery実行.
+ * 2. Service Discovery実行. 前回選択したサービスが保存されている場合は、1〜3を省略して先に購読し、後で確認する.
  * 3. {@link SampleActivity} から指定されたAPIをサポートするサービスを検索.
  * 4. 3のサービスに対してイベント開始要求送信.
  * 5. 受信したイベントの内容解析.
- * 6. 解析結果を {@link SampleActivity} へブロードキャスト.
+ * 6. 解析結果を {@link SampleChannel} に書き込み、{@link SampleStore} への保存と {@link WindowAggregator} での集計を行う.
+ * 7. 集計結果を {@link SampleActivity} へ通知.
+ *
+ * 6のサンプルは {@link SampleRecorder} でファイルに記録でき、記録したサンプルは {@link SampleReplayer} で
+ * 5の代わりにパイプラインへ再生できる. 負荷試験や回帰試験で、実機で記録したセッションを再現するために使用する.
+ * 再生したサンプルはイベントに戻して5から処理し、集計とクライアントへの配送のみ行う. {@link SampleStore} と記録には書き込まない.
+ *
+ * 指定されたAPIをサポートするサービスが複数ある場合は、すべてのサービスを購読する. 後からオンラインになったサービスも購読に加える.
+ * 5のサンプルは受信した順にサービスの番号を付けて {@link SampleChannel} に書き込む.
+ * タイムスタンプは1つのイベント受信スレッドで付けた受信時刻なので、受信した順がそのままタイムスタンプ順になる.
+ * 番号は {@link #getSourceName(int)} でサービスIDに変換できる.
+ *
+ * {@link SampleChannel} には受信したすべてのサンプルを書き込むので、保存・記録・集計は常に元の値で行う.
+ * クライアントは {@link Constants#ACTION_REQUEST_EVENT} または {@link Constants#ACTION_SET_FILTERS} で
+ * フィルタ ({@link SampleFilterChain}、不感帯など) を指定した場合のみ、配送の直前にサービスごとのフィルタを通す.
+ * 通過しなかったイベントはそのクライアントに配送しない. 低域通過フィルタなどで書き換えた値は
+ * まとめて配送するサンプルにのみ反映され、そのまま配送するイベントは元の値のまま.
+ *
+ * Managerとの通信方法は、最初の {@link Constants#ACTION_REQUEST_EVENT} の {@link Constants#EXTRA_TRANSPORT} で
+ * HTTP と Intent ({@link SdkTransport} の実装) から選択する. 通信方法ごとの性能は standin モジュールの <code>TransportBenchmark</code> で比較できる.
+ *
+ * WebSocketが切断された場合は、バックオフで待機しながら再接続し、再接続後に購読中のイベントをまとめて登録し直す.
+ * 切断していた時間と購読ごとの欠落イベント数は {@link OutageTracker} に記録する.
+ *
+ * {@link Constants#EXTRA_DELIVERY} に {@link Constants#DELIVERY_BATCH} を指定した場合は、解析したサンプルを
+ * {@link SampleBatcher} でまとめてブロードキャストする.
+ * {@link Constants#DELIVERY_CHANNEL}、{@link Constants#DELIVERY_BATCH} のどちらも指定しなかった場合は、
+ * 互換モードとしてイベントをそのままブロードキャストする.
  */
 public class SampleService extends Service implements Constants {
 
     /**
-     * Device Connect SDK for Androidのインスタンス.
+     * Device Web API Managerの起動確認の初回の間隔. 単位はミリ秒.
+     */
+    private static final long MANAGER_PROBE_INITIAL_DELAY = 100;
+
+    /**
+     * Device Web API Managerの起動確認の間隔の上限. 単位はミリ秒.
+     */
+    private static final long MANAGER_PROBE_MAX_DELAY = 5000;
+
+    /**
+     * WebSocketの再接続の初回の待機時間. 単位はミリ秒.
+     */
+    private static final long RECONNECT_INITIAL_DELAY = 100;
+
+    /**
+     * WebSocketの再接続の待機時間の上限. 単位はミリ秒.
+     */
+    private static final long RECONNECT_MAX_DELAY = 10 * 1000;
+
+    /**
+     * サービスの変更通知が届かない場合に、Service Discoveryで一覧全体を取得し直す間隔. 単位はミリ秒.
+     */
+    private static final long DISCOVERY_FALLBACK_INTERVAL = 10 * 1000;
+
+    /**
+     * Service Discoveryに失敗した場合の再試行の初回の間隔. 単位はミリ秒.
+     */
+    private static final long DISCOVERY_RETRY_INITIAL_DELAY = 100;
+
+    /**
+     * Service Discoveryに失敗した場合の再試行の間隔の上限. 単位はミリ秒.
+     */
+    private static final long DISCOVERY_RETRY_MAX_DELAY = 5000;
+
+    /**
+     * 不感帯の閾値を省略した場合の値. 単位は m/s^2.
+     */
+    private static final float DEFAULT_DEAD_BAND = 0.05f;
+
+    /**
+     * {@link Constants#EXTRA_HEARTBEAT_INTERVAL} が省略された場合の、変化がなくても配送する間隔. 単位はミリ秒.
+     */
+    private static final long DEFAULT_HEARTBEAT_INTERVAL = 1000;
+
+    /**
+     * {@link Constants#EXTRA_SUBSCRIBER} が省略された場合のクライアントID.
+     */
+    private static final String DEFAULT_SUBSCRIBER = "default";
+
+    /**
+     * イベントの通知間隔の最小値. 単位はミリ秒.
+     */
+    private static final long MIN_EVENT_INTERVAL = 20;
+
+    /**
+     * イベントの通知間隔の最大値. 単位はミリ秒.
+     */
+    private static final long MAX_EVENT_INTERVAL = 1000;
+
+    /**
+     * イベントの通知間隔の初期値. 単位はミリ秒.
+     */
+    private static final long INITIAL_EVENT_INTERVAL = 500;
+
+    /**
+     * イベントの通知間隔を見直す周期. 単位はミリ秒.
+     */
+    private static final long INTERVAL_CONTROL_PERIOD = 1000;
+
+    /**
+     * {@link Constants#EXTRA_BATCH_SIZE} が省略された場合の、1回のブロードキャストに含めるサンプル数の上限.
+     */
+    private static final int DEFAULT_BATCH_SIZE = 16;
+
+    /**
+     * {@link Constants#EXTRA_BATCH_LATENCY} が省略された場合の最大待ち時間. 描画2フレーム分. 単位はミリ秒.
+     */
+    private static final long DEFAULT_BATCH_LATENCY = 33;
+
+    /**
+     * サンプルを保存するファイル名.
+     */
+    private static final String SAMPLE_STORE_FILE = "samples.bin";
+
+    /**
+     * ファイルに保存するサンプル数. 100Hzで約3時間分.
+     */
+    private static final int SAMPLE_STORE_CAPACITY = 1 << 20;
+
+    /**
+     * ファイルを使用できない場合に、メモリ上に保存するサンプル数.
+     */
+    private static final int FALLBACK_SAMPLE_STORE_CAPACITY = 1 << 14;
+
+    /**
+     * サンプルの記録を置くディレクトリ名.
+     */
+    private static final String RECORDINGS_DIR = "recordings";
+
+    /**
+     * 計測値を出力する周期. 単位はミリ秒.
+     */
+    private static final long METRICS_DUMP_PERIOD = 60 * 1000;
+
+    /**
+     * 計測値を出力するファイル名.
+     */
+    private static final String METRICS_FILE = "pipeline-metrics.json";
+
+    /**
+     * 起動時の計測値を出力するファイル名.
+     */
+    private static final String STARTUP_METRICS_FILE = "startup-metrics.json";
+
+    /**
+     * WebSocketの切断と復旧の計測値を出力するファイル名.
+     */
+    private static final String OUTAGE_METRICS_FILE = "outage-metrics.json";
+
+    /**
+     * フィルタで配送しなかったイベントの計測値を出力するファイル名.
+     */
+    private static final String FILTER_METRICS_FILE = "filter-metrics.json";
+
+    /**
+     * 前回選択したサービスを保存するファイル名.
+     */
+    private static final String WARM_START_FILE = "warm-start.bin";
+
+    /**
+     * 前回選択したサービスを使用する期限. これより古い保存内容は使用せずにService Discoveryを実行する. 単位はミリ秒.
+     */
+    private static final long WARM_START_MAX_AGE = 7 * 24 * 60 * 60 * 1000L;
+
+    /**
+     * イベント受信スレッドでの処理を遅延と判定する閾値. 単位はナノ秒.
+     */
+    private static final long RECEIVE_LATE_THRESHOLD = 10 * 1000000L;
+
+    /**
+     * 画面への受け渡しを遅延と判定する閾値. 描画2フレーム分. 単位はナノ秒.
+     */
+    private static final long DELIVERY_LATE_THRESHOLD = 33 * 1000000L;
+
+    /**
+     * イベントのパラメータ名: serviceId.
+     */
+    private static final String PARAM_SERVICE_ID = "serviceId";
+
+    /**
+     * イベントのパラメータ名: profile.
+     */
+    private static final String PARAM_PROFILE = "profile";
+
+    /**
+     * イベントのパラメータ名: interface.
+     */
+    private static final String PARAM_INTERFACE = "interface";
+
+    /**
+     * イベントのパラメータ名: attribute.
+     */
+    private static final String PARAM_ATTRIBUTE = "attribute";
+
+    /**
+     * Device Connect SDK for Androidのインスタンス. 通信方法を変更した場合は作成し直す.
+     */
+    private volatile DConnectSDK mSDK;
+
+    /**
+     * 選択できる通信方法. 先頭を省略時の通信方法とする.
+     */
+    private static final SdkTransport[] TRANSPORTS = {
+            new HttpSdkTransport(),
+            new IntentSdkTransport()
+    };
+
+    /**
+     * {@link #mSDK} の通信方法.
+     */
+    private SdkTransport mTransport = TRANSPORTS[0];
+
+    /**
+     * 同時に実行する接続の準備の数の上限.
+     *
+     * 準備は対象のAPIパスごとに1つだけ実行するので、通常は購読するAPIの種類数以下になる.
+     */
+    private static final int MAX_CONCURRENT_SETUPS = 2;
+
+    /**
+     * 準備を実行するスレッドが待機状態で残る時間. 単位はミリ秒.
+     */
+    private static final long SETUP_THREAD_KEEP_ALIVE = 30 * 1000;
+
+    /**
+     * 購読の追加・削除とWebSocketの切断を順に実行するスレッド.
+     *
+     * 購読の状態はこのスレッドだけが変更するので、準備の完了と新しい購読要求が競合しない.
+     */
+    private final ExecutorService mControlExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * 複数デバイスの購読のために、サポートAPIの問い合わせを待つスレッド.
+     *
+     * 問い合わせは応答しないデバイスがあると時間がかかるので、制御スレッドを塞がないように分ける.
+     * 使用しない間はスレッドを終了する.
+     */
+    private final ThreadPoolExecutor mFanInExecutor = new ThreadPoolExecutor(1, 1,
+            SETUP_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+    {
+        mFanInExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 接続の準備 (Managerの起動待ち・サービス検索・接続) をAPIパスごとに1つだけ実行する状態機械.
+     *
+     * 待機のためにブロックするので専用のスレッドで実行し、使用しない間はスレッドを終了する.
+     */
+    private final ConnectionStateMachine<String, ClientSubscriber> mSetups;
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_CONCURRENT_SETUPS, MAX_CONCURRENT_SETUPS,
+                SETUP_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        mSetups = new ConnectionStateMachine<>(executor, new ConnectionStateMachine.Listener<String>() {
+            @Override
+            public void onStateChanged(final String key, final int oldState, final int newState) {
+                log("Connection setup for " + key + ": " + ConnectionStateMachine.stateToString(oldState)
+                        + " -> " + ConnectionStateMachine.stateToString(newState));
+            }
+        });
+    }
+
+    /**
+     * サービスごとのサポートAPI一覧のキャッシュ.
+     */
+    private final CapabilityCache mCapabilityCache = new CapabilityCache();
+
+    /**
+     * サービス一覧. Service Discoveryの結果とサービスの変更通知で更新する.
+     */
+    private final ServiceTable mServiceTable = new ServiceTable();
+
+    /**
+     * サービスの変更通知の登録を要求したかどうか. 再接続時に登録し直すために使用する.
+     */
+    private volatile boolean mServiceChangeRequested;
+
+    /**
+     * 指定したAPIをサポートするサービスを並列に探すオブジェクト.
+     */
+    private CapabilityProber mCapabilityProber;
+
+    /**
+     * Device Web API Managerの起動を確認するオブジェクト.
+     *
+     * 確認の間隔は {@link #MANAGER_PROBE_INITIAL_DELAY} から始まり、{@link #MANAGER_PROBE_MAX_DELAY} まで伸びる.
+     */
+    private final ReadinessProber mManagerProber = new ReadinessProber(
+            new Backoff(MANAGER_PROBE_INITIAL_DELAY, MANAGER_PROBE_MAX_DELAY));
+
+    /**
+     * 解析済みのサンプルを {@link SampleActivity} へ渡すチャネル.
+     */
+    private final SampleChannel mSampleChannel = new SampleChannel();
+
+    /**
+     * {@link #mSampleChannel} のサンプルに付けるサービスの番号. 番号はリストの位置で、一度付けた番号は変えない.
+     * {@link #mPipelineSink} のロックで排他する.
+     */
+    private final List<String> mSources = new ArrayList<>();
+
+    /**
+     * 受信したサンプルを時系列で保存するストア.
+     */
+    private SampleStore mSampleStore;
+
+    /**
+     * バインドしたクライアントが登録した集計処理の一覧.
+     */
+    private final List<WindowAggregator> mAggregators = new CopyOnWriteArrayList<>();
+
+    /**
+     * バインドしたクライアントが集計結果の受け渡しに使用するキューの一覧.
+     * 読み出し待ちのサンプル数を {@link #mIntervalController} に入力する.
+     */
+    private final List<AggregateHandOff> mHandOffs = new CopyOnWriteArrayList<>();
+
+    /**
+     * {@link #mSampleChannel} から読み出したサンプルを {@link #mSampleStore} と {@link #mAggregators} に渡すオブジェクト.
+     *
+     * 再生したサンプルは保存・記録せず、集計にのみ渡す.
+     */
+    private final SampleChannel.SampleSink mPipelineSink = new SampleChannel.SampleSink() {
+        @Override
+        public void onSample(final long timestamp, final float x, final float y, final float z) {
+            if (!mDrainingReplay) {
+                mSampleStore.append(timestamp, x, y, z);
+                SampleRecorder recorder = mRecorder;
+                if (recorder != null) {
+                    recorder.onSample(timestamp, x, y, z);
+                }
+            }
+            for (WindowAggregator aggregator : mAggregators) {
+                aggregator.onSample(timestamp, x, y, z);
+            }
+        }
+    };
+
+    /**
+     * {@link #mPipelineSink} に渡しているサンプルが再生したものかどうか. {@link #mPipelineSink} のロックで排他する.
+     *
+     * チャネルへの書き込みと読み出しは同じロックの中で行うので、1回の読み出しで渡すのは直前に書き込んだサンプルのみ.
+     */
+    private boolean mDrainingReplay;
+
+    /**
+     * 再生したサンプルをイベントに戻して、受信したイベントと同じ {@link #handleEvent(DConnectEventMessage, long, boolean)}
+     * で処理するオブジェクト.
+     *
+     * 記録したサンプルにはサービスIDがないので、{@link OrientationEventDecoder#PATH} を購読している最初のサービスから
+     * 受信したものとして配送する. 複数のサービスを購読している場合も、各クライアントには1回だけ配送される.
+     */
+    private final SampleChannel.SampleSink mReplaySink = new SampleChannel.SampleSink() {
+        @Override
+        public void onSample(final long timestamp, final float x, final float y, final float z) {
+            List<SubscriptionRegistry.Subscription> subscriptions = mSubscriptions.findByPath(OrientationEventDecoder.PATH);
+            String serviceId = subscriptions.isEmpty() ? null : subscriptions.get(0).getServiceId();
+            handleEvent(createOrientationEvent(serviceId, x, y, z), timestamp, true);
+        }
+    };
+
+    /**
+     * 受信したサンプルを記録するオブジェクト. 記録していない場合は <code>null</code>.
+     */
+    private volatile SampleRecorder mRecorder;
+
+    /**
+     * 再生中のオブジェクト. 再生していない場合は <code>null</code>.
+     */
+    private SampleReplayer mReplayer;
+
+    /**
+     * 再生の処理.
+     */
+    private Future<?> mReplayFuture;
+
+    /**
+     * 再生を実行するスレッド. 最初の再生時に作成する.
+     */
+    private ExecutorService mReplayExecutor;
+
+    /**
+     * {@link #mPipelineSink} へ渡すための {@link #mSampleChannel} の読み出し位置.
+     */
+    private SampleChannel.Cursor mPipelineCursor;
+
+    /**
+     * バインドしたクライアントに渡す {@link IBinder}.
+     */
+    private final IBinder mBinder = new LocalBinder();
+
+    /**
+     * イベントの購読状況.
+     *
+     * 購読はサービスIDとAPIパスの組ごとに1つで、最後の購読者がいなくなった時点でイベント登録を解除する.
+     */
+    private final SubscriptionRegistry mSubscriptions = new SubscriptionRegistry(new SubscriptionRegistry.Callback() {
+        @Override
+        public void onRegister(final SubscriptionRegistry.Subscription subscription) {
+            if (!subscription.getPath().isWildcard()) {
+                mOutageTracker.add(subscription.getServiceId(), subscription.getPath());
+            }
+            requestEvent(subscription.getServiceId(), subscription.getPath());
+        }
+
+        @Override
+        public void onUnregister(final SubscriptionRegistry.Subscription subscription) {
+            cancelEvent(subscription.getServiceId(), subscription.getPath());
+            mOutageTracker.remove(subscription.getServiceId(), subscription.getPath());
+            if (mSubscriptions.findByService(subscription.getServiceId()).isEmpty()) {
+                for (ClientSubscriber subscriber : mClients.values()) {
+                    subscriber.removeFilterChain(subscription.getServiceId());
+                }
+            }
+        }
+    });
+
+    /**
+     * 解析済みのAPIパス.
+     */
+    private final PathRegistry mPathRegistry = new PathRegistry();
+
+    /**
+     * イベントを要求したクライアントの一覧. キーはクライアントID.
      */
-    private DConnectSDK mSDK;
+    private final ConcurrentHashMap<String, ClientSubscriber> mClients = new ConcurrentHashMap<>();
+
+    /**
+     * イベントの通知間隔を調整するオブジェクト.
+     *
+     * 通知間隔が変わった場合は、購読中のすべてのイベントを新しい通知間隔で登録し直す.
+     */
+    private final AdaptiveIntervalController mIntervalController = new AdaptiveIntervalController(
+            new AdaptiveIntervalController.Config()
+                    .setIntervalRange(MIN_EVENT_INTERVAL, MAX_EVENT_INTERVAL)
+                    .setInitialInterval(INITIAL_EVENT_INTERVAL),
+            new AdaptiveIntervalController.Listener() {
+                @Override
+                public void onIntervalChanged(final long oldInterval, final long newInterval, final int decision) {
+                    log("Event interval changed: " + oldInterval + "ms -> " + newInterval + "ms ("
+                            + AdaptiveIntervalController.decisionToString(decision) + ")");
+                    requestAllEvents();
+                }
+            });
+
+    /**
+     * イベントの通知間隔を定期的に見直すスレッド.
+     */
+    private ScheduledExecutorService mIntervalScheduler;
+
+    /**
+     * クライアントがフォアグラウンドかどうか.
+     */
+    private volatile boolean mForeground = true;
+
+    /**
+     * イベントの受信から画面表示までの計測値.
+     */
+    private final PipelineMetrics mPipelineMetrics = new PipelineMetrics()
+            .setLateThreshold(PipelineMetrics.STAGE_RECEIVE, RECEIVE_LATE_THRESHOLD)
+            .setLateThreshold(PipelineMetrics.STAGE_BROADCAST, DELIVERY_LATE_THRESHOLD)
+            .setLateThreshold(PipelineMetrics.STAGE_HANDOFF, DELIVERY_LATE_THRESHOLD)
+            .setLateThreshold(PipelineMetrics.STAGE_UI, DELIVERY_LATE_THRESHOLD);
+
+    /**
+     * 起動から最初のイベントを受信するまでの計測値.
+     */
+    private final StartupMetrics mStartupMetrics = new StartupMetrics();
+
+    /**
+     * 前回選択したサービスとサポートAPI一覧.
+     *
+     * 起動時に {@link #mControlExecutor} で読み込むので、購読の処理からは常に読み込み後の内容が見える.
+     */
+    private volatile WarmStartSnapshot mWarmStart = new WarmStartSnapshot();
+
+    /**
+     * WebSocketの切断から復旧までの計測値.
+     */
+    private final OutageTracker mOutageTracker = new OutageTracker();
+
+    /**
+     * WebSocketの再接続の待機時間を算出するオブジェクト. このオブジェクトのロックで排他する.
+     */
+    private final Backoff mReconnectBackoff = new Backoff(RECONNECT_INITIAL_DELAY, RECONNECT_MAX_DELAY);
+
+    /**
+     * WebSocketの再接続を予約済みかどうか. このオブジェクトのロックで排他する.
+     */
+    private boolean mReconnectPending;
+
+    /**
+     * サービスの終了処理を開始したかどうか. 終了処理中の切断では再接続しない.
+     */
+    private volatile boolean mStopping;
+
+    /**
+     * 1イベントあたりの処理時間の移動平均. 単位はナノ秒.
+     */
+    private volatile long mProcessingNanos;
+
+    /**
+     * イベント受信スレッドで解析したサンプル. 配送先のクライアントは再解析せずにこれを使う.
+     */
+    private final ThreadLocal<DecodedSample> mDecodedSample = new ThreadLocal<DecodedSample>() {
+        @Override
+        protected DecodedSample initialValue() {
+            return new DecodedSample();
+        }
+    };
+
+    /**
+     * Device Web API Managerからのイベントを受信するリスナー.
+     * イベントを受信した祭、{@link #handleEvent(DConnectEventMessage, long, boolean)} で処理する.
+     */
+    private final DConnectSDK.OnEventListener mEventListener = new DConnectSDK.OnEventListener() {
+        @Override
+        public void onMessage(final DConnectEventMessage event) {
+            handleEvent(event, System.currentTimeMillis(), false);
+        }
+
+        @Override
+        public void onResponse(final DConnectResponseMessage response) {
+            log("DConnectResponseMessage.onResponse");
+        }
+    };
+
+    /**
+     * イベントの解析結果を {@link SampleChannel} へ書き込み、集計を行った後、イベントを購読しているクライアントに配送する.
+     *
+     * 受信したイベントは保存と記録も行う. 再生したイベントは、既に保存・記録されているものなので保存・記録せず、
+     * 接続の計測値 ({@link OutageTracker}、{@link StartupMetrics}、処理時間の移動平均) にも含めない.
+     *
+     * @param event イベント
+     * @param timestamp サンプルのタイムスタンプ. 単位はミリ秒
+     * @param replay 再生したイベントの場合は <code>true</code>
+     */
+    private void handleEvent(final DConnectEventMessage event, final long timestamp, final boolean replay) {
+        long start = System.nanoTime();
+        String serviceId = event.getString(PARAM_SERVICE_ID);
+        DecodedSample sample = mDecodedSample.get();
+        sample.mValid = false;
+        boolean decoded;
+        synchronized (mPipelineSink) {
+            // フィルタは通さずに、サービスの番号を付けてチャネルに書き込む.
+            sample.mSource = serviceId != null ? obtainSource(serviceId) : SampleChannel.SOURCE_UNKNOWN;
+            decoded = OrientationEventDecoder.decode(event, timestamp, sample);
+            if (decoded) {
+                mPipelineMetrics.record(PipelineMetrics.STAGE_DECODE, start);
+                mDrainingReplay = replay;
+                mPipelineCursor.drain(mPipelineSink);
+                mDrainingReplay = false;
+            }
+        }
+        String profile = event.getString(PARAM_PROFILE);
+        String interfaceName = event.getString(PARAM_INTERFACE);
+        String attribute = event.getString(PARAM_ATTRIBUTE);
+        if (!replay) {
+            mOutageTracker.onEvent(serviceId, profile, interfaceName, attribute, start);
+        }
+        // フィルタを指定したクライアントには、通過したイベントのみ配送する.
+        int delivered = mSubscriptions.dispatch(serviceId, profile, interfaceName, attribute, event);
+        sample.mValid = false;
+        if (delivered > 0) {
+            mPipelineMetrics.record(PipelineMetrics.STAGE_NOTIFY, start);
+        } else if (!decoded) {
+            // 解析も配送もできなかったイベントは欠落として数える.
+            mPipelineMetrics.addDropped(PipelineMetrics.STAGE_RECEIVE, 1);
+        }
+
+        long elapsed = mPipelineMetrics.record(PipelineMetrics.STAGE_RECEIVE, start) - start;
+        if (replay) {
+            return;
+        }
+        // 処理時間の指数移動平均 (係数 1/8).
+        mProcessingNanos += (elapsed - mProcessingNanos) >> 3;
+
+        if ((decoded || delivered > 0) && mStartupMetrics.onEvent()) {
+            mControlExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    dumpStartupMetrics();
+                }
+            });
+        }
+    }
+
+    /**
+     * {@link OrientationEventDecoder#PATH} のイベントを作成する.
+     *
+     * @param serviceId サービスID. 不明な場合は <code>null</code>
+     * @param x 重力加速度のx成分
+     * @param y 重力加速度のy成分
+     * @param z 重力加速度のz成分
+     * @return イベント
+     */
+    private static DConnectEventMessage createOrientationEvent(final String serviceId,
+                                                               final float x, final float y, final float z) {
+        Map<String, Object> acceleration = new HashMap<>();
+        acceleration.put("x", (double) x);
+        acceleration.put("y", (double) y);
+        acceleration.put("z", (double) z);
+        Map<String, Object> orientation = new HashMap<>();
+        orientation.put(OrientationEventDecoder.PARAM_ACCELERATION_INCLUDING_GRAVITY, acceleration);
+        DConnectEventMessage event = new DConnectEventMessage();
+        if (serviceId != null) {
+            event.put(PARAM_SERVICE_ID, serviceId);
+        }
+        event.put(PARAM_PROFILE, OrientationEventDecoder.PATH.getProfileName());
+        event.put(PARAM_ATTRIBUTE, OrientationEventDecoder.PATH.getAttributeName());
+        event.put(OrientationEventDecoder.PARAM_ORIENTATION, orientation);
+        return event;
+    }
+
+    /**
+     * Device Web API Managerからのサービスの変更通知を受信するリスナー.
+     * 通知されたサービスで {@link #mServiceTable} を更新する.
+     */
+    private final DConnectSDK.OnEventListener mServiceChangeListener = new DConnectSDK.OnEventListener() {
+        @Override
+        public void onMessage(final DConnectEventMessage event) {
+            DConnectMessage service = event.getMessage(ServiceDiscoveryProfileConstants.PARAM_NETWORK_SERVICE);
+            if (service == null) {
+                return;
+            }
+            String serviceId = service.getString(ServiceDiscoveryProfileConstants.PARAM_ID);
+            if (serviceId == null) {
+                return;
+            }
+            boolean online = service.getBoolean(ServiceDiscoveryProfileConstants.PARAM_ONLINE);
+            if (mServiceTable.update(serviceId, service.getString(ServiceDiscoveryProfileConstants.PARAM_NAME),
+                    online)) {
+                log("Service changed: serviceId = " + serviceId + ", online = " + online);
+                if (online) {
+                    scheduleFanIn(Collections.singletonList(serviceId));
+                }
+            }
+        }
+
+        @Override
+        public void onResponse(final DConnectResponseMessage response) {
+            if (response.getResult() != DConnectMessage.RESULT_OK) {
+                log("Failed to register onServiceChange; falling back to polling.");
+            }
+        }
+    };
+
+    private final Logger mLogger = Logger.getLogger("Sample");
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // SDKの初期化. 通信方法は最初の購読の要求で変更できる.
+        mSDK = mTransport.create(this);
+
+        // サンプルの保存先. プロセスが終了しても残るようにファイルにマップする.
+        try {
+            mSampleStore = SampleStore.openMapped(new File(getFilesDir(), SAMPLE_STORE_FILE), SAMPLE_STORE_CAPACITY);
+        } catch (IOException e) {
+            log("Failed to open sample store: " + e.getMessage());
+            mSampleStore = new SampleStore(FALLBACK_SAMPLE_STORE_CAPACITY);
+        }
+        mPipelineCursor = mSampleChannel.newCursor();
+
+        // 前回選択したサービスの読み込み. 購読の処理より先に制御スレッドで実行する.
+        mControlExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadWarmStart();
+            }
+        });
+
+        mCapabilityProber = new CapabilityProber(mCapabilityCache, new CapabilityProber.Source() {
+            @Override
+            public Set<String> fetchSupportedApis(final String serviceId) {
+                return getSupportedApis(serviceId);
+            }
+        }, CapabilityProber.DEFAULT_PARALLELISM);
+
+        mIntervalScheduler = Executors.newSingleThreadScheduledExecutor();
+        mIntervalScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (!mSubscriptions.getSubscriptions().isEmpty()) {
+                    mIntervalController.update(getConsumerBacklog(), mProcessingNanos, mForeground);
+                }
+            }
+        }, INTERVAL_CONTROL_PERIOD, INTERVAL_CONTROL_PERIOD, TimeUnit.MILLISECONDS);
+        mIntervalScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                dumpMetrics();
+            }
+        }, METRICS_DUMP_PERIOD, METRICS_DUMP_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onDestroy() {
+        // 以降の切断では再接続しない.
+        mStopping = true;
+        // 準備中の処理に割り込んで直ちに終了させる.
+        mManagerProber.cancel();
+        mSetups.shutdownNow();
+        mFanInExecutor.shutdownNow();
+        // まとめている途中のサンプルを送信してから、待ち時間を計るスレッドを停止.
+        for (ClientSubscriber subscriber : mClients.values()) {
+            subscriber.stopBatching();
+        }
+        mIntervalScheduler.shutdownNow();
+        mCapabilityProber.shutdown();
+        stopReplay();
+        if (mReplayExecutor != null) {
+            mReplayExecutor.shutdownNow();
+        }
+        mAggregators.clear();
+        // ファイルの入出力はメインスレッドで行わず、制御スレッドの最後の処理として行う.
+        mControlExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // 全イベントの登録を解除してから切断.
+                mSubscriptions.clear();
+                if (mServiceChangeRequested) {
+                    mSDK.removeEventListener(createServiceChangeURIBuilder().build());
+                }
+                mSDK.disconnectWebSocket();
+
+                stopRecording();
+                dumpMetrics();
+                synchronized (mPipelineSink) {
+                    mPipelineCursor.close();
+                    try {
+                        mSampleStore.close();
+                    } catch (IOException e) {
+                        log("Failed to close sample store: " + e.getMessage());
+                    }
+                }
+            }
+        });
+        mControlExecutor.shutdown();
+
+        super.onDestroy();
+    }
+
+    @Override
+    public int onStartCommand(final Intent intent, final int flags, final int startId) {
+        if (intent != null) {
+            if (ACTION_REQUEST_EVENT.equals(intent.getAction())) {
+                if (intent.hasExtra(EXTRA_TRANSPORT)) {
+                    selectTransport(intent.getStringExtra(EXTRA_TRANSPORT));
+                }
+                mForeground = intent.getBooleanExtra(EXTRA_FOREGROUND, mForeground);
+                ClientSubscriber subscriber = obtainClient(intent);
+                String delivery = intent.getStringExtra(EXTRA_DELIVERY);
+                if (DELIVERY_BATCH.equals(delivery)) {
+                    subscriber.startBatching(intent.getIntExtra(EXTRA_BATCH_SIZE, DEFAULT_BATCH_SIZE),
+                            intent.getLongExtra(EXTRA_BATCH_LATENCY, DEFAULT_BATCH_LATENCY));
+                } else if (!DELIVERY_CHANNEL.equals(delivery)) {
+                    subscriber.setBroadcastEnabled(true);
+                }
+                try {
+                    SampleFilterChain.Builder builder = parseFilters(intent);
+                    if (builder.size() > 0) {
+                        subscriber.setFilters(builder);
+                    }
+                } catch (IllegalArgumentException e) {
+                    log("Invalid filter: " + e.getMessage());
+                }
+                for (DConnectPath path : parsePaths(intent)) {
+                    startSubscription(path, subscriber);
+                }
+            } else if (ACTION_FLUSH_SAMPLES.equals(intent.getAction())) {
+                ClientSubscriber subscriber = mClients.get(getClientId(intent));
+                if (subscriber != null) {
+                    subscriber.flush();
+                }
+            } else if (ACTION_START_RECORDING.equals(intent.getAction())) {
+                try {
+                    File file = startRecording(intent.getStringExtra(EXTRA_FILE_NAME));
+                    log("Recording started: " + file);
+                } catch (IOException e) {
+                    log("Failed to start recording: " + e.getMessage());
+                }
+            } else if (ACTION_STOP_RECORDING.equals(intent.getAction())) {
+                stopRecording();
+            } else if (ACTION_START_REPLAY.equals(intent.getAction())) {
+                try {
+                    startReplay(intent.getStringExtra(EXTRA_FILE_NAME), intent.getFloatExtra(EXTRA_REPLAY_SPEED, 1));
+                } catch (IOException e) {
+                    log("Failed to start replay: " + e.getMessage());
+                }
+            } else if (ACTION_STOP_REPLAY.equals(intent.getAction())) {
+                stopReplay();
+            } else if (ACTION_SET_FILTERS.equals(intent.getAction())) {
+                try {
+                    SampleFilterChain.Builder builder = parseFilters(intent);
+                    ClientSubscriber subscriber = mClients.get(getClientId(intent));
+                    if (subscriber != null) {
+                        subscriber.setFilters(builder);
+                        log("Filters changed: " + getClientId(intent) + ", " + builder.size() + " operator(s)");
+                    }
+                } catch (IllegalArgumentException e) {
+                    log("Invalid filter: " + e.getMessage());
+                }
+            } else if (ACTION_NOTIFY_FOREGROUND.equals(intent.getAction())) {
+                mForeground = intent.getBooleanExtra(EXTRA_FOREGROUND, true);
+            } else if (ACTION_CANCEL_EVENT.equals(intent.getAction())) {
+                final ClientSubscriber subscriber = mClients.get(getClientId(intent));
+                if (subscriber != null) {
+                    final List<DConnectPath> paths = parsePaths(intent);
+                    mControlExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            cancelSubscription(paths, subscriber);
+                        }
+                    });
+                }
+            }
+        }
+        return START_STICKY;
+    }
+
+    /**
+     * 指定したAPIのイベント購読を開始する.
+     *
+     * 他のクライアントが同じAPIを購読済みの場合は、そのサービスの購読に相乗りする.
+     * ワイルドカードを含むAPIパスの場合は、すべてのサービスを対象に購読する.
+     * 同じAPIの準備が実行中の場合は、その完了を待って購読する.
+     * そうでない場合は、Device Web API Managerの起動とサービスの検索を待ってから購読する.
+     *
+     * @param path APIパス
+     * @param subscriber 購読するクライアント
+     */
+    private void startSubscription(final DConnectPath path, final ClientSubscriber subscriber) {
+        mControlExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // ワイルドカードの購読は、他の購読で受信したイベントのうち該当するものを受け取る.
+                if (path.isWildcard()) {
+                    mSubscriptions.subscribe(DConnectPath.WILDCARD, path, subscriber);
+                    return;
+                }
+
+                // 購読済みのサービスがあれば、そのすべてを再利用.
+                List<SubscriptionRegistry.Subscription> subscriptions = mSubscriptions.findByPath(path);
+                if (!subscriptions.isEmpty()) {
+                    for (SubscriptionRegistry.Subscription subscription : subscriptions) {
+                        mSubscriptions.subscribe(subscription.getServiceId(), path, subscriber);
+                    }
+                    return;
+                }
+
+                // 準備中であれば相乗りし、そうでなければ準備を開始.
+                try {
+                    mSetups.join(path.getSupportKey(), subscriber, new SetupTask(path));
+                } catch (RejectedExecutionException e) {
+                    // 停止処理中.
+                }
+            }
+        });
+    }
+
+    /**
+     * 接続の準備.
+     *
+     * Device Web API Managerの起動とサービスの検索を待ち、WebSocketに接続した後、
+     * 待機していたクライアントをまとめて購読する.
+     */
+    private class SetupTask implements ConnectionStateMachine.Task<String, ClientSubscriber> {
+        private final DConnectPath mPath;
+
+        SetupTask(final DConnectPath path) {
+            mPath = path;
+        }
+
+        @Override
+        public void run(final ConnectionStateMachine.Flight<String, ClientSubscriber> flight)
+                throws InterruptedException {
+            // 前回選択したサービスがあれば、確認せずに購読してから確認する.
+            WarmStartSnapshot.Target target = mWarmStart.getTarget(mPath.getSupportKey());
+            if (target != null) {
+                runWarm(flight, new Device(target.getServiceId(), target.getName()));
+                return;
+            }
+
+            // Device Web API Managerの起動を待機.
+            if (!waitManagerStart()) {
+                throw new InterruptedException();
+            }
+            log("Manager is available: " + mManagerProber.getMetrics());
+
+            // 指定されたAPIをサポートするサービスが見つかるまで待機.
+            flight.advance(ConnectionStateMachine.STATE_DISCOVERING);
+            final Device targetDevice = acquireTargetService(mPath);
+            if (targetDevice == null) {
+                throw new InterruptedException();
+            }
+            log("Target device is found: serviceId = " + targetDevice.getName());
+            saveWarmStart(mPath, targetDevice);
+
+            // WebSocket接続.
+            flight.advance(ConnectionStateMachine.STATE_CONNECTING);
+            connectWebSocket();
+
+            // イベント開始要求.
+            flight.advance(ConnectionStateMachine.STATE_SUBSCRIBING);
+            subscribeWaiters(flight, targetDevice, true);
+            mStartupMetrics.onSubscribed(StartupMetrics.MODE_COLD);
+
+            // 最初のサービスで受信を始めてから、他のサポートしているサービスを購読に加える.
+            scheduleFanIn(new ArrayList<>(mServiceTable.snapshot().keySet()));
+        }
+
+        /**
+         * 前回選択したサービスを確認せずに購読し、その後でサービスを確認する.
+         *
+         * 確認が終わるまで準備は完了させないので、確認中にクライアントが購読を取り消した場合は
+         * {@link ConnectionStateMachine#leave(Object, Object)} で確認を中止できる.
+         * 確認できなかった場合は購読を取り消し、Service Discoveryから準備をやり直す.
+         */
+        private void runWarm(final ConnectionStateMachine.Flight<String, ClientSubscriber> flight,
+                             final Device device) throws InterruptedException {
+            log("Subscribing to the last known device: serviceId = " + device.getId());
+            flight.advance(ConnectionStateMachine.STATE_CONNECTING);
+            connectWebSocket();
+            flight.advance(ConnectionStateMachine.STATE_SUBSCRIBING);
+            subscribeWaiters(flight, device, false);
+            mStartupMetrics.onSubscribed(StartupMetrics.MODE_WARM);
+
+            Intent intent = new Intent(ACTION_NOTIFY_SERVICE_AVAILABLE);
+            intent.putExtra(EXTRA_SERVICE_NAME, device.getName());
+            sendLocalBroadcast(intent);
+
+            // 確認中に届いた購読要求は準備に相乗りし、確認の後でまとめて購読する.
+            flight.advance(ConnectionStateMachine.STATE_VERIFYING);
+            if (!waitManagerStart()) {
+                throw new InterruptedException();
+            }
+            boolean confirmed = verifyTarget(mPath, device);
+            mStartupMetrics.onVerified(confirmed);
+            subscribeWaiters(flight, device, true);
+            if (confirmed) {
+                log("Last known device is confirmed: serviceId = " + device.getId());
+                // Managerの起動前に送信したイベント開始要求は失敗しているので、まだ受信していなければ送り直す.
+                connectWebSocket();
+                if (!mStartupMetrics.hasFirstEvent()) {
+                    mControlExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (SubscriptionRegistry.Subscription subscription : mSubscriptions.findByPath(mPath)) {
+                                requestEvent(subscription.getServiceId(), subscription.getPath());
+                            }
+                        }
+                    });
+                }
+                scheduleFanIn(new ArrayList<>(mServiceTable.snapshot().keySet()));
+            } else {
+                log("Last known device is not available: serviceId = " + device.getId());
+                mWarmStart.removeService(device.getId());
+                mCapabilityCache.invalidate(device.getId());
+                writeWarmStart();
+                mControlExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        restartSubscription(mPath, device.getId());
+                    }
+                });
+            }
+        }
+
+        /**
+         * 待機していたクライアントをまとめて購読する.
+         *
+         * 購読の変更は制御スレッドで行い、完了するまで待つ. 購読の取り消しも制御スレッドで行うので、
+         * 待機者の参照と購読の間に取り消されることはない.
+         *
+         * @param complete 準備を完了する場合は <code>true</code>. <code>false</code> の場合は準備を登録したまま購読する
+         */
+        private void subscribeWaiters(final ConnectionStateMachine.Flight<String, ClientSubscriber> flight,
+                                      final Device device, final boolean complete) throws InterruptedException {
+            Future<?> future = mControlExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    List<ClientSubscriber> waiters = complete ? mSetups.complete(flight) : mSetups.getWaiters(flight);
+                    for (ClientSubscriber subscriber : waiters) {
+                        mSubscriptions.subscribe(device.getId(), mPath, subscriber);
+                    }
+                }
+            });
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * サービスの番号を取得する. まだない場合は新しい番号を付ける.
+     *
+     * {@link #mPipelineSink} のロックを保持して呼び出すこと.
+     *
+     * @param serviceId サービスID
+     * @return 番号
+     */
+    private int obtainSource(final String serviceId) {
+        int source = mSources.indexOf(serviceId);
+        if (source < 0) {
+            source = mSources.size();
+            mSources.add(serviceId);
+        }
+        return source;
+    }
+
+    /**
+     * インテントに指定されたフィルタの構成を解析する.
+     *
+     * @param intent インテント
+     * @return フィルタの構成
+     */
+    private static SampleFilterChain.Builder parseFilters(final Intent intent) {
+        SampleFilterChain.Builder builder = new SampleFilterChain.Builder();
+        if (intent.hasExtra(EXTRA_LOW_PASS)) {
+            builder.add(SampleFilterChain.lowPass(intent.getFloatExtra(EXTRA_LOW_PASS, 1)));
+        }
+        if (intent.hasExtra(EXTRA_COMPLEMENTARY)) {
+            builder.add(SampleFilterChain.complementary(intent.getFloatExtra(EXTRA_COMPLEMENTARY, 1)));
+        }
+        if (intent.hasExtra(EXTRA_DEAD_BAND)) {
+            builder.add(SampleFilterChain.deadBand(intent.getFloatExtra(EXTRA_DEAD_BAND, DEFAULT_DEAD_BAND)));
+        }
+        if (intent.hasExtra(EXTRA_SIGNIFICANT_CHANGE)) {
+            builder.add(SampleFilterChain.significantChange(intent.getFloatExtra(EXTRA_SIGNIFICANT_CHANGE, 0),
+                    intent.getLongExtra(EXTRA_HEARTBEAT_INTERVAL, DEFAULT_HEARTBEAT_INTERVAL)));
+        }
+        return builder;
+    }
+
+    /**
+     * 指定したサービスのうち購読中のAPIをサポートするものを購読に加える.
+     *
+     * サポートAPIの問い合わせは {@link #mFanInExecutor} で行い、購読の追加のみ制御スレッドで行う.
+     *
+     * @param serviceIds サービスIDの一覧
+     */
+    private void scheduleFanIn(final List<String> serviceIds) {
+        try {
+            mControlExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Set<DConnectPath> paths = new LinkedHashSet<>();
+                    for (SubscriptionRegistry.Subscription subscription : mSubscriptions.getSubscriptions()) {
+                        if (!subscription.getPath().isWildcard()) {
+                            paths.add(subscription.getPath());
+                        }
+                    }
+                    for (DConnectPath path : paths) {
+                        fanIn(path, serviceIds);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 停止処理中.
+        }
+    }
+
+    /**
+     * 指定したサービスのうち、まだ購読していないものがAPIをサポートしているかを {@link #mFanInExecutor} で調べる.
+     *
+     * 1つのAPIを複数のデバイスから受信し、1つの {@link #mSampleChannel} にまとめるため.
+     * 制御スレッドで実行すること.
+     *
+     * @param path APIパス
+     * @param serviceIds 対象のサービスIDの一覧
+     */
+    private void fanIn(final DConnectPath path, final List<String> serviceIds) {
+        Set<String> subscribed = new HashSet<>();
+        for (SubscriptionRegistry.Subscription subscription : mSubscriptions.findByPath(path)) {
+            subscribed.add(subscription.getServiceId());
+        }
+        if (subscribed.isEmpty()) {
+            return;
+        }
+        final List<String> candidates = new ArrayList<>();
+        for (String serviceId : serviceIds) {
+            if (!subscribed.contains(serviceId)) {
+                candidates.add(serviceId);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+        try {
+            mFanInExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    probeFanIn(path, candidates);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 停止処理中.
+        }
+    }
+
+    /**
+     * APIをサポートするサービスを並列に問い合わせ、見つかったサービスの購読を制御スレッドに依頼する.
+     *
+     * 問い合わせはブロックするので {@link #mFanInExecutor} で実行する.
+     *
+     * @param path APIパス
+     * @param candidates 問い合わせるサービスIDの一覧
+     */
+    private void probeFanIn(final DConnectPath path, final List<String> candidates) {
+        final List<String> supporting;
+        try {
+            supporting = mCapabilityProber.findSupportingServices(candidates, path.getSupportKey());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // 割り込み状態の復元
+            return;
+        }
+        if (supporting.isEmpty() || mStopping || Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        try {
+            mControlExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    addFanIn(path, supporting);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 停止処理中.
+        }
+    }
+
+    /**
+     * APIをサポートするサービスに、そのAPIの現在の購読者を購読させる.
+     *
+     * 問い合わせ中に購読が取り消されている場合があるので、購読者はこの時点の購読から集め直す.
+     * 制御スレッドで実行すること.
+     *
+     * @param path APIパス
+     * @param supporting APIをサポートするサービスIDの一覧
+     */
+    private void addFanIn(final DConnectPath path, final List<String> supporting) {
+        if (mStopping) {
+            return;
+        }
+        Set<String> subscribed = new HashSet<>();
+        Set<SubscriptionRegistry.Subscriber> subscribers = new LinkedHashSet<>();
+        for (SubscriptionRegistry.Subscription subscription : mSubscriptions.findByPath(path)) {
+            subscribed.add(subscription.getServiceId());
+            subscribers.addAll(subscription.getSubscribers());
+        }
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        for (String serviceId : supporting) {
+            if (subscribed.contains(serviceId)) {
+                continue;
+            }
+            log("Adding device to " + path + ": serviceId = " + serviceId);
+            for (SubscriptionRegistry.Subscriber subscriber : subscribers) {
+                mSubscriptions.subscribe(serviceId, path, subscriber);
+            }
+        }
+    }
+
+    /**
+     * 指定したサービスへの購読を取り消し、購読していたクライアントの準備をやり直す.
+     *
+     * 制御スレッドで実行すること.
+     *
+     * @param path APIパス
+     * @param serviceId 購読を取り消すサービスのID
+     */
+    private void restartSubscription(final DConnectPath path, final String serviceId) {
+        for (SubscriptionRegistry.Subscription subscription : mSubscriptions.findByPath(path)) {
+            if (!subscription.getServiceId().equals(serviceId)) {
+                continue;
+            }
+            for (SubscriptionRegistry.Subscriber subscriber : subscription.getSubscribers()) {
+                mSubscriptions.unsubscribe(serviceId, path, subscriber);
+                try {
+                    mSetups.join(path.getSupportKey(), (ClientSubscriber) subscriber, new SetupTask(path));
+                } catch (RejectedExecutionException e) {
+                    // 停止処理中.
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 指定したAPIのイベント購読を終了する.
+     *
+     * @param paths APIパスの一覧. 空の場合はクライアントのすべての購読を終了する
+     * @param subscriber 購読を終了するクライアント
+     */
+    private void cancelSubscription(final List<DConnectPath> paths, final ClientSubscriber subscriber) {
+        if (paths.isEmpty()) {
+            mSetups.leaveAll(subscriber);
+            mSubscriptions.unsubscribeAll(subscriber);
+            subscriber.stopBatching();
+            return;
+        }
+        for (DConnectPath path : paths) {
+            // 準備中であれば待機を取り消す. 待機者がいなくなった準備は中止する.
+            mSetups.leave(path.getSupportKey(), subscriber);
+            for (SubscriptionRegistry.Subscription subscription : mSubscriptions.findByPath(path)) {
+                mSubscriptions.unsubscribe(subscription.getServiceId(), path, subscriber);
+            }
+        }
+    }
+
+    private ClientSubscriber obtainClient(final Intent intent) {
+        String clientId = getClientId(intent);
+        ClientSubscriber client = mClients.get(clientId);
+        if (client == null) {
+            client = new ClientSubscriber(clientId);
+            ClientSubscriber previous = mClients.putIfAbsent(clientId, client);
+            if (previous != null) {
+                client = previous;
+            }
+        }
+        return client;
+    }
+
+    private static String getClientId(final Intent intent) {
+        String clientId = intent.getStringExtra(EXTRA_SUBSCRIBER);
+        return clientId != null ? clientId : DEFAULT_SUBSCRIBER;
+    }
+
+    /**
+     * インテントに指定されたAPIパスを解析する.
+     *
+     * {@link Constants#EXTRA_PATHS} と {@link Constants#EXTRA_PATH} の両方を参照する. 不正なパスは無視する.
+     *
+     * @param intent インテント
+     * @return APIパスの一覧
+     */
+    private List<DConnectPath> parsePaths(final Intent intent) {
+        List<String> expressions = new ArrayList<>();
+        String[] array = intent.getStringArrayExtra(EXTRA_PATHS);
+        if (array != null) {
+            Collections.addAll(expressions, array);
+        }
+        String single = intent.getStringExtra(EXTRA_PATH);
+        if (single != null) {
+            expressions.add(single);
+        }
+
+        List<DConnectPath> paths = new ArrayList<>();
+        for (String expression : expressions) {
+            DConnectPath path = expression != null ? mPathRegistry.intern(expression) : null;
+            if (path != null) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * 使用したいデバイスの情報をサービス一覧より取得する.
+     *
+     * サービス一覧は {@link #mServiceTable} で保持し、WebSocketで受信するサービスの変更通知で差分を反映する.
+     * Service Discoveryで一覧全体を取得するのは、一覧を持っていない場合、通知を取りこぼした可能性がある場合、
+     * および {@link #DISCOVERY_FALLBACK_INTERVAL} の間に通知が届かなかった場合 (Managerが通知に対応していない場合) のみ.
+     *
+     * サービス一覧に使用したいデバイスが含まれていない場合、サービス一覧に追加されるまでスレッドをブロックする.
+     * （ただし、ブロック中に割り込みが入った場合は、null を返す.）
+     *
+     * @param path リクエストパス
+     * @return デバイス情報
+     */
+    private Device acquireTargetService(final DConnectPath path) {
+        sendLocalBroadcast(new Intent(ACTION_NOTIFY_WAITING_SERVICE));
+
+        // 変更通知はWebSocketで届くので、先に接続して通知を登録する.
+        connectWebSocket();
+        requestServiceChange();
+
+        Backoff retry = new Backoff(DISCOVERY_RETRY_INITIAL_DELAY, DISCOVERY_RETRY_MAX_DELAY);
+        boolean fallback = false;
+        try {
+            while (!Thread.interrupted()) {
+                if (fallback || !mServiceTable.isSynced()) {
+                    Map<String, String> names = discoverServices();
+                    if (names == null) {
+                        Thread.sleep(retry.nextDelay());
+                        continue;
+                    }
+                    retry.reset();
+                    mServiceTable.replaceAll(names);
+                }
+                long version = mServiceTable.getVersion();
+                Map<String, String> names = mServiceTable.snapshot();
+                List<String> serviceIds = new ArrayList<>(names.keySet());
+
+                // サービス一覧から消えたサービスのキャッシュを破棄.
+                mCapabilityCache.retainAll(serviceIds);
+
+                String serviceId = mCapabilityProber.findSupportingService(serviceIds, path.getSupportKey());
+                if (serviceId != null) {
+                    String name = names.get(serviceId);
+                    Intent intent = new Intent(ACTION_NOTIFY_SERVICE_AVAILABLE);
+                    intent.putExtra(EXTRA_SERVICE_NAME, name);
+                    sendLocalBroadcast(intent);
+
+                    return new Device(serviceId, name);
+                }
+
+                // 変更通知を待つ. 届かなければ一覧全体を取得し直す.
+                fallback = !mServiceTable.awaitChange(version, DISCOVERY_FALLBACK_INTERVAL);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // 割り込み状態の復元
+        }
+        return null;
+    }
+
+    /**
+     * ServiceDiscoveryを実行し、サービスの一覧を取得する.
+     *
+     * @return サービス名の一覧. キーはサービスID. 取得に失敗した場合は <code>null</code>
+     */
+    private Map<String, String> discoverServices() {
+        DConnectResponseMessage response = mSDK.serviceDiscovery();
+        if (response.getResult() != DConnectMessage.RESULT_OK) {
+            return null;
+        }
+        Map<String, String> names = new LinkedHashMap<>();
+        List<Object> services = response.getList(ServiceDiscoveryProfileConstants.PARAM_SERVICES);
+        if (services != null) {
+            for (Object obj : services) {
+                if (obj instanceof DConnectMessage) {
+                    DConnectMessage service = (DConnectMessage) obj;
+                    String serviceId = service.getString(ServiceDiscoveryProfileConstants.PARAM_ID);
+                    String name = service.getString(ServiceDiscoveryProfileConstants.PARAM_NAME);
+                    if (serviceId != null && name != null) {
+                        names.put(serviceId, name);
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * 前回選択したサービスが、現在も指定したAPIをサポートしているか確認する.
+     *
+     * サービス一覧に含まれていること、サポートAPI一覧に指定したAPIが含まれていることを確認する.
+     * サポートAPI一覧は保存した内容ではなく、Device Web API Managerから取得し直したものを使用する.
+     *
+     * @param path APIパス
+     * @param device 前回選択したサービス
+     * @return 使用できる場合は <code>true</code>
+     */
+    private boolean verifyTarget(final DConnectPath path, final Device device) {
+        Map<String, String> names = discoverServices();
+        if (names == null) {
+            return false;
+        }
+        mServiceTable.replaceAll(names);
+        if (!names.containsKey(device.getId())) {
+            return false;
+        }
+        Set<String> supportedApis = getSupportedApis(device.getId());
+        if (supportedApis == null) {
+            return false;
+        }
+        mCapabilityCache.put(device.getId(), supportedApis);
+        if (!supportedApis.contains(path.getSupportKey())) {
+            return false;
+        }
+        saveWarmStart(path, new Device(device.getId(), names.get(device.getId())));
+        return true;
+    }
+
+    /**
+     * 前回選択したサービスをファイルから読み込み、サポートAPI一覧をキャッシュに登録する.
+     *
+     * 期限 ({@link #WARM_START_MAX_AGE}) を過ぎた内容は使用しない.
+     * サポートAPI一覧は元の問い合わせ時刻でキャッシュに登録するので、キャッシュの有効期間を過ぎたものは登録されない.
+     */
+    private void loadWarmStart() {
+        WarmStartSnapshot snapshot;
+        try {
+            snapshot = WarmStartSnapshot.read(new File(getFilesDir(), WARM_START_FILE));
+        } catch (IOException e) {
+            log("Failed to read warm start snapshot: " + e.getMessage());
+            return;
+        }
+        if (System.currentTimeMillis() - snapshot.getSavedAt() > WARM_START_MAX_AGE) {
+            return;
+        }
+        for (Map.Entry<String, Set<String>> entry : snapshot.getAllCapabilities().entrySet()) {
+            mCapabilityCache.put(entry.getKey(), entry.getValue(), snapshot.getProbedAt(entry.getKey()));
+        }
+        mWarmStart = snapshot;
+    }
+
+    /**
+     * 指定したAPIに対して選択したサービスと、そのサポートAPI一覧を保存する.
+     *
+     * @param path APIパス
+     * @param device 選択したサービス
+     */
+    private void saveWarmStart(final DConnectPath path, final Device device) {
+        WarmStartSnapshot snapshot = mWarmStart;
+        snapshot.putTarget(path.getSupportKey(), device.getId(), device.getName());
+        Set<String> supportedApis = mCapabilityCache.get(device.getId());
+        long probedAt = mCapabilityCache.getProbedAt(device.getId());
+        if (supportedApis != null && probedAt >= 0) {
+            snapshot.putCapabilities(device.getId(), supportedApis, probedAt);
+        }
+        writeWarmStart();
+    }
+
+    /**
+     * 前回選択したサービスを、変更がある場合にファイルに書き込む.
+     */
+    private void writeWarmStart() {
+        WarmStartSnapshot snapshot = mWarmStart;
+        if (!snapshot.isDirty()) {
+            return;
+        }
+        try {
+            snapshot.write(new File(getFilesDir(), WARM_START_FILE));
+        } catch (IOException e) {
+            log("Failed to write warm start snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Device Web API Managerが起動するまでスレッドをブロックする.
+     *
+     * 起動確認は指数バックオフの間隔で繰り返す.
+     * サービスの停止、またはスレッドへの割り込みによって待機を終了した場合は <code>false</code> を返す.
+     *
+     * @return Device Web API Managerが起動した場合は <code>true</code>
+     */
+    private boolean waitManagerStart() {
+        sendLocalBroadcast(new Intent(ACTION_NOTIFY_WAITING_MANAGER));
+
+        boolean isReady;
+        try {
+            isReady = mManagerProber.await(new ReadinessProber.Probe() {
+                @Override
+                public boolean isReady() {
+                    DConnectResponseMessage response = mSDK.availability();
+                    return response.getResult() == DConnectMessage.RESULT_OK;
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // 割り込み状態の復元
+            return false;
+        }
+        if (!isReady) {
+            return false;
+        }
+
+        ReadinessMetrics metrics = mManagerProber.getMetrics();
+        Intent intent = new Intent(ACTION_NOTIFY_MANAGER_AVAILABLE);
+        intent.putExtra(EXTRA_ATTEMPTS, metrics.getLastAttempts());
+        intent.putExtra(EXTRA_TIME_TO_READY, metrics.getLastTimeToReady());
+        sendLocalBroadcast(intent);
+        return true;
+    }
+
+    /**
+     * Device Web API Managerの起動確認の計測値を取得する.
+     *
+     * @return 計測値
+     */
+    public ReadinessMetrics getManagerReadinessMetrics() {
+        return mManagerProber.getMetrics();
+    }
+
+    /**
+     * 名前に該当する通信方法を取得する.
+     *
+     * @param name {@link Constants#TRANSPORT_HTTP} などの名前
+     * @return 通信方法. 該当するものがない場合は <code>null</code>
+     */
+    private static SdkTransport findTransport(final String name) {
+        for (SdkTransport transport : TRANSPORTS) {
+            if (transport.getName().equals(name)) {
+                return transport;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Device Web API Managerとの通信方法を変更する.
+     *
+     * 登録したイベントは SDK ごとに管理されるので、まだクライアントから購読を要求されておらず、
+     * WebSocket も接続していない場合のみ変更する.
+     *
+     * @param name {@link Constants#TRANSPORT_HTTP} などの通信方法の名前
+     */
+    private synchronized void selectTransport(final String name) {
+        SdkTransport transport = findTransport(name);
+        if (transport == null) {
+            log("Unknown transport: " + name);
+            return;
+        }
+        if (transport == mTransport) {
+            return;
+        }
+        if (!mClients.isEmpty() || mServiceChangeRequested || mSDK.isConnectedWebSocket()) {
+            log("Transport is not changed while connected: " + mTransport.getName());
+            return;
+        }
+        mSDK = transport.create(this);
+        mTransport = transport;
+        log("Transport changed: " + name);
+    }
+
+    /**
+     * Device Web API ManagerのWebSocketサーバに接続する.
+     *
+     * 接続済みの場合は何もしない. すべての購読で1つの接続を共有する.
+     */
+    private synchronized void connectWebSocket() {
+        if (mSDK.isConnectedWebSocket()) {
+            return;
+        }
+        mSDK.connectWebSocket(mWebSocketListener);
+    }
+
+    /**
+     * WebSocketの接続状態を受け取るリスナー.
+     *
+     * 切断された場合は、{@link #mReconnectBackoff} で待機してから再接続する.
+     */
+    private final DConnectSDK.OnWebSocketListener mWebSocketListener = new DConnectSDK.OnWebSocketListener() {
+        @Override
+        public void onOpen() {
+            log("OnWebSocketListener.onOpen");
+            onWebSocketOpened();
+        }
+
+        @Override
+        public void onClose() {
+            log("OnWebSocketListener.onClose");
+            onWebSocketLost();
+        }
+
+        @Override
+        public void onError(final Exception e) {
+            log("OnWebSocketListener.onError: " + e.getMessage());
+            onWebSocketLost();
+        }
+    };
+
+    /**
+     * WebSocketが接続されたことを処理する.
+     *
+     * 切断からの再接続であれば、購読中のすべてのイベントをまとめて登録し直す.
+     * Managerが再起動した場合はイベントの登録が失われているので、Service Discoveryをやり直さずに登録だけを行う.
+     */
+    private void onWebSocketOpened() {
+        synchronized (this) {
+            mReconnectBackoff.reset();
+        }
+        long outage = mOutageTracker.onReconnected(System.nanoTime());
+        if (outage < 0) {
+            return;
+        }
+        log("WebSocket is reconnected after " + TimeUnit.NANOSECONDS.toMillis(outage) + "ms");
+        try {
+            mControlExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    if (mServiceChangeRequested) {
+                        requestServiceChange();
+                    }
+                    int count = requestAllEvents();
+                    log("Resubscribed " + count + " event(s) in "
+                            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+                    writeMetrics(OUTAGE_METRICS_FILE, mOutageTracker.toJson());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 停止処理中.
+        }
+    }
+
+    /**
+     * WebSocketが切断されたことを処理する.
+     *
+     * 切断の開始を記録し、再接続を予約する. 終了処理中の場合は何もしない.
+     */
+    private void onWebSocketLost() {
+        if (mStopping) {
+            return;
+        }
+        if (mOutageTracker.onDisconnected(System.nanoTime())) {
+            log("WebSocket is lost.");
+        }
+        // 切断中のサービスの変更通知は届かないので、次の検索では一覧全体を取得し直す.
+        mServiceTable.invalidate();
+        scheduleReconnect();
+    }
+
+    /**
+     * WebSocketの再接続を予約する. 予約済みの場合は何もしない.
+     *
+     * 待機は {@link #mIntervalScheduler} で行い、接続は購読の変更と競合しないように制御スレッドで行う.
+     */
+    private synchronized void scheduleReconnect() {
+        if (mReconnectPending || mStopping) {
+            return;
+        }
+        long delay = mReconnectBackoff.nextDelay();
+        try {
+            mIntervalScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mControlExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                reconnectWebSocket();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        // 停止処理中.
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            mReconnectPending = true;
+            log("WebSocket reconnection is scheduled in " + delay + "ms (attempt "
+                    + mReconnectBackoff.getAttempts() + ")");
+        } catch (RejectedExecutionException e) {
+            // 停止処理中.
+        }
+    }
+
+    /**
+     * WebSocketに再接続する. 制御スレッドで実行すること.
+     *
+     * 購読がなくなっている場合は接続しない. 次に購読する際の準備で接続する.
+     * 接続に失敗した場合は {@link #mWebSocketListener} に通知されるので、そこで次の再接続を予約する.
+     */
+    private void reconnectWebSocket() {
+        synchronized (this) {
+            mReconnectPending = false;
+        }
+        if (mStopping || mSubscriptions.getSubscriptions().isEmpty()) {
+            return;
+        }
+        connectWebSocket();
+    }
+
+    /**
+     * 購読中のすべてのイベントを、現在の通知間隔でDevice Web API Managerに登録する.
+     *
+     * @return 登録要求を送信したイベントの数
+     */
+    private int requestAllEvents() {
+        int count = 0;
+        for (SubscriptionRegistry.Subscription subscription : mSubscriptions.getSubscriptions()) {
+            if (!subscription.getPath().isWildcard()) {
+                requestEvent(subscription.getServiceId(), subscription.getPath());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 指定したサービスのサポートAPI一覧をDevice Web API Managerから取得する.
+     *
+     * @param serviceId サービスID
+     * @return サポートAPI一覧. 取得に失敗した場合は <code>null</code>
+     */
+    private Set<String> getSupportedApis(final String serviceId) {
+        DConnectResponseMessage response = mSDK.getServiceInformation(serviceId);
+        if (response.getResult() != DConnectMessage.RESULT_OK) {
+            return null;
+        }
+        Set<String> result = new HashSet<>();
+        DConnectMessage supportApis = response.getMessage(ServiceInformationProfileConstants.PARAM_SUPPORT_APIS);
+        if (supportApis != null) {
+            for (String profileName : supportApis.keySet()) {
+                DConnectMessage profileDefinition = supportApis.getMessage(profileName);
+                if (profileDefinition == null) {
+                    continue;
+                }
+                DConnectMessage paths = profileDefinition.getMessage("paths");
+                if (paths != null) {
+                    for (String subPath : paths.keySet()) {
+                        result.add(CapabilityCache.toSupportKey(profileName, subPath));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Device Web API Managerに対してイベント登録要求を送信する.
+     *
+     * ワイルドカードを含むAPIパスは登録できないので何もしない.
+     *
+     * @param serviceId サービスID
+     * @param path APIパス
+     */
+    private void requestEvent(final String serviceId, final DConnectPath path) {
+        if (path.isWildcard()) {
+            return;
+        }
+        DConnectSDK.URIBuilder uriBuilder = createURIBuilder(serviceId, path);
+        uriBuilder.addParameter("interval", String.valueOf(mIntervalController.getInterval()));
+        mSDK.addEventListener(uriBuilder.build(), mEventListener);
+    }
 
     /**
-     * Device Web API Managerと通信するスレッド.
+     * Device Web API Managerに対してサービスの変更通知の登録要求を送信する.
+     *
+     * 登録済みでも送信する. Managerが再起動した場合は登録が失われているため.
      */
-    private ExecutorService mExecutors = Executors.newFixedThreadPool(4);
+    private void requestServiceChange() {
+        mServiceChangeRequested = true;
+        mSDK.addEventListener(createServiceChangeURIBuilder().build(), mServiceChangeListener);
+    }
+
+    private DConnectSDK.URIBuilder createServiceChangeURIBuilder() {
+        DConnectSDK.URIBuilder uriBuilder = mSDK.createURIBuilder();
+        uriBuilder.setProfile(ServiceDiscoveryProfileConstants.PROFILE_NAME);
+        uriBuilder.setAttribute(ServiceDiscoveryProfileConstants.ATTRIBUTE_ON_SERVICE_CHANGE);
+        return uriBuilder;
+    }
 
     /**
-     * Device Web API Managerからのイベントを受信するリスナー.
-     * イベントを受信した祭、{@link SampleActivity} へそのまま転送する.
+     * Device Web API Managerに対してイベント解除要求を送信する.
+     *
+     * @param serviceId サービスID
+     * @param path APIパス
      */
-    private final DConnectSDK.OnEventListener mEventListener = new DConnectSDK.OnEventListener() {
-        @Override
-        public void onMessage(final DConnectEventMessage event) {
-            log("OnEventListener.onMessage");
-            notifyEvent(event);
-        }
-
-        @Override
-        public void onResponse(final DConnectResponseMessage response) {
-            log("DConnectResponseMessage.onResponse");
+    private void cancelEvent(final String serviceId, final DConnectPath path) {
+        if (path.isWildcard()) {
+            return;
         }
-    };
-
-    private final Logger mLogger = Logger.getLogger("Sample");
+        mSDK.removeEventListener(createURIBuilder(serviceId, path).build());
+    }
 
-    @Override
-    public void onCreate() {
-        super.onCreate();
+    private DConnectSDK.URIBuilder createURIBuilder(final String serviceId, final DConnectPath path) {
+        DConnectSDK.URIBuilder uriBuilder = mSDK.createURIBuilder();
+        uriBuilder.setServiceId(serviceId);
+        uriBuilder.setApi(path.getApiName());
+        uriBuilder.setProfile(path.getProfileName());
+        uriBuilder.setInterface(path.getInterfaceName());
+        uriBuilder.setAttribute(path.getAttributeName());
+        return uriBuilder;
+    }
 
-        // SDKの初期化.
-        mSDK = DConnectSDKFactory.create(getApplicationContext(), DConnectSDKFactory.Type.HTTP);
-        mSDK.setOrigin(getPackageName());
+    /**
+     * Device Web API Managerから通知されたイベントをサンプルアプリ内でブロードキャストする.
+     *
+     * 実際には、{@link SampleActivity} に対して転送される.
+     *
+     * @param event イベント
+     * @param clientId 配送先のクライアントID
+     */
+    private void notifyEvent(final DConnectEventMessage event, final String clientId) {
+        Intent intent = new Intent(ACTION_NOTIFY_EVENT);
+        intent.putExtra(EXTRA_EVENT, event);
+        intent.putExtra(EXTRA_SUBSCRIBER, clientId);
+        intent.putExtra(EXTRA_SENT_AT, System.nanoTime());
+        sendLocalBroadcast(intent);
     }
 
-    @Override
-    public void onDestroy() {
-        mExecutors.shutdown();
-        mExecutors = null;
+    /**
+     * まとめたサンプルをサンプルアプリ内でブロードキャストする.
+     *
+     * @param batch サンプル
+     * @param clientId 配送先のクライアントID
+     */
+    private void notifySamples(final SampleBatcher.Batch batch, final String clientId) {
+        mPipelineMetrics.record(PipelineMetrics.STAGE_BATCH, batch.getFirstNanos());
+        Intent intent = new Intent(ACTION_NOTIFY_SAMPLES);
+        SampleBatchPayload.write(batch, new IntentExtras(intent));
+        intent.putExtra(EXTRA_SUBSCRIBER, clientId);
+        intent.putExtra(EXTRA_SENT_AT, System.nanoTime());
+        sendLocalBroadcast(intent);
+    }
 
-        super.onDestroy();
+    private void sendLocalBroadcast(final Intent intent) {
+        LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(intent);
     }
 
-    @Override
-    public int onStartCommand(final Intent intent, final int flags, final int startId) {
-        if (intent != null) {
-            if (ACTION_REQUEST_EVENT.equals(intent.getAction())) {
-                final String pathExp = intent.getStringExtra(EXTRA_PATH);
-                final DConnectPath path = DConnectPath.parse(pathExp);;
-                if (path != null) {
-                    mExecutors.execute(new Runnable() {
-                        @Override
-                        public void run() {
-                            // Device Web API Managerの起動を待機.
-                            waitManagerStart();
-                            log("Manager is available.");
+    private void log(final String message) {
+        mLogger.info(message);
+    }
 
-                            // 指定されたAPIをサポートするサービスが見つかるまで待機.
-                            Device targetDevice = acquireTargetService(path);
-                            if (targetDevice != null) {
-                                log("Target device is found: serviceId = " + targetDevice.getName());
+    /**
+     * 計測値をログとファイルに出力する.
+     *
+     * ファイルはアプリの内部ストレージに置くので、端末から <code>adb shell run-as</code> で取得できる.
+     * 書き込み途中のファイルを読まないように、一時ファイルに書き込んでから置き換える.
+     */
+    private void dumpMetrics() {
+        PipelineMetrics.Snapshot snapshot = mPipelineMetrics.snapshot();
+        log("Pipeline metrics: " + snapshot);
+        writeMetrics(METRICS_FILE, snapshot.toJson());
+        if (mOutageTracker.getOutageCount() > 0 || mOutageTracker.isDisconnected()) {
+            log("Outage metrics: " + mOutageTracker.toJson());
+            writeMetrics(OUTAGE_METRICS_FILE, mOutageTracker.toJson());
+        }
+        long input = 0;
+        long passed = 0;
+        StringBuilder subscribers = new StringBuilder();
+        for (ClientSubscriber subscriber : mClients.values()) {
+            long[] counts = new long[2];
+            String json = subscriber.filtersToJson(counts);
+            if (json == null) {
+                continue;
+            }
+            input += counts[0];
+            passed += counts[1];
+            if (subscribers.length() > 0) {
+                subscribers.append(',');
+            }
+            subscribers.append('"').append(subscriber.mClientId).append("\":").append(json);
+        }
+        StringBuilder filter = new StringBuilder();
+        filter.append("{\"input\":").append(input)
+                .append(",\"passed\":").append(passed)
+                .append(",\"suppressionRatio\":").append(input > 0 ? (double) (input - passed) / input : 0)
+                .append(",\"subscribers\":{").append(subscribers).append("}}");
+        log("Filter metrics: " + filter);
+        writeMetrics(FILTER_METRICS_FILE, filter.toString());
+    }
 
-                                // WebSocket接続.
-                                connectWebSocket();
+    /**
+     * 起動時の計測値をログとファイルに出力する.
+     */
+    private void dumpStartupMetrics() {
+        log("Startup metrics: " + mStartupMetrics);
+        writeMetrics(STARTUP_METRICS_FILE, mStartupMetrics.toJson());
+    }
 
-                                // イベント開始要求.
-                                requestEvent(targetDevice, path);
-                            }
-                        }
-                    });
+    private void writeMetrics(final String fileName, final String json) {
+        File file = new File(getFilesDir(), fileName);
+        File temp = new File(getFilesDir(), fileName + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+            writer.write(json);
+            writer.close();
+            writer = null;
+            if (!temp.renameTo(file)) {
+                log("Failed to replace " + file);
+            }
+        } catch (IOException e) {
+            log("Failed to write metrics: " + e.getMessage());
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // ignore.
                 }
             }
         }
-        return START_STICKY;
     }
 
     /**
-     * ServiceDiscoveryを実行し、使用したいデバイスの情報をサービス一覧より取得する.
+     * イベントの受信から画面表示までの計測値を取得する.
      *
-     * サービス一覧に使用したいデバイスが含まれていない場合、サービス一覧に追加されるまでスレッドをブロックする.
-     * （ただし、ブロック中に割り込みが入った場合は、null を返す.）
+     * クライアントは画面側の段階の計測値をこのオブジェクトに記録する.
      *
-     * @param path リクエストパス
-     * @return デバイス情報
+     * @return 計測値
      */
-    private Device acquireTargetService(final DConnectPath path) {
-        sendLocalBroadcast(new Intent(ACTION_NOTIFY_WAITING_SERVICE));
+    public PipelineMetrics getPipelineMetrics() {
+        return mPipelineMetrics;
+    }
+
+    /**
+     * パイプラインに流れるサンプルの記録を開始する. 記録中の場合は、その記録を終了してから開始する.
+     *
+     * @param name ファイル名. アプリの内部ストレージの {@link #RECORDINGS_DIR} に作成する
+     * @return 記録先のファイル
+     * @throws IOException ファイルを作成できなかった場合
+     */
+    public synchronized File startRecording(final String name) throws IOException {
+        stopRecording();
+        File file = getRecordingFile(name);
+        mRecorder = SampleRecorder.create(file);
+        return file;
+    }
 
+    /**
+     * サンプルの記録を終了する.
+     */
+    public synchronized void stopRecording() {
+        SampleRecorder recorder = mRecorder;
+        mRecorder = null;
+        if (recorder == null) {
+            return;
+        }
         try {
-            while (!Thread.interrupted()) {
-                DConnectResponseMessage response = mSDK.serviceDiscovery();
-                if (response.getResult() != DConnectMessage.RESULT_OK) {
-                    continue;
-                }
-                List<Object> services = response.getList(ServiceDiscoveryProfileConstants.PARAM_SERVICES);
-                if (services != null) {
-                    for (Object obj : services) {
-                        if (obj instanceof DConnectMessage) {
-                            DConnectMessage service = (DConnectMessage) obj;
-                            String serviceId = service.getString(ServiceDiscoveryProfileConstants.PARAM_ID);
-                            String name = service.getString(ServiceDiscoveryProfileConstants.PARAM_NAME);
-                            if (serviceId != null && name != null) {
-                                if (isSupported(serviceId, path)) {
-                                    Intent intent = new Intent(ACTION_NOTIFY_SERVICE_AVAILABLE);
-                                    intent.putExtra(EXTRA_SERVICE_NAME, name);
-                                    sendLocalBroadcast(intent);
-
-                                    return new Device(serviceId, name);
-                                }
-                            }
-                        }
+            recorder.close();
+            log("Recording stopped: " + recorder.getSampleCount() + " samples, "
+                    + recorder.getBytesWritten() + " bytes");
+        } catch (IOException e) {
+            log("Failed to close recording: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 記録したサンプルをパイプラインに再生する. 再生中の場合は、その再生を終了してから開始する.
+     *
+     * 再生したサンプルは受信したイベントと同じ経路で集計され、各クライアントのフィルタを通して配送される.
+     * 記録済みのサンプルなので {@link SampleStore} への保存と記録は行わない.
+     *
+     * @param name ファイル名
+     * @param speed 再生速度の倍率. {@link SampleReplayer#AS_FAST_AS_POSSIBLE} の場合は待たずに再生する
+     * @throws IOException ファイルを読み込めなかった場合
+     */
+    public synchronized void startReplay(final String name, final double speed) throws IOException {
+        stopReplay();
+        final SampleRecording recording = SampleRecording.open(getRecordingFile(name));
+        final SampleReplayer replayer = new SampleReplayer(recording);
+        if (mReplayExecutor == null) {
+            mReplayExecutor = Executors.newSingleThreadExecutor();
+        }
+        mReplayer = replayer;
+        mReplayFuture = mReplayExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                log("Replay started: " + recording.getSampleCount() + " samples, speed = " + speed);
+                try {
+                    long count = replayer.replay(speed, mReplaySink);
+                    log("Replay finished: " + count + " samples");
+                } catch (IOException e) {
+                    log("Failed to replay: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt(); // 割り込み状態の復元
+                } finally {
+                    try {
+                        recording.close();
+                    } catch (IOException e) {
+                        // ignore.
                     }
                 }
-
-                Thread.sleep(500);
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt(); // 割り込み状態の復元
+        });
+    }
+
+    /**
+     * 再生を終了する.
+     */
+    public synchronized void stopReplay() {
+        if (mReplayer != null) {
+            mReplayer.cancel();
+            mReplayFuture.cancel(true);
+            mReplayer = null;
+            mReplayFuture = null;
         }
-        return null;
+    }
+
+    private File getRecordingFile(final String name) throws IOException {
+        if (name == null || name.isEmpty()) {
+            throw new IOException("No file name");
+        }
+        File dir = new File(getFilesDir(), RECORDINGS_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        // ディレクトリの外を指定できないように、パスの最後の要素だけを使用する.
+        return new File(dir, new File(name).getName());
     }
 
     /**
-     * Device Web API Managerが起動するまでスレッドをブロックする.
+     * WebSocketの切断から復旧までの計測値を取得する.
+     *
+     * @return 計測値
      */
-    private void waitManagerStart() {
-        sendLocalBroadcast(new Intent(ACTION_NOTIFY_WAITING_MANAGER));
+    public OutageTracker getOutageTracker() {
+        return mOutageTracker;
+    }
 
-        while (true) {
-            DConnectResponseMessage response = mSDK.availability();
-            if (response.getResult() == DConnectMessage.RESULT_OK) {
-                break;
-            }
+    /**
+     * {@link SampleChannel} のサンプルに付いたサービスの番号をサービスIDに変換する.
+     *
+     * @param source サービスの番号
+     * @return サービスID. 該当するサービスがない場合は <code>null</code>
+     */
+    public String getSourceName(final int source) {
+        synchronized (mPipelineSink) {
+            return source >= 0 && source < mSources.size() ? mSources.get(source) : null;
         }
+    }
 
-        sendLocalBroadcast(new Intent(ACTION_NOTIFY_MANAGER_AVAILABLE));
+    /**
+     * 起動から最初のイベントを受信するまでの計測値を取得する.
+     *
+     * @return 計測値
+     */
+    public StartupMetrics getStartupMetrics() {
+        return mStartupMetrics;
     }
 
     /**
-     * Device Web API ManagerのWebSocketサーバに接続する.
+     * イベントの通知間隔を調整するオブジェクトを取得する.
+     *
+     * 現在の通知間隔や、これまでの調整の回数を参照するために使用する.
+     *
+     * @return 通知間隔を調整するオブジェクト
      */
-    private void connectWebSocket() {
-        mSDK.connectWebSocket(new DConnectSDK.OnWebSocketListener() {
-            @Override
-            public void onOpen() {
-                log("OnWebSocketListener.onOpen");
-            }
+    public AdaptiveIntervalController getIntervalController() {
+        return mIntervalController;
+    }
 
-            @Override
-            public void onClose() {
-                log("OnWebSocketListener.onClose");
-            }
+    /**
+     * 受信したサンプルを保存しているストアを取得する.
+     *
+     * @return ストア
+     */
+    public SampleStore getSampleStore() {
+        return mSampleStore;
+    }
 
-            @Override
-            public void onError(final Exception e) {
-                log("OnWebSocketListener.onError: " + e.getMessage());
-            }
-        });
+    /**
+     * 解析済みのサンプルを受け渡すチャネルを取得する.
+     *
+     * @return チャネル
+     */
+    public SampleChannel getSampleChannel() {
+        return mSampleChannel;
     }
 
-    private boolean isSupported(final String serviceId, final DConnectPath path) {
-        DConnectResponseMessage response = mSDK.getServiceInformation(serviceId);
-        if (response.getResult() == DConnectMessage.RESULT_OK) {
-            DConnectMessage supportApis = response.getMessage(ServiceInformationProfileConstants.PARAM_SUPPORT_APIS);
-            if (supportApis != null) {
-                DConnectMessage profileDefinition = supportApis.getMessage(path.getProfileName());
-                if (profileDefinition != null) {
-                    DConnectMessage paths = profileDefinition.getMessage("paths");
-                    DConnectMessage apiDefinition = paths.getMessage(path.getSubPath());
-                    return apiDefinition != null;
-                }
-            }
-        }
-        return false;
+    /**
+     * 受信したサンプルの集計処理を登録する.
+     *
+     * 集計処理はイベントを受信したスレッドで実行され、集計結果もそのスレッドから通知される.
+     * 生のサンプルの代わりに集計結果を受け取ることで、クライアントが処理するデータ量を減らせる.
+     *
+     * @param aggregator 集計処理
+     */
+    public void addAggregator(final WindowAggregator aggregator) {
+        mAggregators.add(aggregator);
     }
 
     /**
-     * Device Web API Managerに対してイベント登録要求を送信する.
+     * 登録した集計処理を解除する.
      *
-     * @param device デバイス情報
-     * @param path APIパス
+     * @param aggregator 集計処理
      */
-    private void requestEvent(final Device device, final DConnectPath path) {
-        DConnectSDK.URIBuilder uriBuilder = mSDK.createURIBuilder();
-        uriBuilder.setServiceId(device.getId());
-        uriBuilder.setApi(path.getApiName());
-        uriBuilder.setProfile(path.getProfileName());
-        uriBuilder.setInterface(path.getInterfaceName());
-        uriBuilder.setAttribute(path.getAttributeName());
-        uriBuilder.addParameter("interval", "500");
-        mSDK.addEventListener(uriBuilder.build(), mEventListener);
+    public void removeAggregator(final WindowAggregator aggregator) {
+        mAggregators.remove(aggregator);
     }
 
     /**
-     * Device Web API Managerから通知されたイベントをサンプルアプリ内でブロードキャストする.
+     * 集計結果の受け渡しに使用するキューを登録する.
      *
-     * 実際には、{@link SampleActivity} に対して転送される.
+     * キューに読み出し待ちの集計結果が溜まっている間は、クライアントの処理が追いついていないとみなして通知間隔を長くする.
      *
-     * @param event イベント
+     * @param handOff キュー
      */
-    private void notifyEvent(final DConnectEventMessage event) {
-        Intent intent = new Intent(ACTION_NOTIFY_EVENT);
-        intent.putExtra(EXTRA_EVENT, event);
-        sendLocalBroadcast(intent);
+    public void addHandOff(final AggregateHandOff handOff) {
+        mHandOffs.add(handOff);
     }
 
-    private void sendLocalBroadcast(final Intent intent) {
-        LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(intent);
+    /**
+     * 登録したキューを解除する.
+     *
+     * @param handOff キュー
+     */
+    public void removeHandOff(final AggregateHandOff handOff) {
+        mHandOffs.remove(handOff);
     }
 
-    private void log(final String message) {
-        mLogger.info(message);
+    /**
+     * 消費側の未処理サンプル数を取得する.
+     *
+     * {@link #mSampleChannel} のカーソルと、登録されたキューの読み出し待ちのうち最も多いものを返す.
+     *
+     * @return 未処理サンプル数
+     */
+    private long getConsumerBacklog() {
+        long backlog = mSampleChannel.getMaxPendingCount();
+        for (AggregateHandOff handOff : mHandOffs) {
+            backlog = Math.max(backlog, handOff.getPendingSampleCount());
+        }
+        return backlog;
     }
 
     @Nullable
     @Override
     public IBinder onBind(final Intent intent) {
-        return null;
+        return mBinder;
     }
 
-    private static class Device {
-        private final String mServiceId;
-        private final String mName;
+    /**
+     * 同一プロセス内のクライアントに {@link SampleService} を渡す {@link Binder}.
+     */
+    public class LocalBinder extends Binder {
+        public SampleService getService() {
+            return SampleService.this;
+        }
+    }
 
-        Device(final String serviceId, final String name) {
-            mServiceId = serviceId;
-            mName = name;
+    /**
+     * イベントを要求したクライアント.
+     *
+     * 互換モードのクライアントには、受信したイベントをそのままブロードキャストする.
+     * バッチモードのクライアントには、解析したサンプルをまとめてブロードキャストする.
+     * フィルタを指定したクライアントには、サービスごとのフィルタを通過したものだけを配送する.
+     */
+    private class ClientSubscriber implements SubscriptionRegistry.Subscriber, SampleBatcher.Listener {
+        private final String mClientId;
+        private volatile boolean mBroadcastEnabled;
+        private volatile SampleBatcher mBatcher;
+
+        /**
+         * フィルタの構成. フィルタを使用しない場合は <code>null</code>. {@link #mFilterChains} のロックで排他する.
+         */
+        private SampleFilterChain.Builder mFilterBuilder;
+
+        /**
+         * サービスごとのフィルタ. キーはサービスID. {@link #mFilterChains} のロックで排他する.
+         */
+        private final Map<String, SampleFilterChain> mFilterChains = new HashMap<>();
+
+        /**
+         * フィルタを通過したサンプルを、まとめて配送する場合はまとめる処理に渡すオブジェクト.
+         * イベント受信スレッドで解析済みのサンプルを、受信時のタイムスタンプのまままとめる.
+         */
+        private final SampleChannel.SampleSink mFilteredSink = new SampleChannel.SampleSink() {
+            @Override
+            public void onSample(final long timestamp, final float x, final float y, final float z) {
+                SampleBatcher batcher = mBatcher;
+                if (batcher != null) {
+                    batcher.onSample(timestamp, x, y, z);
+                }
+            }
+        };
+
+        ClientSubscriber(final String clientId) {
+            mClientId = clientId;
         }
 
-        public String getId() {
-            return mServiceId;
+        /**
+         * 配送する前のフィルタを設定する.
+         *
+         * フィルタはサービスごとに状態を持つので、設定後は状態を初期化した新しいフィルタを使用する.
+         *
+         * @param builder フィルタの構成. 演算子がない場合はフィルタを使用せず、すべてのイベントを配送する
+         */
+        void setFilters(final SampleFilterChain.Builder builder) {
+            synchronized (mFilterChains) {
+                mFilterBuilder = builder.size() > 0 ? builder : null;
+                mFilterChains.clear();
+            }
         }
 
-        public String getName() {
-            return mName;
+        /**
+         * 購読を終了したサービスのフィルタを破棄する.
+         *
+         * @param serviceId サービスID
+         */
+        void removeFilterChain(final String serviceId) {
+            synchronized (mFilterChains) {
+                mFilterChains.remove(serviceId);
+            }
         }
-    }
 
-    private static class DConnectPath {
-        private final String mApiName;
-        private final String mProfileName;
-        private final String mInterfaceName;
-        private final String mAttributeName;
+        /**
+         * サンプルをサービスのフィルタに通す.
+         *
+         * 通過したサンプルは {@link #mFilteredSink} に渡す. フィルタを使用しない場合は、そのまま渡す.
+         *
+         * @param serviceId サービスID
+         * @param sample 解析したサンプル
+         * @return 配送する場合は <code>true</code>. フィルタを使用しない場合は常に <code>true</code>
+         */
+        private boolean applyFilters(final String serviceId, final DecodedSample sample) {
+            synchronized (mFilterChains) {
+                if (mFilterBuilder == null) {
+                    mFilteredSink.onSample(sample.mTimestamp, sample.mX, sample.mY, sample.mZ);
+                    return true;
+                }
+                SampleFilterChain chain = mFilterChains.get(serviceId);
+                if (chain == null) {
+                    chain = mFilterBuilder.build(mFilteredSink);
+                    mFilterChains.put(serviceId, chain);
+                }
+                chain.onSample(sample.mTimestamp, sample.mX, sample.mY, sample.mZ);
+                return chain.isLastPassed();
+            }
+        }
 
-        DConnectPath(final String apiName, final String profileName,
-                     final String interfaceName, final String attributeName) {
-            mApiName = apiName;
-            mProfileName = profileName;
-            mInterfaceName = interfaceName;
-            mAttributeName = attributeName;
+        /**
+         * フィルタの計測値をJSON形式で取得する.
+         *
+         * @param counts 全サービスの入力数と通過数の合計を格納する配列. 要素数は2
+         * @return JSON形式の文字列. フィルタを使用していない場合は <code>null</code>
+         */
+        String filtersToJson(final long[] counts) {
+            synchronized (mFilterChains) {
+                if (mFilterBuilder == null) {
+                    return null;
+                }
+                StringBuilder json = new StringBuilder("{");
+                for (Map.Entry<String, SampleFilterChain> entry : mFilterChains.entrySet()) {
+                    SampleFilterChain chain = entry.getValue();
+                    counts[0] += chain.getInputCount();
+                    counts[1] += chain.getPassedCount();
+                    if (json.length() > 1) {
+                        json.append(',');
+                    }
+                    json.append('"').append(entry.getKey()).append("\":").append(chain.toJson());
+                }
+                return json.append('}').toString();
+            }
         }
 
-        public String getApiName() {
-            return mApiName;
+        void setBroadcastEnabled(final boolean enabled) {
+            mBroadcastEnabled = enabled;
         }
 
-        public String getProfileName() {
-            return mProfileName;
+        /**
+         * サンプルをまとめてブロードキャストする. 既に開始している場合は、指定が異なる場合だけ作り直す.
+         *
+         * @param maxSize 1回のブロードキャストに含めるサンプル数の上限
+         * @param maxLatency 最大待ち時間. 単位はミリ秒
+         */
+        synchronized void startBatching(final int maxSize, final long maxLatency) {
+            int size = Math.max(1, maxSize);
+            long latency = Math.max(0, maxLatency);
+            SampleBatcher batcher = mBatcher;
+            if (batcher != null && batcher.getMaxSize() == size && batcher.getMaxLatency() == latency) {
+                return;
+            }
+            mBatcher = new SampleBatcher(size, latency, mIntervalScheduler, this);
+            if (batcher != null) {
+                batcher.close();
+            }
         }
 
-        public String getInterfaceName() {
-            return mInterfaceName;
+        /**
+         * まとめている途中のサンプルを送信し、まとめるのを終了する.
+         */
+        synchronized void stopBatching() {
+            SampleBatcher batcher = mBatcher;
+            mBatcher = null;
+            if (batcher != null) {
+                batcher.close();
+            }
         }
 
-        public String getAttributeName() {
-            return mAttributeName;
+        void flush() {
+            SampleBatcher batcher = mBatcher;
+            if (batcher != null) {
+                batcher.flush();
+            }
         }
 
-        public String getSubPath() {
-            if (mInterfaceName != null) {
-                return "/" + mInterfaceName + "/" + mAttributeName;
-            } else {
-                return "/" + mAttributeName;
-            }
-        }
-
-        static DConnectPath parse(final String path) {
-            if (!path.startsWith("/")) {
-                return null;
-            }
-            final String[] array = path.split("/");
-            if (array.length < 3 || array.length > 5) {
-                return null;
-            }
-            final String apiName = array[1];
-            final String profileName = array[2];
-            final String interfaceName;
-            final String attributeName;
-            switch (array.length) {
-                case 3:
-                    interfaceName = null;
-                    attributeName = null;
-                    break;
-                case 4:
-                    interfaceName = null;
-                    attributeName = array[3];
-                    break;
-                case 5:
-                    interfaceName = array[3];
-                    attributeName = array[4];
-                    break;
-                default:
-                    return null;
+        @Override
+        public void onEvent(final SubscriptionRegistry.Subscription subscription, final Map<String, Object> event) {
+            DecodedSample sample = mDecodedSample.get();
+            if (sample.mValid) {
+                // フィルタを通過しなかったイベントは、ノイズ程度の変化しかないものとして配送しない.
+                // まとめて配送する場合は、通過したサンプルが既にまとめる処理に渡されている.
+                if (!applyFilters(subscription.getServiceId(), sample) || mBatcher != null) {
+                    return;
+                }
             }
-            return new DConnectPath(apiName, profileName, interfaceName, attributeName);
+            SampleBatcher batcher = mBatcher;
+            if ((batcher != null || mBroadcastEnabled) && event instanceof DConnectEventMessage) {
+                notifyEvent((DConnectEventMessage) event, mClientId);
+            }
+        }
+
+        @Override
+        public void onBatch(final SampleBatcher.Batch batch) {
+            notifySamples(batch, mClientId);
+        }
+    }
+
+    /**
+     * 解析したサンプルを記録して、パイプラインの入力に渡すオブジェクト.
+     *
+     * 渡し先は {@link #mSampleChannel}. サービスの番号を付けて書き込む.
+     * イベント受信スレッドごとに使い回す. 記録した値は同じイベントの配送が終わるまで有効.
+     */
+    private class DecodedSample implements SampleChannel.SampleSink {
+        private int mSource = SampleChannel.SOURCE_UNKNOWN;
+        private boolean mValid;
+        private long mTimestamp;
+        private float mX;
+        private float mY;
+        private float mZ;
+
+        @Override
+        public void onSample(final long timestamp, final float x, final float y, final float z) {
+            mValid = true;
+            mTimestamp = timestamp;
+            mX = x;
+            mY = y;
+            mZ = z;
+            mSampleChannel.publish(timestamp, x, y, z, mSource);
+        }
+    }
+
+    private static class Device {
+        private final String mServiceId;
+        private final String mName;
+
+        Device(final String serviceId, final String name) {
+            mServiceId = serviceId;
+            mName = name;
+        }
+
+        public String getId() {
+            return mServiceId;
+        }
+
+        public String getName() {
+            return mName;
         }
     }
 }
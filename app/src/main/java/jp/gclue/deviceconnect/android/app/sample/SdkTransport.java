@@ -0,0 +1,29 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import android.content.Context;
+
+import org.deviceconnect.message.DConnectSDK;
+
+
+/**
+ * Device Web API Managerとの通信方法.
+ *
+ * 通信方法ごとに {@link DConnectSDK} を作成する. {@link Constants#EXTRA_TRANSPORT} の値は {@link #getName()} と比較する.
+ */
+public interface SdkTransport {
+
+    /**
+     * 通信方法の名前を取得する.
+     *
+     * @return {@link Constants#TRANSPORT_HTTP} などの名前
+     */
+    String getName();
+
+    /**
+     * この通信方法の SDK を作成する.
+     *
+     * @param context コンテキスト
+     * @return SDK
+     */
+    DConnectSDK create(Context context);
+}
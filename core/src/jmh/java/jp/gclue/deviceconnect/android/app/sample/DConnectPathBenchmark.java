@@ -0,0 +1,54 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * {@link DConnectPath#parse(String)} と {@link PathRegistry#intern(String)} のベンチマーク.
+ *
+ * 比較用に、以前の <code>String.split("/")</code> による解析も計測する.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DConnectPathBenchmark {
+
+    @Param({
+            "/gotapi/deviceOrientation/onDeviceOrientation",
+            "/gotapi/mediaStreamRecording/preview/onDataAvailable"
+    })
+    public String mPath;
+
+    private final PathRegistry mRegistry = new PathRegistry();
+
+    @Benchmark
+    public DConnectPath parse() {
+        return DConnectPath.parse(mPath);
+    }
+
+    @Benchmark
+    public String parseAndGetSupportKey() {
+        return DConnectPath.parse(mPath).getSupportKey();
+    }
+
+    @Benchmark
+    public String internAndGetSupportKey() {
+        return mRegistry.intern(mPath).getSupportKey();
+    }
+
+    @Benchmark
+    public String splitAndGetSupportKey() {
+        String[] array = mPath.split("/");
+        String profile = array[2];
+        String subPath = array.length == 5 ? "/" + array[3] + "/" + array[4] : "/" + array[3];
+        return CapabilityCache.toSupportKey(profile, subPath);
+    }
+}
@@ -0,0 +1,79 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * 受信したイベントから購読を探す処理のベンチマーク.
+ *
+ * {@link EventRouter} と、比較用に以前の「キー文字列を作成して {@link HashMap} を引く」方式を計測する.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventRouterBenchmark {
+
+    private static final String SERVICE_ID = "Host.dummy.localhost.deviceconnect.org";
+
+    private static final String[] PATHS = {
+            "/gotapi/deviceOrientation/onDeviceOrientation",
+            "/gotapi/battery/onBatteryChange",
+            "/gotapi/battery/onChargingChange",
+            "/gotapi/proximity/onDeviceProximity",
+            "/gotapi/mediaStreamRecording/preview/onDataAvailable",
+            "/gotapi/light"
+    };
+
+    private static final EventRouter.Visitor<Object, Object> COUNTER = new EventRouter.Visitor<Object, Object>() {
+        @Override
+        public int visit(final Object target, final Object argument) {
+            return 1;
+        }
+    };
+
+    private final EventRouter<Object> mRouter = new EventRouter<>();
+    private final Map<String, Object> mMap = new HashMap<>();
+
+    // 定数の畳み込みを避けるためにフィールドから読み出す.
+    private String mServiceId = SERVICE_ID;
+    private String mProfile = "deviceOrientation";
+    private String mAttribute = "onDeviceOrientation";
+
+    @Setup
+    public void setUp() {
+        for (String p : PATHS) {
+            DConnectPath path = DConnectPath.parse(p);
+            Object target = new Object();
+            mRouter.add(SERVICE_ID, path, target);
+            mMap.put(SERVICE_ID.toLowerCase(Locale.ENGLISH) + ":" + path.getSupportKey(), target);
+        }
+    }
+
+    @Benchmark
+    public int router() {
+        return mRouter.route(mServiceId, mProfile, null, mAttribute, COUNTER, null);
+    }
+
+    @Benchmark
+    public int routerWithInterface() {
+        return mRouter.route(mServiceId, "mediaStreamRecording", "preview", "onDataAvailable", COUNTER, null);
+    }
+
+    @Benchmark
+    public Object stringKey() {
+        String subPath = "/" + mAttribute;
+        return mMap.get(mServiceId.toLowerCase(Locale.ENGLISH) + ":"
+                + CapabilityCache.toSupportKey(mProfile, subPath));
+    }
+}
@@ -0,0 +1,61 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * サンプルのログ1行を作成する処理のベンチマーク.
+ *
+ * {@link LogBuffer} と {@link TimestampFormatter} による現在の実装と、
+ * 比較用に {@link SimpleDateFormat} と {@link String#format(Locale, String, Object...)} による実装を計測する.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LogFormatBenchmark {
+
+    private LogBuffer mLogBuffer;
+    private TimestampFormatter mTimestampFormatter;
+    private SimpleDateFormat mDateFormat;
+    private long mTimestamp;
+
+    @Setup
+    public void setUp() {
+        mLogBuffer = new LogBuffer(100);
+        mTimestampFormatter = new TimestampFormatter();
+        mDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SS", Locale.JAPAN);
+        mTimestamp = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public LogBuffer.Line logBuffer() {
+        long timestamp = mTimestamp += 20;
+        LogBuffer.Line line = mLogBuffer.append();
+        mTimestampFormatter.format(timestamp, line);
+        line.append(": ")
+                .append("x = ").append(0.123456f, 2)
+                .append(", y = ").append(9.80665f, 2)
+                .append(", z = ").append(-0.456789f, 2);
+        return line;
+    }
+
+    @Benchmark
+    public String stringFormat() {
+        long timestamp = mTimestamp += 20;
+        return mDateFormat.format(new Date(timestamp)) + ": "
+                + "x = " + String.format(Locale.ENGLISH, "%.2f", 0.123456f) + ", "
+                + "y = " + String.format(Locale.ENGLISH, "%.2f", 9.80665f) + ", "
+                + "z = " + String.format(Locale.ENGLISH, "%.2f", -0.456789f);
+    }
+}
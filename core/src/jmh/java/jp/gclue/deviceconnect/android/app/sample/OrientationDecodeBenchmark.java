@@ -0,0 +1,81 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <code>onDeviceOrientation</code> イベントの解析のベンチマーク.
+ *
+ * JSON文字列からツリーを作成する処理と、ツリーからサンプルを取り出す処理を分けて計測する.
+ * 比較のため、{@link StreamingEventDecoder} でツリーを作らずにサンプルを取り出す処理も計測する.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OrientationDecodeBenchmark {
+
+    /**
+     * Device Web API Managerから受信するイベントの例.
+     */
+    static final String EVENT_JSON = "{\"serviceId\":\"Host.dummy.localhost.deviceconnect.org\","
+            + "\"profile\":\"deviceOrientation\",\"attribute\":\"onDeviceOrientation\","
+            + "\"sessionKey\":\"jp.gclue.deviceconnect.android.app.sample\","
+            + "\"orientation\":{"
+            + "\"acceleration\":{\"x\":0.012,\"y\":-0.034,\"z\":0.056},"
+            + "\"accelerationIncludingGravity\":{\"x\":0.123456,\"y\":9.806650,\"z\":-0.456789},"
+            + "\"rotationRate\":{\"alpha\":0.1,\"beta\":0.2,\"gamma\":0.3},"
+            + "\"interval\":200}}";
+
+    private SampleChannel mChannel;
+    private Map<String, Object> mTree;
+    private long mTimestamp;
+    private StreamingEventDecoder mStreamingDecoder;
+    private StreamingEventDecoder.Result mResult;
+
+    @Setup
+    public void setUp() {
+        mChannel = new SampleChannel();
+        mTree = JsonParser.parseObject(EVENT_JSON);
+        mStreamingDecoder = new StreamingEventDecoder();
+        OrientationEventDecoder.register(mStreamingDecoder);
+        mResult = mStreamingDecoder.newResult();
+    }
+
+    @Benchmark
+    public Map<String, Object> parseJson() {
+        return JsonParser.parseObject(EVENT_JSON);
+    }
+
+    @Benchmark
+    public boolean decodeTree() {
+        return OrientationEventDecoder.decode(mTree, mTimestamp++, mChannel);
+    }
+
+    @Benchmark
+    public boolean parseJsonAndDecode() {
+        return OrientationEventDecoder.decode(JsonParser.parseObject(EVENT_JSON), mTimestamp++, mChannel);
+    }
+
+    @Benchmark
+    public boolean streamingExtract() {
+        return mStreamingDecoder.decode(EVENT_JSON, mResult);
+    }
+
+    @Benchmark
+    public boolean streamingDecode() {
+        if (!mStreamingDecoder.decode(EVENT_JSON, mResult)) {
+            return false;
+        }
+        OrientationEventDecoder.decode(mResult, mTimestamp++, mChannel);
+        return true;
+    }
+}
@@ -0,0 +1,92 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * {@link SampleService} から {@link SampleActivity} へのサンプルの受け渡しのベンチマーク.
+ *
+ * イベント受信スレッドとUIスレッドをそれぞれ1スレッドで模擬し、{@link SampleChannel} と、
+ * 比較用にサンプルごとにオブジェクトを生成する {@link ArrayBlockingQueue} を計測する.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SampleHandOffBenchmark {
+
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private SampleChannel mChannel;
+    private SampleChannel.Cursor mCursor;
+    private final BlackholeSink mSink = new BlackholeSink();
+    private ArrayBlockingQueue<float[]> mQueue;
+    private long mTimestamp;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        mChannel = new SampleChannel(QUEUE_CAPACITY);
+        mCursor = mChannel.newCursor();
+        mQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        mCursor.close();
+    }
+
+    @Benchmark
+    @Group("channel")
+    public void channelPublish() {
+        mChannel.publish(mTimestamp++, 0.1f, 9.8f, -0.4f);
+    }
+
+    @Benchmark
+    @Group("channel")
+    public int channelDrain(final Blackhole blackhole) {
+        mSink.mBlackhole = blackhole;
+        return mCursor.drain(mSink);
+    }
+
+    @Benchmark
+    @Group("queue")
+    public boolean queueOffer() {
+        return mQueue.offer(new float[] {mTimestamp++, 0.1f, 9.8f, -0.4f});
+    }
+
+    @Benchmark
+    @Group("queue")
+    public void queuePoll(final Blackhole blackhole) {
+        float[] sample;
+        while ((sample = mQueue.poll()) != null) {
+            blackhole.consume(sample);
+        }
+    }
+
+    /**
+     * 受け取ったサンプルを {@link Blackhole} に渡すオブジェクト.
+     */
+    private static class BlackholeSink implements SampleChannel.SampleSink {
+        private Blackhole mBlackhole;
+
+        @Override
+        public void onSample(final long timestamp, final float x, final float y, final float z) {
+            mBlackhole.consume(timestamp);
+            mBlackhole.consume(x);
+            mBlackhole.consume(y);
+            mBlackhole.consume(z);
+        }
+    }
+}
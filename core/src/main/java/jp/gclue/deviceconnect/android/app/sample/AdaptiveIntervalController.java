@@ -0,0 +1,369 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * イベントの通知間隔 (interval) を消費側の状況に合わせて調整するクラス.
+ *
+ * {@link #update(long, long, boolean)} を定期的に呼び出し、次の情報から通知間隔を決める.
+ * <ul>
+ *     <li>消費側の未処理サンプル数</li>
+ *     <li>1イベントあたりの処理時間</li>
+ *     <li>アプリがフォアグラウンドかどうか</li>
+ * </ul>
+ * 通知間隔は設定した最小値と最大値の範囲で倍・半分に変化させる.
+ * 同じ方向の判定が {@link Config#mStableCount} 回続き、前回の変更から {@link Config#mCooldown} 以上
+ * 経過した場合にのみ変更するので、判定がばらついても通知間隔は振動しない.
+ *
+ * このクラスはスレッドセーフではない. 計測値の取得のみ任意のスレッドから行ってよい.
+ */
+public class AdaptiveIntervalController {
+
+    /**
+     * 判定: 現在の通知間隔を維持する.
+     */
+    public static final int DECISION_KEEP = 0;
+
+    /**
+     * 判定: 通知間隔を短くする.
+     */
+    public static final int DECISION_FASTER = 1;
+
+    /**
+     * 判定: 通知間隔を長くする.
+     */
+    public static final int DECISION_SLOWER = 2;
+
+    /**
+     * 判定: バックグラウンドのため通知間隔を最大にする.
+     */
+    public static final int DECISION_BACKGROUND = 3;
+
+    /**
+     * 通知間隔が変更されたことを通知するリスナー.
+     */
+    public interface Listener {
+        /**
+         * 通知間隔が変更されたことを通知する.
+         *
+         * @param oldInterval 変更前の通知間隔. 単位はミリ秒
+         * @param newInterval 変更後の通知間隔. 単位はミリ秒
+         * @param decision 変更の理由. DECISION_ で始まる定数
+         */
+        void onIntervalChanged(long oldInterval, long newInterval, int decision);
+    }
+
+    /**
+     * 調整のパラメータ.
+     */
+    public static class Config {
+        /**
+         * 通知間隔の最小値. 単位はミリ秒.
+         */
+        long mMinInterval = 20;
+
+        /**
+         * 通知間隔の最大値. 単位はミリ秒.
+         */
+        long mMaxInterval = 1000;
+
+        /**
+         * 通知間隔の初期値. 単位はミリ秒.
+         */
+        long mInitialInterval = 500;
+
+        /**
+         * 未処理サンプル数がこの値を超えたら通知間隔を長くする.
+         */
+        long mHighBacklog = 64;
+
+        /**
+         * 未処理サンプル数がこの値以下なら通知間隔を短くしてよい.
+         */
+        long mLowBacklog = 4;
+
+        /**
+         * 処理時間が通知間隔のこの割合を超えたら通知間隔を長くする.
+         */
+        double mHighLoad = 0.5;
+
+        /**
+         * 処理時間が通知間隔のこの割合以下なら通知間隔を短くしてよい.
+         */
+        double mLowLoad = 0.1;
+
+        /**
+         * 変更に必要な同じ方向の判定の連続回数.
+         */
+        int mStableCount = 3;
+
+        /**
+         * 変更後、次に変更するまでの最短時間. 単位はミリ秒.
+         */
+        long mCooldown = 2000;
+
+        public Config setIntervalRange(final long minInterval, final long maxInterval) {
+            if (minInterval <= 0 || maxInterval < minInterval) {
+                throw new IllegalArgumentException("min = " + minInterval + ", max = " + maxInterval);
+            }
+            mMinInterval = minInterval;
+            mMaxInterval = maxInterval;
+            return this;
+        }
+
+        public Config setInitialInterval(final long interval) {
+            mInitialInterval = interval;
+            return this;
+        }
+
+        public Config setBacklogThresholds(final long low, final long high) {
+            if (low < 0 || high <= low) {
+                throw new IllegalArgumentException("low = " + low + ", high = " + high);
+            }
+            mLowBacklog = low;
+            mHighBacklog = high;
+            return this;
+        }
+
+        public Config setLoadThresholds(final double low, final double high) {
+            if (low < 0 || high <= low) {
+                throw new IllegalArgumentException("low = " + low + ", high = " + high);
+            }
+            mLowLoad = low;
+            mHighLoad = high;
+            return this;
+        }
+
+        public Config setHysteresis(final int stableCount, final long cooldown) {
+            if (stableCount <= 0 || cooldown < 0) {
+                throw new IllegalArgumentException("stableCount = " + stableCount + ", cooldown = " + cooldown);
+            }
+            mStableCount = stableCount;
+            mCooldown = cooldown;
+            return this;
+        }
+    }
+
+    /**
+     * 調整のパラメータ.
+     */
+    private final Config mConfig;
+
+    /**
+     * 変更を通知するリスナー.
+     */
+    private final Listener mListener;
+
+    /**
+     * 現在の通知間隔. 単位はミリ秒.
+     */
+    private final AtomicLong mInterval = new AtomicLong();
+
+    /**
+     * 直前の判定.
+     */
+    private int mPendingDecision = DECISION_KEEP;
+
+    /**
+     * 直前の判定が連続した回数.
+     */
+    private int mPendingCount;
+
+    /**
+     * 最後に通知間隔を変更した時刻. 単位はナノ秒.
+     */
+    private long mLastChangeTime;
+
+    /**
+     * 一度でも通知間隔を変更したかどうか.
+     */
+    private boolean mChanged;
+
+    /**
+     * 通知間隔を短くした回数.
+     */
+    private final AtomicLong mFasterCount = new AtomicLong();
+
+    /**
+     * 通知間隔を長くした回数.
+     */
+    private final AtomicLong mSlowerCount = new AtomicLong();
+
+    /**
+     * 判定を保留した回数 (ヒステリシスによる抑制を含む).
+     */
+    private final AtomicLong mHeldCount = new AtomicLong();
+
+    /**
+     * 最後に行った変更の理由.
+     */
+    private volatile int mLastDecision = DECISION_KEEP;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param config 調整のパラメータ
+     * @param listener 変更を通知するリスナー
+     */
+    public AdaptiveIntervalController(final Config config, final Listener listener) {
+        mConfig = config;
+        mListener = listener;
+        mInterval.set(clamp(config.mInitialInterval));
+    }
+
+    /**
+     * 現在の状況を入力し、必要であれば通知間隔を変更する.
+     *
+     * @param backlog 消費側の未処理サンプル数
+     * @param processingNanos 1イベントあたりの処理時間. 単位はナノ秒
+     * @param foreground アプリがフォアグラウンドの場合は <code>true</code>
+     * @return 変更後の通知間隔. 単位はミリ秒
+     */
+    public long update(final long backlog, final long processingNanos, final boolean foreground) {
+        return update(backlog, processingNanos, foreground, System.nanoTime());
+    }
+
+    long update(final long backlog, final long processingNanos, final boolean foreground, final long now) {
+        long interval = mInterval.get();
+
+        int decision;
+        if (!foreground) {
+            decision = DECISION_BACKGROUND;
+        } else {
+            double load = processingNanos / (interval * 1000000.0);
+            if (backlog > mConfig.mHighBacklog || load > mConfig.mHighLoad) {
+                decision = DECISION_SLOWER;
+            } else if (backlog <= mConfig.mLowBacklog && load <= mConfig.mLowLoad) {
+                decision = DECISION_FASTER;
+            } else {
+                decision = DECISION_KEEP;
+            }
+        }
+
+        if (decision == mPendingDecision) {
+            mPendingCount++;
+        } else {
+            mPendingDecision = decision;
+            mPendingCount = 1;
+        }
+
+        long next;
+        switch (decision) {
+            case DECISION_BACKGROUND:
+                // バックグラウンドへの移行は待たずに反映する.
+                next = mConfig.mMaxInterval;
+                break;
+            case DECISION_SLOWER:
+                next = clamp(interval * 2);
+                break;
+            case DECISION_FASTER:
+                next = clamp(interval / 2);
+                break;
+            default:
+                return interval;
+        }
+        if (next == interval) {
+            return interval;
+        }
+
+        boolean stable = mPendingCount >= mConfig.mStableCount;
+        boolean cooledDown = !mChanged || now - mLastChangeTime >= mConfig.mCooldown * 1000000L;
+        if (decision != DECISION_BACKGROUND && (!stable || !cooledDown)) {
+            mHeldCount.incrementAndGet();
+            return interval;
+        }
+
+        mInterval.set(next);
+        mLastChangeTime = now;
+        mChanged = true;
+        mPendingCount = 0;
+        mLastDecision = decision;
+        if (next < interval) {
+            mFasterCount.incrementAndGet();
+        } else {
+            mSlowerCount.incrementAndGet();
+        }
+        if (mListener != null) {
+            mListener.onIntervalChanged(interval, next, decision);
+        }
+        return next;
+    }
+
+    private long clamp(final long interval) {
+        return Math.max(mConfig.mMinInterval, Math.min(mConfig.mMaxInterval, interval));
+    }
+
+    /**
+     * 現在の通知間隔を取得する.
+     *
+     * @return 通知間隔. 単位はミリ秒
+     */
+    public long getInterval() {
+        return mInterval.get();
+    }
+
+    /**
+     * 通知間隔を短くした回数を取得する.
+     *
+     * @return 回数
+     */
+    public long getFasterCount() {
+        return mFasterCount.get();
+    }
+
+    /**
+     * 通知間隔を長くした回数を取得する.
+     *
+     * @return 回数
+     */
+    public long getSlowerCount() {
+        return mSlowerCount.get();
+    }
+
+    /**
+     * ヒステリシスによって変更を見送った回数を取得する.
+     *
+     * @return 回数
+     */
+    public long getHeldCount() {
+        return mHeldCount.get();
+    }
+
+    /**
+     * 最後に行った変更の理由を取得する.
+     *
+     * @return DECISION_ で始まる定数
+     */
+    public int getLastDecision() {
+        return mLastDecision;
+    }
+
+    /**
+     * 判定を表す文字列を取得する.
+     *
+     * @param decision DECISION_ で始まる定数
+     * @return 文字列
+     */
+    public static String decisionToString(final int decision) {
+        switch (decision) {
+            case DECISION_FASTER:
+                return "faster";
+            case DECISION_SLOWER:
+                return "slower";
+            case DECISION_BACKGROUND:
+                return "background";
+            default:
+                return "keep";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "interval=" + getInterval() + "ms"
+                + ", faster=" + getFasterCount()
+                + ", slower=" + getSlowerCount()
+                + ", held=" + getHeldCount()
+                + ", last=" + decisionToString(getLastDecision());
+    }
+}
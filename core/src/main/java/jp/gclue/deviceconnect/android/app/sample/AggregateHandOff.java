@@ -0,0 +1,160 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+
+/**
+ * 集計結果を別のスレッドに受け渡すためのキュー.
+ *
+ * 集計結果を受け取るスレッドで {@link #offer(WindowAggregator.Aggregate, long)} を呼び出し、
+ * 表示などを行うスレッドで {@link #drain(Consumer)} を呼び出す.
+ * 容量を超えた場合は古いものから破棄する. 要素は使い回すので、受け渡しでオブジェクトを生成しない.
+ *
+ * 読み出し待ちの集計結果に含まれるサンプル数は {@link #getPendingSampleCount()} で取得できる.
+ * 読み出し側の処理が追いつかない場合に、通知間隔を長くする判断に使用する.
+ *
+ * {@link #drain(Consumer)} は1つのスレッドから呼び出すこと. その他のメソッドは任意のスレッドから呼び出してよい.
+ */
+public class AggregateHandOff {
+
+    /**
+     * 読み出した集計結果を受け取るインターフェース.
+     */
+    public interface Consumer {
+        /**
+         * 集計結果を受け取る.
+         *
+         * 渡したオブジェクトは使い回すので、呼び出しから戻った後は参照しないこと.
+         *
+         * @param aggregate 集計結果
+         * @param receivedAt 集計結果を受け取った時刻. 単位はナノ秒
+         */
+        void onAggregate(WindowAggregator.Aggregate aggregate, long receivedAt);
+    }
+
+    private final WindowAggregator.Aggregate[] mAggregates;
+    private final long[] mReceivedAt;
+
+    /**
+     * 読み出し位置.
+     */
+    private long mRead;
+
+    /**
+     * 書き込み位置.
+     */
+    private long mWrite;
+
+    /**
+     * 読み出し待ちの集計結果に含まれるサンプル数の合計.
+     */
+    private long mPendingSamples;
+
+    /**
+     * 容量を超えて破棄した集計結果の数.
+     */
+    private long mDroppedCount;
+
+    /**
+     * {@link #drain(Consumer)} で使用する作業領域.
+     */
+    private final WindowAggregator.Aggregate mDrainAggregate = new WindowAggregator.Aggregate();
+
+    /**
+     * コンストラクタ.
+     *
+     * @param capacity 読み出し待ちにできる集計結果の最大数
+     */
+    public AggregateHandOff(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity = " + capacity);
+        }
+        mAggregates = new WindowAggregator.Aggregate[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mAggregates[i] = new WindowAggregator.Aggregate();
+        }
+        mReceivedAt = new long[capacity];
+    }
+
+    /**
+     * 集計結果の写しを追加する.
+     *
+     * @param aggregate 集計結果
+     * @param receivedAt 集計結果を受け取った時刻. 単位はナノ秒
+     * @return 容量を超えたため最も古いものを破棄した場合は <code>true</code>
+     */
+    public synchronized boolean offer(final WindowAggregator.Aggregate aggregate, final long receivedAt) {
+        int capacity = mAggregates.length;
+        boolean overwritten = false;
+        if (mWrite - mRead == capacity) {
+            mPendingSamples -= mAggregates[(int) (mRead++ % capacity)].getCount();
+            mDroppedCount++;
+            overwritten = true;
+        }
+        int index = (int) (mWrite++ % capacity);
+        mAggregates[index].copyFrom(aggregate);
+        mReceivedAt[index] = receivedAt;
+        mPendingSamples += aggregate.getCount();
+        return overwritten;
+    }
+
+    /**
+     * 読み出し待ちの集計結果を古い順にすべて読み出す.
+     *
+     * 集計結果を渡している間はロックを保持しないので、その間も {@link #offer(WindowAggregator.Aggregate, long)}
+     * を呼び出せる. 読み出し中に追加されたものも読み出す.
+     *
+     * @param consumer 集計結果の渡し先
+     * @return 読み出した数
+     */
+    public int drain(final Consumer consumer) {
+        int count = 0;
+        while (true) {
+            long receivedAt;
+            synchronized (this) {
+                if (mRead == mWrite) {
+                    return count;
+                }
+                int index = (int) (mRead++ % mAggregates.length);
+                mDrainAggregate.copyFrom(mAggregates[index]);
+                mPendingSamples -= mDrainAggregate.getCount();
+                receivedAt = mReceivedAt[index];
+            }
+            consumer.onAggregate(mDrainAggregate, receivedAt);
+            count++;
+        }
+    }
+
+    /**
+     * 読み出し待ちの集計結果を破棄する. 破棄した数は {@link #getDroppedCount()} に含めない.
+     */
+    public synchronized void clear() {
+        mRead = mWrite;
+        mPendingSamples = 0;
+    }
+
+    /**
+     * 読み出し待ちの集計結果の数を取得する.
+     *
+     * @return 読み出し待ちの集計結果の数
+     */
+    public synchronized int size() {
+        return (int) (mWrite - mRead);
+    }
+
+    /**
+     * 読み出し待ちの集計結果に含まれるサンプル数の合計を取得する.
+     *
+     * @return サンプル数
+     */
+    public synchronized long getPendingSampleCount() {
+        return mPendingSamples;
+    }
+
+    /**
+     * 容量を超えて破棄した集計結果の数を取得する.
+     *
+     * @return 破棄した数
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+}
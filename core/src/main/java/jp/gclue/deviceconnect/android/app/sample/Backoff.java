@@ -0,0 +1,140 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.Random;
+
+
+/**
+ * ジッター付きの指数バックオフで待機時間を算出するクラス.
+ *
+ * 待機時間は {@link #nextDelay()} を呼ぶたびに倍率分だけ伸び、上限値で頭打ちになる.
+ * 算出した待機時間には ±ジッター率 の範囲で乱数を加える.
+ *
+ * このクラスはスレッドセーフではない.
+ */
+public class Backoff {
+
+    /**
+     * 初回の待機時間. 単位はミリ秒.
+     */
+    private final long mInitialDelay;
+
+    /**
+     * 待機時間の上限. 単位はミリ秒.
+     */
+    private final long mMaxDelay;
+
+    /**
+     * 待機時間の増加倍率.
+     */
+    private final double mMultiplier;
+
+    /**
+     * ジッター率. 0以上1未満.
+     */
+    private final double mJitter;
+
+    /**
+     * ジッター用の乱数生成器.
+     */
+    private final Random mRandom;
+
+    /**
+     * 次回の待機時間 (ジッター適用前). 単位はミリ秒.
+     */
+    private double mCurrentDelay;
+
+    /**
+     * {@link #reset()} 以降に {@link #nextDelay()} を呼んだ回数.
+     */
+    private int mAttempts;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param initialDelay 初回の待機時間. 単位はミリ秒
+     * @param maxDelay 待機時間の上限. 単位はミリ秒
+     * @param multiplier 待機時間の増加倍率. 1以上
+     * @param jitter ジッター率. 0以上1未満
+     * @param random ジッター用の乱数生成器
+     */
+    public Backoff(final long initialDelay, final long maxDelay, final double multiplier,
+                   final double jitter, final Random random) {
+        if (initialDelay <= 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("invalid delay: initial = " + initialDelay + ", max = " + maxDelay);
+        }
+        if (multiplier < 1) {
+            throw new IllegalArgumentException("multiplier must be >= 1: " + multiplier);
+        }
+        if (jitter < 0 || jitter >= 1) {
+            throw new IllegalArgumentException("jitter must be in [0, 1): " + jitter);
+        }
+        mInitialDelay = initialDelay;
+        mMaxDelay = maxDelay;
+        mMultiplier = multiplier;
+        mJitter = jitter;
+        mRandom = random;
+        reset();
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * @param initialDelay 初回の待機時間. 単位はミリ秒
+     * @param maxDelay 待機時間の上限. 単位はミリ秒
+     */
+    public Backoff(final long initialDelay, final long maxDelay) {
+        this(initialDelay, maxDelay, 2.0, 0.2, new Random());
+    }
+
+    /**
+     * 同じ設定で、待機時間を初期値に戻した新しいオブジェクトを作成する.
+     *
+     * 乱数生成器は共有する. 複数のスレッドで待機する場合に、スレッドごとのオブジェクトを作成するために使用する.
+     *
+     * @return 新しいオブジェクト
+     */
+    public Backoff copy() {
+        return new Backoff(mInitialDelay, mMaxDelay, mMultiplier, mJitter, mRandom);
+    }
+
+    /**
+     * 次回の待機時間を取得する.
+     *
+     * @return 待機時間. 単位はミリ秒
+     */
+    public long nextDelay() {
+        double base = mCurrentDelay;
+        mCurrentDelay = Math.min(mCurrentDelay * mMultiplier, mMaxDelay);
+        mAttempts++;
+
+        double factor = 1.0 + mJitter * (2.0 * mRandom.nextDouble() - 1.0);
+        long delay = Math.round(base * factor);
+        return Math.max(1, Math.min(delay, mMaxDelay));
+    }
+
+    /**
+     * 待機時間を初期値に戻す.
+     */
+    public void reset() {
+        mCurrentDelay = mInitialDelay;
+        mAttempts = 0;
+    }
+
+    /**
+     * {@link #reset()} 以降に {@link #nextDelay()} を呼んだ回数を取得する.
+     *
+     * @return 回数
+     */
+    public int getAttempts() {
+        return mAttempts;
+    }
+
+    /**
+     * 待機時間の上限を取得する.
+     *
+     * @return 上限. 単位はミリ秒
+     */
+    public long getMaxDelay() {
+        return mMaxDelay;
+    }
+}
@@ -0,0 +1,192 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * サービスごとのサポートAPI一覧を保持するキャッシュ.
+ *
+ * キーはサービスID. 各エントリは有効期限 (TTL) を持ち、期限切れのエントリは存在しないものとして扱う.
+ * 有効期限は問い合わせた時刻から数える. ファイルから復元したエントリは {@link #put(String, Set, long)} で
+ * 元の問い合わせ時刻を指定するので、古い内容が新しいものとして扱われることはない.
+ * Service Discoveryの結果から消えたサービスは {@link #retainAll(Collection)} で破棄する.
+ */
+public class CapabilityCache {
+
+    /**
+     * エントリの有効期間のデフォルト値. 単位はミリ秒.
+     */
+    public static final long DEFAULT_TTL = 5 * 60 * 1000;
+
+    /**
+     * キャッシュ本体. キーはサービスID.
+     */
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+
+    /**
+     * エントリの有効期間. 単位はナノ秒.
+     */
+    private final long mTtlNanos;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param ttlMillis エントリの有効期間. 単位はミリ秒
+     */
+    public CapabilityCache(final long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttlMillis must be positive: " + ttlMillis);
+        }
+        mTtlNanos = ttlMillis * 1000L * 1000L;
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * 有効期間には {@link #DEFAULT_TTL} を使用する.
+     */
+    public CapabilityCache() {
+        this(DEFAULT_TTL);
+    }
+
+    /**
+     * サポートAPI一覧の要素として使用するキーを作成する.
+     *
+     * プロファイル名とサブパスを連結し、小文字に正規化したもの.
+     * 例: <code>deviceOrientation</code> と <code>/onDeviceOrientation</code> から
+     * <code>deviceorientation/ondeviceorientation</code> を作成する.
+     *
+     * @param profileName プロファイル名
+     * @param subPath プロファイル名以降のパス. 先頭は "/"
+     * @return キー
+     */
+    public static String toSupportKey(final String profileName, final String subPath) {
+        return (profileName + subPath).toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * 指定したサービスのサポートAPI一覧を取得する.
+     *
+     * @param serviceId サービスID
+     * @return サポートAPI一覧. キャッシュされていない、または期限切れの場合は <code>null</code>
+     */
+    public Set<String> get(final String serviceId) {
+        Entry entry = mEntries.get(serviceId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            mEntries.remove(serviceId);
+            return null;
+        }
+        return entry.mSupportedApis;
+    }
+
+    /**
+     * 指定したサービスのサポートAPI一覧をキャッシュする.
+     *
+     * @param serviceId サービスID
+     * @param supportedApis サポートAPI一覧. 各要素は {@link #toSupportKey(String, String)} の形式
+     */
+    public void put(final String serviceId, final Set<String> supportedApis) {
+        Set<String> copy = Collections.unmodifiableSet(new HashSet<>(supportedApis));
+        mEntries.put(serviceId, new Entry(copy, System.nanoTime() + mTtlNanos, System.currentTimeMillis()));
+    }
+
+    /**
+     * 指定した時刻に問い合わせたサポートAPI一覧をキャッシュする.
+     *
+     * 有効期限は問い合わせた時刻から数える. 既に期限を過ぎている場合はキャッシュしない.
+     *
+     * @param serviceId サービスID
+     * @param supportedApis サポートAPI一覧. 各要素は {@link #toSupportKey(String, String)} の形式
+     * @param probedAt 問い合わせた時刻. 単位はミリ秒 ({@link System#currentTimeMillis()} の値)
+     * @return キャッシュした場合は <code>true</code>. 期限を過ぎていた場合は <code>false</code>
+     */
+    public boolean put(final String serviceId, final Set<String> supportedApis, final long probedAt) {
+        long ageNanos = Math.max(0, System.currentTimeMillis() - probedAt) * 1000L * 1000L;
+        if (ageNanos >= mTtlNanos) {
+            return false;
+        }
+        Set<String> copy = Collections.unmodifiableSet(new HashSet<>(supportedApis));
+        mEntries.put(serviceId, new Entry(copy, System.nanoTime() + mTtlNanos - ageNanos, probedAt));
+        return true;
+    }
+
+    /**
+     * 指定したサービスのサポートAPI一覧を問い合わせた時刻を取得する.
+     *
+     * @param serviceId サービスID
+     * @return 時刻. 単位はミリ秒. キャッシュされていない、または期限切れの場合は -1
+     */
+    public long getProbedAt(final String serviceId) {
+        Entry entry = mEntries.get(serviceId);
+        if (entry == null || entry.isExpired(System.nanoTime())) {
+            return -1;
+        }
+        return entry.mProbedAt;
+    }
+
+    /**
+     * 指定したサービスのエントリを破棄する.
+     *
+     * @param serviceId サービスID
+     */
+    public void invalidate(final String serviceId) {
+        mEntries.remove(serviceId);
+    }
+
+    /**
+     * 指定されたサービス以外のエントリを破棄する.
+     *
+     * Service Discoveryの結果に含まれなくなったサービスのエントリを捨てるために使用する.
+     *
+     * @param serviceIds 現在存在するサービスのID一覧
+     */
+    public void retainAll(final Collection<String> serviceIds) {
+        for (Iterator<String> it = mEntries.keySet().iterator(); it.hasNext(); ) {
+            if (!serviceIds.contains(it.next())) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * すべてのエントリを破棄する.
+     */
+    public void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * キャッシュされているエントリ数を取得する. 期限切れのエントリも含む.
+     *
+     * @return エントリ数
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    private static class Entry {
+        private final Set<String> mSupportedApis;
+        private final long mExpiresAt;
+        private final long mProbedAt;
+
+        Entry(final Set<String> supportedApis, final long expiresAt, final long probedAt) {
+            mSupportedApis = supportedApis;
+            mExpiresAt = expiresAt;
+            mProbedAt = probedAt;
+        }
+
+        boolean isExpired(final long now) {
+            return now - mExpiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * 指定したAPIをサポートするサービスを探すクラス.
+ *
+ * サービスごとのサポートAPI一覧は {@link CapabilityCache} に保持し、
+ * キャッシュに存在しないサービスのみ {@link Source} に問い合わせる.
+ * 問い合わせは上限付きのスレッドプールで並列に実行する.
+ */
+public class CapabilityProber {
+
+    /**
+     * 並列に問い合わせるサービス数のデフォルト値.
+     */
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    /**
+     * サービスのサポートAPI一覧の取得元.
+     */
+    public interface Source {
+        /**
+         * 指定したサービスのサポートAPI一覧を取得する.
+         *
+         * この処理はスレッドをブロックしてよい.
+         *
+         * @param serviceId サービスID
+         * @return サポートAPI一覧. 各要素は {@link CapabilityCache#toSupportKey(String, String)} の形式.
+         *         取得に失敗した場合は <code>null</code>
+         */
+        Set<String> fetchSupportedApis(String serviceId);
+    }
+
+    /**
+     * サポートAPI一覧のキャッシュ.
+     */
+    private final CapabilityCache mCache;
+
+    /**
+     * サポートAPI一覧の取得元.
+     */
+    private final Source mSource;
+
+    /**
+     * 問い合わせを実行するスレッドプール.
+     */
+    private final ExecutorService mExecutor;
+
+    /**
+     * {@link Source} に問い合わせた回数.
+     */
+    private final AtomicInteger mProbeCount = new AtomicInteger();
+
+    /**
+     * コンストラクタ.
+     *
+     * @param cache サポートAPI一覧のキャッシュ
+     * @param source サポートAPI一覧の取得元
+     * @param parallelism 並列に問い合わせるサービス数の上限
+     */
+    public CapabilityProber(final CapabilityCache cache, final Source source, final int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        mCache = cache;
+        mSource = source;
+        mExecutor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(r, "CapabilityProber-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 指定したAPIをサポートするサービスを検索する.
+     *
+     * キャッシュ済みのサービスを先に調べ、見つからなければ残りのサービスに並列で問い合わせる.
+     * 最初にサポートが確認されたサービスのIDを返す.
+     * 返却時や割り込みで終了する時には、残りの問い合わせをキャンセルしてスレッドプールを空ける.
+     * 完了済みの問い合わせの結果はキャッシュに格納される.
+     *
+     * @param serviceIds 検索対象のサービスID一覧
+     * @param supportKey 検索するAPI. {@link CapabilityCache#toSupportKey(String, String)} の形式
+     * @return サービスID. 見つからなかった場合は <code>null</code>
+     * @throws InterruptedException 問い合わせ中に割り込みが入った場合
+     */
+    public String findSupportingService(final List<String> serviceIds, final String supportKey)
+            throws InterruptedException {
+        List<String> unknown = new ArrayList<>();
+        for (String serviceId : serviceIds) {
+            Set<String> apis = mCache.get(serviceId);
+            if (apis == null) {
+                unknown.add(serviceId);
+            } else if (apis.contains(supportKey)) {
+                return serviceId;
+            }
+        }
+        if (unknown.isEmpty()) {
+            return null;
+        }
+
+        CompletionService<String> completion = new ExecutorCompletionService<>(mExecutor);
+        List<Future<String>> futures = new ArrayList<>(unknown.size());
+        for (final String serviceId : unknown) {
+            futures.add(completion.submit(new ProbeTask(serviceId, supportKey)));
+        }
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    String serviceId = completion.take().get();
+                    if (serviceId != null) {
+                        return serviceId;
+                    }
+                } catch (ExecutionException e) {
+                    // 問い合わせに失敗したサービスはサポート外として扱う.
+                }
+            }
+            return null;
+        } finally {
+            cancelAll(futures);
+        }
+    }
+
+    /**
+     * 指定したAPIをサポートするすべてのサービスを検索する.
+     *
+     * キャッシュに存在しないサービスには並列で問い合わせ、すべての結果が揃うまで待つ.
+     * 割り込みで終了する場合は、残りの問い合わせをキャンセルする.
+     *
+     * @param serviceIds 検索対象のサービスID一覧
+     * @param supportKey 検索するAPI. {@link CapabilityCache#toSupportKey(String, String)} の形式
+     * @return サービスIDの一覧. <code>serviceIds</code> の順番を保つ. 見つからなかった場合は空
+     * @throws InterruptedException 問い合わせ中に割り込みが入った場合
+     */
+    public List<String> findSupportingServices(final List<String> serviceIds, final String supportKey)
+            throws InterruptedException {
+        List<Future<String>> futures = new ArrayList<>(serviceIds.size());
+        for (String serviceId : serviceIds) {
+            Set<String> apis = mCache.get(serviceId);
+            if (apis == null) {
+                futures.add(mExecutor.submit(new ProbeTask(serviceId, supportKey)));
+            } else {
+                futures.add(null);
+            }
+        }
+
+        List<String> found = new ArrayList<>();
+        try {
+            for (int i = 0; i < serviceIds.size(); i++) {
+                String serviceId = serviceIds.get(i);
+                Future<String> future = futures.get(i);
+                if (future == null) {
+                    Set<String> apis = mCache.get(serviceId);
+                    if (apis != null && apis.contains(supportKey)) {
+                        found.add(serviceId);
+                    }
+                    continue;
+                }
+                try {
+                    if (future.get() != null) {
+                        found.add(serviceId);
+                    }
+                } catch (ExecutionException e) {
+                    // 問い合わせに失敗したサービスはサポート外として扱う.
+                }
+            }
+        } finally {
+            cancelAll(futures);
+        }
+        return found;
+    }
+
+    /**
+     * 完了していない問い合わせをキャンセルし、実行中のものには割り込みを入れる.
+     *
+     * @param futures 問い合わせの一覧. キャッシュ済みのサービスの要素は <code>null</code>
+     */
+    private static void cancelAll(final List<Future<String>> futures) {
+        for (Future<String> future : futures) {
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * {@link Source} に問い合わせた回数を取得する.
+     *
+     * @return 問い合わせ回数
+     */
+    public int getProbeCount() {
+        return mProbeCount.get();
+    }
+
+    /**
+     * スレッドプールを停止する. 実行中の問い合わせには割り込みを入れる.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * 1つのサービスに問い合わせ、結果をキャッシュに格納するタスク.
+     *
+     * サポートしていた場合はサービスIDを、それ以外の場合は <code>null</code> を返す.
+     */
+    private class ProbeTask implements Callable<String> {
+        private final String mServiceId;
+        private final String mSupportKey;
+
+        ProbeTask(final String serviceId, final String supportKey) {
+            mServiceId = serviceId;
+            mSupportKey = supportKey;
+        }
+
+        @Override
+        public String call() {
+            mProbeCount.incrementAndGet();
+            Set<String> apis = mSource.fetchSupportedApis(mServiceId);
+            if (apis == null) {
+                return null;
+            }
+            mCache.put(mServiceId, apis);
+            return apis.contains(mSupportKey) ? mServiceId : null;
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/**
+ * 接続の準備 (Managerの起動待ち・サービス検索・接続・購読) をキーごとに1つだけ実行するクラス.
+ *
+ * 準備中のキーに対して {@link #join(Object, Object, Task)} を呼び出した場合は、新しい処理を開始せずに
+ * 待機者として追加する. 準備が完了したら {@link #complete(Flight)} で待機者をまとめて受け取る.
+ *
+ * 各準備は次の状態を順に遷移する. 状態は後戻りしない.
+ * <pre>
+ * WAITING_MANAGER → DISCOVERING → CONNECTING → SUBSCRIBING → VERIFYING → COMPLETED
+ *                                                                   (途中で) → FAILED / CANCELLED
+ * </pre>
+ * 完了前に待機者へ仮の購読を行う場合は {@link #getWaiters(Flight)} で待機者を参照する.
+ * 完了するまでは準備が登録されたままなので、確認中でも {@link #leave(Object, Object)} で中止できる.
+ * {@link #cancel(Object)}、{@link #cancelAll()} はスレッドに割り込むので、待機中の準備は直ちに終了する.
+ *
+ * @param <K> キーの型
+ * @param <W> 待機者の型
+ */
+public class ConnectionStateMachine<K, W> {
+
+    /**
+     * 状態: 準備を実行していない.
+     */
+    public static final int STATE_IDLE = 0;
+
+    /**
+     * 状態: Device Web API Managerの起動を待っている.
+     */
+    public static final int STATE_WAITING_MANAGER = 1;
+
+    /**
+     * 状態: 対象のサービスを探している.
+     */
+    public static final int STATE_DISCOVERING = 2;
+
+    /**
+     * 状態: WebSocketに接続している.
+     */
+    public static final int STATE_CONNECTING = 3;
+
+    /**
+     * 状態: イベントを登録している.
+     */
+    public static final int STATE_SUBSCRIBING = 4;
+
+    /**
+     * 状態: 購読したサービスが利用できるか確認している.
+     */
+    public static final int STATE_VERIFYING = 5;
+
+    /**
+     * 状態: 準備が完了した.
+     */
+    public static final int STATE_COMPLETED = 6;
+
+    /**
+     * 状態: 準備に失敗した.
+     */
+    public static final int STATE_FAILED = 7;
+
+    /**
+     * 状態: 準備を中止した.
+     */
+    public static final int STATE_CANCELLED = 8;
+
+    /**
+     * 準備の処理.
+     *
+     * @param <K> キーの型
+     * @param <W> 待機者の型
+     */
+    public interface Task<K, W> {
+        /**
+         * 準備を実行する.
+         *
+         * 正常に完了する場合は、処理の中で {@link ConnectionStateMachine#complete(Flight)} を呼び出すこと.
+         * 呼び出さずに戻った場合は失敗として扱い、待機者は破棄する.
+         *
+         * @param flight 実行中の準備
+         * @throws InterruptedException 中止された場合
+         */
+        void run(Flight<K, W> flight) throws InterruptedException;
+    }
+
+    /**
+     * 状態の変化を受け取るリスナー.
+     *
+     * @param <K> キーの型
+     */
+    public interface Listener<K> {
+        /**
+         * 状態が変化したことを通知する.
+         *
+         * @param key キー
+         * @param oldState 変化前の状態
+         * @param newState 変化後の状態
+         */
+        void onStateChanged(K key, int oldState, int newState);
+    }
+
+    /**
+     * 準備を実行するスレッド.
+     */
+    private final ExecutorService mExecutor;
+
+    /**
+     * 状態の変化を受け取るリスナー.
+     */
+    private final Listener<K> mListener;
+
+    /**
+     * 実行中の準備. キーは {@link #join(Object, Object, Task)} に指定したキー.
+     */
+    private final Map<K, Flight<K, W>> mFlights = new HashMap<>();
+
+    /**
+     * 開始した準備の数.
+     */
+    private long mStartedCount;
+
+    /**
+     * 実行中の準備に相乗りした回数.
+     */
+    private long mJoinedCount;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param executor 準備を実行するスレッド
+     * @param listener 状態の変化を受け取るリスナー. 不要な場合は <code>null</code>
+     */
+    public ConnectionStateMachine(final ExecutorService executor, final Listener<K> listener) {
+        mExecutor = executor;
+        mListener = listener;
+    }
+
+    /**
+     * 待機者を追加する. 実行中の準備がない場合は準備を開始する.
+     *
+     * @param key キー
+     * @param waiter 待機者
+     * @param task 準備の処理. 実行中の準備がある場合は使用しない
+     * @return 準備を開始した場合は <code>true</code>、実行中の準備に相乗りした場合は <code>false</code>
+     * @throws RejectedExecutionException {@link #shutdownNow()} 後に呼び出した場合
+     */
+    public synchronized boolean join(final K key, final W waiter, final Task<K, W> task) {
+        Flight<K, W> flight = mFlights.get(key);
+        if (flight != null) {
+            if (!flight.mWaiters.contains(waiter)) {
+                flight.mWaiters.add(waiter);
+            }
+            mJoinedCount++;
+            return false;
+        }
+        final Flight<K, W> newFlight = new Flight<>(this, key);
+        newFlight.mWaiters.add(waiter);
+        newFlight.mFuture = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                execute(newFlight, task);
+            }
+        });
+        mFlights.put(key, newFlight);
+        mStartedCount++;
+        newFlight.setState(STATE_WAITING_MANAGER);
+        return true;
+    }
+
+    private void execute(final Flight<K, W> flight, final Task<K, W> task) {
+        try {
+            task.run(flight);
+        } catch (InterruptedException e) {
+            flight.mCancelled = true;
+            Thread.currentThread().interrupt(); // 割り込み状態の復元
+        } catch (RuntimeException e) {
+            // 失敗として扱う.
+        } finally {
+            synchronized (this) {
+                if (mFlights.get(flight.mKey) == flight) {
+                    mFlights.remove(flight.mKey);
+                    flight.mWaiters.clear();
+                    flight.setState(flight.mCancelled ? STATE_CANCELLED : STATE_FAILED);
+                }
+            }
+        }
+    }
+
+    /**
+     * 準備の完了を記録し、待機者の一覧を取得する.
+     *
+     * この呼び出しの後に {@link #join(Object, Object, Task)} を呼び出した場合は、新しい準備を開始する.
+     *
+     * @param flight 完了した準備
+     * @return 待機者の一覧. 既に中止されていた場合は空
+     */
+    public synchronized List<W> complete(final Flight<K, W> flight) {
+        if (mFlights.get(flight.mKey) != flight || flight.mCancelled) {
+            return new ArrayList<>();
+        }
+        mFlights.remove(flight.mKey);
+        List<W> waiters = new ArrayList<>(flight.mWaiters);
+        flight.mWaiters.clear();
+        flight.setState(STATE_COMPLETED);
+        return waiters;
+    }
+
+    /**
+     * 準備を完了せずに、現在の待機者の一覧を取得する.
+     *
+     * @param flight 実行中の準備
+     * @return 待機者の一覧の写し. 既に中止または完了していた場合は空
+     */
+    public synchronized List<W> getWaiters(final Flight<K, W> flight) {
+        if (mFlights.get(flight.mKey) != flight || flight.mCancelled) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(flight.mWaiters);
+    }
+
+    /**
+     * 待機者を削除する. 待機者がいなくなった場合は準備を中止する.
+     *
+     * @param key キー
+     * @param waiter 待機者
+     * @return 待機者を削除した場合は <code>true</code>
+     */
+    public synchronized boolean leave(final K key, final W waiter) {
+        Flight<K, W> flight = mFlights.get(key);
+        if (flight == null || !flight.mWaiters.remove(waiter)) {
+            return false;
+        }
+        if (flight.mWaiters.isEmpty()) {
+            cancel(key);
+        }
+        return true;
+    }
+
+    /**
+     * 指定した待機者を、すべての準備から削除する.
+     *
+     * @param waiter 待機者
+     * @return 待機者を削除した準備の数
+     */
+    public synchronized int leaveAll(final W waiter) {
+        int count = 0;
+        for (K key : new ArrayList<>(mFlights.keySet())) {
+            if (leave(key, waiter)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 準備を中止する.
+     *
+     * @param key キー
+     * @return 中止した場合は <code>true</code>
+     */
+    public synchronized boolean cancel(final K key) {
+        Flight<K, W> flight = mFlights.remove(key);
+        if (flight == null) {
+            return false;
+        }
+        flight.mCancelled = true;
+        flight.mWaiters.clear();
+        if (flight.mFuture != null) {
+            flight.mFuture.cancel(true);
+        }
+        flight.setState(STATE_CANCELLED);
+        return true;
+    }
+
+    /**
+     * すべての準備を中止する.
+     *
+     * @return 中止した準備の数
+     */
+    public synchronized int cancelAll() {
+        int count = 0;
+        for (K key : new ArrayList<>(mFlights.keySet())) {
+            if (cancel(key)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * すべての準備を中止し、準備を実行するスレッドを停止する.
+     */
+    public synchronized void shutdownNow() {
+        cancelAll();
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * 指定したキーの準備の状態を取得する.
+     *
+     * @param key キー
+     * @return 状態. 実行中の準備がない場合は {@link #STATE_IDLE}
+     */
+    public synchronized int getState(final K key) {
+        Flight<K, W> flight = mFlights.get(key);
+        return flight != null ? flight.mState : STATE_IDLE;
+    }
+
+    /**
+     * 実行中の準備の数を取得する.
+     *
+     * @return 準備の数
+     */
+    public synchronized int getInFlightCount() {
+        return mFlights.size();
+    }
+
+    /**
+     * これまでに開始した準備の数を取得する.
+     *
+     * @return 準備の数
+     */
+    public synchronized long getStartedCount() {
+        return mStartedCount;
+    }
+
+    /**
+     * 実行中の準備に相乗りした回数を取得する.
+     *
+     * @return 回数
+     */
+    public synchronized long getJoinedCount() {
+        return mJoinedCount;
+    }
+
+    /**
+     * 状態を表す文字列を取得する.
+     *
+     * @param state STATE_ で始まる定数
+     * @return 文字列
+     */
+    public static String stateToString(final int state) {
+        switch (state) {
+            case STATE_WAITING_MANAGER:
+                return "waitingManager";
+            case STATE_DISCOVERING:
+                return "discovering";
+            case STATE_CONNECTING:
+                return "connecting";
+            case STATE_SUBSCRIBING:
+                return "subscribing";
+            case STATE_VERIFYING:
+                return "verifying";
+            case STATE_COMPLETED:
+                return "completed";
+            case STATE_FAILED:
+                return "failed";
+            case STATE_CANCELLED:
+                return "cancelled";
+            default:
+                return "idle";
+        }
+    }
+
+    /**
+     * 実行中の準備.
+     *
+     * @param <K> キーの型
+     * @param <W> 待機者の型
+     */
+    public static class Flight<K, W> {
+        private final ConnectionStateMachine<K, W> mOwner;
+        private final K mKey;
+        private final List<W> mWaiters = new ArrayList<>();
+        private volatile int mState = STATE_IDLE;
+        private volatile boolean mCancelled;
+        private Future<?> mFuture;
+
+        Flight(final ConnectionStateMachine<K, W> owner, final K key) {
+            mOwner = owner;
+            mKey = key;
+        }
+
+        public K getKey() {
+            return mKey;
+        }
+
+        public int getState() {
+            return mState;
+        }
+
+        /**
+         * 準備が中止されたかどうかを取得する.
+         *
+         * @return 中止された場合は <code>true</code>
+         */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * 状態を進める.
+         *
+         * 現在の状態より前の状態や、終了後の状態の変更は無視する.
+         *
+         * @param state STATE_ で始まる定数
+         * @throws InterruptedException 準備が中止されている場合
+         */
+        public void advance(final int state) throws InterruptedException {
+            synchronized (mOwner) {
+                if (mCancelled) {
+                    throw new InterruptedException("cancelled: " + mKey);
+                }
+                if (state <= mState || mState >= STATE_COMPLETED) {
+                    return;
+                }
+                setState(state);
+            }
+        }
+
+        void setState(final int state) {
+            int oldState = mState;
+            mState = state;
+            if (mOwner.mListener != null && oldState != state) {
+                mOwner.mListener.onStateChanged(mKey, oldState, state);
+            }
+        }
+    }
+}
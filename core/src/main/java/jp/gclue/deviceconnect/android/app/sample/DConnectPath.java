@@ -0,0 +1,165 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+
+/**
+ * Device Connect のAPIパス.
+ *
+ * <code>/{api}/{profile}/{interface}/{attribute}</code> の各要素を保持する.
+ *
+ * インターフェース・アトリビュートを省略したパス (<code>/{api}/{profile}</code>) と、
+ * 要素に {@link #WILDCARD} を含むパスはワイルドカードとして扱い、{@link EventRouter} で
+ * 該当する範囲のイベントをまとめて受け取るために使用する.
+ *
+ * サブパスとサポートキーは作成時に一度だけ計算するので、取得時に文字列を生成しない.
+ */
+public class DConnectPath {
+
+    /**
+     * 任意の要素に一致するワイルドカード.
+     */
+    public static final String WILDCARD = "*";
+
+    private final String mApiName;
+    private final String mProfileName;
+    private final String mInterfaceName;
+    private final String mAttributeName;
+    private final String mSubPath;
+    private final String mSupportKey;
+
+    DConnectPath(final String apiName, final String profileName,
+                 final String interfaceName, final String attributeName) {
+        mApiName = apiName;
+        mProfileName = profileName;
+        mInterfaceName = interfaceName;
+        mAttributeName = attributeName;
+        if (attributeName == null) {
+            mSubPath = "";
+        } else if (interfaceName != null) {
+            mSubPath = "/" + interfaceName + "/" + attributeName;
+        } else {
+            mSubPath = "/" + attributeName;
+        }
+        mSupportKey = CapabilityCache.toSupportKey(profileName, mSubPath);
+    }
+
+    public String getApiName() {
+        return mApiName;
+    }
+
+    public String getProfileName() {
+        return mProfileName;
+    }
+
+    public String getInterfaceName() {
+        return mInterfaceName;
+    }
+
+    public String getAttributeName() {
+        return mAttributeName;
+    }
+
+    public String getSupportKey() {
+        return mSupportKey;
+    }
+
+    public String getSubPath() {
+        return mSubPath;
+    }
+
+    /**
+     * ワイルドカードを含むパスかどうかを取得する.
+     *
+     * @return アトリビュートが省略されている、または要素に {@link #WILDCARD} を含む場合は <code>true</code>
+     */
+    public boolean isWildcard() {
+        return mAttributeName == null
+                || WILDCARD.equals(mProfileName)
+                || WILDCARD.equals(mInterfaceName)
+                || WILDCARD.equals(mAttributeName);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof DConnectPath)) {
+            return false;
+        }
+        DConnectPath other = (DConnectPath) obj;
+        return mApiName.equalsIgnoreCase(other.mApiName) && mSupportKey.equals(other.mSupportKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return mSupportKey.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "/" + mApiName + "/" + mProfileName + mSubPath;
+    }
+
+    /**
+     * APIパスの文字列を解析する.
+     *
+     * 正規表現を使用せずに区切り文字を走査する. 末尾の "/" は無視する.
+     *
+     * @param path APIパスの文字列
+     * @return APIパス. 不正な形式の場合は <code>null</code>
+     */
+    public static DConnectPath parse(final String path) {
+        int length = path.length();
+        while (length > 1 && path.charAt(length - 1) == '/') {
+            length--;
+        }
+        if (length == 0 || path.charAt(0) != '/') {
+            return null;
+        }
+
+        // 区切り文字の位置. 最大で4つ (api, profile, interface, attribute の前).
+        int[] slashes = new int[4];
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (path.charAt(i) == '/') {
+                if (count == slashes.length) {
+                    return null;
+                }
+                // 空の要素は不正.
+                if (i + 1 == length || path.charAt(i + 1) == '/') {
+                    return null;
+                }
+                slashes[count++] = i;
+            }
+        }
+        if (count < 2) {
+            return null;
+        }
+
+        final String apiName = segment(path, slashes, count, 0, length);
+        final String profileName = segment(path, slashes, count, 1, length);
+        final String interfaceName;
+        final String attributeName;
+        switch (count) {
+            case 2:
+                interfaceName = null;
+                attributeName = null;
+                break;
+            case 3:
+                interfaceName = null;
+                attributeName = segment(path, slashes, count, 2, length);
+                break;
+            default:
+                interfaceName = segment(path, slashes, count, 2, length);
+                attributeName = segment(path, slashes, count, 3, length);
+                break;
+        }
+        return new DConnectPath(apiName, profileName, interfaceName, attributeName);
+    }
+
+    private static String segment(final String path, final int[] slashes, final int count,
+                                  final int index, final int length) {
+        int end = index + 1 < count ? slashes[index + 1] : length;
+        return path.substring(slashes[index] + 1, end);
+    }
+}
@@ -0,0 +1,286 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+
+/**
+ * 受信したイベントを、登録した配送先にトライ木で振り分けるクラス.
+ *
+ * 木はサービスID・プロファイル・インターフェース・アトリビュートの4階層で、各要素は大文字・小文字を区別せずに比較する.
+ * 要素に {@link DConnectPath#WILDCARD} を指定した配送先は、その階層の任意の値に一致する.
+ * インターフェース・アトリビュートを省略したパスで登録した配送先は、そのプロファイルのすべてのイベントに一致する.
+ *
+ * {@link #route(String, String, String, String, Visitor, Object)} はオブジェクトを生成せずに配送先を列挙する.
+ * 登録・解除は排他制御し、振り分けはロックを取らずに任意のスレッドから行ってよい.
+ *
+ * @param <T> 配送先の型
+ */
+public class EventRouter<T> {
+
+    /**
+     * 振り分けた配送先を受け取るオブジェクト.
+     *
+     * @param <T> 配送先の型
+     * @param <A> 振り分け時に渡す引数の型
+     */
+    public interface Visitor<T, A> {
+        /**
+         * 一致した配送先を受け取る.
+         *
+         * @param target 配送先
+         * @param argument {@link #route(String, String, String, String, Visitor, Object)} に渡した引数
+         * @return 処理した件数. {@link #route(String, String, String, String, Visitor, Object)} の戻り値に加算する
+         */
+        int visit(T target, A argument);
+    }
+
+    /**
+     * インターフェースが省略されたイベント・パスを表すキー.
+     */
+    private static final String NO_INTERFACE = "";
+
+    /**
+     * 空の配列.
+     */
+    private static final Object[] EMPTY = new Object[0];
+
+    /**
+     * 木の根. 子はサービスID.
+     */
+    private final Node mRoot = new Node(null);
+
+    /**
+     * 登録している配送先の数.
+     */
+    private int mSize;
+
+    /**
+     * 配送先を登録する.
+     *
+     * 同じ配送先を同じ組に2回登録しても、1回だけ配送する.
+     *
+     * @param serviceId サービスID. {@link DConnectPath#WILDCARD} の場合はすべてのサービスに一致する
+     * @param path APIパス
+     * @param target 配送先
+     */
+    public synchronized void add(final String serviceId, final DConnectPath path, final T target) {
+        Node node = mRoot.obtainChild(serviceId).obtainChild(path.getProfileName());
+        if (path.getAttributeName() != null) {
+            node = node.obtainChild(interfaceKey(path.getInterfaceName())).obtainChild(path.getAttributeName());
+        }
+        if (node.addTarget(target)) {
+            mSize++;
+        }
+    }
+
+    /**
+     * 配送先の登録を解除する.
+     *
+     * @param serviceId サービスID
+     * @param path APIパス
+     * @param target 配送先
+     * @return 解除した場合は <code>true</code>
+     */
+    public synchronized boolean remove(final String serviceId, final DConnectPath path, final T target) {
+        Node service = mRoot.findChild(serviceId);
+        Node profile = service != null ? service.findChild(path.getProfileName()) : null;
+        if (profile == null) {
+            return false;
+        }
+        if (path.getAttributeName() == null) {
+            if (!profile.removeTarget(target)) {
+                return false;
+            }
+        } else {
+            Node iface = profile.findChild(interfaceKey(path.getInterfaceName()));
+            Node attribute = iface != null ? iface.findChild(path.getAttributeName()) : null;
+            if (attribute == null || !attribute.removeTarget(target)) {
+                return false;
+            }
+            iface.removeChildIfEmpty(attribute);
+            profile.removeChildIfEmpty(iface);
+        }
+        service.removeChildIfEmpty(profile);
+        mRoot.removeChildIfEmpty(service);
+        mSize--;
+        return true;
+    }
+
+    /**
+     * すべての配送先の登録を解除する.
+     */
+    public synchronized void clear() {
+        mRoot.mChildren = new Node[0];
+        mRoot.mWildcard = null;
+        mSize = 0;
+    }
+
+    /**
+     * 登録している配送先の数を取得する.
+     *
+     * @return 配送先の数
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * イベントに一致する配送先を列挙する.
+     *
+     * @param serviceId イベントのサービスID
+     * @param profile イベントのプロファイル名
+     * @param interfaceName イベントのインターフェース名. 省略されている場合は <code>null</code>
+     * @param attribute イベントのアトリビュート名
+     * @param visitor 配送先を受け取るオブジェクト
+     * @param argument visitor に渡す引数
+     * @param <A> 引数の型
+     * @return visitor の戻り値の合計
+     */
+    public <A> int route(final String serviceId, final String profile, final String interfaceName,
+                         final String attribute, final Visitor<? super T, A> visitor, final A argument) {
+        if (serviceId == null || profile == null) {
+            return 0;
+        }
+        String iface = interfaceKey(interfaceName);
+        String attr = attribute != null ? attribute : NO_INTERFACE;
+        return routeService(mRoot.findChild(serviceId), profile, iface, attr, visitor, argument)
+                + routeService(mRoot.mWildcard, profile, iface, attr, visitor, argument);
+    }
+
+    private <A> int routeService(final Node service, final String profile, final String iface, final String attribute,
+                                 final Visitor<? super T, A> visitor, final A argument) {
+        if (service == null) {
+            return 0;
+        }
+        return routeProfile(service.findChild(profile), iface, attribute, visitor, argument)
+                + routeProfile(service.mWildcard, iface, attribute, visitor, argument);
+    }
+
+    private <A> int routeProfile(final Node profile, final String iface, final String attribute,
+                                 final Visitor<? super T, A> visitor, final A argument) {
+        if (profile == null) {
+            return 0;
+        }
+        // プロファイル単位で登録した配送先.
+        return visit(profile, visitor, argument)
+                + routeInterface(profile.findChild(iface), attribute, visitor, argument)
+                + routeInterface(profile.mWildcard, attribute, visitor, argument);
+    }
+
+    private <A> int routeInterface(final Node iface, final String attribute,
+                                   final Visitor<? super T, A> visitor, final A argument) {
+        if (iface == null) {
+            return 0;
+        }
+        return visit(iface.findChild(attribute), visitor, argument)
+                + visit(iface.mWildcard, visitor, argument);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <A> int visit(final Node node, final Visitor<? super T, A> visitor, final A argument) {
+        if (node == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Object target : node.mTargets) {
+            count += visitor.visit((T) target, argument);
+        }
+        return count;
+    }
+
+    private static String interfaceKey(final String interfaceName) {
+        return interfaceName != null ? interfaceName : NO_INTERFACE;
+    }
+
+    /**
+     * トライ木のノード.
+     *
+     * 子と配送先の配列は変更のたびに作り直すので、振り分け中に変更されても読み出し側には影響しない.
+     */
+    private static class Node {
+        private final String mKey;
+        private volatile Node[] mChildren = new Node[0];
+        private volatile Node mWildcard;
+        private volatile Object[] mTargets = EMPTY;
+
+        Node(final String key) {
+            mKey = key;
+        }
+
+        Node findChild(final String key) {
+            if (DConnectPath.WILDCARD.equals(key)) {
+                return mWildcard;
+            }
+            for (Node child : mChildren) {
+                if (child.mKey.equalsIgnoreCase(key)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        Node obtainChild(final String key) {
+            Node child = findChild(key);
+            if (child != null) {
+                return child;
+            }
+            child = new Node(key);
+            if (DConnectPath.WILDCARD.equals(key)) {
+                mWildcard = child;
+            } else {
+                Node[] children = mChildren;
+                Node[] newChildren = new Node[children.length + 1];
+                System.arraycopy(children, 0, newChildren, 0, children.length);
+                newChildren[children.length] = child;
+                mChildren = newChildren;
+            }
+            return child;
+        }
+
+        void removeChildIfEmpty(final Node child) {
+            if (child.mTargets.length > 0 || child.mChildren.length > 0 || child.mWildcard != null) {
+                return;
+            }
+            if (child == mWildcard) {
+                mWildcard = null;
+                return;
+            }
+            Node[] children = mChildren;
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == child) {
+                    Node[] newChildren = new Node[children.length - 1];
+                    System.arraycopy(children, 0, newChildren, 0, i);
+                    System.arraycopy(children, i + 1, newChildren, i, children.length - i - 1);
+                    mChildren = newChildren;
+                    return;
+                }
+            }
+        }
+
+        boolean addTarget(final Object target) {
+            Object[] targets = mTargets;
+            for (Object t : targets) {
+                if (t.equals(target)) {
+                    return false;
+                }
+            }
+            Object[] newTargets = new Object[targets.length + 1];
+            System.arraycopy(targets, 0, newTargets, 0, targets.length);
+            newTargets[targets.length] = target;
+            mTargets = newTargets;
+            return true;
+        }
+
+        boolean removeTarget(final Object target) {
+            Object[] targets = mTargets;
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i].equals(target)) {
+                    Object[] newTargets = targets.length == 1 ? EMPTY : new Object[targets.length - 1];
+                    System.arraycopy(targets, 0, newTargets, 0, i);
+                    System.arraycopy(targets, i + 1, newTargets, i, targets.length - i - 1);
+                    mTargets = newTargets;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * JSON文字列を {@link Map} と {@link List} のツリーに変換するクラス.
+ *
+ * 値は次の型に変換する.
+ * <ul>
+ *     <li>オブジェクト: {@link Map}</li>
+ *     <li>配列: {@link List}</li>
+ *     <li>文字列: {@link String}</li>
+ *     <li>数値: 整数は {@link Long}、それ以外は {@link Double}</li>
+ *     <li>true/false: {@link Boolean}</li>
+ *     <li>null: <code>null</code></li>
+ * </ul>
+ *
+ * SDKを使用できない環境 (ベンチマークやテスト) で、Device Web API Managerから受信するイベントと
+ * 同じ形のツリーを作成するために使用する.
+ */
+public final class JsonParser {
+
+    private final String mText;
+    private int mPosition;
+
+    private JsonParser(final String text) {
+        mText = text;
+    }
+
+    /**
+     * JSON文字列を解析する.
+     *
+     * @param text JSON文字列
+     * @return 解析結果
+     * @throws IllegalArgumentException JSONとして不正な場合
+     */
+    public static Object parse(final String text) {
+        JsonParser parser = new JsonParser(text);
+        Object value = parser.readValue();
+        parser.skipWhitespace();
+        if (parser.mPosition != text.length()) {
+            throw parser.error("Unexpected trailing characters");
+        }
+        return value;
+    }
+
+    /**
+     * JSONオブジェクトの文字列を解析する.
+     *
+     * @param text JSON文字列
+     * @return 解析結果
+     * @throws IllegalArgumentException JSONオブジェクトとして不正な場合
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> parseObject(final String text) {
+        Object value = parse(text);
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Not a JSON object");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    private Object readValue() {
+        skipWhitespace();
+        if (mPosition >= mText.length()) {
+            throw error("Unexpected end of input");
+        }
+        char c = mText.charAt(mPosition);
+        switch (c) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                expect("true");
+                return Boolean.TRUE;
+            case 'f':
+                expect("false");
+                return Boolean.FALSE;
+            case 'n':
+                expect("null");
+                return null;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return readNumber();
+                }
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        mPosition++; // '{'
+        skipWhitespace();
+        if (peek() == '}') {
+            mPosition++;
+            return map;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a key");
+            }
+            String key = readString();
+            skipWhitespace();
+            consume(':');
+            map.put(key, readValue());
+            skipWhitespace();
+            char c = next();
+            if (c == '}') {
+                return map;
+            } else if (c != ',') {
+                throw error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private List<Object> readArray() {
+        List<Object> list = new ArrayList<>();
+        mPosition++; // '['
+        skipWhitespace();
+        if (peek() == ']') {
+            mPosition++;
+            return list;
+        }
+        while (true) {
+            list.add(readValue());
+            skipWhitespace();
+            char c = next();
+            if (c == ']') {
+                return list;
+            } else if (c != ',') {
+                throw error("Expected ',' or ']'");
+            }
+        }
+    }
+
+    private String readString() {
+        mPosition++; // '"'
+        int start = mPosition;
+        // エスケープを含まない文字列は部分文字列をそのまま返す.
+        while (mPosition < mText.length()) {
+            char c = mText.charAt(mPosition);
+            if (c == '"') {
+                return mText.substring(start, mPosition++);
+            } else if (c == '\\') {
+                break;
+            }
+            mPosition++;
+        }
+        StringBuilder builder = new StringBuilder(mText.substring(start, mPosition));
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return builder.toString();
+            } else if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            char escaped = next();
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    builder.append(escaped);
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (mPosition + 4 > mText.length()) {
+                        throw error("Invalid unicode escape");
+                    }
+                    try {
+                        builder.append((char) Integer.parseInt(mText.substring(mPosition, mPosition + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                    mPosition += 4;
+                    break;
+                default:
+                    throw error("Invalid escape '\\" + escaped + "'");
+            }
+        }
+    }
+
+    private Number readNumber() {
+        int start = mPosition;
+        boolean integral = true;
+        while (mPosition < mText.length()) {
+            char c = mText.charAt(mPosition);
+            if (c == '.' || c == 'e' || c == 'E') {
+                integral = false;
+            } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            mPosition++;
+        }
+        String number = mText.substring(start, mPosition);
+        try {
+            if (integral) {
+                return Long.parseLong(number);
+            }
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number '" + number + "'");
+        }
+    }
+
+    private void expect(final String literal) {
+        if (!mText.startsWith(literal, mPosition)) {
+            throw error("Expected '" + literal + "'");
+        }
+        mPosition += literal.length();
+    }
+
+    private void consume(final char expected) {
+        if (next() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+    }
+
+    private char peek() {
+        return mPosition < mText.length() ? mText.charAt(mPosition) : '\0';
+    }
+
+    private char next() {
+        if (mPosition >= mText.length()) {
+            throw error("Unexpected end of input");
+        }
+        return mText.charAt(mPosition++);
+    }
+
+    private void skipWhitespace() {
+        while (mPosition < mText.length()) {
+            char c = mText.charAt(mPosition);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            mPosition++;
+        }
+    }
+
+    private IllegalArgumentException error(final String message) {
+        return new IllegalArgumentException(message + " at " + mPosition);
+    }
+}
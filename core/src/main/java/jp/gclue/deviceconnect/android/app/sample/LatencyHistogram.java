@@ -0,0 +1,200 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * 固定の区間で集計するレイテンシのヒストグラム.
+ *
+ * 記録はロックを使用せずに行うので、複数のスレッドから同時に {@link #record(long)} を呼び出してよい.
+ */
+public class LatencyHistogram {
+
+    /**
+     * デフォルトの区間の上限値. 単位はマイクロ秒.
+     */
+    public static final long[] DEFAULT_BOUNDS_MICROS = {
+            100, 250, 500,
+            1000, 2500, 5000,
+            10000, 25000, 50000,
+            100000, 250000, 500000,
+            1000000, 2500000, 5000000
+    };
+
+    /**
+     * 各区間の上限値 (この値以下を含む). 単位はマイクロ秒.
+     */
+    private final long[] mBounds;
+
+    /**
+     * 各区間の件数. 最後の要素は上限値を超えた件数.
+     */
+    private final AtomicLongArray mCounts;
+
+    /**
+     * 記録した件数.
+     */
+    private final AtomicLong mTotalCount = new AtomicLong();
+
+    /**
+     * 記録した値の合計. 単位はマイクロ秒.
+     */
+    private final AtomicLong mTotalMicros = new AtomicLong();
+
+    /**
+     * 記録した値の最大値. 単位はマイクロ秒.
+     */
+    private final AtomicLong mMaxMicros = new AtomicLong();
+
+    /**
+     * コンストラクタ.
+     *
+     * @param boundsMicros 各区間の上限値. 昇順. 単位はマイクロ秒
+     */
+    public LatencyHistogram(final long[] boundsMicros) {
+        for (int i = 1; i < boundsMicros.length; i++) {
+            if (boundsMicros[i - 1] >= boundsMicros[i]) {
+                throw new IllegalArgumentException("bounds must be strictly ascending");
+            }
+        }
+        mBounds = boundsMicros.clone();
+        mCounts = new AtomicLongArray(mBounds.length + 1);
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * 区間には {@link #DEFAULT_BOUNDS_MICROS} を使用する.
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_BOUNDS_MICROS);
+    }
+
+    /**
+     * レイテンシを記録する.
+     *
+     * @param nanos レイテンシ. 単位はナノ秒
+     */
+    public void record(final long nanos) {
+        long micros = Math.max(0, nanos / 1000L);
+        mCounts.incrementAndGet(indexOf(micros));
+        mTotalCount.incrementAndGet();
+        mTotalMicros.addAndGet(micros);
+        long max;
+        do {
+            max = mMaxMicros.get();
+        } while (micros > max && !mMaxMicros.compareAndSet(max, micros));
+    }
+
+    private int indexOf(final long micros) {
+        int low = 0;
+        int high = mBounds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mBounds[mid] < micros) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 記録した件数を取得する.
+     *
+     * @return 件数
+     */
+    public long getCount() {
+        return mTotalCount.get();
+    }
+
+    /**
+     * 記録した値の平均値を取得する.
+     *
+     * @return 平均値. 単位はマイクロ秒. 1件も記録されていない場合は0
+     */
+    public long getMeanMicros() {
+        long count = mTotalCount.get();
+        return count == 0 ? 0 : mTotalMicros.get() / count;
+    }
+
+    /**
+     * 記録した値の最大値を取得する.
+     *
+     * @return 最大値. 単位はマイクロ秒
+     */
+    public long getMaxMicros() {
+        return mMaxMicros.get();
+    }
+
+    /**
+     * 指定したパーセンタイル値を含む区間の上限値を取得する.
+     *
+     * @param percentile パーセンタイル. 0より大きく100以下
+     * @return 区間の上限値. 単位はマイクロ秒. 最後の区間に含まれる場合は最大値
+     */
+    public long getPercentileMicros(final double percentile) {
+        long[] counts = getCounts();
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(total * percentile / 100.0);
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            sum += counts[i];
+            if (sum >= threshold) {
+                return i < mBounds.length ? mBounds[i] : mMaxMicros.get();
+            }
+        }
+        return mMaxMicros.get();
+    }
+
+    /**
+     * 各区間の上限値を取得する.
+     *
+     * @return 上限値の配列. 単位はマイクロ秒
+     */
+    public long[] getBounds() {
+        return mBounds.clone();
+    }
+
+    /**
+     * 各区間の件数を取得する.
+     *
+     * @return 件数の配列. 要素数は {@link #getBounds()} より1つ多く、最後の要素は上限値を超えた件数
+     */
+    public long[] getCounts() {
+        long[] counts = new long[mCounts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * 記録をすべて破棄する.
+     */
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mTotalMicros.set(0);
+        mMaxMicros.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount()
+                + ", mean=" + getMeanMicros() + "us"
+                + ", p50=" + getPercentileMicros(50) + "us"
+                + ", p99=" + getPercentileMicros(99) + "us"
+                + ", max=" + getMaxMicros() + "us";
+    }
+}
@@ -0,0 +1,281 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+
+/**
+ * 表示用のログを固定数だけ保持するリングバッファ.
+ *
+ * 各行は事前に確保した <code>char</code> 配列で、追加時にはもっとも古い行を再利用する.
+ * 数値は {@link String#format(String, Object...)} を使わずに直接書き込むので、行の追加でオブジェクトを生成しない.
+ *
+ * このクラスはスレッドセーフではない.
+ */
+public class LogBuffer {
+
+    /**
+     * 1行の最大文字数のデフォルト値.
+     */
+    public static final int DEFAULT_LINE_LENGTH = 256;
+
+    /**
+     * 10の累乗. 小数点以下の桁数から倍率を求めるために使用する.
+     */
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L
+    };
+
+    /**
+     * 行のバッファ.
+     */
+    private final Line[] mLines;
+
+    /**
+     * 次に書き込む行のインデックス.
+     */
+    private int mHead;
+
+    /**
+     * 保持している行数.
+     */
+    private int mSize;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param capacity 保持する行数
+     * @param lineLength 1行の最大文字数
+     */
+    public LogBuffer(final int capacity, final int lineLength) {
+        if (capacity <= 0 || lineLength <= 0) {
+            throw new IllegalArgumentException("capacity = " + capacity + ", lineLength = " + lineLength);
+        }
+        mLines = new Line[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mLines[i] = new Line(lineLength);
+        }
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * 1行の最大文字数には {@link #DEFAULT_LINE_LENGTH} を使用する.
+     *
+     * @param capacity 保持する行数
+     */
+    public LogBuffer(final int capacity) {
+        this(capacity, DEFAULT_LINE_LENGTH);
+    }
+
+    /**
+     * 新しい行を追加する.
+     *
+     * 保持している行数が上限に達している場合は、もっとも古い行を空にして再利用する.
+     *
+     * @return 追加した行. 内容は空
+     */
+    public Line append() {
+        Line line = mLines[mHead];
+        line.mLength = 0;
+        mHead = (mHead + 1) % mLines.length;
+        if (mSize < mLines.length) {
+            mSize++;
+        }
+        return line;
+    }
+
+    /**
+     * 保持している行を取得する.
+     *
+     * @param position 位置. 0がもっとも新しい行
+     * @return 行
+     */
+    public Line get(final int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("position = " + position + ", size = " + mSize);
+        }
+        int index = mHead - 1 - position;
+        if (index < 0) {
+            index += mLines.length;
+        }
+        return mLines[index];
+    }
+
+    /**
+     * 保持している行数を取得する.
+     *
+     * @return 行数
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * 保持できる行数を取得する.
+     *
+     * @return 行数
+     */
+    public int getCapacity() {
+        return mLines.length;
+    }
+
+    /**
+     * すべての行を破棄する.
+     */
+    public void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    /**
+     * ログの1行.
+     *
+     * 最大文字数を超えた分は切り捨てる.
+     */
+    public static class Line {
+
+        /**
+         * 文字のバッファ.
+         */
+        private final char[] mChars;
+
+        /**
+         * 書き込み済みの文字数.
+         */
+        private int mLength;
+
+        Line(final int capacity) {
+            mChars = new char[capacity];
+        }
+
+        /**
+         * 文字のバッファを取得する.
+         *
+         * 有効な文字は先頭から {@link #length()} 文字まで.
+         *
+         * @return バッファ
+         */
+        public char[] getChars() {
+            return mChars;
+        }
+
+        /**
+         * 書き込み済みの文字数を取得する.
+         *
+         * @return 文字数
+         */
+        public int length() {
+            return mLength;
+        }
+
+        /**
+         * 1文字を追加する.
+         *
+         * @param c 文字
+         * @return この行
+         */
+        public Line append(final char c) {
+            if (mLength < mChars.length) {
+                mChars[mLength++] = c;
+            }
+            return this;
+        }
+
+        /**
+         * 文字列を追加する.
+         *
+         * @param s 文字列. <code>null</code> の場合は "null" を追加する
+         * @return この行
+         */
+        public Line append(final CharSequence s) {
+            CharSequence text = s != null ? s : "null";
+            int count = Math.min(text.length(), mChars.length - mLength);
+            for (int i = 0; i < count; i++) {
+                mChars[mLength++] = text.charAt(i);
+            }
+            return this;
+        }
+
+        /**
+         * 整数を10進数で追加する.
+         *
+         * @param value 値
+         * @return この行
+         */
+        public Line append(final long value) {
+            if (value < 0) {
+                append('-');
+                if (value == Long.MIN_VALUE) {
+                    return append("9223372036854775808");
+                }
+                return appendDigits(-value, 1);
+            }
+            return appendDigits(value, 1);
+        }
+
+        /**
+         * 整数を指定した桁数まで0で埋めて追加する.
+         *
+         * @param value 値. 0以上
+         * @param width 桁数
+         * @return この行
+         */
+        public Line appendPadded(final long value, final int width) {
+            return appendDigits(value, width);
+        }
+
+        /**
+         * 小数を指定した桁数に四捨五入して追加する.
+         *
+         * <code>String.format(Locale.ENGLISH, "%.2f", value)</code> と同じ表記になる.
+         *
+         * @param value 値
+         * @param decimals 小数点以下の桁数. 0 から 6
+         * @return この行
+         */
+        public Line append(final float value, final int decimals) {
+            if (Float.isNaN(value)) {
+                return append("NaN");
+            }
+            if (Float.isInfinite(value)) {
+                return append(value > 0 ? "Infinity" : "-Infinity");
+            }
+            long scale = POWERS_OF_TEN[decimals];
+            double abs = Math.abs((double) value);
+            long scaled = (long) (abs * scale + 0.5);
+            if (Float.floatToRawIntBits(value) < 0) {
+                append('-');
+            }
+            appendDigits(scaled / scale, 1);
+            if (decimals > 0) {
+                append('.');
+                appendDigits(scaled % scale, decimals);
+            }
+            return this;
+        }
+
+        private Line appendDigits(final long value, final int minWidth) {
+            int digits = 1;
+            for (long v = value / 10; v > 0; v /= 10) {
+                digits++;
+            }
+            for (int i = digits; i < minWidth; i++) {
+                append('0');
+            }
+            if (mLength + digits > mChars.length) {
+                mLength = mChars.length;
+                return this;
+            }
+            long v = value;
+            for (int i = mLength + digits - 1; i >= mLength; i--) {
+                mChars[i] = (char) ('0' + (v % 10));
+                v /= 10;
+            }
+            mLength += digits;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return new String(mChars, 0, mLength);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.Map;
+
+
+/**
+ * <code>/gotapi/deviceOrientation/onDeviceOrientation</code> のイベントを解析して、
+ * 重力加速度 (accelerationIncludingGravity) の値を {@link SampleChannel} に書き込むクラス.
+ *
+ * イベントは {@link Map} のツリーとして受け取るので、SDKの <code>DConnectMessage</code> をそのまま渡せる.
+ * JSON 文字列を直接受け取れる場合は、{@link #register(StreamingEventDecoder, String...)} で登録した
+ * {@link StreamingEventDecoder} の結果を {@link #decode(StreamingEventDecoder.Result, long, SampleChannel)} に渡すと、
+ * ツリーを作らずに済む.
+ */
+public final class OrientationEventDecoder {
+
+    /**
+     * イベントのパラメータ名: orientation.
+     */
+    public static final String PARAM_ORIENTATION = "orientation";
+
+    /**
+     * イベントのパラメータ名: accelerationIncludingGravity.
+     */
+    public static final String PARAM_ACCELERATION_INCLUDING_GRAVITY = "accelerationIncludingGravity";
+
+    /**
+     * イベントのAPIパス.
+     */
+    public static final DConnectPath PATH = DConnectPath.parse("/gotapi/deviceOrientation/onDeviceOrientation");
+
+    /**
+     * {@link StreamingEventDecoder} に登録するフィールド. 順番は x, y, z.
+     */
+    private static final String[] STREAMING_FIELDS = {
+            PARAM_ORIENTATION + "." + PARAM_ACCELERATION_INCLUDING_GRAVITY + ".x",
+            PARAM_ORIENTATION + "." + PARAM_ACCELERATION_INCLUDING_GRAVITY + ".y",
+            PARAM_ORIENTATION + "." + PARAM_ACCELERATION_INCLUDING_GRAVITY + ".z"
+    };
+
+    private OrientationEventDecoder() {
+    }
+
+    /**
+     * イベントのAPIパスと重力加速度のフィールドを登録する.
+     *
+     * @param decoder 登録先
+     * @param extraFields 追加で取り出すフィールド. 結果では重力加速度の3つの後に続く
+     * @return APIパスの番号
+     */
+    public static int register(final StreamingEventDecoder decoder, final String... extraFields) {
+        String[] fields = new String[STREAMING_FIELDS.length + extraFields.length];
+        System.arraycopy(STREAMING_FIELDS, 0, fields, 0, STREAMING_FIELDS.length);
+        System.arraycopy(extraFields, 0, fields, STREAMING_FIELDS.length, extraFields.length);
+        return decoder.register(PATH, fields);
+    }
+
+    /**
+     * {@link #register(StreamingEventDecoder, String...)} で登録したAPIパスのデコード結果を、チャネルに書き込む.
+     *
+     * @param result {@link StreamingEventDecoder#decode(String, StreamingEventDecoder.Result)} が
+     *               <code>true</code> を返した結果
+     * @param timestamp サンプルのタイムスタンプ. 単位はミリ秒
+     * @param channel 書き込み先のチャネル
+     */
+    public static void decode(final StreamingEventDecoder.Result result, final long timestamp,
+                              final SampleChannel channel) {
+        channel.publish(timestamp,
+                (float) result.getNumber(0),
+                (float) result.getNumber(1),
+                (float) result.getNumber(2));
+    }
+
+    /**
+     * イベントを解析して、チャネルにサンプルを書き込む.
+     *
+     * @param event イベント
+     * @param timestamp サンプルのタイムスタンプ. 単位はミリ秒
+     * @param channel 書き込み先のチャネル
+     * @return 書き込んだ場合は <code>true</code>. イベントに必要な値が含まれていない場合は <code>false</code>
+     */
+    public static boolean decode(final Map<String, Object> event, final long timestamp,
+                                 final SampleChannel channel) {
+        return decode(event, timestamp, channel.asSink());
+    }
+
+    /**
+     * イベントを解析して、サンプルを渡す.
+     *
+     * @param event イベント
+     * @param timestamp サンプルのタイムスタンプ. 単位はミリ秒
+     * @param sink サンプルの渡し先
+     * @return 渡した場合は <code>true</code>. イベントに必要な値が含まれていない場合は <code>false</code>
+     */
+    public static boolean decode(final Map<String, Object> event, final long timestamp,
+                                 final SampleChannel.SampleSink sink) {
+        Map<?, ?> acceleration = getMap(getMap(event, PARAM_ORIENTATION), PARAM_ACCELERATION_INCLUDING_GRAVITY);
+        if (acceleration == null) {
+            return false;
+        }
+        Object x = acceleration.get("x");
+        Object y = acceleration.get("y");
+        Object z = acceleration.get("z");
+        if (!(x instanceof Number) || !(y instanceof Number) || !(z instanceof Number)) {
+            return false;
+        }
+        sink.onSample(timestamp,
+                ((Number) x).floatValue(),
+                ((Number) y).floatValue(),
+                ((Number) z).floatValue());
+        return true;
+    }
+
+    private static Map<?, ?> getMap(final Map<?, ?> parent, final String key) {
+        if (parent == null) {
+            return null;
+        }
+        Object value = parent.get(key);
+        return value instanceof Map ? (Map<?, ?>) value : null;
+    }
+}
@@ -0,0 +1,326 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * WebSocket の切断から復旧までの時間と、その間に受信できなかったイベントの数を記録するクラス.
+ *
+ * 切断 ({@link #onDisconnected(long)}) から再接続 ({@link #onReconnected(long)}) までを1回の停止として記録する.
+ * 購読ごとにイベントの受信間隔の移動平均を保持し、再接続後の最初のイベントを受信した時点で、
+ * 切断前の最後のイベントからの間隔を平均間隔で割って欠落したイベントの数を見積もる.
+ * 同時に、切断から最初のイベントを受信するまでの時間を復旧時間として記録する.
+ *
+ * 購読は {@link #add(String, DConnectPath)} で登録する. イベントは {@link EventRouter} で購読に振り分けるので、
+ * {@link #onEvent(String, String, String, String, long)} はオブジェクトを生成しない.
+ *
+ * 時刻はすべて {@link System#nanoTime()} の値で渡す. 任意のスレッドから呼び出してよい.
+ */
+public class OutageTracker {
+
+    /**
+     * 復旧時間の区間の上限値. 単位はマイクロ秒.
+     */
+    private static final long[] RECOVERY_BOUNDS_MICROS = {
+            10000, 25000, 50000,
+            100000, 250000, 500000,
+            1000000, 2500000, 5000000,
+            10000000, 30000000, 60000000
+    };
+
+    /**
+     * 受信間隔の移動平均の係数の逆数.
+     */
+    private static final int INTERVAL_SMOOTHING = 8;
+
+    /**
+     * 振り分けた購読にイベントの受信を記録するオブジェクト.
+     */
+    private static final EventRouter.Visitor<Stream, OutageTracker> RECORD =
+            new EventRouter.Visitor<Stream, OutageTracker>() {
+                @Override
+                public int visit(final Stream stream, final OutageTracker tracker) {
+                    tracker.record(stream);
+                    return 1;
+                }
+            };
+
+    /**
+     * 購読の一覧. キーは {@link #toKey(String, DConnectPath)} で作成する.
+     */
+    private final Map<String, Stream> mStreams = new LinkedHashMap<>();
+
+    /**
+     * 受信したイベントを購読に振り分けるオブジェクト.
+     */
+    private final EventRouter<Stream> mRouter = new EventRouter<>();
+
+    /**
+     * 切断から、再接続後に購読ごとの最初のイベントを受信するまでの時間.
+     */
+    private final LatencyHistogram mRecoveryLatency = new LatencyHistogram(RECOVERY_BOUNDS_MICROS);
+
+    private boolean mDisconnected;
+    private long mDisconnectedAt;
+
+    /**
+     * {@link #onEvent(String, String, String, String, long)} で振り分け中のイベントの受信時刻.
+     */
+    private long mNowNanos;
+
+    private long mOutageCount;
+    private long mTotalOutageNanos;
+    private long mMaxOutageNanos;
+    private long mLastOutageNanos;
+
+    /**
+     * 削除した購読で欠落したイベントの数.
+     */
+    private long mRemovedMissedCount;
+
+    /**
+     * 購読を追加する. 追加済みの場合は何もしない.
+     *
+     * @param serviceId サービスID
+     * @param path APIパス
+     */
+    public synchronized void add(final String serviceId, final DConnectPath path) {
+        String key = toKey(serviceId, path);
+        if (!mStreams.containsKey(key)) {
+            Stream stream = new Stream(serviceId, path);
+            mStreams.put(key, stream);
+            mRouter.add(serviceId, path, stream);
+        }
+    }
+
+    /**
+     * 購読を削除する. 欠落したイベントの数は {@link #getTotalMissedCount()} に残す.
+     *
+     * @param serviceId サービスID
+     * @param path APIパス
+     */
+    public synchronized void remove(final String serviceId, final DConnectPath path) {
+        Stream stream = mStreams.remove(toKey(serviceId, path));
+        if (stream != null) {
+            mRouter.remove(serviceId, path, stream);
+            mRemovedMissedCount += stream.mMissedCount;
+        }
+    }
+
+    /**
+     * 切断されたことを記録する. 既に切断中の場合は何もしない.
+     *
+     * @param nowNanos 切断された時刻
+     * @return 停止が始まった場合は <code>true</code>
+     */
+    public synchronized boolean onDisconnected(final long nowNanos) {
+        if (mDisconnected) {
+            return false;
+        }
+        mDisconnected = true;
+        mDisconnectedAt = nowNanos;
+        return true;
+    }
+
+    /**
+     * 再接続したことを記録する.
+     *
+     * 以降、購読ごとに最初に受信したイベントで欠落したイベントの数と復旧時間を記録する.
+     *
+     * @param nowNanos 再接続した時刻
+     * @return 停止していた時間. 単位はナノ秒. 切断中でなかった場合は -1
+     */
+    public synchronized long onReconnected(final long nowNanos) {
+        if (!mDisconnected) {
+            return -1;
+        }
+        mDisconnected = false;
+        long outage = nowNanos - mDisconnectedAt;
+        mOutageCount++;
+        mTotalOutageNanos += outage;
+        mMaxOutageNanos = Math.max(mMaxOutageNanos, outage);
+        mLastOutageNanos = outage;
+        for (Stream stream : mStreams.values()) {
+            if (!stream.mRecovering) {
+                stream.mRecovering = true;
+                stream.mOutageStart = mDisconnectedAt;
+            }
+        }
+        return outage;
+    }
+
+    /**
+     * イベントを受信したことを記録する.
+     *
+     * @param serviceId イベントのサービスID
+     * @param profile イベントのプロファイル名
+     * @param interfaceName イベントのインターフェース名. 省略されている場合は <code>null</code>
+     * @param attribute イベントのアトリビュート名
+     * @param nowNanos 受信した時刻
+     * @return 該当した購読の数
+     */
+    public synchronized int onEvent(final String serviceId, final String profile, final String interfaceName,
+                                    final String attribute, final long nowNanos) {
+        mNowNanos = nowNanos;
+        return mRouter.route(serviceId, profile, interfaceName, attribute, RECORD, this);
+    }
+
+    private void record(final Stream stream) {
+        long now = mNowNanos;
+        long last = stream.mLastEventNanos;
+        boolean first = stream.mEventCount == 0;
+        if (stream.mRecovering) {
+            stream.mRecovering = false;
+            mRecoveryLatency.record(now - stream.mOutageStart);
+            if (!first && stream.mIntervalNanos > 0) {
+                long missed = Math.round((double) (now - last) / stream.mIntervalNanos) - 1;
+                if (missed > 0) {
+                    stream.mMissedCount += missed;
+                }
+            }
+            stream.mRecoveryCount++;
+        } else if (!first) {
+            long interval = now - last;
+            if (stream.mIntervalNanos == 0) {
+                stream.mIntervalNanos = interval;
+            } else {
+                stream.mIntervalNanos += (interval - stream.mIntervalNanos) / INTERVAL_SMOOTHING;
+            }
+        }
+        stream.mLastEventNanos = now;
+        stream.mEventCount++;
+    }
+
+    /**
+     * 切断中かどうかを取得する.
+     *
+     * @return 切断中の場合は <code>true</code>
+     */
+    public synchronized boolean isDisconnected() {
+        return mDisconnected;
+    }
+
+    public synchronized long getOutageCount() {
+        return mOutageCount;
+    }
+
+    public synchronized long getTotalOutageMillis() {
+        return mTotalOutageNanos / 1000000L;
+    }
+
+    public synchronized long getMaxOutageMillis() {
+        return mMaxOutageNanos / 1000000L;
+    }
+
+    public synchronized long getLastOutageMillis() {
+        return mLastOutageNanos / 1000000L;
+    }
+
+    /**
+     * 切断から、再接続後に購読ごとの最初のイベントを受信するまでの時間を取得する.
+     *
+     * @return 復旧時間
+     */
+    public LatencyHistogram getRecoveryLatency() {
+        return mRecoveryLatency;
+    }
+
+    /**
+     * 指定した購読で欠落したイベントの数を取得する.
+     *
+     * @param serviceId サービスID
+     * @param path APIパス
+     * @return イベントの数. 購読が登録されていない場合は 0
+     */
+    public synchronized long getMissedCount(final String serviceId, final DConnectPath path) {
+        Stream stream = mStreams.get(toKey(serviceId, path));
+        return stream != null ? stream.mMissedCount : 0;
+    }
+
+    /**
+     * 削除した購読を含め、欠落したイベントの数の合計を取得する.
+     *
+     * @return イベントの数
+     */
+    public synchronized long getTotalMissedCount() {
+        long count = mRemovedMissedCount;
+        for (Stream stream : mStreams.values()) {
+            count += stream.mMissedCount;
+        }
+        return count;
+    }
+
+    /**
+     * 記録をJSON文字列に変換する.
+     *
+     * @return JSON文字列
+     */
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"disconnected\":").append(mDisconnected)
+                .append(",\"outages\":").append(mOutageCount)
+                .append(",\"totalOutageMillis\":").append(getTotalOutageMillis())
+                .append(",\"maxOutageMillis\":").append(getMaxOutageMillis())
+                .append(",\"lastOutageMillis\":").append(getLastOutageMillis())
+                .append(",\"missed\":").append(getTotalMissedCount())
+                .append(",\"recoveryP50Millis\":").append(mRecoveryLatency.getPercentileMicros(50) / 1000)
+                .append(",\"recoveryMaxMillis\":").append(mRecoveryLatency.getMaxMicros() / 1000)
+                .append(",\"subscriptions\":[");
+        List<Stream> streams = new ArrayList<>(mStreams.values());
+        for (int i = 0; i < streams.size(); i++) {
+            Stream stream = streams.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"serviceId\":\"").append(stream.mServiceId)
+                    .append("\",\"path\":\"").append(stream.mPath)
+                    .append("\",\"events\":").append(stream.mEventCount)
+                    .append(",\"missed\":").append(stream.mMissedCount)
+                    .append(",\"recoveries\":").append(stream.mRecoveryCount)
+                    .append(",\"intervalMillis\":").append(stream.mIntervalNanos / 1000000L)
+                    .append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String toKey(final String serviceId, final DConnectPath path) {
+        return serviceId.toLowerCase(Locale.ENGLISH) + ":" + path.getSupportKey();
+    }
+
+    /**
+     * 購読ごとの受信状況.
+     */
+    private static class Stream {
+        final String mServiceId;
+        final DConnectPath mPath;
+        long mLastEventNanos;
+
+        /**
+         * 受信間隔の移動平均. 単位はナノ秒. 2件目を受信するまでは 0.
+         */
+        long mIntervalNanos;
+
+        long mEventCount;
+        long mMissedCount;
+        long mRecoveryCount;
+
+        /**
+         * 再接続後の最初のイベントを待っているかどうか.
+         */
+        boolean mRecovering;
+
+        /**
+         * 待っている復旧の切断時刻.
+         */
+        long mOutageStart;
+
+        Stream(final String serviceId, final DConnectPath path) {
+            mServiceId = serviceId;
+            mPath = path;
+        }
+    }
+}
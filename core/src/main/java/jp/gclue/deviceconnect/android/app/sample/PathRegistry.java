@@ -0,0 +1,81 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * 解析済みの {@link DConnectPath} を文字列ごとに1つだけ保持するクラス.
+ *
+ * 同じ文字列を2回目以降に解析する場合は、解析も文字列の生成も行わずに保持しているインスタンスを返す.
+ * アプリが扱うAPIパスの種類は少ないので、上限 ({@link #DEFAULT_MAX_SIZE}) を超えた分は保持せずに毎回解析する.
+ *
+ * このクラスはスレッドセーフである.
+ */
+public class PathRegistry {
+
+    /**
+     * 保持するパスの数の上限の既定値.
+     */
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    /**
+     * 解析済みのパス. キーは解析前の文字列.
+     */
+    private final ConcurrentHashMap<String, DConnectPath> mPaths = new ConcurrentHashMap<>();
+
+    /**
+     * 保持するパスの数の上限.
+     */
+    private final int mMaxSize;
+
+    /**
+     * コンストラクタ.
+     */
+    public PathRegistry() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * @param maxSize 保持するパスの数の上限
+     */
+    public PathRegistry(final int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * APIパスの文字列に対応する {@link DConnectPath} を取得する.
+     *
+     * @param path APIパスの文字列
+     * @return APIパス. 不正な形式の場合は <code>null</code>
+     */
+    public DConnectPath intern(final String path) {
+        DConnectPath result = mPaths.get(path);
+        if (result != null) {
+            return result;
+        }
+        result = DConnectPath.parse(path);
+        if (result == null || mPaths.size() >= mMaxSize) {
+            return result;
+        }
+        DConnectPath previous = mPaths.putIfAbsent(path, result);
+        return previous != null ? previous : result;
+    }
+
+    /**
+     * 保持しているパスの数を取得する.
+     *
+     * @return パスの数
+     */
+    public int size() {
+        return mPaths.size();
+    }
+
+    /**
+     * 保持しているパスをすべて破棄する.
+     */
+    public void clear() {
+        mPaths.clear();
+    }
+}
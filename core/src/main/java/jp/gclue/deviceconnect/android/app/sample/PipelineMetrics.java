@@ -0,0 +1,328 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * イベントの受信から画面表示までの各段階のレイテンシと件数を計測するクラス.
+ *
+ * 各段階の時刻は {@link System#nanoTime()} で取得し、段階ごとに次の値を記録する.
+ * <ul>
+ *     <li>レイテンシのヒストグラム ({@link LatencyHistogram})</li>
+ *     <li>閾値を超えたレイテンシの件数 (遅延)</li>
+ *     <li>途中で破棄した件数 (欠落)</li>
+ * </ul>
+ * 記録はロックを使用せずに行うので、任意のスレッドから呼び出してよい.
+ * 集計結果は {@link #snapshot()} で取得する.
+ */
+public class PipelineMetrics {
+
+    /**
+     * 段階: イベントの受信から、イベント受信スレッドでの処理の完了まで.
+     *
+     * SDKは WebSocket で受信したイベントをそのまま <code>OnEventListener.onMessage</code> に渡すので、
+     * <code>onMessage</code> の呼び出し時刻を受信時刻とする.
+     */
+    public static final int STAGE_RECEIVE = 0;
+
+    /**
+     * 段階: イベントの受信から、解析したサンプルをチャネルに書き込むまで.
+     */
+    public static final int STAGE_DECODE = 1;
+
+    /**
+     * 段階: イベントの受信から、購読者への配送 (ブロードキャストの送信を含む) が完了するまで.
+     */
+    public static final int STAGE_NOTIFY = 2;
+
+    /**
+     * 段階: ブロードキャストの送信から、画面での受信まで.
+     */
+    public static final int STAGE_BROADCAST = 3;
+
+    /**
+     * 段階: 集計結果の通知から、UIスレッドでの読み出しまで.
+     */
+    public static final int STAGE_HANDOFF = 4;
+
+    /**
+     * 段階: 画面のログへの追加から、表示の更新まで.
+     */
+    public static final int STAGE_UI = 5;
+
+    /**
+     * 段階: バッチの先頭のサンプルを追加してから、バッチを送信するまで.
+     */
+    public static final int STAGE_BATCH = 6;
+
+    /**
+     * 段階の名前. 添字は STAGE_ で始まる定数.
+     */
+    private static final String[] STAGE_NAMES = {
+            "receive", "decode", "notify", "broadcast", "handoff", "ui", "batch"
+    };
+
+    /**
+     * 段階の数.
+     */
+    public static final int STAGE_COUNT = STAGE_NAMES.length;
+
+    /**
+     * 段階ごとのレイテンシ.
+     */
+    private final LatencyHistogram[] mLatencies = new LatencyHistogram[STAGE_COUNT];
+
+    /**
+     * 段階ごとの遅延と判定するレイテンシの閾値. 単位はナノ秒. 0の場合は判定しない.
+     */
+    private final AtomicLongArray mLateThresholds = new AtomicLongArray(STAGE_COUNT);
+
+    /**
+     * 段階ごとの遅延の件数.
+     */
+    private final AtomicLongArray mLateCounts = new AtomicLongArray(STAGE_COUNT);
+
+    /**
+     * 段階ごとの欠落の件数.
+     */
+    private final AtomicLongArray mDroppedCounts = new AtomicLongArray(STAGE_COUNT);
+
+    /**
+     * 計測を開始した時刻. 単位はナノ秒.
+     */
+    private volatile long mStartNanos = System.nanoTime();
+
+    /**
+     * コンストラクタ.
+     */
+    public PipelineMetrics() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mLatencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * 遅延と判定するレイテンシの閾値を設定する.
+     *
+     * @param stage STAGE_ で始まる定数
+     * @param thresholdNanos 閾値. 単位はナノ秒. 0の場合は判定しない
+     * @return このオブジェクト
+     */
+    public PipelineMetrics setLateThreshold(final int stage, final long thresholdNanos) {
+        mLateThresholds.set(stage, thresholdNanos);
+        return this;
+    }
+
+    /**
+     * 段階のレイテンシを記録する.
+     *
+     * @param stage STAGE_ で始まる定数
+     * @param startNanos 段階の開始時刻. 単位はナノ秒
+     * @return 段階の終了時刻 (現在時刻). 単位はナノ秒. 次の段階の開始時刻として使用できる
+     */
+    public long record(final int stage, final long startNanos) {
+        long now = System.nanoTime();
+        recordElapsed(stage, now - startNanos);
+        return now;
+    }
+
+    /**
+     * 段階のレイテンシを記録する.
+     *
+     * @param stage STAGE_ で始まる定数
+     * @param elapsedNanos レイテンシ. 単位はナノ秒
+     */
+    public void recordElapsed(final int stage, final long elapsedNanos) {
+        mLatencies[stage].record(elapsedNanos);
+        long threshold = mLateThresholds.get(stage);
+        if (threshold > 0 && elapsedNanos > threshold) {
+            mLateCounts.incrementAndGet(stage);
+        }
+    }
+
+    /**
+     * 段階で破棄した件数を記録する.
+     *
+     * @param stage STAGE_ で始まる定数
+     * @param count 件数
+     */
+    public void addDropped(final int stage, final long count) {
+        if (count > 0) {
+            mDroppedCounts.addAndGet(stage, count);
+        }
+    }
+
+    /**
+     * 段階のレイテンシのヒストグラムを取得する.
+     *
+     * @param stage STAGE_ で始まる定数
+     * @return ヒストグラム
+     */
+    public LatencyHistogram getLatency(final int stage) {
+        return mLatencies[stage];
+    }
+
+    /**
+     * 記録をすべて破棄して、計測を開始し直す.
+     */
+    public void reset() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mLatencies[i].reset();
+            mLateCounts.set(i, 0);
+            mDroppedCounts.set(i, 0);
+        }
+        mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * 現在の集計結果を取得する.
+     *
+     * @return 集計結果
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * 段階の名前を取得する.
+     *
+     * @param stage STAGE_ で始まる定数
+     * @return 名前
+     */
+    public static String stageToString(final int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * ある時点の集計結果.
+     *
+     * レイテンシの単位はマイクロ秒.
+     */
+    public static class Snapshot {
+        private final long mTimestamp;
+        private final long mElapsedNanos;
+        private final long[] mCounts = new long[STAGE_COUNT];
+        private final long[] mLateCounts = new long[STAGE_COUNT];
+        private final long[] mDroppedCounts = new long[STAGE_COUNT];
+        private final long[] mMeanMicros = new long[STAGE_COUNT];
+        private final long[] mP50Micros = new long[STAGE_COUNT];
+        private final long[] mP99Micros = new long[STAGE_COUNT];
+        private final long[] mMaxMicros = new long[STAGE_COUNT];
+
+        Snapshot(final PipelineMetrics metrics) {
+            mTimestamp = System.currentTimeMillis();
+            mElapsedNanos = System.nanoTime() - metrics.mStartNanos;
+            for (int i = 0; i < STAGE_COUNT; i++) {
+                LatencyHistogram latency = metrics.mLatencies[i];
+                mCounts[i] = latency.getCount();
+                mLateCounts[i] = metrics.mLateCounts.get(i);
+                mDroppedCounts[i] = metrics.mDroppedCounts.get(i);
+                mMeanMicros[i] = latency.getMeanMicros();
+                mP50Micros[i] = latency.getPercentileMicros(50);
+                mP99Micros[i] = latency.getPercentileMicros(99);
+                mMaxMicros[i] = latency.getMaxMicros();
+            }
+        }
+
+        /**
+         * 集計結果を取得した時刻を取得する.
+         *
+         * @return 時刻. 単位はミリ秒
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        /**
+         * 計測を開始してからの経過時間を取得する.
+         *
+         * @return 経過時間. 単位はミリ秒
+         */
+        public long getElapsedMillis() {
+            return mElapsedNanos / 1000000L;
+        }
+
+        public long getCount(final int stage) {
+            return mCounts[stage];
+        }
+
+        public long getLateCount(final int stage) {
+            return mLateCounts[stage];
+        }
+
+        public long getDroppedCount(final int stage) {
+            return mDroppedCounts[stage];
+        }
+
+        public long getMeanMicros(final int stage) {
+            return mMeanMicros[stage];
+        }
+
+        public long getP50Micros(final int stage) {
+            return mP50Micros[stage];
+        }
+
+        public long getP99Micros(final int stage) {
+            return mP99Micros[stage];
+        }
+
+        public long getMaxMicros(final int stage) {
+            return mMaxMicros[stage];
+        }
+
+        /**
+         * 段階のスループットを取得する.
+         *
+         * @param stage STAGE_ で始まる定数
+         * @return 1秒あたりの件数
+         */
+        public double getThroughput(final int stage) {
+            return mElapsedNanos > 0 ? mCounts[stage] * 1e9 / mElapsedNanos : 0;
+        }
+
+        /**
+         * 集計結果をJSON文字列に変換する.
+         *
+         * @return JSON文字列
+         */
+        public String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"timestamp\":").append(mTimestamp)
+                    .append(",\"elapsedMillis\":").append(getElapsedMillis())
+                    .append(",\"stages\":{");
+            for (int i = 0; i < STAGE_COUNT; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append('"').append(STAGE_NAMES[i]).append("\":{")
+                        .append("\"count\":").append(mCounts[i])
+                        .append(",\"late\":").append(mLateCounts[i])
+                        .append(",\"dropped\":").append(mDroppedCounts[i])
+                        .append(",\"throughput\":").append(Math.round(getThroughput(i) * 100) / 100.0)
+                        .append(",\"meanMicros\":").append(mMeanMicros[i])
+                        .append(",\"p50Micros\":").append(mP50Micros[i])
+                        .append(",\"p99Micros\":").append(mP99Micros[i])
+                        .append(",\"maxMicros\":").append(mMaxMicros[i])
+                        .append('}');
+            }
+            return json.append("}}").toString();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder("elapsed=").append(getElapsedMillis()).append("ms");
+            for (int i = 0; i < STAGE_COUNT; i++) {
+                if (mCounts[i] == 0 && mDroppedCounts[i] == 0) {
+                    continue;
+                }
+                s.append(", ").append(STAGE_NAMES[i]).append("={count=").append(mCounts[i])
+                        .append(", late=").append(mLateCounts[i])
+                        .append(", dropped=").append(mDroppedCounts[i])
+                        .append(", mean=").append(mMeanMicros[i]).append("us")
+                        .append(", p99=").append(mP99Micros[i]).append("us")
+                        .append(", max=").append(mMaxMicros[i]).append("us}");
+            }
+            return s.toString();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * {@link ReadinessProber} の計測値.
+ *
+ * コールドスタート時の待機パラメータを調整するために、
+ * 試行回数・準備完了までの時間・1回の確認にかかった時間の分布を記録する.
+ */
+public class ReadinessMetrics {
+
+    /**
+     * 直近の待機での試行回数.
+     */
+    private final AtomicLong mLastAttempts = new AtomicLong();
+
+    /**
+     * 累計の試行回数.
+     */
+    private final AtomicLong mTotalAttempts = new AtomicLong();
+
+    /**
+     * 直近の待機で準備完了までにかかった時間. 単位はミリ秒. 未完了の場合は -1.
+     */
+    private final AtomicLong mLastTimeToReady = new AtomicLong(-1);
+
+    /**
+     * 準備完了した回数.
+     */
+    private final AtomicLong mReadyCount = new AtomicLong();
+
+    /**
+     * キャンセルされた回数.
+     */
+    private final AtomicLong mCancelCount = new AtomicLong();
+
+    /**
+     * 1回の確認にかかった時間の分布.
+     */
+    private final LatencyHistogram mProbeLatency = new LatencyHistogram();
+
+    void onWaitStarted() {
+        mLastAttempts.set(0);
+        mLastTimeToReady.set(-1);
+    }
+
+    void onProbe(final long latencyNanos) {
+        mLastAttempts.incrementAndGet();
+        mTotalAttempts.incrementAndGet();
+        mProbeLatency.record(latencyNanos);
+    }
+
+    void onReady(final long timeToReadyNanos) {
+        mLastTimeToReady.set(timeToReadyNanos / 1000000L);
+        mReadyCount.incrementAndGet();
+    }
+
+    void onCancelled() {
+        mCancelCount.incrementAndGet();
+    }
+
+    /**
+     * 直近の待機での試行回数を取得する.
+     *
+     * @return 試行回数
+     */
+    public long getLastAttempts() {
+        return mLastAttempts.get();
+    }
+
+    /**
+     * 累計の試行回数を取得する.
+     *
+     * @return 試行回数
+     */
+    public long getTotalAttempts() {
+        return mTotalAttempts.get();
+    }
+
+    /**
+     * 直近の待機で準備完了までにかかった時間を取得する.
+     *
+     * @return 時間. 単位はミリ秒. 準備完了していない場合は -1
+     */
+    public long getLastTimeToReady() {
+        return mLastTimeToReady.get();
+    }
+
+    /**
+     * 準備完了した回数を取得する.
+     *
+     * @return 回数
+     */
+    public long getReadyCount() {
+        return mReadyCount.get();
+    }
+
+    /**
+     * キャンセルされた回数を取得する.
+     *
+     * @return 回数
+     */
+    public long getCancelCount() {
+        return mCancelCount.get();
+    }
+
+    /**
+     * 1回の確認にかかった時間の分布を取得する.
+     *
+     * @return ヒストグラム
+     */
+    public LatencyHistogram getProbeLatency() {
+        return mProbeLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "attempts=" + getLastAttempts()
+                + ", totalAttempts=" + getTotalAttempts()
+                + ", timeToReady=" + getLastTimeToReady() + "ms"
+                + ", ready=" + getReadyCount()
+                + ", cancelled=" + getCancelCount()
+                + ", probeLatency={" + mProbeLatency + "}";
+    }
+}
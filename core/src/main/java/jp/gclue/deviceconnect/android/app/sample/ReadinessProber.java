@@ -0,0 +1,128 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+
+/**
+ * 対象が利用可能になるまで、指数バックオフで確認を繰り返すクラス.
+ *
+ * 待機は {@link #cancel()} またはスレッドへの割り込みで直ちに終了する.
+ * 複数のスレッドから同時に待機してよい. 待機ごとに独立した間隔で確認し、キャンセルはすべての待機に届く.
+ */
+public class ReadinessProber {
+
+    /**
+     * 利用可能かどうかを確認する処理.
+     */
+    public interface Probe {
+        /**
+         * 対象が利用可能かどうかを確認する.
+         *
+         * この処理はスレッドをブロックしてよい.
+         *
+         * @return 利用可能な場合は <code>true</code>
+         */
+        boolean isReady();
+    }
+
+    /**
+     * 確認の間隔の設定. 待機ごとに {@link Backoff#copy()} で複製して使用する.
+     */
+    private final Backoff mBackoff;
+
+    /**
+     * 計測値.
+     */
+    private final ReadinessMetrics mMetrics = new ReadinessMetrics();
+
+    /**
+     * 待機の中断に使用するロック.
+     */
+    private final Object mLock = new Object();
+
+    /**
+     * キャンセルされたかどうか.
+     */
+    private volatile boolean mCancelled;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param backoff 確認の間隔を算出するオブジェクト
+     */
+    public ReadinessProber(final Backoff backoff) {
+        mBackoff = backoff;
+    }
+
+    /**
+     * 対象が利用可能になるまでスレッドをブロックする.
+     *
+     * 複数のスレッドから呼び出された場合、それぞれ並行して確認を繰り返す.
+     * 待機中のスレッドはロックを保持しないので、割り込みと {@link #cancel()} は直ちに反映される.
+     *
+     * @param probe 利用可能かどうかを確認する処理
+     * @return 利用可能になった場合は <code>true</code>. キャンセルされた場合は <code>false</code>
+     * @throws InterruptedException 待機中に割り込みが入った場合
+     */
+    public boolean await(final Probe probe) throws InterruptedException {
+        final long start = System.nanoTime();
+        Backoff backoff = mBackoff.copy();
+        mMetrics.onWaitStarted();
+
+        try {
+            while (!mCancelled) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                long probeStart = System.nanoTime();
+                boolean ready = probe.isReady();
+                mMetrics.onProbe(System.nanoTime() - probeStart);
+                if (ready) {
+                    mMetrics.onReady(System.nanoTime() - start);
+                    return true;
+                }
+
+                long delay = backoff.nextDelay();
+                synchronized (mLock) {
+                    if (!mCancelled) {
+                        mLock.wait(delay);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            mMetrics.onCancelled();
+            throw e;
+        }
+        mMetrics.onCancelled();
+        return false;
+    }
+
+    /**
+     * 待機をキャンセルする.
+     *
+     * 以降の {@link #await(Probe)} は直ちに <code>false</code> を返す.
+     */
+    public void cancel() {
+        mCancelled = true;
+        synchronized (mLock) {
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * キャンセルされたかどうかを取得する.
+     *
+     * @return キャンセルされた場合は <code>true</code>
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * 計測値を取得する.
+     *
+     * @return 計測値
+     */
+    public ReadinessMetrics getMetrics() {
+        return mMetrics;
+    }
+}
@@ -0,0 +1,123 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+
+/**
+ * {@link SampleBatcher.Batch} をブロードキャストで受け渡すための形式.
+ *
+ * 送信側は {@link #write(SampleBatcher.Batch, Extras)} でサンプルを配列のまま書き込み、
+ * 受信側は {@link #read(Extras)} で読み出す. 書き込み先は Android の <code>Intent</code> に依存しないように
+ * {@link Extras} で抽象化する.
+ */
+public final class SampleBatchPayload {
+
+    /**
+     * サンプルのタイムスタンプの配列 (long[]) のキー.
+     */
+    public static final String KEY_TIMESTAMPS = "timestamps";
+
+    /**
+     * サンプルのX軸の値の配列 (float[]) のキー.
+     */
+    public static final String KEY_X = "x";
+
+    /**
+     * サンプルのY軸の値の配列 (float[]) のキー.
+     */
+    public static final String KEY_Y = "y";
+
+    /**
+     * サンプルのZ軸の値の配列 (float[]) のキー.
+     */
+    public static final String KEY_Z = "z";
+
+    /**
+     * 配列の書き込み先・読み出し元.
+     */
+    public interface Extras {
+        void putLongArray(String key, long[] value);
+
+        void putFloatArray(String key, float[] value);
+
+        /**
+         * 配列を取得する.
+         *
+         * @param key キー
+         * @return 配列. 含まれていない場合は <code>null</code>
+         */
+        long[] getLongArray(String key);
+
+        /**
+         * 配列を取得する.
+         *
+         * @param key キー
+         * @return 配列. 含まれていない場合は <code>null</code>
+         */
+        float[] getFloatArray(String key);
+    }
+
+    private final long[] mTimestamps;
+    private final float[] mX;
+    private final float[] mY;
+    private final float[] mZ;
+
+    private SampleBatchPayload(final long[] timestamps, final float[] x, final float[] y, final float[] z) {
+        mTimestamps = timestamps;
+        mX = x;
+        mY = y;
+        mZ = z;
+    }
+
+    /**
+     * バッチを書き込む. 配列は複製せずにそのまま渡す.
+     *
+     * @param batch バッチ
+     * @param extras 書き込み先
+     */
+    public static void write(final SampleBatcher.Batch batch, final Extras extras) {
+        extras.putLongArray(KEY_TIMESTAMPS, batch.getTimestamps());
+        extras.putFloatArray(KEY_X, batch.getX());
+        extras.putFloatArray(KEY_Y, batch.getY());
+        extras.putFloatArray(KEY_Z, batch.getZ());
+    }
+
+    /**
+     * バッチを読み出す.
+     *
+     * @param extras 読み出し元
+     * @return 読み出したサンプル. 配列が欠けている場合、長さが揃っていない場合、空の場合は <code>null</code>
+     */
+    public static SampleBatchPayload read(final Extras extras) {
+        long[] timestamps = extras.getLongArray(KEY_TIMESTAMPS);
+        float[] x = extras.getFloatArray(KEY_X);
+        float[] y = extras.getFloatArray(KEY_Y);
+        float[] z = extras.getFloatArray(KEY_Z);
+        if (timestamps == null || x == null || y == null || z == null || timestamps.length == 0) {
+            return null;
+        }
+        int size = timestamps.length;
+        if (x.length != size || y.length != size || z.length != size) {
+            return null;
+        }
+        return new SampleBatchPayload(timestamps, x, y, z);
+    }
+
+    public int size() {
+        return mTimestamps.length;
+    }
+
+    public long getTimestamp(final int index) {
+        return mTimestamps[index];
+    }
+
+    public float getX(final int index) {
+        return mX[index];
+    }
+
+    public float getY(final int index) {
+        return mY[index];
+    }
+
+    public float getZ(final int index) {
+        return mZ[index];
+    }
+}
@@ -0,0 +1,298 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * サンプルをまとめて1回で配送するためのバッチ処理.
+ *
+ * 受け取ったサンプルをプリミティブ型の配列に詰め、次のいずれかの時点で {@link Listener} に渡す.
+ * <ul>
+ *     <li>サンプル数が上限に達した時点</li>
+ *     <li>先頭のサンプルを受け取ってから、最大待ち時間が経過した時点</li>
+ *     <li>{@link #flush()} を呼び出した時点</li>
+ * </ul>
+ * サンプルごとに配送する場合と比べて、最大待ち時間の分だけ遅延が増える代わりに、受信側の呼び出し回数が減る.
+ *
+ * 任意のスレッドから呼び出してよい. {@link Listener} はロックを保持したまま呼び出すので、バッチは作成した順に渡す.
+ */
+public class SampleBatcher implements SampleChannel.SampleSink {
+
+    /**
+     * 送信の理由: サンプル数が上限に達した.
+     */
+    public static final int REASON_SIZE = 0;
+
+    /**
+     * 送信の理由: 最大待ち時間が経過した.
+     */
+    public static final int REASON_DEADLINE = 1;
+
+    /**
+     * 送信の理由: {@link #flush()} が呼び出された.
+     */
+    public static final int REASON_DEMAND = 2;
+
+    /**
+     * バッチを受け取るリスナー.
+     */
+    public interface Listener {
+        /**
+         * バッチを受け取る.
+         *
+         * バッチの配列は以降変更しないので、別のスレッドに渡してよい.
+         *
+         * @param batch バッチ
+         */
+        void onBatch(Batch batch);
+    }
+
+    /**
+     * 1つのバッチに含めるサンプル数の上限.
+     */
+    private final int mMaxSize;
+
+    /**
+     * 先頭のサンプルを受け取ってから送信するまでの最大待ち時間. 単位はミリ秒. 0の場合は待たない.
+     */
+    private final long mMaxLatency;
+
+    /**
+     * 最大待ち時間の経過を待つスレッド.
+     */
+    private final ScheduledExecutorService mScheduler;
+
+    /**
+     * バッチを受け取るリスナー.
+     */
+    private final Listener mListener;
+
+    private final long[] mTimestamps;
+    private final float[] mX;
+    private final float[] mY;
+    private final float[] mZ;
+    private int mSize;
+
+    /**
+     * 作成中のバッチの先頭のサンプルを受け取った時刻. 単位はナノ秒.
+     */
+    private long mFirstNanos;
+
+    /**
+     * 作成中のバッチの通し番号. 送信済みのバッチに対する待ち時間の経過を無視するために使用する.
+     */
+    private long mGeneration;
+
+    /**
+     * 作成中のバッチの最大待ち時間の経過を待つ処理.
+     */
+    private ScheduledFuture<?> mDeadline;
+
+    private final long[] mFlushCounts = new long[3];
+    private long mSampleCount;
+    private boolean mClosed;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param maxSize 1つのバッチに含めるサンプル数の上限
+     * @param maxLatency 先頭のサンプルを受け取ってから送信するまでの最大待ち時間. 単位はミリ秒. 0の場合は待たずに送信する
+     * @param scheduler 最大待ち時間の経過を待つスレッド
+     * @param listener バッチを受け取るリスナー
+     */
+    public SampleBatcher(final int maxSize, final long maxLatency,
+                         final ScheduledExecutorService scheduler, final Listener listener) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        if (maxLatency < 0) {
+            throw new IllegalArgumentException("maxLatency must not be negative: " + maxLatency);
+        }
+        mMaxSize = maxSize;
+        mMaxLatency = maxLatency;
+        mScheduler = scheduler;
+        mListener = listener;
+        mTimestamps = new long[maxSize];
+        mX = new float[maxSize];
+        mY = new float[maxSize];
+        mZ = new float[maxSize];
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public long getMaxLatency() {
+        return mMaxLatency;
+    }
+
+    @Override
+    public synchronized void onSample(final long timestamp, final float x, final float y, final float z) {
+        if (mClosed) {
+            return;
+        }
+        if (mSize == 0) {
+            mFirstNanos = System.nanoTime();
+            if (mMaxLatency > 0 && mMaxSize > 1) {
+                scheduleDeadline();
+            }
+        }
+        mTimestamps[mSize] = timestamp;
+        mX[mSize] = x;
+        mY[mSize] = y;
+        mZ[mSize] = z;
+        mSize++;
+        mSampleCount++;
+        if (mSize == mMaxSize || mMaxLatency == 0) {
+            flushLocked(REASON_SIZE);
+        }
+    }
+
+    private void scheduleDeadline() {
+        final long generation = mGeneration;
+        try {
+            mDeadline = mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (SampleBatcher.this) {
+                        if (mGeneration == generation) {
+                            flushLocked(REASON_DEADLINE);
+                        }
+                    }
+                }
+            }, mMaxLatency, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // スケジューラが停止している場合は、サイズか flush() でのみ送信する.
+            mDeadline = null;
+        }
+    }
+
+    /**
+     * 作成中のバッチを直ちに送信する.
+     *
+     * @return 送信したサンプル数. 作成中のバッチが空の場合は 0
+     */
+    public synchronized int flush() {
+        return flushLocked(REASON_DEMAND);
+    }
+
+    private int flushLocked(final int reason) {
+        int size = mSize;
+        if (size == 0) {
+            return 0;
+        }
+        Batch batch = new Batch(Arrays.copyOf(mTimestamps, size), Arrays.copyOf(mX, size),
+                Arrays.copyOf(mY, size), Arrays.copyOf(mZ, size), mFirstNanos, reason);
+        mSize = 0;
+        mGeneration++;
+        if (mDeadline != null) {
+            mDeadline.cancel(false);
+            mDeadline = null;
+        }
+        mFlushCounts[reason]++;
+        mListener.onBatch(batch);
+        return size;
+    }
+
+    /**
+     * 作成中のバッチを送信し、以降のサンプルを破棄する.
+     */
+    public synchronized void close() {
+        flushLocked(REASON_DEMAND);
+        mClosed = true;
+    }
+
+    /**
+     * 指定した理由で送信したバッチの数を取得する.
+     *
+     * @param reason REASON_ で始まる定数
+     * @return バッチの数
+     */
+    public synchronized long getFlushCount(final int reason) {
+        return mFlushCounts[reason];
+    }
+
+    /**
+     * 送信したバッチの数を取得する.
+     *
+     * @return バッチの数
+     */
+    public synchronized long getBatchCount() {
+        return mFlushCounts[REASON_SIZE] + mFlushCounts[REASON_DEADLINE] + mFlushCounts[REASON_DEMAND];
+    }
+
+    /**
+     * 受け取ったサンプルの数を取得する.
+     *
+     * @return サンプルの数
+     */
+    public synchronized long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * 送信するサンプルの集まり.
+     *
+     * 各配列の長さはサンプル数と等しい.
+     */
+    public static class Batch {
+        private final long[] mTimestamps;
+        private final float[] mX;
+        private final float[] mY;
+        private final float[] mZ;
+        private final long mFirstNanos;
+        private final int mReason;
+
+        Batch(final long[] timestamps, final float[] x, final float[] y, final float[] z,
+              final long firstNanos, final int reason) {
+            mTimestamps = timestamps;
+            mX = x;
+            mY = y;
+            mZ = z;
+            mFirstNanos = firstNanos;
+            mReason = reason;
+        }
+
+        public int size() {
+            return mTimestamps.length;
+        }
+
+        public long[] getTimestamps() {
+            return mTimestamps;
+        }
+
+        public float[] getX() {
+            return mX;
+        }
+
+        public float[] getY() {
+            return mY;
+        }
+
+        public float[] getZ() {
+            return mZ;
+        }
+
+        /**
+         * 先頭のサンプルを受け取った時刻を取得する.
+         *
+         * @return 時刻 ({@link System#nanoTime()})
+         */
+        public long getFirstNanos() {
+            return mFirstNanos;
+        }
+
+        /**
+         * 送信の理由を取得する.
+         *
+         * @return REASON_ で始まる定数
+         */
+        public int getReason() {
+            return mReason;
+        }
+    }
+}
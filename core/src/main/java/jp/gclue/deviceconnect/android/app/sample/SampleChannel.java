@@ -0,0 +1,403 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * センサーのサンプル (タイムスタンプ, x, y, z) をプロセス内で受け渡すチャネル.
+ *
+ * サンプルは事前に確保したプリミティブ型の配列にリングバッファとして格納するので、
+ * 書き込み・読み出しのどちらでもオブジェクトを生成しない.
+ *
+ * サンプルには、どのデバイスのサンプルかを示す番号を付けられる. 番号は {@link SourceSampleSink} で読み出す.
+ *
+ * 書き込みは1つのスレッドから行うこと. 読み出しは {@link Cursor} ごとに独立しており、
+ * 書き込みに追いつけずに上書きされたサンプルは読み飛ばして {@link Cursor#getDroppedCount()} に計上する.
+ * 次に上書きされる位置のサンプルも読み飛ばすので、読み出せる未読のサンプルはバッファサイズより1つ少ない.
+ *
+ * バッファの各要素は順序付きの書き込み (<code>lazySet</code>) と volatile の読み出しでアクセスする.
+ * 読み出した値が上書き中のものであれば、その後に読む書き込み位置に上書きが必ず反映されるので、
+ * 書き込み位置の確認で読み捨てられる. 値の書き込みも読み出しも、x86 や ARM では通常のメモリアクセスとほぼ同じコストで済む.
+ */
+public class SampleChannel {
+
+    /**
+     * バッファサイズのデフォルト値.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * デバイスの番号を付けずに書き込んだサンプルの番号.
+     */
+    public static final int SOURCE_UNKNOWN = -1;
+
+    /**
+     * サンプルを受け取るインターフェース.
+     */
+    public interface SampleSink {
+        /**
+         * サンプルを受け取る.
+         *
+         * @param timestamp タイムスタンプ. 単位はミリ秒
+         * @param x X軸の値
+         * @param y Y軸の値
+         * @param z Z軸の値
+         */
+        void onSample(long timestamp, float x, float y, float z);
+    }
+
+    /**
+     * デバイスの番号と共にサンプルを受け取るインターフェース.
+     */
+    public interface SourceSampleSink {
+        /**
+         * サンプルを受け取る.
+         *
+         * @param source デバイスの番号. 番号を付けずに書き込んだ場合は {@link #SOURCE_UNKNOWN}
+         * @param timestamp タイムスタンプ. 単位はミリ秒
+         * @param x X軸の値
+         * @param y Y軸の値
+         * @param z Z軸の値
+         */
+        void onSample(int source, long timestamp, float x, float y, float z);
+    }
+
+    /**
+     * サンプルが書き込まれたことを通知するリスナー.
+     */
+    public interface Listener {
+        /**
+         * サンプルが書き込まれたことを通知する.
+         *
+         * 書き込みを行ったスレッドで呼び出されるので、この中で重い処理を行わないこと.
+         *
+         * @param channel サンプルが書き込まれたチャネル
+         */
+        void onSampleAvailable(SampleChannel channel);
+    }
+
+    /**
+     * バッファのインデックス計算に使用するマスク.
+     */
+    private final int mMask;
+
+    /**
+     * タイムスタンプのバッファ.
+     */
+    private final AtomicLongArray mTimestamps;
+
+    /**
+     * X軸の値のバッファ. {@link Float#floatToRawIntBits(float)} で変換して格納する.
+     */
+    private final AtomicIntegerArray mX;
+
+    /**
+     * Y軸の値のバッファ. {@link Float#floatToRawIntBits(float)} で変換して格納する.
+     */
+    private final AtomicIntegerArray mY;
+
+    /**
+     * Z軸の値のバッファ. {@link Float#floatToRawIntBits(float)} で変換して格納する.
+     */
+    private final AtomicIntegerArray mZ;
+
+    /**
+     * デバイスの番号のバッファ.
+     */
+    private final AtomicIntegerArray mSources;
+
+    /**
+     * 書き込み済みのサンプル数.
+     *
+     * 次に書き込むサンプルのシーケンス番号でもある.
+     */
+    private final AtomicLong mWriteSequence = new AtomicLong();
+
+    /**
+     * リスナー一覧.
+     */
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 使用中の読み出し位置の一覧.
+     */
+    private final CopyOnWriteArrayList<Cursor> mCursors = new CopyOnWriteArrayList<>();
+
+    /**
+     * {@link #publish(long, float, float, float)} を {@link SampleSink} として呼び出すオブジェクト.
+     */
+    private final SampleSink mSink = new SampleSink() {
+        @Override
+        public void onSample(final long timestamp, final float x, final float y, final float z) {
+            publish(timestamp, x, y, z);
+        }
+    };
+
+    /**
+     * コンストラクタ.
+     *
+     * @param capacity バッファサイズ. 2の累乗に切り上げる
+     */
+    public SampleChannel(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mTimestamps = new AtomicLongArray(size);
+        mX = new AtomicIntegerArray(size);
+        mY = new AtomicIntegerArray(size);
+        mZ = new AtomicIntegerArray(size);
+        mSources = new AtomicIntegerArray(size);
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * バッファサイズには {@link #DEFAULT_CAPACITY} を使用する.
+     */
+    public SampleChannel() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * バッファサイズを取得する.
+     *
+     * @return バッファサイズ
+     */
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * 書き込み済みのサンプル数を取得する.
+     *
+     * @return サンプル数
+     */
+    public long getWriteSequence() {
+        return mWriteSequence.get();
+    }
+
+    /**
+     * サンプルを書き込み、リスナーに通知する.
+     *
+     * @param timestamp タイムスタンプ. 単位はミリ秒
+     * @param x X軸の値
+     * @param y Y軸の値
+     * @param z Z軸の値
+     */
+    public void publish(final long timestamp, final float x, final float y, final float z) {
+        publish(timestamp, x, y, z, SOURCE_UNKNOWN);
+    }
+
+    /**
+     * デバイスの番号を付けてサンプルを書き込み、リスナーに通知する.
+     *
+     * @param timestamp タイムスタンプ. 単位はミリ秒
+     * @param x X軸の値
+     * @param y Y軸の値
+     * @param z Z軸の値
+     * @param source デバイスの番号
+     */
+    public void publish(final long timestamp, final float x, final float y, final float z, final int source) {
+        long sequence = mWriteSequence.get();
+        int index = (int) (sequence & mMask);
+        // 上書きする要素の書き込みは、前のサンプルで進めた書き込み位置より後に見える.
+        mTimestamps.lazySet(index, timestamp);
+        mX.lazySet(index, Float.floatToRawIntBits(x));
+        mY.lazySet(index, Float.floatToRawIntBits(y));
+        mZ.lazySet(index, Float.floatToRawIntBits(z));
+        mSources.lazySet(index, source);
+        mWriteSequence.lazySet(sequence + 1);
+
+        for (Listener listener : mListeners) {
+            listener.onSampleAvailable(this);
+        }
+    }
+
+    /**
+     * 受け取ったサンプルをこのチャネルに書き込む {@link SampleSink} を取得する.
+     *
+     * 呼び出しごとに同じオブジェクトを返すので、サンプルごとに呼び出してもオブジェクトを生成しない.
+     *
+     * @return サンプルを書き込むオブジェクト
+     */
+    public SampleSink asSink() {
+        return mSink;
+    }
+
+    /**
+     * リスナーを追加する.
+     *
+     * @param listener リスナー
+     */
+    public void addListener(final Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    /**
+     * リスナーを削除する.
+     *
+     * @param listener リスナー
+     */
+    public void removeListener(final Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * 新しい読み出し位置を作成する.
+     *
+     * 作成した時点以降に書き込まれたサンプルを読み出す.
+     * 使い終わった読み出し位置は {@link Cursor#close()} で閉じること.
+     *
+     * @return 読み出し位置
+     */
+    public Cursor newCursor() {
+        Cursor cursor = new Cursor(mWriteSequence.get());
+        mCursors.add(cursor);
+        return cursor;
+    }
+
+    /**
+     * 使用中の読み出し位置のうち、もっとも多い未読のサンプル数を取得する.
+     *
+     * 消費側の処理の遅れを判断するために使用する.
+     *
+     * @return サンプル数. 読み出し位置がない場合は0
+     */
+    public long getMaxPendingCount() {
+        long write = mWriteSequence.get();
+        long max = 0;
+        for (Cursor cursor : mCursors) {
+            max = Math.max(max, write - cursor.mReadSequence);
+        }
+        return max;
+    }
+
+    /**
+     * チャネルからサンプルを読み出す位置.
+     *
+     * 1つの {@link Cursor} を複数のスレッドから同時に使用しないこと.
+     */
+    public class Cursor {
+
+        /**
+         * 次に読み出すサンプルのシーケンス番号.
+         */
+        private volatile long mReadSequence;
+
+        /**
+         * 読み飛ばしたサンプル数.
+         */
+        private long mDroppedCount;
+
+        Cursor(final long readSequence) {
+            mReadSequence = readSequence;
+        }
+
+        /**
+         * 未読のサンプルをすべて読み出す.
+         *
+         * @param sink サンプルを受け取るオブジェクト
+         * @return 読み出したサンプル数
+         */
+        public int drain(final SampleSink sink) {
+            return drain(sink, Integer.MAX_VALUE);
+        }
+
+        /**
+         * 未読のサンプルを指定した数まで読み出す.
+         *
+         * @param sink サンプルを受け取るオブジェクト
+         * @param maxCount 読み出すサンプル数の上限
+         * @return 読み出したサンプル数
+         */
+        public int drain(final SampleSink sink, final int maxCount) {
+            return drain(sink, null, maxCount);
+        }
+
+        /**
+         * 未読のサンプルを、デバイスの番号と共にすべて読み出す.
+         *
+         * @param sink サンプルを受け取るオブジェクト
+         * @return 読み出したサンプル数
+         */
+        public int drain(final SourceSampleSink sink) {
+            return drain(null, sink, Integer.MAX_VALUE);
+        }
+
+        /**
+         * 未読のサンプルを読み出す. <code>sink</code> と <code>sourceSink</code> のどちらか一方を指定する.
+         */
+        private int drain(final SampleSink sink, final SourceSampleSink sourceSink, final int maxCount) {
+            final int capacity = mMask + 1;
+            long write = mWriteSequence.get();
+            int count = 0;
+            while (mReadSequence < write && count < maxCount) {
+                if (write - mReadSequence >= capacity) {
+                    // 上書きされたサンプルを読み飛ばす. 書き込み位置を進める前に次のサンプルを書き込むので、
+                    // 書き込み位置からちょうど1周前のサンプルも上書き中の可能性がある.
+                    long oldest = write - capacity + 1;
+                    mDroppedCount += oldest - mReadSequence;
+                    mReadSequence = oldest;
+                }
+
+                int index = (int) (mReadSequence & mMask);
+                long timestamp = mTimestamps.get(index);
+                float x = Float.intBitsToFloat(mX.get(index));
+                float y = Float.intBitsToFloat(mY.get(index));
+                float z = Float.intBitsToFloat(mZ.get(index));
+                int source = mSources.get(index);
+
+                // 読み出し中に上書きされていないことを確認. 要素の読み出しは volatile なので、
+                // この確認より後に行われることはない.
+                write = mWriteSequence.get();
+                if (write - mReadSequence >= capacity) {
+                    continue;
+                }
+
+                mReadSequence++;
+                count++;
+                if (sourceSink != null) {
+                    sourceSink.onSample(source, timestamp, x, y, z);
+                } else {
+                    sink.onSample(timestamp, x, y, z);
+                }
+            }
+            return count;
+        }
+
+        /**
+         * 未読のサンプル数を取得する.
+         *
+         * @return サンプル数. バッファサイズを超えることがある
+         */
+        public long getPendingCount() {
+            return mWriteSequence.get() - mReadSequence;
+        }
+
+        /**
+         * 読み出し位置を閉じる.
+         *
+         * 閉じた読み出し位置は {@link SampleChannel#getMaxPendingCount()} の対象外になる.
+         */
+        public void close() {
+            mCursors.remove(this);
+        }
+
+        /**
+         * 読み飛ばしたサンプル数を取得する.
+         *
+         * @return サンプル数
+         */
+        public long getDroppedCount() {
+            return mDroppedCount;
+        }
+    }
+}
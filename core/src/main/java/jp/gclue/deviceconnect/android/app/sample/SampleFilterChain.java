@@ -0,0 +1,403 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * サンプルを順に処理し、変化の小さいサンプルを取り除く演算子の列.
+ *
+ * 演算子 ({@link Operator}) は値を書き換えるもの (低域通過フィルタなど) と、
+ * サンプルを通すかどうかを判定するもの (不感帯など) がある. いずれかの演算子が通さなかったサンプルは、
+ * 以降の演算子と後段の {@link SampleChannel.SampleSink} には渡さない.
+ *
+ * 演算子の状態はプリミティブ型のフィールドに保持し、処理中の値は1つの {@link Sample} を使い回すので、
+ * サンプルごとにオブジェクトを生成しない. 状態はデバイスごとに持つ必要があるので、
+ * {@link Builder} から同じ構成の列をデバイスごとに作成する.
+ *
+ * 1つの列を複数のスレッドから同時に使用しないこと.
+ */
+public class SampleFilterChain implements SampleChannel.SampleSink {
+
+    /**
+     * 演算子.
+     */
+    public interface Operator {
+        /**
+         * サンプルを処理する.
+         *
+         * @param sample 処理中のサンプル. 値を書き換えてよい
+         * @return 後段に渡す場合は <code>true</code>
+         */
+        boolean apply(Sample sample);
+
+        /**
+         * 同じ設定で、状態を持たない演算子を作成する.
+         *
+         * @return 演算子
+         */
+        Operator copy();
+    }
+
+    /**
+     * 処理中のサンプル.
+     */
+    public static final class Sample {
+        private long mTimestamp;
+        private float mX;
+        private float mY;
+        private float mZ;
+
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        public float getX() {
+            return mX;
+        }
+
+        public float getY() {
+            return mY;
+        }
+
+        public float getZ() {
+            return mZ;
+        }
+
+        /**
+         * 値を書き換える.
+         *
+         * @param x X軸の値
+         * @param y Y軸の値
+         * @param z Z軸の値
+         */
+        public void set(final float x, final float y, final float z) {
+            mX = x;
+            mY = y;
+            mZ = z;
+        }
+    }
+
+    /**
+     * 同じ構成の演算子の列を作成するクラス.
+     */
+    public static class Builder {
+        private final List<Operator> mOperators = new ArrayList<>();
+
+        /**
+         * 演算子を末尾に追加する.
+         *
+         * @param operator 演算子. {@link #build(SampleChannel.SampleSink)} のたびに {@link Operator#copy()} で複製する
+         * @return このオブジェクト
+         */
+        public Builder add(final Operator operator) {
+            mOperators.add(operator);
+            return this;
+        }
+
+        /**
+         * 演算子の数を取得する.
+         *
+         * @return 演算子の数
+         */
+        public int size() {
+            return mOperators.size();
+        }
+
+        /**
+         * 演算子の列を作成する.
+         *
+         * @param downstream 通過したサンプルの渡し先
+         * @return 演算子の列
+         */
+        public SampleFilterChain build(final SampleChannel.SampleSink downstream) {
+            Operator[] operators = new Operator[mOperators.size()];
+            for (int i = 0; i < operators.length; i++) {
+                operators[i] = mOperators.get(i).copy();
+            }
+            return new SampleFilterChain(operators, downstream);
+        }
+    }
+
+    private final Operator[] mOperators;
+    private final SampleChannel.SampleSink mDownstream;
+    private final Sample mSample = new Sample();
+
+    /**
+     * 演算子ごとの、通さなかったサンプル数.
+     */
+    private final long[] mSuppressedCounts;
+
+    private long mInputCount;
+    private long mPassedCount;
+    private boolean mLastPassed;
+
+    SampleFilterChain(final Operator[] operators, final SampleChannel.SampleSink downstream) {
+        mOperators = operators;
+        mDownstream = downstream;
+        mSuppressedCounts = new long[operators.length];
+    }
+
+    @Override
+    public void onSample(final long timestamp, final float x, final float y, final float z) {
+        mInputCount++;
+        Sample sample = mSample;
+        sample.mTimestamp = timestamp;
+        sample.set(x, y, z);
+        for (int i = 0; i < mOperators.length; i++) {
+            if (!mOperators[i].apply(sample)) {
+                mSuppressedCounts[i]++;
+                mLastPassed = false;
+                return;
+            }
+        }
+        mPassedCount++;
+        mLastPassed = true;
+        mDownstream.onSample(timestamp, sample.mX, sample.mY, sample.mZ);
+    }
+
+    /**
+     * 最後に受け取ったサンプルが後段に渡されたかどうかを取得する.
+     *
+     * @return 渡された場合は <code>true</code>
+     */
+    public boolean isLastPassed() {
+        return mLastPassed;
+    }
+
+    public long getInputCount() {
+        return mInputCount;
+    }
+
+    public long getPassedCount() {
+        return mPassedCount;
+    }
+
+    /**
+     * 指定した演算子が通さなかったサンプル数を取得する.
+     *
+     * @param index 演算子の順番
+     * @return サンプル数
+     */
+    public long getSuppressedCount(final int index) {
+        return mSuppressedCounts[index];
+    }
+
+    /**
+     * 受け取ったサンプルのうち、後段に渡さなかった割合を取得する.
+     *
+     * @return 0 から 1 の値. サンプルを受け取っていない場合は 0
+     */
+    public double getSuppressionRatio() {
+        return mInputCount > 0 ? (double) (mInputCount - mPassedCount) / mInputCount : 0;
+    }
+
+    /**
+     * 計測値をJSON文字列に変換する.
+     *
+     * @return JSON文字列
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"input\":").append(mInputCount)
+                .append(",\"passed\":").append(mPassedCount)
+                .append(",\"suppressionRatio\":").append(getSuppressionRatio())
+                .append(",\"operators\":[");
+        for (int i = 0; i < mOperators.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"name\":\"").append(mOperators[i])
+                    .append("\",\"suppressed\":").append(mSuppressedCounts[i])
+                    .append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * 直前に通したサンプルから、いずれかの軸が閾値以上変化したサンプルのみ通す不感帯を作成する.
+     *
+     * @param threshold 閾値. 軸ごとの変化量の絶対値と比較する
+     * @return 演算子
+     */
+    public static Operator deadBand(final float threshold) {
+        return new DeadBand(threshold);
+    }
+
+    /**
+     * 指数移動平均による低域通過フィルタを作成する. 高い周波数のノイズを取り除いた値に書き換える.
+     *
+     * @param alpha 新しいサンプルの重み. 0 より大きく 1 以下. 小さいほど平滑化が強い
+     * @return 演算子
+     */
+    public static Operator lowPass(final float alpha) {
+        return new LowPass(alpha, false);
+    }
+
+    /**
+     * 低域通過フィルタと相補的な高域通過フィルタを作成する.
+     *
+     * 入力から低域通過フィルタの出力 (重力成分) を引いた値に書き換える. 2つを足すと元の値に戻る.
+     *
+     * @param alpha 低域通過フィルタの新しいサンプルの重み. 0 より大きく 1 以下
+     * @return 演算子
+     */
+    public static Operator complementary(final float alpha) {
+        return new LowPass(alpha, true);
+    }
+
+    /**
+     * 直前に通したサンプルからの変化の大きさ (ベクトルの長さ) が閾値以上のサンプルのみ通す演算子を作成する.
+     *
+     * 変化がなくても、直前に通してから指定した時間が経ったサンプルは通すので、後段は値が最新であることを確認できる.
+     *
+     * @param threshold 閾値
+     * @param maxInterval 変化がなくても通す間隔. 単位はミリ秒. 0 以下の場合は変化がない限り通さない
+     * @return 演算子
+     */
+    public static Operator significantChange(final float threshold, final long maxInterval) {
+        return new SignificantChange(threshold, maxInterval);
+    }
+
+    private static class DeadBand implements Operator {
+        private final float mThreshold;
+        private boolean mHasLast;
+        private float mLastX;
+        private float mLastY;
+        private float mLastZ;
+
+        DeadBand(final float threshold) {
+            if (threshold < 0) {
+                throw new IllegalArgumentException("threshold must not be negative: " + threshold);
+            }
+            mThreshold = threshold;
+        }
+
+        @Override
+        public boolean apply(final Sample sample) {
+            if (mHasLast
+                    && Math.abs(sample.mX - mLastX) < mThreshold
+                    && Math.abs(sample.mY - mLastY) < mThreshold
+                    && Math.abs(sample.mZ - mLastZ) < mThreshold) {
+                return false;
+            }
+            mHasLast = true;
+            mLastX = sample.mX;
+            mLastY = sample.mY;
+            mLastZ = sample.mZ;
+            return true;
+        }
+
+        @Override
+        public Operator copy() {
+            return new DeadBand(mThreshold);
+        }
+
+        @Override
+        public String toString() {
+            return "deadBand(" + mThreshold + ")";
+        }
+    }
+
+    private static class LowPass implements Operator {
+        private final float mAlpha;
+
+        /**
+         * <code>true</code> の場合は、低域通過フィルタの出力の代わりに入力との差を出力する.
+         */
+        private final boolean mComplement;
+
+        private boolean mInitialized;
+        private float mX;
+        private float mY;
+        private float mZ;
+
+        LowPass(final float alpha, final boolean complement) {
+            if (!(alpha > 0 && alpha <= 1)) {
+                throw new IllegalArgumentException("alpha must be in (0, 1]: " + alpha);
+            }
+            mAlpha = alpha;
+            mComplement = complement;
+        }
+
+        @Override
+        public boolean apply(final Sample sample) {
+            if (mInitialized) {
+                mX += mAlpha * (sample.mX - mX);
+                mY += mAlpha * (sample.mY - mY);
+                mZ += mAlpha * (sample.mZ - mZ);
+            } else {
+                mInitialized = true;
+                mX = sample.mX;
+                mY = sample.mY;
+                mZ = sample.mZ;
+            }
+            if (mComplement) {
+                sample.set(sample.mX - mX, sample.mY - mY, sample.mZ - mZ);
+            } else {
+                sample.set(mX, mY, mZ);
+            }
+            return true;
+        }
+
+        @Override
+        public Operator copy() {
+            return new LowPass(mAlpha, mComplement);
+        }
+
+        @Override
+        public String toString() {
+            return (mComplement ? "complementary(" : "lowPass(") + mAlpha + ")";
+        }
+    }
+
+    private static class SignificantChange implements Operator {
+        private final float mThresholdSquared;
+        private final float mThreshold;
+        private final long mMaxInterval;
+        private boolean mHasLast;
+        private long mLastTimestamp;
+        private float mLastX;
+        private float mLastY;
+        private float mLastZ;
+
+        SignificantChange(final float threshold, final long maxInterval) {
+            if (threshold < 0) {
+                throw new IllegalArgumentException("threshold must not be negative: " + threshold);
+            }
+            mThreshold = threshold;
+            mThresholdSquared = threshold * threshold;
+            mMaxInterval = maxInterval;
+        }
+
+        @Override
+        public boolean apply(final Sample sample) {
+            if (mHasLast) {
+                float dx = sample.mX - mLastX;
+                float dy = sample.mY - mLastY;
+                float dz = sample.mZ - mLastZ;
+                boolean changed = dx * dx + dy * dy + dz * dz >= mThresholdSquared;
+                boolean expired = mMaxInterval > 0 && sample.mTimestamp - mLastTimestamp >= mMaxInterval;
+                if (!changed && !expired) {
+                    return false;
+                }
+            }
+            mHasLast = true;
+            mLastTimestamp = sample.mTimestamp;
+            mLastX = sample.mX;
+            mLastY = sample.mY;
+            mLastZ = sample.mZ;
+            return true;
+        }
+
+        @Override
+        public Operator copy() {
+            return new SignificantChange(mThreshold, mMaxInterval);
+        }
+
+        @Override
+        public String toString() {
+            return "significantChange(" + mThreshold + ", " + mMaxInterval + "ms)";
+        }
+    }
+}
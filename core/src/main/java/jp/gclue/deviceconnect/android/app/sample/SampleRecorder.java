@@ -0,0 +1,311 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * 受信したサンプルを追記専用のバイナリ形式でファイルに記録するクラス.
+ *
+ * サンプルはチャンク単位でまとめて {@link FileChannel} に書き込む. チャンクの中は列指向で、
+ * タイムスタンプは直前との差分を可変長整数 (ZigZag + LEB128) で、各軸の値は4バイトの float で格納する.
+ * {@link #close()} でチャンクの索引をファイルの末尾に書き込む. 索引がない場合 (異常終了した場合) は、
+ * {@link SampleRecording} がチャンクを先頭から走査して索引を作り直す.
+ *
+ * <pre>
+ * header : magic(int) version(int) chunkSize(int) reserved(int)
+ * chunk  : count(int) deltaBytes(int) baseTimestamp(long) deltas(byte[deltaBytes])
+ *          x(float[count]) y(float[count]) z(float[count])
+ * index  : { offset(long) firstTimestamp(long) lastTimestamp(long) count(int) }*
+ * trailer: indexOffset(long) indexCount(int) indexMagic(int)
+ * </pre>
+ *
+ * 書き込みは1つのスレッドから行うこと. {@link #close()} は任意のスレッドから呼び出してよい.
+ */
+public class SampleRecorder implements SampleChannel.SampleSink, Closeable {
+
+    /**
+     * ファイルの先頭に書き込む識別子.
+     */
+    static final int MAGIC = 0x44435243; // "DCRC"
+
+    /**
+     * 索引の末尾に書き込む識別子.
+     */
+    static final int INDEX_MAGIC = 0x44435249; // "DCRI"
+
+    /**
+     * ファイル形式のバージョン.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * ヘッダのサイズ. 単位はバイト.
+     */
+    static final int HEADER_SIZE = 16;
+
+    /**
+     * チャンクのヘッダのサイズ. 単位はバイト.
+     */
+    static final int CHUNK_HEADER_SIZE = 16;
+
+    /**
+     * 索引の1エントリのサイズ. 単位はバイト.
+     */
+    static final int INDEX_ENTRY_SIZE = 28;
+
+    /**
+     * 索引の末尾のサイズ. 単位はバイト.
+     */
+    static final int TRAILER_SIZE = 16;
+
+    /**
+     * 1チャンクに含めるサンプル数の既定値.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final int mChunkSize;
+
+    /**
+     * チャンクを書き込むための領域. 可変長整数の最大長で確保する.
+     */
+    private final ByteBuffer mBuffer;
+
+    private final long[] mTimestamps;
+    private final float[] mX;
+    private final float[] mY;
+    private final float[] mZ;
+    private int mCount;
+
+    /**
+     * 書き込み済みのチャンクの索引.
+     */
+    private final List<long[]> mIndex = new ArrayList<>();
+
+    private long mPosition;
+    private long mSampleCount;
+    private IOException mError;
+    private boolean mClosed;
+
+    private SampleRecorder(final RandomAccessFile file, final int chunkSize) throws IOException {
+        mFile = file;
+        mChannel = file.getChannel();
+        mChunkSize = chunkSize;
+        mBuffer = ByteBuffer.allocateDirect(CHUNK_HEADER_SIZE + chunkSize * (10 + 12));
+        mTimestamps = new long[chunkSize];
+        mX = new float[chunkSize];
+        mY = new float[chunkSize];
+        mZ = new float[chunkSize];
+
+        mBuffer.putInt(MAGIC).putInt(VERSION).putInt(chunkSize).putInt(0);
+        mBuffer.flip();
+        writeBuffer();
+    }
+
+    /**
+     * 記録を開始する. ファイルが存在する場合は上書きする.
+     *
+     * @param file 記録先のファイル
+     * @return 記録するオブジェクト
+     * @throws IOException ファイルを作成できなかった場合
+     */
+    public static SampleRecorder create(final File file) throws IOException {
+        return create(file, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * 記録を開始する. ファイルが存在する場合は上書きする.
+     *
+     * @param file 記録先のファイル
+     * @param chunkSize 1チャンクに含めるサンプル数
+     * @return 記録するオブジェクト
+     * @throws IOException ファイルを作成できなかった場合
+     */
+    public static SampleRecorder create(final File file, final int chunkSize) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            return new SampleRecorder(raf, chunkSize);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * サンプルを記録する.
+     *
+     * 書き込みに失敗した場合は、以降のサンプルを記録せずに {@link #getError()} で失敗の原因を返す.
+     */
+    @Override
+    public synchronized void onSample(final long timestamp, final float x, final float y, final float z) {
+        if (mClosed || mError != null) {
+            return;
+        }
+        mTimestamps[mCount] = timestamp;
+        mX[mCount] = x;
+        mY[mCount] = y;
+        mZ[mCount] = z;
+        mCount++;
+        mSampleCount++;
+        if (mCount == mChunkSize) {
+            try {
+                writeChunk();
+            } catch (IOException e) {
+                mError = e;
+            }
+        }
+    }
+
+    /**
+     * 書き込み途中のチャンクをファイルに書き込む.
+     *
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public synchronized void flush() throws IOException {
+        if (mError != null) {
+            throw mError;
+        }
+        if (!mClosed) {
+            writeChunk();
+        }
+    }
+
+    /**
+     * 書き込み途中のチャンクと索引を書き込み、ファイルを閉じる.
+     *
+     * @throws IOException 書き込みに失敗した場合
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            if (mError != null) {
+                throw mError;
+            }
+            writeChunk();
+            writeIndex();
+            mChannel.force(false);
+        } finally {
+            mFile.close();
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        int count = mCount;
+        if (count == 0) {
+            return;
+        }
+        ByteBuffer buffer = mBuffer;
+        buffer.clear();
+        buffer.position(CHUNK_HEADER_SIZE);
+        for (int i = 1; i < count; i++) {
+            putVarLong(buffer, mTimestamps[i] - mTimestamps[i - 1]);
+        }
+        int deltaBytes = buffer.position() - CHUNK_HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            buffer.putFloat(mX[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putFloat(mY[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putFloat(mZ[i]);
+        }
+        buffer.putInt(0, count).putInt(4, deltaBytes).putLong(8, mTimestamps[0]);
+        buffer.flip();
+
+        mIndex.add(new long[] {mPosition, mTimestamps[0], mTimestamps[count - 1], count});
+        mCount = 0;
+        writeBuffer();
+    }
+
+    private void writeIndex() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(mIndex.size() * INDEX_ENTRY_SIZE + TRAILER_SIZE);
+        long indexOffset = mPosition;
+        for (long[] entry : mIndex) {
+            buffer.putLong(entry[0]).putLong(entry[1]).putLong(entry[2]).putInt((int) entry[3]);
+        }
+        buffer.putLong(indexOffset).putInt(mIndex.size()).putInt(INDEX_MAGIC);
+        buffer.flip();
+        writeBuffer(buffer);
+    }
+
+    private void writeBuffer() throws IOException {
+        writeBuffer(mBuffer);
+    }
+
+    private void writeBuffer(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mPosition += mChannel.write(buffer, mPosition);
+        }
+    }
+
+    /**
+     * 符号付き整数を ZigZag 符号化した後、LEB128 形式で書き込む.
+     */
+    static void putVarLong(final ByteBuffer buffer, final long value) {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    /**
+     * {@link #putVarLong(ByteBuffer, long)} で書き込んだ整数を読み込む.
+     */
+    static long getVarLong(final ByteBuffer buffer) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    /**
+     * 記録したサンプルの数を取得する. 書き込み途中のチャンクのサンプルも含む.
+     *
+     * @return サンプルの数
+     */
+    public synchronized long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * ファイルに書き込んだバイト数を取得する.
+     *
+     * @return バイト数
+     */
+    public synchronized long getBytesWritten() {
+        return mPosition;
+    }
+
+    /**
+     * 書き込みに失敗した原因を取得する.
+     *
+     * @return 原因. 失敗していない場合は <code>null</code>
+     */
+    public synchronized IOException getError() {
+        return mError;
+    }
+}
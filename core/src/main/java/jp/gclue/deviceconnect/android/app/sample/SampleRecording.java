@@ -0,0 +1,379 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * {@link SampleRecorder} で記録したファイルを読み出すクラス.
+ *
+ * ファイルの末尾の索引を読み込み、タイムスタンプを指定して読み出し位置を移動できる.
+ * 索引がない場合 (記録中に異常終了した場合) は、チャンクを先頭から走査して索引を作り直す.
+ * 書き込み途中で切れたチャンクは読み飛ばす.
+ *
+ * {@link Reader} はスレッドごとに作成すること. ファイルの読み出しは位置を指定して行うので、
+ * 複数の {@link Reader} を同時に使用してよい.
+ */
+public class SampleRecording implements Closeable {
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final int mChunkSize;
+
+    /**
+     * チャンクの位置. 索引の順 (記録した順).
+     */
+    private final long[] mOffsets;
+    private final long[] mFirstTimestamps;
+    private final long[] mLastTimestamps;
+    private final int[] mCounts;
+    private final long mSampleCount;
+
+    /**
+     * ファイルの末尾に索引が書き込まれていたかどうか.
+     */
+    private final boolean mIndexed;
+
+    private SampleRecording(final RandomAccessFile file, final int chunkSize, final List<long[]> index,
+                            final boolean indexed) {
+        mFile = file;
+        mChannel = file.getChannel();
+        mChunkSize = chunkSize;
+        mIndexed = indexed;
+        int n = index.size();
+        mOffsets = new long[n];
+        mFirstTimestamps = new long[n];
+        mLastTimestamps = new long[n];
+        mCounts = new int[n];
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            long[] entry = index.get(i);
+            mOffsets[i] = entry[0];
+            mFirstTimestamps[i] = entry[1];
+            mLastTimestamps[i] = entry[2];
+            mCounts[i] = (int) entry[3];
+            total += mCounts[i];
+        }
+        mSampleCount = total;
+    }
+
+    /**
+     * 記録したファイルを開く.
+     *
+     * @param file ファイル
+     * @return 読み出すオブジェクト
+     * @throws IOException ファイルを読み込めなかった場合、またはファイルの形式が不正な場合
+     */
+    public static SampleRecording open(final File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(SampleRecorder.HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != SampleRecorder.MAGIC) {
+                throw new IOException("Not a sample recording: " + file);
+            }
+            int version = header.getInt(4);
+            if (version != SampleRecorder.VERSION) {
+                throw new IOException("Unsupported version: " + version);
+            }
+            int chunkSize = header.getInt(8);
+            if (chunkSize <= 0) {
+                throw new IOException("Invalid chunk size: " + chunkSize);
+            }
+
+            List<long[]> index = readIndex(channel);
+            boolean indexed = index != null;
+            if (index == null) {
+                index = scanChunks(channel, chunkSize);
+            }
+            return new SampleRecording(raf, chunkSize, index, indexed);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        } catch (RuntimeException e) {
+            raf.close();
+            throw new IOException("Corrupt sample recording: " + file, e);
+        }
+    }
+
+    /**
+     * ファイルの末尾の索引を読み込む.
+     *
+     * @return 索引. 索引がない場合は <code>null</code>
+     */
+    private static List<long[]> readIndex(final FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < SampleRecorder.HEADER_SIZE + SampleRecorder.TRAILER_SIZE) {
+            return null;
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(SampleRecorder.TRAILER_SIZE);
+        readFully(channel, trailer, size - SampleRecorder.TRAILER_SIZE);
+        long indexOffset = trailer.getLong(0);
+        int count = trailer.getInt(8);
+        if (trailer.getInt(12) != SampleRecorder.INDEX_MAGIC || count < 0 || indexOffset < SampleRecorder.HEADER_SIZE
+                || indexOffset + (long) count * SampleRecorder.INDEX_ENTRY_SIZE + SampleRecorder.TRAILER_SIZE != size) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(count * SampleRecorder.INDEX_ENTRY_SIZE);
+        readFully(channel, buffer, indexOffset);
+        buffer.flip();
+        List<long[]> index = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            index.add(new long[] {buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getInt()});
+        }
+        return index;
+    }
+
+    /**
+     * チャンクを先頭から走査して索引を作成する.
+     */
+    private static List<long[]> scanChunks(final FileChannel channel, final int chunkSize) throws IOException {
+        List<long[]> index = new ArrayList<>();
+        long size = channel.size();
+        long position = SampleRecorder.HEADER_SIZE;
+        ByteBuffer header = ByteBuffer.allocate(SampleRecorder.CHUNK_HEADER_SIZE);
+        ByteBuffer deltas = ByteBuffer.allocate(chunkSize * 10);
+        while (position + SampleRecorder.CHUNK_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int count = header.getInt(0);
+            int deltaBytes = header.getInt(4);
+            long base = header.getLong(8);
+            if (count <= 0 || count > chunkSize || deltaBytes < 0 || deltaBytes > deltas.capacity()) {
+                break;
+            }
+            long end = position + SampleRecorder.CHUNK_HEADER_SIZE + deltaBytes + count * 12L;
+            if (end > size) {
+                break;
+            }
+            deltas.clear();
+            deltas.limit(deltaBytes);
+            readFully(channel, deltas, position + SampleRecorder.CHUNK_HEADER_SIZE);
+            deltas.flip();
+            long last = base;
+            for (int i = 1; i < count; i++) {
+                last += SampleRecorder.getVarLong(deltas);
+            }
+            index.add(new long[] {position, base, last, count});
+            position = end;
+        }
+        return index;
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+            throws IOException {
+        long p = position;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, p);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            p += n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+
+    /**
+     * 記録したサンプルの数を取得する.
+     *
+     * @return サンプルの数
+     */
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * チャンクの数を取得する.
+     *
+     * @return チャンクの数
+     */
+    public int getChunkCount() {
+        return mOffsets.length;
+    }
+
+    /**
+     * 先頭のサンプルのタイムスタンプを取得する.
+     *
+     * @return タイムスタンプ. サンプルがない場合は 0
+     */
+    public long getStartTimestamp() {
+        return mOffsets.length > 0 ? mFirstTimestamps[0] : 0;
+    }
+
+    /**
+     * 最後のサンプルのタイムスタンプを取得する.
+     *
+     * @return タイムスタンプ. サンプルがない場合は 0
+     */
+    public long getEndTimestamp() {
+        return mOffsets.length > 0 ? mLastTimestamps[mOffsets.length - 1] : 0;
+    }
+
+    /**
+     * ファイルの末尾に索引が書き込まれていたかどうかを取得する.
+     *
+     * @return 書き込まれていた場合は <code>true</code>. 走査して作り直した場合は <code>false</code>
+     */
+    public boolean isIndexed() {
+        return mIndexed;
+    }
+
+    /**
+     * 先頭から読み出すオブジェクトを作成する.
+     *
+     * @return 読み出すオブジェクト
+     */
+    public Reader newReader() {
+        return new Reader();
+    }
+
+    /**
+     * サンプルを記録した順に読み出すオブジェクト.
+     *
+     * 読み出し中のチャンクだけをメモリに展開する. 配列は使い回す.
+     */
+    public class Reader {
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(SampleRecorder.CHUNK_HEADER_SIZE + mChunkSize * (10 + 12));
+        private final long[] mTimestamps = new long[mChunkSize];
+        private final float[] mX = new float[mChunkSize];
+        private final float[] mY = new float[mChunkSize];
+        private final float[] mZ = new float[mChunkSize];
+
+        /**
+         * 展開しているチャンクの番号. 展開していない場合は -1.
+         */
+        private int mChunk = -1;
+        private int mCount;
+
+        /**
+         * 次に読み出すチャンクの番号と、チャンク内の位置.
+         */
+        private int mNextChunk;
+        private int mNextIndex;
+
+        Reader() {
+        }
+
+        /**
+         * 指定したタイムスタンプ以降の最初のサンプルに読み出し位置を移動する.
+         *
+         * 索引を二分探索して対象のチャンクを特定し、そのチャンクだけを読み込む.
+         *
+         * @param timestamp タイムスタンプ
+         * @throws IOException 読み込みに失敗した場合
+         */
+        public void seek(final long timestamp) throws IOException {
+            int lo = 0;
+            int hi = mOffsets.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (mLastTimestamps[mid] < timestamp) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            mNextChunk = lo;
+            mNextIndex = 0;
+            if (lo < mOffsets.length) {
+                load(lo);
+                int index = 0;
+                while (index < mCount && mTimestamps[index] < timestamp) {
+                    index++;
+                }
+                mNextIndex = index;
+            }
+        }
+
+        /**
+         * 読み出し位置以降のサンプルを渡す.
+         *
+         * @param sink サンプルの渡し先
+         * @param maxCount 渡すサンプル数の上限
+         * @return 渡したサンプル数. 末尾に達した場合は 0
+         * @throws IOException 読み込みに失敗した場合
+         */
+        public int read(final SampleChannel.SampleSink sink, final int maxCount) throws IOException {
+            int total = 0;
+            while (total < maxCount && ensureChunk()) {
+                int n = Math.min(mCount - mNextIndex, maxCount - total);
+                for (int i = mNextIndex, end = mNextIndex + n; i < end; i++) {
+                    sink.onSample(mTimestamps[i], mX[i], mY[i], mZ[i]);
+                }
+                mNextIndex += n;
+                total += n;
+            }
+            return total;
+        }
+
+        /**
+         * 次のサンプルのタイムスタンプを取得する.
+         *
+         * @return タイムスタンプ. 末尾に達した場合は {@link Long#MAX_VALUE}
+         * @throws IOException 読み込みに失敗した場合
+         */
+        public long peekTimestamp() throws IOException {
+            return ensureChunk() ? mTimestamps[mNextIndex] : Long.MAX_VALUE;
+        }
+
+        private boolean ensureChunk() throws IOException {
+            while (mNextChunk < mOffsets.length) {
+                if (mChunk != mNextChunk) {
+                    load(mNextChunk);
+                }
+                if (mNextIndex < mCount) {
+                    return true;
+                }
+                mNextChunk++;
+                mNextIndex = 0;
+            }
+            return false;
+        }
+
+        private void load(final int chunk) throws IOException {
+            ByteBuffer buffer = mBuffer;
+            buffer.clear();
+            buffer.limit(SampleRecorder.CHUNK_HEADER_SIZE);
+            readFully(mChannel, buffer, mOffsets[chunk]);
+            int count = buffer.getInt(0);
+            int deltaBytes = buffer.getInt(4);
+            long timestamp = buffer.getLong(8);
+            if (count != mCounts[chunk] || deltaBytes < 0
+                    || SampleRecorder.CHUNK_HEADER_SIZE + deltaBytes + count * 12 > buffer.capacity()) {
+                throw new IOException("Corrupt chunk at " + mOffsets[chunk]);
+            }
+            buffer.limit(SampleRecorder.CHUNK_HEADER_SIZE + deltaBytes + count * 12);
+            readFully(mChannel, buffer, mOffsets[chunk] + SampleRecorder.CHUNK_HEADER_SIZE);
+            buffer.position(SampleRecorder.CHUNK_HEADER_SIZE);
+
+            mTimestamps[0] = timestamp;
+            for (int i = 1; i < count; i++) {
+                timestamp += SampleRecorder.getVarLong(buffer);
+                mTimestamps[i] = timestamp;
+            }
+            for (int i = 0; i < count; i++) {
+                mX[i] = buffer.getFloat();
+            }
+            for (int i = 0; i < count; i++) {
+                mY[i] = buffer.getFloat();
+            }
+            for (int i = 0; i < count; i++) {
+                mZ[i] = buffer.getFloat();
+            }
+            mChunk = chunk;
+            mCount = count;
+        }
+    }
+}
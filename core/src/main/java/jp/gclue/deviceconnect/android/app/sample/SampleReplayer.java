@@ -0,0 +1,145 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.io.IOException;
+
+
+/**
+ * {@link SampleRecording} のサンプルを、記録時の間隔で再生するクラス.
+ *
+ * 再生速度は倍率で指定する. 1 で記録時と同じ間隔、2 で半分の間隔になり、
+ * {@link #AS_FAST_AS_POSSIBLE} を指定した場合は待たずに渡す.
+ * 待ち時間は再生開始時刻からの経過時間で計算するので、渡す処理にかかった時間が蓄積して遅れることはない.
+ *
+ * 時刻の取得と待機は {@link Clock} で差し替えられるので、単体テストでは実際に待たずに再生できる.
+ */
+public class SampleReplayer {
+
+    /**
+     * 再生速度: 待たずにできるだけ速く渡す.
+     */
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+
+    /**
+     * 時刻の取得と待機.
+     */
+    public interface Clock {
+        /**
+         * 現在時刻を取得する.
+         *
+         * @return 時刻. 単位はナノ秒
+         */
+        long nanoTime();
+
+        /**
+         * 指定した時間だけ待機する.
+         *
+         * @param nanos 時間. 単位はナノ秒
+         * @throws InterruptedException 待機中に割り込まれた場合
+         */
+        void sleep(long nanos) throws InterruptedException;
+    }
+
+    /**
+     * {@link System#nanoTime()} と {@link Thread#sleep(long, int)} を使用する {@link Clock}.
+     */
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleep(final long nanos) throws InterruptedException {
+            Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+        }
+    };
+
+    private final SampleRecording mRecording;
+    private final Clock mClock;
+    private volatile boolean mCancelled;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param recording 再生する記録
+     */
+    public SampleReplayer(final SampleRecording recording) {
+        this(recording, SYSTEM_CLOCK);
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * @param recording 再生する記録
+     * @param clock 時刻の取得と待機
+     */
+    public SampleReplayer(final SampleRecording recording, final Clock clock) {
+        mRecording = recording;
+        mClock = clock;
+    }
+
+    /**
+     * 記録全体を再生する.
+     *
+     * @param speed 再生速度の倍率. {@link #AS_FAST_AS_POSSIBLE} の場合は待たない
+     * @param sink サンプルの渡し先
+     * @return 渡したサンプル数
+     * @throws IOException 読み込みに失敗した場合
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public long replay(final double speed, final SampleChannel.SampleSink sink)
+            throws IOException, InterruptedException {
+        return replay(Long.MIN_VALUE, Long.MAX_VALUE, speed, sink);
+    }
+
+    /**
+     * 指定した範囲のサンプルを再生する.
+     *
+     * {@link #cancel()} が呼び出された場合は、その時点で再生を終了する.
+     *
+     * @param from 再生を開始するタイムスタンプ. このタイムスタンプを含む
+     * @param to 再生を終了するタイムスタンプ. このタイムスタンプを含まない
+     * @param speed 再生速度の倍率. {@link #AS_FAST_AS_POSSIBLE} の場合は待たない
+     * @param sink サンプルの渡し先
+     * @return 渡したサンプル数
+     * @throws IOException 読み込みに失敗した場合
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public long replay(final long from, final long to, final double speed, final SampleChannel.SampleSink sink)
+            throws IOException, InterruptedException {
+        if (speed < 0 || Double.isNaN(speed)) {
+            throw new IllegalArgumentException("invalid speed: " + speed);
+        }
+        mCancelled = false;
+        SampleRecording.Reader reader = mRecording.newReader();
+        reader.seek(from);
+
+        long startNanos = mClock.nanoTime();
+        long baseTimestamp = reader.peekTimestamp();
+        long count = 0;
+        while (!mCancelled) {
+            long timestamp = reader.peekTimestamp();
+            if (timestamp >= to) {
+                break;
+            }
+            if (speed > 0) {
+                long due = startNanos + (long) ((timestamp - baseTimestamp) * 1e6 / speed);
+                long wait = due - mClock.nanoTime();
+                if (wait > 0) {
+                    mClock.sleep(wait);
+                }
+            }
+            count += reader.read(sink, 1);
+        }
+        return count;
+    }
+
+    /**
+     * 再生を終了する.
+     *
+     * 待機中の場合は、待機が終わった時点で終了する. 直ちに終了させる場合は、再生中のスレッドに割り込むこと.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+}
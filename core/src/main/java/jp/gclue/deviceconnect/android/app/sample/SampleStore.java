@@ -0,0 +1,403 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * センサーのサンプル (タイムスタンプ, x, y, z) を時系列で保持するストア.
+ *
+ * 値は列ごとのプリミティブ型のリングバッファに格納し、容量を超えた分は古いものから上書きする.
+ * {@link #openMapped(File, int)} で作成した場合はバッファをメモリマップトファイルに置くので、
+ * ヒープを消費せず、プロセスが終了しても内容が残る.
+ *
+ * タイムスタンプは単調非減少として扱う. 直前より古いタイムスタンプは直前の値に切り上げて格納する.
+ *
+ * 書き込みは1つのスレッドから行うこと. 読み出しは任意のスレッドから行ってよいが、
+ * 読み出し中の範囲が上書きされた場合は {@link Range#isValid()} が <code>false</code> になる.
+ */
+public class SampleStore implements SampleChannel.SampleSink, Closeable {
+
+    /**
+     * ファイルの先頭に書き込む識別子.
+     */
+    private static final int MAGIC = 0x44435353; // "DCSS"
+
+    /**
+     * ファイル形式のバージョン.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * ヘッダのサイズ. 単位はバイト.
+     */
+    private static final int HEADER_SIZE = 64;
+
+    /**
+     * ヘッダ内の書き込み済みサンプル数の位置.
+     */
+    private static final int OFFSET_WRITE_SEQUENCE = 16;
+
+    /**
+     * ヘッダ内の最後のタイムスタンプの位置.
+     */
+    private static final int OFFSET_LAST_TIMESTAMP = 24;
+
+    /**
+     * 1サンプルあたりのサイズ. 単位はバイト.
+     */
+    private static final int SAMPLE_SIZE = 8 + 4 * 3;
+
+    /**
+     * 保持できるサンプル数.
+     */
+    private final int mCapacity;
+
+    /**
+     * タイムスタンプの列.
+     */
+    private final LongBuffer mTimestamps;
+
+    /**
+     * X軸の値の列.
+     */
+    private final FloatBuffer mX;
+
+    /**
+     * Y軸の値の列.
+     */
+    private final FloatBuffer mY;
+
+    /**
+     * Z軸の値の列.
+     */
+    private final FloatBuffer mZ;
+
+    /**
+     * ヘッダ. ヒープ上のストアの場合は <code>null</code>.
+     */
+    private final ByteBuffer mHeader;
+
+    /**
+     * マップしたファイル. ヒープ上のストアの場合は <code>null</code>.
+     */
+    private final RandomAccessFile mFile;
+
+    /**
+     * ファイルをマップしたバッファ. ヒープ上のストアの場合は <code>null</code>.
+     */
+    private final MappedByteBuffer mMapped;
+
+    /**
+     * 書き込み済みのサンプル数.
+     */
+    private volatile long mWriteSequence;
+
+    /**
+     * 最後に書き込んだタイムスタンプ.
+     */
+    private long mLastTimestamp = Long.MIN_VALUE;
+
+    /**
+     * ヒープ上にストアを作成する.
+     *
+     * @param capacity 保持できるサンプル数
+     */
+    public SampleStore(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mCapacity = capacity;
+        mTimestamps = LongBuffer.allocate(capacity);
+        mX = FloatBuffer.allocate(capacity);
+        mY = FloatBuffer.allocate(capacity);
+        mZ = FloatBuffer.allocate(capacity);
+        mHeader = null;
+        mFile = null;
+        mMapped = null;
+    }
+
+    private SampleStore(final RandomAccessFile file, final MappedByteBuffer buffer, final int capacity) {
+        mCapacity = capacity;
+        mFile = file;
+        mMapped = buffer;
+        mHeader = slice(buffer, 0, HEADER_SIZE);
+        int offset = HEADER_SIZE;
+        mTimestamps = slice(buffer, offset, capacity * 8).asLongBuffer();
+        offset += capacity * 8;
+        mX = slice(buffer, offset, capacity * 4).asFloatBuffer();
+        offset += capacity * 4;
+        mY = slice(buffer, offset, capacity * 4).asFloatBuffer();
+        offset += capacity * 4;
+        mZ = slice(buffer, offset, capacity * 4).asFloatBuffer();
+
+        if (mHeader.getInt(0) == MAGIC && mHeader.getInt(4) == VERSION && mHeader.getInt(8) == capacity) {
+            mWriteSequence = mHeader.getLong(OFFSET_WRITE_SEQUENCE);
+            mLastTimestamp = mHeader.getLong(OFFSET_LAST_TIMESTAMP);
+        } else {
+            mHeader.putInt(0, MAGIC);
+            mHeader.putInt(4, VERSION);
+            mHeader.putInt(8, capacity);
+            mHeader.putLong(OFFSET_WRITE_SEQUENCE, 0);
+            mHeader.putLong(OFFSET_LAST_TIMESTAMP, Long.MIN_VALUE);
+        }
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer, final int offset, final int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * メモリマップトファイル上にストアを作成する.
+     *
+     * ファイルが既に存在し、同じ容量で作成されたものであれば、その内容を引き継ぐ.
+     * そうでない場合は空のストアとして初期化する.
+     *
+     * @param file ファイル
+     * @param capacity 保持できるサンプル数
+     * @return ストア
+     * @throws IOException ファイルを開けなかった場合
+     */
+    public static SampleStore openMapped(final File file, final int capacity) throws IOException {
+        if (capacity <= 0 || capacity > (Integer.MAX_VALUE - HEADER_SIZE) / SAMPLE_SIZE) {
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+        }
+        long size = HEADER_SIZE + (long) capacity * SAMPLE_SIZE;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() != size) {
+                raf.setLength(0);
+                raf.setLength(size);
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new SampleStore(raf, buffer, capacity);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * サンプルを追加する.
+     *
+     * 容量を超えた場合はもっとも古いサンプルを上書きする.
+     *
+     * @param timestamp タイムスタンプ. 単位はミリ秒
+     * @param x X軸の値
+     * @param y Y軸の値
+     * @param z Z軸の値
+     */
+    public void append(final long timestamp, final float x, final float y, final float z) {
+        long t = Math.max(timestamp, mLastTimestamp);
+        long sequence = mWriteSequence;
+        int index = (int) (sequence % mCapacity);
+        mTimestamps.put(index, t);
+        mX.put(index, x);
+        mY.put(index, y);
+        mZ.put(index, z);
+        mLastTimestamp = t;
+        mWriteSequence = sequence + 1;
+        if (mHeader != null) {
+            mHeader.putLong(OFFSET_LAST_TIMESTAMP, t);
+            mHeader.putLong(OFFSET_WRITE_SEQUENCE, sequence + 1);
+        }
+    }
+
+    @Override
+    public void onSample(final long timestamp, final float x, final float y, final float z) {
+        append(timestamp, x, y, z);
+    }
+
+    /**
+     * 保持できるサンプル数を取得する.
+     *
+     * @return サンプル数
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * 保持しているサンプル数を取得する.
+     *
+     * @return サンプル数
+     */
+    public int size() {
+        return (int) Math.min(mWriteSequence, mCapacity);
+    }
+
+    /**
+     * これまでに追加したサンプル数を取得する. 上書きされたものを含む.
+     *
+     * @return サンプル数
+     */
+    public long getWriteSequence() {
+        return mWriteSequence;
+    }
+
+    /**
+     * 保持しているもっとも古いサンプルのシーケンス番号を取得する.
+     *
+     * @return シーケンス番号
+     */
+    public long getOldestSequence() {
+        return Math.max(0, mWriteSequence - mCapacity);
+    }
+
+    /**
+     * 指定した時間範囲のサンプルを取得する.
+     *
+     * サンプルはコピーせず、ストアを直接参照する {@link Range} を返す.
+     *
+     * @param from 範囲の開始時刻 (この時刻を含む). 単位はミリ秒
+     * @param to 範囲の終了時刻 (この時刻を含まない). 単位はミリ秒
+     * @param reuse 結果を格納する {@link Range}. <code>null</code> の場合は新しく作成する
+     * @return 範囲
+     */
+    public Range query(final long from, final long to, final Range reuse) {
+        Range range = reuse != null ? reuse : new Range();
+        long end = mWriteSequence;
+        long begin = Math.max(0, end - mCapacity);
+        long start = lowerBound(begin, end, from);
+        long stop = lowerBound(start, end, to);
+        range.set(start, (int) Math.max(0, stop - start));
+        return range;
+    }
+
+    /**
+     * 指定した時刻以上のタイムスタンプを持つ最初のサンプルのシーケンス番号を探す.
+     */
+    private long lowerBound(final long begin, final long end, final long timestamp) {
+        long low = begin;
+        long high = end;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (timestampAt(mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private long timestampAt(final long sequence) {
+        return mTimestamps.get((int) (sequence % mCapacity));
+    }
+
+    /**
+     * ファイルへの書き込みを強制する.
+     *
+     * ヒープ上のストアの場合は何もしない.
+     */
+    public void flush() {
+        if (mMapped != null) {
+            mMapped.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mFile != null) {
+            flush();
+            mFile.close();
+        }
+    }
+
+    /**
+     * ストア上の連続したサンプルの範囲.
+     *
+     * サンプルはコピーせず、ストアを直接参照する.
+     * 1つの {@link Range} は {@link SampleStore#query(long, long, Range)} に渡して再利用できる.
+     */
+    public class Range {
+
+        /**
+         * 範囲の先頭のシーケンス番号.
+         */
+        private long mStart;
+
+        /**
+         * 範囲のサンプル数.
+         */
+        private int mCount;
+
+        void set(final long start, final int count) {
+            mStart = start;
+            mCount = count;
+        }
+
+        /**
+         * 範囲のサンプル数を取得する.
+         *
+         * @return サンプル数
+         */
+        public int size() {
+            return mCount;
+        }
+
+        /**
+         * 範囲の先頭のシーケンス番号を取得する.
+         *
+         * @return シーケンス番号
+         */
+        public long getStartSequence() {
+            return mStart;
+        }
+
+        /**
+         * 範囲のサンプルがまだ上書きされていないかどうかを取得する.
+         *
+         * @return 上書きされていない場合は <code>true</code>
+         */
+        public boolean isValid() {
+            return mStart >= getOldestSequence();
+        }
+
+        public long getTimestamp(final int i) {
+            return mTimestamps.get(indexOf(i));
+        }
+
+        public float getX(final int i) {
+            return mX.get(indexOf(i));
+        }
+
+        public float getY(final int i) {
+            return mY.get(indexOf(i));
+        }
+
+        public float getZ(final int i) {
+            return mZ.get(indexOf(i));
+        }
+
+        /**
+         * 範囲のサンプルを順番に渡す.
+         *
+         * @param sink サンプルを受け取るオブジェクト
+         */
+        public void forEach(final SampleChannel.SampleSink sink) {
+            for (int i = 0; i < mCount; i++) {
+                int index = indexOf(i);
+                sink.onSample(mTimestamps.get(index), mX.get(index), mY.get(index), mZ.get(index));
+            }
+        }
+
+        private int indexOf(final int i) {
+            if (i < 0 || i >= mCount) {
+                throw new IndexOutOfBoundsException("index = " + i + ", size = " + mCount);
+            }
+            return (int) ((mStart + i) % mCapacity);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Device Web API Managerのサービス一覧を差分で保持するクラス.
+ *
+ * Service Discoveryの結果で一覧全体を置き換える ({@link #replaceAll(Map)}) ほか、
+ * サービスの変更通知 (<code>onServiceChange</code>) を受け取るたびに1件ずつ更新する ({@link #update(String, String, boolean)}).
+ * 内容が変わるたびに版番号を増やすので、待機側は {@link #awaitChange(long, long)} で変更を待てる.
+ *
+ * 変更通知を取りこぼした可能性がある場合 (WebSocketの切断など) は {@link #invalidate()} を呼び出す.
+ * 以降、{@link #replaceAll(Map)} で一覧全体を取得し直すまで {@link #isSynced()} は <code>false</code> を返す.
+ *
+ * 任意のスレッドから呼び出してよい.
+ */
+public class ServiceTable {
+
+    /**
+     * サービス名の一覧. キーはサービスID.
+     */
+    private final Map<String, String> mServices = new LinkedHashMap<>();
+
+    /**
+     * 内容の版番号. 内容が変わるたびに増やす.
+     */
+    private long mVersion;
+
+    /**
+     * 一覧全体を取得した後、変更通知を取りこぼしていないかどうか.
+     */
+    private boolean mSynced;
+
+    private long mFullSyncCount;
+    private long mUpdateCount;
+
+    /**
+     * Service Discoveryの結果で一覧全体を置き換える.
+     *
+     * @param services サービス名の一覧. キーはサービスID
+     * @return 内容が変わった場合は <code>true</code>
+     */
+    public synchronized boolean replaceAll(final Map<String, String> services) {
+        mSynced = true;
+        mFullSyncCount++;
+        if (mServices.equals(services)) {
+            return false;
+        }
+        mServices.clear();
+        mServices.putAll(services);
+        changed();
+        return true;
+    }
+
+    /**
+     * サービスの変更通知で1件更新する.
+     *
+     * @param serviceId サービスID
+     * @param name サービス名. オフラインの場合は <code>null</code> でもよい
+     * @param online オンラインの場合は <code>true</code>. <code>false</code> の場合は一覧から削除する
+     * @return 内容が変わった場合は <code>true</code>
+     */
+    public synchronized boolean update(final String serviceId, final String name, final boolean online) {
+        mUpdateCount++;
+        boolean changed;
+        if (online) {
+            String value = name != null ? name : serviceId;
+            changed = !value.equals(mServices.put(serviceId, value));
+        } else {
+            changed = mServices.remove(serviceId) != null;
+        }
+        if (changed) {
+            changed();
+        }
+        return changed;
+    }
+
+    private void changed() {
+        mVersion++;
+        notifyAll();
+    }
+
+    /**
+     * 変更通知を取りこぼした可能性があることを記録する.
+     *
+     * 待機中のスレッドを起こすので、待機側は一覧全体を取得し直せる.
+     */
+    public synchronized void invalidate() {
+        if (mSynced) {
+            mSynced = false;
+            changed();
+        }
+    }
+
+    /**
+     * 一覧全体を取得した後、変更通知を取りこぼしていないかどうかを取得する.
+     *
+     * @return 取りこぼしていない場合は <code>true</code>. 一覧全体を一度も取得していない場合は <code>false</code>
+     */
+    public synchronized boolean isSynced() {
+        return mSynced;
+    }
+
+    /**
+     * 現在の一覧をコピーして取得する.
+     *
+     * @return サービス名の一覧. キーはサービスID
+     */
+    public synchronized Map<String, String> snapshot() {
+        return new LinkedHashMap<>(mServices);
+    }
+
+    public synchronized long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * 版番号が指定した値から変わるまでスレッドをブロックする.
+     *
+     * @param version 待機を始める時点の版番号
+     * @param timeout 待機時間の上限. 単位はミリ秒
+     * @return 変わった場合は <code>true</code>. 上限に達した場合は <code>false</code>
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public synchronized boolean awaitChange(final long version, final long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout * 1000000L;
+        while (mVersion == version) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(Math.max(1, remaining / 1000000L));
+        }
+        return true;
+    }
+
+    /**
+     * {@link #replaceAll(Map)} で一覧全体を取得した回数を取得する.
+     *
+     * @return 回数
+     */
+    public synchronized long getFullSyncCount() {
+        return mFullSyncCount;
+    }
+
+    /**
+     * {@link #update(String, String, boolean)} で変更通知を受け取った回数を取得する.
+     *
+     * @return 回数
+     */
+    public synchronized long getUpdateCount() {
+        return mUpdateCount;
+    }
+}
@@ -0,0 +1,204 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * 起動から最初のイベントを受信するまでの計測値.
+ *
+ * 前回のサービスを使用して購読した場合 (ウォームスタート) と、
+ * Service Discoveryから購読した場合 (コールドスタート) を区別して記録する.
+ * ウォームスタートの場合は、購読の後に行うサービスの確認の結果も記録する.
+ *
+ * 時刻はすべて作成時 (または {@link #reset()} の呼び出し時) からの経過時間で、単位はミリ秒.
+ * 未計測の値は -1.
+ */
+public class StartupMetrics {
+
+    /**
+     * 起動方法: 未購読.
+     */
+    public static final int MODE_NONE = 0;
+
+    /**
+     * 起動方法: Service Discoveryを実行してから購読した.
+     */
+    public static final int MODE_COLD = 1;
+
+    /**
+     * 起動方法: 前回のサービスを確認せずに購読した.
+     */
+    public static final int MODE_WARM = 2;
+
+    /**
+     * 確認結果: 確認していない.
+     */
+    public static final int VERIFICATION_NONE = 0;
+
+    /**
+     * 確認結果: 前回のサービスを使用できた.
+     */
+    public static final int VERIFICATION_CONFIRMED = 1;
+
+    /**
+     * 確認結果: 前回のサービスを使用できなかったので、Service Discoveryからやり直した.
+     */
+    public static final int VERIFICATION_FAILED = 2;
+
+    private volatile long mStartNanos = System.nanoTime();
+    private volatile int mMode = MODE_NONE;
+    private volatile int mVerification = VERIFICATION_NONE;
+    private final AtomicLong mSubscribedNanos = new AtomicLong(-1);
+    private final AtomicLong mFirstEventNanos = new AtomicLong(-1);
+    private final AtomicLong mVerifiedNanos = new AtomicLong(-1);
+
+    /**
+     * 計測を開始し直す.
+     */
+    public void reset() {
+        mStartNanos = System.nanoTime();
+        mMode = MODE_NONE;
+        mVerification = VERIFICATION_NONE;
+        mSubscribedNanos.set(-1);
+        mFirstEventNanos.set(-1);
+        mVerifiedNanos.set(-1);
+    }
+
+    /**
+     * イベントの購読を開始したことを記録する. 2回目以降の呼び出しは無視する.
+     *
+     * @param mode MODE_COLD または MODE_WARM
+     */
+    public void onSubscribed(final int mode) {
+        if (mSubscribedNanos.compareAndSet(-1, System.nanoTime() - mStartNanos)) {
+            mMode = mode;
+        }
+    }
+
+    /**
+     * イベントを受信したことを記録する.
+     *
+     * 最初のイベント以外は揮発性変数を1回読むだけなので、受信のたびに呼び出してよい.
+     *
+     * @return 最初のイベントの場合は <code>true</code>
+     */
+    public boolean onEvent() {
+        return mFirstEventNanos.get() < 0
+                && mFirstEventNanos.compareAndSet(-1, System.nanoTime() - mStartNanos);
+    }
+
+    /**
+     * ウォームスタートで使用したサービスの確認結果を記録する. 2回目以降の呼び出しは無視する.
+     *
+     * @param confirmed 使用できた場合は <code>true</code>
+     */
+    public void onVerified(final boolean confirmed) {
+        if (mVerifiedNanos.compareAndSet(-1, System.nanoTime() - mStartNanos)) {
+            mVerification = confirmed ? VERIFICATION_CONFIRMED : VERIFICATION_FAILED;
+        }
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    public int getVerification() {
+        return mVerification;
+    }
+
+    /**
+     * 最初のイベントを受信したかどうかを取得する.
+     *
+     * @return 受信した場合は <code>true</code>
+     */
+    public boolean hasFirstEvent() {
+        return mFirstEventNanos.get() >= 0;
+    }
+
+    /**
+     * 起動からイベントの購読を開始するまでの時間を取得する.
+     *
+     * @return 時間. 単位はミリ秒
+     */
+    public long getTimeToSubscribe() {
+        return toMillis(mSubscribedNanos.get());
+    }
+
+    /**
+     * 起動から最初のイベントを受信するまでの時間を取得する.
+     *
+     * @return 時間. 単位はミリ秒
+     */
+    public long getTimeToFirstEvent() {
+        return toMillis(mFirstEventNanos.get());
+    }
+
+    /**
+     * 起動からサービスの確認が終わるまでの時間を取得する.
+     *
+     * @return 時間. 単位はミリ秒
+     */
+    public long getTimeToVerify() {
+        return toMillis(mVerifiedNanos.get());
+    }
+
+    private static long toMillis(final long nanos) {
+        return nanos < 0 ? -1 : nanos / 1000000L;
+    }
+
+    /**
+     * 起動方法を表す文字列を取得する.
+     *
+     * @param mode MODE_ で始まる定数
+     * @return 文字列
+     */
+    public static String modeToString(final int mode) {
+        switch (mode) {
+            case MODE_COLD:
+                return "cold";
+            case MODE_WARM:
+                return "warm";
+            default:
+                return "none";
+        }
+    }
+
+    /**
+     * 確認結果を表す文字列を取得する.
+     *
+     * @param verification VERIFICATION_ で始まる定数
+     * @return 文字列
+     */
+    public static String verificationToString(final int verification) {
+        switch (verification) {
+            case VERIFICATION_CONFIRMED:
+                return "confirmed";
+            case VERIFICATION_FAILED:
+                return "failed";
+            default:
+                return "none";
+        }
+    }
+
+    /**
+     * 計測値をJSON文字列に変換する.
+     *
+     * @return JSON文字列
+     */
+    public String toJson() {
+        return "{\"mode\":\"" + modeToString(mMode) + "\""
+                + ",\"verification\":\"" + verificationToString(mVerification) + "\""
+                + ",\"timeToSubscribe\":" + getTimeToSubscribe()
+                + ",\"timeToFirstEvent\":" + getTimeToFirstEvent()
+                + ",\"timeToVerify\":" + getTimeToVerify() + "}";
+    }
+
+    @Override
+    public String toString() {
+        return "mode=" + modeToString(mMode)
+                + ", verification=" + verificationToString(mVerification)
+                + ", timeToSubscribe=" + getTimeToSubscribe() + "ms"
+                + ", timeToFirstEvent=" + getTimeToFirstEvent() + "ms"
+                + ", timeToVerify=" + getTimeToVerify() + "ms";
+    }
+}
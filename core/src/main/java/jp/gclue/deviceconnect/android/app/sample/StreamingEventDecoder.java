@@ -0,0 +1,701 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * 登録したAPIパスのイベントから、必要な値だけを JSON 文字列から直接取り出すデコーダ.
+ *
+ * {@link #register(DConnectPath, String...)} で、APIパスごとに取り出す数値のフィールドを
+ * ドット区切りのパス (例: <code>orientation.accelerationIncludingGravity.x</code>) で登録する.
+ * 登録したフィールドはフィールド名の木にまとめておき、{@link #decode(String, Result)} は JSON を先頭から1回だけ走査して、
+ * 木に含まれる値を {@link Result} のプリミティブ型の領域に書き込み、それ以外の値は読み飛ばす.
+ * {@link JsonParser} と異なり、{@link java.util.Map} の木を作らず、数値も文字列を切り出さずに変換する.
+ *
+ * イベントのAPIパスは、最上位の <code>profile</code>・<code>interface</code>・<code>attribute</code> で判定する.
+ * 登録していないAPIパスのイベントや、必要な値が揃わないイベントでは <code>false</code> を返すので、
+ * 呼び出し側は {@link JsonParser} による汎用の解析に切り替えること. 不正な JSON を検出した場合も <code>false</code> を返すが、
+ * 読み飛ばす値は括弧と引用符の対応しか確認しないので、厳密な検証が必要な場合は {@link JsonParser} を使用すること.
+ *
+ * 登録は任意のスレッドから行ってよい. {@link Result} はスレッドごとに用意すること.
+ */
+public class StreamingEventDecoder {
+
+    private static final int KIND_OBJECT = 0;
+    private static final int KIND_NUMBER = 1;
+    private static final int KIND_SERVICE_ID = 2;
+    private static final int KIND_PROFILE = 3;
+    private static final int KIND_INTERFACE = 4;
+    private static final int KIND_ATTRIBUTE = 5;
+
+    private static final String PARAM_SERVICE_ID = "serviceId";
+    private static final String PARAM_PROFILE = "profile";
+    private static final String PARAM_INTERFACE = "interface";
+    private static final String PARAM_ATTRIBUTE = "attribute";
+
+    /**
+     * 誤差なく double に変換できる10の累乗.
+     */
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * 誤差なく double で表せる整数の上限.
+     */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    /**
+     * 登録したAPIパス. 添字は {@link #register(DConnectPath, String...)} の戻り値.
+     */
+    private final List<Schema> mSchemas = new ArrayList<>();
+
+    /**
+     * 登録したフィールドの名前の木. 登録のたびに作り直す.
+     */
+    private volatile Compiled mCompiled = compile(new ArrayList<Schema>());
+
+    /**
+     * APIパスと取り出すフィールドを登録する.
+     *
+     * @param path APIパス. ワイルドカードは指定できない
+     * @param fields 取り出す数値のフィールド. ドット区切りのパス
+     * @return APIパスの番号. {@link Result#getPathIndex()} と比較する
+     */
+    public synchronized int register(final DConnectPath path, final String... fields) {
+        if (path.isWildcard()) {
+            throw new IllegalArgumentException("wildcard path is not supported: " + path);
+        }
+        for (String field : fields) {
+            if (field.isEmpty() || field.startsWith(".") || field.endsWith(".") || field.contains("..")) {
+                throw new IllegalArgumentException("invalid field: " + field);
+            }
+        }
+        mSchemas.add(new Schema(path, fields.clone()));
+        mCompiled = compile(new ArrayList<>(mSchemas));
+        return mSchemas.size() - 1;
+    }
+
+    /**
+     * 登録したAPIパスを取得する.
+     *
+     * @param pathIndex {@link #register(DConnectPath, String...)} の戻り値
+     * @return APIパス
+     */
+    public synchronized DConnectPath getPath(final int pathIndex) {
+        return mSchemas.get(pathIndex).mPath;
+    }
+
+    /**
+     * デコード結果を格納するオブジェクトを作成する.
+     *
+     * @return デコード結果
+     */
+    public Result newResult() {
+        return new Result();
+    }
+
+    /**
+     * イベントの JSON 文字列をデコードする.
+     *
+     * @param json イベントの JSON 文字列
+     * @param result デコード結果の格納先
+     * @return 登録したAPIパスのイベントで、登録したフィールドがすべて数値だった場合は <code>true</code>
+     */
+    public boolean decode(final String json, final Result result) {
+        Compiled compiled = mCompiled;
+        result.reset(compiled, json);
+        try {
+            if (!result.decodeRoot()) {
+                return false;
+            }
+        } catch (IllegalArgumentException e) {
+            // エスケープの復元に失敗した.
+            return false;
+        }
+        for (int i = 0; i < compiled.mSchemas.length; i++) {
+            Schema schema = compiled.mSchemas[i];
+            if (result.matches(schema.mPath) && result.hasAll(compiled.mSlots[i])) {
+                result.mPathIndex = i;
+                result.mPathSlots = compiled.mSlots[i];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Compiled compile(final List<Schema> schemas) {
+        Builder root = new Builder();
+        root.child(PARAM_SERVICE_ID).mKind = KIND_SERVICE_ID;
+        root.child(PARAM_PROFILE).mKind = KIND_PROFILE;
+        root.child(PARAM_INTERFACE).mKind = KIND_INTERFACE;
+        root.child(PARAM_ATTRIBUTE).mKind = KIND_ATTRIBUTE;
+
+        int[] slotCount = new int[1];
+        int[][] slots = new int[schemas.size()][];
+        for (int i = 0; i < schemas.size(); i++) {
+            String[] fields = schemas.get(i).mFields;
+            slots[i] = new int[fields.length];
+            for (int j = 0; j < fields.length; j++) {
+                Builder node = root;
+                for (String name : fields[j].split("\\.")) {
+                    node = node.child(name);
+                }
+                if (node.mSlot < 0) {
+                    node.mKind = KIND_NUMBER;
+                    node.mSlot = slotCount[0]++;
+                }
+                slots[i][j] = node.mSlot;
+            }
+        }
+        return new Compiled(schemas.toArray(new Schema[schemas.size()]), slots, root.build(), slotCount[0]);
+    }
+
+    /**
+     * 登録したAPIパスと取り出すフィールド.
+     */
+    private static class Schema {
+        final DConnectPath mPath;
+        final String[] mFields;
+
+        Schema(final DConnectPath path, final String[] fields) {
+            mPath = path;
+            mFields = fields;
+        }
+    }
+
+    /**
+     * 登録内容から作成した、デコードに使用する不変のデータ.
+     */
+    private static class Compiled {
+        final Schema[] mSchemas;
+
+        /**
+         * APIパスごとの、フィールドの値を格納する領域の番号.
+         */
+        final int[][] mSlots;
+
+        final Node mRoot;
+        final int mSlotCount;
+
+        Compiled(final Schema[] schemas, final int[][] slots, final Node root, final int slotCount) {
+            mSchemas = schemas;
+            mSlots = slots;
+            mRoot = root;
+            mSlotCount = slotCount;
+        }
+    }
+
+    /**
+     * フィールド名の木の節.
+     *
+     * 子の名前は配列で持ち、キーの文字列を切り出さずに {@link String#regionMatches(int, String, int, int)} で比較する.
+     */
+    private static class Node {
+        final String[] mNames;
+        final Node[] mChildren;
+        final int[] mKinds;
+        final int[] mSlots;
+
+        Node(final String[] names, final Node[] children, final int[] kinds, final int[] slots) {
+            mNames = names;
+            mChildren = children;
+            mKinds = kinds;
+            mSlots = slots;
+        }
+
+        int find(final String text, final int start, final int end) {
+            int length = end - start;
+            for (int i = 0; i < mNames.length; i++) {
+                String name = mNames[i];
+                if (name.length() == length && text.regionMatches(start, name, 0, length)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int find(final String name) {
+            for (int i = 0; i < mNames.length; i++) {
+                if (mNames[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * {@link Node} を組み立てるための可変の節.
+     */
+    private static class Builder {
+        final List<String> mNames = new ArrayList<>();
+        final List<Builder> mChildren = new ArrayList<>();
+        int mKind = KIND_OBJECT;
+        int mSlot = -1;
+
+        Builder child(final String name) {
+            int index = mNames.indexOf(name);
+            if (index >= 0) {
+                Builder child = mChildren.get(index);
+                if (child.mKind != KIND_OBJECT && child.mKind != KIND_NUMBER) {
+                    throw new IllegalArgumentException("reserved field: " + name);
+                }
+                return child;
+            }
+            if (mKind != KIND_OBJECT) {
+                throw new IllegalArgumentException("field conflicts with a value: " + name);
+            }
+            Builder child = new Builder();
+            mNames.add(name);
+            mChildren.add(child);
+            return child;
+        }
+
+        Node build() {
+            int size = mNames.size();
+            Node[] children = new Node[size];
+            int[] kinds = new int[size];
+            int[] slots = new int[size];
+            for (int i = 0; i < size; i++) {
+                Builder child = mChildren.get(i);
+                kinds[i] = child.mKind;
+                slots[i] = child.mSlot;
+                children[i] = child.mKind == KIND_OBJECT ? child.build() : null;
+            }
+            return new Node(mNames.toArray(new String[size]), children, kinds, slots);
+        }
+    }
+
+    /**
+     * デコード結果.
+     *
+     * 値は再利用する配列に格納するので、次の {@link #decode(String, Result)} の呼び出しで上書きされる.
+     */
+    public static class Result {
+        private Compiled mCompiled;
+        private String mText;
+        private int mPosition;
+
+        private double[] mNumbers = new double[0];
+        private long[] mLongs = new long[0];
+        private boolean[] mIntegral = new boolean[0];
+
+        /**
+         * 領域ごとに、値を書き込んだ時の {@link #mGeneration}. 一致する領域のみ今回のデコードで書き込んだ値.
+         */
+        private int[] mStamps = new int[0];
+        private int mGeneration;
+
+        private String mServiceId;
+        private int mProfileStart;
+        private int mProfileEnd;
+        private int mInterfaceStart;
+        private int mInterfaceEnd;
+        private int mAttributeStart;
+        private int mAttributeEnd;
+
+        private int mPathIndex;
+        private int[] mPathSlots;
+
+        Result() {
+        }
+
+        void reset(final Compiled compiled, final String text) {
+            mCompiled = compiled;
+            mText = text;
+            mPosition = 0;
+            int count = compiled.mSlotCount;
+            if (mNumbers.length < count) {
+                mNumbers = new double[count];
+                mLongs = new long[count];
+                mIntegral = new boolean[count];
+                mStamps = new int[count];
+                mGeneration = 0;
+            }
+            if (++mGeneration == 0) {
+                Arrays.fill(mStamps, 0);
+                mGeneration = 1;
+            }
+            mServiceId = null;
+            mProfileStart = -1;
+            mInterfaceStart = -1;
+            mAttributeStart = -1;
+            mPathIndex = -1;
+            mPathSlots = null;
+        }
+
+        /**
+         * 一致したAPIパスの番号を取得する.
+         *
+         * @return {@link StreamingEventDecoder#register(DConnectPath, String...)} の戻り値. 一致しなかった場合は -1
+         */
+        public int getPathIndex() {
+            return mPathIndex;
+        }
+
+        /**
+         * イベントのサービスIDを取得する.
+         *
+         * @return サービスID. 含まれていない場合は <code>null</code>
+         */
+        public String getServiceId() {
+            return mServiceId;
+        }
+
+        /**
+         * 登録したフィールドの値を取得する.
+         *
+         * @param field 登録時に指定したフィールドの順番
+         * @return 値
+         */
+        public double getNumber(final int field) {
+            return mNumbers[mPathSlots[field]];
+        }
+
+        /**
+         * 登録したフィールドの値を整数で取得する. 桁数の多い整数 (ナノ秒の時刻など) を誤差なく取得するために使用する.
+         *
+         * @param field 登録時に指定したフィールドの順番
+         * @return 値. 整数でない場合は小数点以下を切り捨てた値
+         */
+        public long getLong(final int field) {
+            int slot = mPathSlots[field];
+            return mIntegral[slot] ? mLongs[slot] : (long) mNumbers[slot];
+        }
+
+        boolean matches(final DConnectPath path) {
+            return regionEquals(mProfileStart, mProfileEnd, path.getProfileName())
+                    && regionEquals(mInterfaceStart, mInterfaceEnd, path.getInterfaceName())
+                    && regionEquals(mAttributeStart, mAttributeEnd, path.getAttributeName());
+        }
+
+        private boolean regionEquals(final int start, final int end, final String name) {
+            if (name == null) {
+                return start < 0;
+            }
+            return start >= 0 && end - start == name.length() && mText.regionMatches(true, start, name, 0, end - start);
+        }
+
+        boolean hasAll(final int[] slots) {
+            for (int slot : slots) {
+                if (mStamps[slot] != mGeneration) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean decodeRoot() {
+            skipWhitespace();
+            if (!decodeObject(mCompiled.mRoot)) {
+                return false;
+            }
+            skipWhitespace();
+            return mPosition == mText.length();
+        }
+
+        /**
+         * オブジェクトを走査して、木に含まれるフィールドの値を書き込む.
+         *
+         * @param node オブジェクトに対応する節
+         * @return 正しい JSON の場合は <code>true</code>
+         */
+        private boolean decodeObject(final Node node) {
+            String text = mText;
+            if (peek() != '{') {
+                return false;
+            }
+            mPosition++;
+            skipWhitespace();
+            if (peek() == '}') {
+                mPosition++;
+                return true;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    return false;
+                }
+                int keyStart = mPosition + 1;
+                int keyEnd = skipString();
+                if (keyEnd < 0) {
+                    return false;
+                }
+                int index;
+                if (containsEscape(keyStart, keyEnd)) {
+                    // エスケープを含むキーは、復元してから比較する.
+                    index = node.find(unescape(keyStart - 1, keyEnd));
+                } else {
+                    index = node.find(text, keyStart, keyEnd);
+                }
+                skipWhitespace();
+                if (peek() != ':') {
+                    return false;
+                }
+                mPosition++;
+                skipWhitespace();
+                if (!decodeValue(node, index)) {
+                    return false;
+                }
+                skipWhitespace();
+                char c = peek();
+                mPosition++;
+                if (c == '}') {
+                    return true;
+                } else if (c != ',') {
+                    return false;
+                }
+            }
+        }
+
+        private boolean decodeValue(final Node node, final int index) {
+            if (index < 0) {
+                return skipValue();
+            }
+            char c = peek();
+            switch (node.mKinds[index]) {
+                case KIND_OBJECT:
+                    return c == '{' ? decodeObject(node.mChildren[index]) : skipValue();
+                case KIND_NUMBER:
+                    return c == '-' || (c >= '0' && c <= '9') ? readNumber(node.mSlots[index]) : skipValue();
+                case KIND_SERVICE_ID:
+                    if (c != '"') {
+                        return skipValue();
+                    }
+                    int start = mPosition;
+                    int end = skipString();
+                    if (end < 0) {
+                        return false;
+                    }
+                    if (containsEscape(start, end)) {
+                        mServiceId = unescape(start, end);
+                    } else {
+                        mServiceId = mText.substring(start + 1, end);
+                    }
+                    return true;
+                default:
+                    if (c != '"') {
+                        return skipValue();
+                    }
+                    int valueStart = mPosition + 1;
+                    int valueEnd = skipString();
+                    if (valueEnd < 0) {
+                        return false;
+                    }
+                    int kind = node.mKinds[index];
+                    if (kind == KIND_PROFILE) {
+                        mProfileStart = valueStart;
+                        mProfileEnd = valueEnd;
+                    } else if (kind == KIND_INTERFACE) {
+                        mInterfaceStart = valueStart;
+                        mInterfaceEnd = valueEnd;
+                    } else {
+                        mAttributeStart = valueStart;
+                        mAttributeEnd = valueEnd;
+                    }
+                    return true;
+            }
+        }
+
+        /**
+         * 数値を読み込み、指定した領域に書き込む.
+         *
+         * 仮数が 2^53 以下で指数の絶対値が 22 以下の場合は、仮数と10の累乗の1回の乗除算で正しく丸めた値を求める.
+         * それ以外の場合は {@link Double#parseDouble(String)} を使用する.
+         */
+        private boolean readNumber(final int slot) {
+            String text = mText;
+            int length = text.length();
+            int start = mPosition;
+            boolean negative = false;
+            if (text.charAt(mPosition) == '-') {
+                negative = true;
+                mPosition++;
+            }
+            long mantissa = 0;
+            int exponent = 0;
+            int digits = 0;
+            boolean exact = true;
+            boolean integral = true;
+            char c;
+            // 整数部. double で表せない桁数でも、long の範囲内なら整数として保持する.
+            long whole = 0;
+            boolean wholeExact = true;
+            while (mPosition < length && (c = text.charAt(mPosition)) >= '0' && c <= '9') {
+                if (mantissa <= MAX_EXACT_MANTISSA / 10) {
+                    mantissa = mantissa * 10 + (c - '0');
+                } else {
+                    exact = false;
+                }
+                if (whole <= (Long.MAX_VALUE - (c - '0')) / 10) {
+                    whole = whole * 10 + (c - '0');
+                } else {
+                    wholeExact = false;
+                }
+                digits++;
+                mPosition++;
+            }
+            if (mPosition < length && text.charAt(mPosition) == '.') {
+                integral = false;
+                mPosition++;
+                while (mPosition < length && (c = text.charAt(mPosition)) >= '0' && c <= '9') {
+                    if (mantissa <= MAX_EXACT_MANTISSA / 10) {
+                        mantissa = mantissa * 10 + (c - '0');
+                        exponent--;
+                    } else {
+                        exact = false;
+                    }
+                    digits++;
+                    mPosition++;
+                }
+            }
+            if (mPosition < length && ((c = text.charAt(mPosition)) == 'e' || c == 'E')) {
+                integral = false;
+                mPosition++;
+                boolean negativeExponent = false;
+                if (mPosition < length && ((c = text.charAt(mPosition)) == '+' || c == '-')) {
+                    negativeExponent = c == '-';
+                    mPosition++;
+                }
+                int value = 0;
+                int expDigits = 0;
+                while (mPosition < length && (c = text.charAt(mPosition)) >= '0' && c <= '9') {
+                    if (value < 10000) {
+                        value = value * 10 + (c - '0');
+                    }
+                    expDigits++;
+                    mPosition++;
+                }
+                if (expDigits == 0) {
+                    return false;
+                }
+                exponent += negativeExponent ? -value : value;
+            }
+            if (digits == 0) {
+                return false;
+            }
+
+            double result;
+            if (exact && mantissa <= MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+                result = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+                if (negative) {
+                    result = -result;
+                }
+            } else {
+                try {
+                    result = Double.parseDouble(text.substring(start, mPosition));
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            mNumbers[slot] = result;
+            mIntegral[slot] = integral && wholeExact;
+            mLongs[slot] = negative ? -whole : whole;
+            mStamps[slot] = mGeneration;
+            return true;
+        }
+
+        /**
+         * 文字列を読み飛ばす.
+         *
+         * @return 閉じる引用符の位置. 不正な場合は -1
+         */
+        private int skipString() {
+            String text = mText;
+            int length = text.length();
+            int i = mPosition + 1;
+            while (i < length) {
+                char c = text.charAt(i);
+                if (c == '"') {
+                    mPosition = i + 1;
+                    return i;
+                } else if (c == '\\') {
+                    i += 2;
+                } else {
+                    i++;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 値を読み飛ばす. オブジェクトと配列は括弧の対応のみを確認する.
+         */
+        private boolean skipValue() {
+            String text = mText;
+            int length = text.length();
+            char c = peek();
+            if (c == '"') {
+                return skipString() >= 0;
+            }
+            if (c == '{' || c == '[') {
+                int depth = 0;
+                while (mPosition < length) {
+                    c = text.charAt(mPosition);
+                    if (c == '"') {
+                        if (skipString() < 0) {
+                            return false;
+                        }
+                        continue;
+                    }
+                    if (c == '{' || c == '[') {
+                        depth++;
+                    } else if (c == '}' || c == ']') {
+                        depth--;
+                        if (depth == 0) {
+                            mPosition++;
+                            return true;
+                        }
+                    }
+                    mPosition++;
+                }
+                return false;
+            }
+            // 数値・true・false・null.
+            int start = mPosition;
+            while (mPosition < length) {
+                c = text.charAt(mPosition);
+                if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                    break;
+                }
+                mPosition++;
+            }
+            return mPosition > start;
+        }
+
+        private boolean containsEscape(final int start, final int end) {
+            int index = mText.indexOf('\\', start);
+            return index >= 0 && index < end;
+        }
+
+        /**
+         * エスケープを含む文字列を復元する. 稀なので {@link JsonParser} に任せる.
+         *
+         * @param open 開く引用符の位置
+         * @param close 閉じる引用符の位置
+         */
+        private String unescape(final int open, final int close) {
+            return (String) JsonParser.parse(mText.substring(open, close + 1));
+        }
+
+        private void skipWhitespace() {
+            String text = mText;
+            int length = text.length();
+            while (mPosition < length) {
+                char c = text.charAt(mPosition);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    break;
+                }
+                mPosition++;
+            }
+        }
+
+        private char peek() {
+            return mPosition < mText.length() ? mText.charAt(mPosition) : '\0';
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * イベントの購読状況を管理するクラス.
+ *
+ * 購読は (サービスID, APIパス) の組ごとに1つ作成し、購読者の数を数える.
+ * 最初の購読者が追加された時点で {@link Callback#onRegister(Subscription)} を、
+ * 最後の購読者が削除された時点で {@link Callback#onUnregister(Subscription)} を呼び出すので、
+ * Device Web API Managerへのイベント登録・解除は組ごとに1回だけ行われる.
+ * コールバックは、このオブジェクトのロックを解放してから呼び出すので、時間がかかっても他の購読の操作を妨げない.
+ *
+ * 受信したイベントは {@link #dispatch(String, String, String, String, Map)} で該当する購読者に配送する.
+ * 配送先は {@link EventRouter} で探すので、配送時にオブジェクトを生成しない.
+ * サービスIDに {@link DConnectPath#WILDCARD} を指定した購読や、ワイルドカードを含むAPIパスの購読は、
+ * 該当するすべてのイベントを受け取る.
+ */
+public class SubscriptionRegistry {
+
+    /**
+     * イベントの購読者.
+     */
+    public interface Subscriber {
+        /**
+         * イベントを受け取る.
+         *
+         * @param subscription イベントに該当する購読
+         * @param event イベント
+         */
+        void onEvent(Subscription subscription, Map<String, Object> event);
+    }
+
+    /**
+     * Device Web API Managerへのイベント登録・解除を行うコールバック.
+     */
+    public interface Callback {
+        /**
+         * 最初の購読者が追加されたことを通知する.
+         *
+         * @param subscription 購読
+         */
+        void onRegister(Subscription subscription);
+
+        /**
+         * 最後の購読者が削除されたことを通知する.
+         *
+         * @param subscription 購読
+         */
+        void onUnregister(Subscription subscription);
+    }
+
+    /**
+     * 購読の一覧. キーは {@link #toKey(String, String)} で作成する.
+     */
+    private final Map<String, Subscription> mSubscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * 組ごとの、{@link Callback} に通知した登録状態. キーは {@link #toKey(String, String)} で作成する.
+     * 組の数は購読したサービスとAPIパスの数に限られるので、一度作成した状態は削除しない.
+     */
+    private final Map<String, Registration> mRegistrations = new ConcurrentHashMap<>();
+
+    /**
+     * 受信したイベントを購読に振り分けるオブジェクト.
+     */
+    private final EventRouter<Subscription> mRouter = new EventRouter<>();
+
+    /**
+     * 振り分けた購読の購読者にイベントを配送するオブジェクト.
+     */
+    private static final EventRouter.Visitor<Subscription, Map<String, Object>> DELIVERY =
+            new EventRouter.Visitor<Subscription, Map<String, Object>>() {
+                @Override
+                public int visit(final Subscription subscription, final Map<String, Object> event) {
+                    Subscriber[] subscribers = subscription.mSubscribers;
+                    for (Subscriber subscriber : subscribers) {
+                        subscriber.onEvent(subscription, event);
+                    }
+                    return subscribers.length;
+                }
+            };
+
+    /**
+     * イベント登録・解除を行うコールバック.
+     */
+    private final Callback mCallback;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param callback イベント登録・解除を行うコールバック
+     */
+    public SubscriptionRegistry(final Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * 購読者を追加する.
+     *
+     * 同じ購読者を同じ組に2回追加しても、購読者の数は増えない.
+     * 最初の購読者の場合は、戻る前に {@link Callback#onRegister(Subscription)} を呼び出す.
+     *
+     * @param serviceId サービスID
+     * @param path APIパス
+     * @param subscriber 購読者
+     * @return 購読
+     */
+    public Subscription subscribe(final String serviceId, final DConnectPath path, final Subscriber subscriber) {
+        String key = toKey(serviceId, path.getSupportKey());
+        Subscription subscription;
+        synchronized (this) {
+            subscription = mSubscriptions.get(key);
+            if (subscription == null) {
+                subscription = new Subscription(serviceId, path);
+                mSubscriptions.put(key, subscription);
+                mRouter.add(serviceId, path, subscription);
+                if (!mRegistrations.containsKey(key)) {
+                    mRegistrations.put(key, new Registration());
+                }
+            }
+            subscription.addSubscriber(subscriber);
+        }
+        notifyChanged(key);
+        return subscription;
+    }
+
+    /**
+     * 購読者を削除する.
+     *
+     * 最後の購読者の場合は、戻る前に {@link Callback#onUnregister(Subscription)} を呼び出す.
+     *
+     * @param serviceId サービスID
+     * @param path APIパス
+     * @param subscriber 購読者
+     * @return 削除した場合は <code>true</code>
+     */
+    public boolean unsubscribe(final String serviceId, final DConnectPath path, final Subscriber subscriber) {
+        String key = toKey(serviceId, path.getSupportKey());
+        synchronized (this) {
+            if (!removeSubscriber(key, subscriber)) {
+                return false;
+            }
+        }
+        notifyChanged(key);
+        return true;
+    }
+
+    /**
+     * 指定した購読者をすべての購読から削除する.
+     *
+     * @param subscriber 購読者
+     * @return 削除した購読の数
+     */
+    public int unsubscribeAll(final Subscriber subscriber) {
+        List<String> keys = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, Subscription> entry : mSubscriptions.entrySet()) {
+                keys.add(entry.getKey());
+            }
+            for (Iterator<String> it = keys.iterator(); it.hasNext();) {
+                if (!removeSubscriber(it.next(), subscriber)) {
+                    it.remove();
+                }
+            }
+        }
+        for (String key : keys) {
+            notifyChanged(key);
+        }
+        return keys.size();
+    }
+
+    /**
+     * すべての購読を削除する.
+     *
+     * 削除した購読ごとに {@link Callback#onUnregister(Subscription)} を呼び出す.
+     */
+    public void clear() {
+        List<String> keys;
+        synchronized (this) {
+            keys = new ArrayList<>(mSubscriptions.keySet());
+            for (Subscription subscription : mSubscriptions.values()) {
+                subscription.mSubscribers = new Subscriber[0];
+            }
+            mSubscriptions.clear();
+            mRouter.clear();
+        }
+        for (String key : keys) {
+            notifyChanged(key);
+        }
+    }
+
+    /**
+     * 購読から購読者を削除し、購読者がいなくなった購読を一覧から削除する. このオブジェクトのロックを保持して呼び出すこと.
+     *
+     * @param key 購読のキー
+     * @param subscriber 購読者
+     * @return 削除した場合は <code>true</code>
+     */
+    private boolean removeSubscriber(final String key, final Subscriber subscriber) {
+        Subscription subscription = mSubscriptions.get(key);
+        if (subscription == null || !subscription.removeSubscriber(subscriber)) {
+            return false;
+        }
+        if (subscription.getSubscriberCount() == 0) {
+            mSubscriptions.remove(key);
+            mRouter.remove(subscription.getServiceId(), subscription.getPath(), subscription);
+        }
+        return true;
+    }
+
+    /**
+     * 組の登録状態を現在の購読に合わせ、必要な {@link Callback} を呼び出す.
+     *
+     * コールバックはネットワークの要求を伴うので、このオブジェクトのロックを保持せずに呼び出す.
+     * 同じ組のコールバックは {@link Registration} のロックで順に実行し、複数のスレッドが同時に購読・削除しても、
+     * 最後に呼び出したコールバックが現在の購読と一致するようにする.
+     *
+     * @param key 購読のキー
+     */
+    private void notifyChanged(final String key) {
+        Registration registration = mRegistrations.get(key);
+        if (registration == null) {
+            return;
+        }
+        synchronized (registration) {
+            Subscription current = mSubscriptions.get(key);
+            Subscription registered = registration.mSubscription;
+            if (registered == current) {
+                return;
+            }
+            registration.mSubscription = current;
+            if (registered != null) {
+                mCallback.onUnregister(registered);
+            }
+            if (current != null) {
+                mCallback.onRegister(current);
+            }
+        }
+    }
+
+    /**
+     * 指定したAPIパスの購読のうち、サービスを問わず購読者のいるものを取得する.
+     *
+     * @param path APIパス
+     * @return 購読の一覧
+     */
+    public List<Subscription> findByPath(final DConnectPath path) {
+        String supportKey = path.getSupportKey();
+        List<Subscription> result = new ArrayList<>();
+        for (Subscription subscription : mSubscriptions.values()) {
+            if (subscription.getPath().getSupportKey().equals(supportKey)) {
+                result.add(subscription);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 指定したサービスの購読を、APIパスを問わず取得する.
+     *
+     * @param serviceId サービスID
+     * @return 購読の一覧
+     */
+    public List<Subscription> findByService(final String serviceId) {
+        List<Subscription> result = new ArrayList<>();
+        for (Subscription subscription : mSubscriptions.values()) {
+            if (subscription.getServiceId().equals(serviceId)) {
+                result.add(subscription);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 現在の購読の一覧を取得する.
+     *
+     * @return 購読の一覧
+     */
+    public List<Subscription> getSubscriptions() {
+        return new ArrayList<>(mSubscriptions.values());
+    }
+
+    /**
+     * 受信したイベントを該当する購読者に配送する.
+     *
+     * @param serviceId イベントのサービスID
+     * @param profile イベントのプロファイル名
+     * @param interfaceName イベントのインターフェース名. 省略されている場合は <code>null</code>
+     * @param attribute イベントのアトリビュート名
+     * @param event イベント
+     * @return 配送した購読者の数
+     */
+    public int dispatch(final String serviceId, final String profile, final String interfaceName,
+                        final String attribute, final Map<String, Object> event) {
+        return mRouter.route(serviceId, profile, interfaceName, attribute, DELIVERY, event);
+    }
+
+    private static String toKey(final String serviceId, final String supportKey) {
+        return serviceId.toLowerCase(Locale.ENGLISH) + ":" + supportKey;
+    }
+
+    /**
+     * 組ごとの、{@link Callback} に通知した登録状態.
+     */
+    private static class Registration {
+        /**
+         * 最後に {@link Callback#onRegister(Subscription)} を呼び出した購読. 登録していない場合は <code>null</code>.
+         * このオブジェクトのロックで排他する.
+         */
+        Subscription mSubscription;
+    }
+
+    /**
+     * (サービスID, APIパス) の組に対する購読.
+     */
+    public static class Subscription {
+        private final String mServiceId;
+        private final DConnectPath mPath;
+
+        /**
+         * 購読者の一覧. 配送時に反復子を生成しないように、変更のたびに配列を作り直す.
+         */
+        private volatile Subscriber[] mSubscribers = new Subscriber[0];
+
+        Subscription(final String serviceId, final DConnectPath path) {
+            mServiceId = serviceId;
+            mPath = path;
+        }
+
+        public String getServiceId() {
+            return mServiceId;
+        }
+
+        public DConnectPath getPath() {
+            return mPath;
+        }
+
+        public int getSubscriberCount() {
+            return mSubscribers.length;
+        }
+
+        /**
+         * 購読者の一覧を取得する.
+         *
+         * @return 購読者の一覧. 取得した時点の複製
+         */
+        public List<Subscriber> getSubscribers() {
+            return new ArrayList<>(Arrays.asList(mSubscribers));
+        }
+
+        private void addSubscriber(final Subscriber subscriber) {
+            Subscriber[] subscribers = mSubscribers;
+            for (Subscriber s : subscribers) {
+                if (s.equals(subscriber)) {
+                    return;
+                }
+            }
+            Subscriber[] newSubscribers = Arrays.copyOf(subscribers, subscribers.length + 1);
+            newSubscribers[subscribers.length] = subscriber;
+            mSubscribers = newSubscribers;
+        }
+
+        private boolean removeSubscriber(final Subscriber subscriber) {
+            Subscriber[] subscribers = mSubscribers;
+            for (int i = 0; i < subscribers.length; i++) {
+                if (subscribers[i].equals(subscriber)) {
+                    Subscriber[] newSubscribers = new Subscriber[subscribers.length - 1];
+                    System.arraycopy(subscribers, 0, newSubscribers, 0, i);
+                    System.arraycopy(subscribers, i + 1, newSubscribers, i, subscribers.length - i - 1);
+                    mSubscribers = newSubscribers;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+
+/**
+ * 時刻を <code>yyyy-MM-dd HH:mm:ss.SS</code> の形式で {@link LogBuffer.Line} に書き込むクラス.
+ *
+ * 日付と時の部分は1時間ごとに作り直して使い回し、分以下は経過ミリ秒から計算するので、書き込みでオブジェクトを生成しない.
+ * ミリ秒は {@link java.text.SimpleDateFormat} の <code>SS</code> と同じく、2桁未満の場合のみ0で埋める.
+ *
+ * このクラスはスレッドセーフではない.
+ */
+public class TimestampFormatter {
+
+    /**
+     * 日付の計算に使用するカレンダー.
+     */
+    private final Calendar mCalendar;
+
+    /**
+     * キャッシュしている時間帯の開始時刻. 単位はミリ秒.
+     */
+    private long mHourStart = Long.MAX_VALUE;
+
+    /**
+     * キャッシュしている時間帯の終了時刻. 単位はミリ秒.
+     */
+    private long mHourEnd = Long.MIN_VALUE;
+
+    /**
+     * キャッシュしている日付と時の文字列 (<code>yyyy-MM-dd HH:</code>).
+     */
+    private final char[] mPrefix = new char[14];
+
+    /**
+     * コンストラクタ.
+     *
+     * @param timeZone タイムゾーン
+     */
+    public TimestampFormatter(final TimeZone timeZone) {
+        mCalendar = Calendar.getInstance(timeZone);
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * タイムゾーンには端末のデフォルトを使用する.
+     */
+    public TimestampFormatter() {
+        this(TimeZone.getDefault());
+    }
+
+    /**
+     * 時刻を書き込む.
+     *
+     * @param millis 時刻. 1970-01-01T00:00:00Z からの経過ミリ秒
+     * @param line 書き込み先
+     */
+    public void format(final long millis, final LogBuffer.Line line) {
+        if (millis < mHourStart || millis >= mHourEnd) {
+            updatePrefix(millis);
+        }
+        for (char c : mPrefix) {
+            line.append(c);
+        }
+
+        long elapsed = millis - mHourStart;
+        long minutes = elapsed / 60000L;
+        long seconds = (elapsed / 1000L) % 60;
+        long ms = elapsed % 1000;
+        line.appendPadded(minutes, 2).append(':')
+                .appendPadded(seconds, 2).append('.')
+                .appendPadded(ms, 2);
+    }
+
+    private void updatePrefix(final long millis) {
+        Calendar calendar = mCalendar;
+        calendar.setTimeInMillis(millis);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        mHourStart = calendar.getTimeInMillis();
+        mHourEnd = mHourStart + 3600000L;
+
+        writeDigits(calendar.get(Calendar.YEAR), 0, 4);
+        mPrefix[4] = '-';
+        writeDigits(calendar.get(Calendar.MONTH) + 1, 5, 2);
+        mPrefix[7] = '-';
+        writeDigits(calendar.get(Calendar.DAY_OF_MONTH), 8, 2);
+        mPrefix[10] = ' ';
+        writeDigits(calendar.get(Calendar.HOUR_OF_DAY), 11, 2);
+        mPrefix[13] = ':';
+    }
+
+    private void writeDigits(final int value, final int offset, final int width) {
+        int v = value;
+        for (int i = offset + width - 1; i >= offset; i--) {
+            mPrefix[i] = (char) ('0' + (v % 10));
+            v /= 10;
+        }
+    }
+}
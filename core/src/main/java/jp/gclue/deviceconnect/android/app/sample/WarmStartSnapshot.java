@@ -0,0 +1,334 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * 前回の起動時に選択したサービスとサポートAPI一覧を保存するクラス.
+ *
+ * 次回の起動時に読み込み、Service Discoveryを待たずに前回と同じサービスのイベントを購読するために使用する.
+ * 保存した内容が現在も正しいかどうかは、呼び出し側が購読の後に確認すること.
+ *
+ * ファイルは次の形式のバイナリで、文字列は {@link DataOutputStream#writeUTF(String)} で書き込む.
+ * <pre>
+ * magic(int) version(int) savedAt(long)
+ * targetCount(int) { supportKey serviceId name }*
+ * serviceCount(int) { serviceId probedAt(long) apiCount(int) { supportKey }* }*
+ * </pre>
+ * probedAt はサポートAPI一覧を問い合わせた時刻. バージョン1のファイルには含まれないので、
+ * 読み込んだ一覧は問い合わせた時刻が不明 (0) として扱う.
+ *
+ * このクラスはスレッドセーフである.
+ */
+public class WarmStartSnapshot {
+
+    /**
+     * ファイルの先頭に書き込む識別子.
+     */
+    private static final int MAGIC = 0x44435753; // "DCWS"
+
+    /**
+     * ファイル形式のバージョン.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * 問い合わせた時刻を含まないファイル形式のバージョン.
+     */
+    private static final int VERSION_WITHOUT_PROBED_AT = 1;
+
+    /**
+     * APIごとに選択したサービス. キーは {@link CapabilityCache#toSupportKey(String, String)} の形式.
+     */
+    private final Map<String, Target> mTargets = new HashMap<>();
+
+    /**
+     * サービスごとのサポートAPI一覧. キーはサービスID.
+     */
+    private final Map<String, Set<String>> mCapabilities = new HashMap<>();
+
+    /**
+     * サービスごとのサポートAPI一覧を問い合わせた時刻. キーはサービスID. 単位はミリ秒.
+     */
+    private final Map<String, Long> mProbedAt = new HashMap<>();
+
+    /**
+     * 保存した時刻. 単位はミリ秒. 保存していない場合は 0.
+     */
+    private long mSavedAt;
+
+    /**
+     * 前回の保存以降に変更したかどうか.
+     */
+    private boolean mDirty;
+
+    /**
+     * 指定したAPIに対して選択したサービスを取得する.
+     *
+     * @param supportKey APIのキー
+     * @return サービス. 保存されていない場合は <code>null</code>
+     */
+    public synchronized Target getTarget(final String supportKey) {
+        return mTargets.get(supportKey);
+    }
+
+    /**
+     * 指定したAPIに対して選択したサービスを記録する.
+     *
+     * @param supportKey APIのキー
+     * @param serviceId サービスID
+     * @param name サービス名
+     */
+    public synchronized void putTarget(final String supportKey, final String serviceId, final String name) {
+        Target target = new Target(serviceId, name);
+        if (!target.equals(mTargets.put(supportKey, target))) {
+            mDirty = true;
+        }
+    }
+
+    /**
+     * 指定したサービスのサポートAPI一覧を、現在時刻に問い合わせたものとして記録する.
+     *
+     * @param serviceId サービスID
+     * @param supportedApis サポートAPI一覧
+     */
+    public synchronized void putCapabilities(final String serviceId, final Set<String> supportedApis) {
+        putCapabilities(serviceId, supportedApis, System.currentTimeMillis());
+    }
+
+    /**
+     * 指定したサービスのサポートAPI一覧を記録する.
+     *
+     * @param serviceId サービスID
+     * @param supportedApis サポートAPI一覧
+     * @param probedAt 問い合わせた時刻. 単位はミリ秒
+     */
+    public synchronized void putCapabilities(final String serviceId, final Set<String> supportedApis,
+                                             final long probedAt) {
+        Set<String> copy = Collections.unmodifiableSet(new HashSet<>(supportedApis));
+        if (!copy.equals(mCapabilities.put(serviceId, copy))) {
+            mDirty = true;
+        }
+        Long previous = mProbedAt.put(serviceId, probedAt);
+        if (previous == null || previous != probedAt) {
+            mDirty = true;
+        }
+    }
+
+    /**
+     * 指定したサービスのサポートAPI一覧を問い合わせた時刻を取得する.
+     *
+     * @param serviceId サービスID
+     * @return 時刻. 単位はミリ秒. 記録されていない、または不明な場合は 0
+     */
+    public synchronized long getProbedAt(final String serviceId) {
+        Long probedAt = mProbedAt.get(serviceId);
+        return probedAt != null ? probedAt : 0;
+    }
+
+    /**
+     * 指定したサービスのサポートAPI一覧を取得する.
+     *
+     * @param serviceId サービスID
+     * @return サポートAPI一覧. 保存されていない場合は <code>null</code>
+     */
+    public synchronized Set<String> getCapabilities(final String serviceId) {
+        return mCapabilities.get(serviceId);
+    }
+
+    /**
+     * 保存しているサポートAPI一覧をすべて取得する.
+     *
+     * @return サポートAPI一覧. キーはサービスID
+     */
+    public synchronized Map<String, Set<String>> getAllCapabilities() {
+        return new HashMap<>(mCapabilities);
+    }
+
+    /**
+     * 指定したサービスに関する記録をすべて破棄する.
+     *
+     * 前回選択したサービスが存在しない、または指定したAPIをサポートしなくなった場合に使用する.
+     *
+     * @param serviceId サービスID
+     */
+    public synchronized void removeService(final String serviceId) {
+        for (Iterator<Target> it = mTargets.values().iterator(); it.hasNext(); ) {
+            if (it.next().mServiceId.equals(serviceId)) {
+                it.remove();
+                mDirty = true;
+            }
+        }
+        if (mCapabilities.remove(serviceId) != null) {
+            mDirty = true;
+        }
+        mProbedAt.remove(serviceId);
+    }
+
+    /**
+     * 保存した時刻を取得する.
+     *
+     * @return 時刻. 単位はミリ秒. 保存していない場合は 0
+     */
+    public synchronized long getSavedAt() {
+        return mSavedAt;
+    }
+
+    /**
+     * 前回の保存以降に変更したかどうかを取得する.
+     *
+     * @return 変更した場合は <code>true</code>
+     */
+    public synchronized boolean isDirty() {
+        return mDirty;
+    }
+
+    /**
+     * ファイルに保存する.
+     *
+     * 書き込み途中のファイルを読まないように、一時ファイルに書き込んでから置き換える.
+     *
+     * @param file 保存先のファイル
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public synchronized void write(final File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        long savedAt = System.currentTimeMillis();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(savedAt);
+            out.writeInt(mTargets.size());
+            for (Map.Entry<String, Target> entry : mTargets.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue().mServiceId);
+                out.writeUTF(entry.getValue().mName);
+            }
+            out.writeInt(mCapabilities.size());
+            for (Map.Entry<String, Set<String>> entry : mCapabilities.entrySet()) {
+                out.writeUTF(entry.getKey());
+                Long probedAt = mProbedAt.get(entry.getKey());
+                out.writeLong(probedAt != null ? probedAt : 0);
+                out.writeInt(entry.getValue().size());
+                for (String supportKey : entry.getValue()) {
+                    out.writeUTF(supportKey);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+        mSavedAt = savedAt;
+        mDirty = false;
+    }
+
+    /**
+     * ファイルから読み込む.
+     *
+     * @param file 保存先のファイル
+     * @return 読み込んだ内容. ファイルが存在しない場合は空
+     * @throws IOException 読み込みに失敗した場合、またはファイルの形式が不正な場合
+     */
+    public static WarmStartSnapshot read(final File file) throws IOException {
+        WarmStartSnapshot snapshot = new WarmStartSnapshot();
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException e) {
+            return snapshot;
+        }
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a warm start snapshot: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION && version != VERSION_WITHOUT_PROBED_AT) {
+                throw new IOException("Unsupported version: " + version);
+            }
+            snapshot.mSavedAt = in.readLong();
+            int targetCount = readCount(in);
+            for (int i = 0; i < targetCount; i++) {
+                String supportKey = in.readUTF();
+                snapshot.mTargets.put(supportKey, new Target(in.readUTF(), in.readUTF()));
+            }
+            int serviceCount = readCount(in);
+            for (int i = 0; i < serviceCount; i++) {
+                String serviceId = in.readUTF();
+                long probedAt = version == VERSION_WITHOUT_PROBED_AT ? 0 : in.readLong();
+                int apiCount = readCount(in);
+                Set<String> supportedApis = new HashSet<>();
+                for (int j = 0; j < apiCount; j++) {
+                    supportedApis.add(in.readUTF());
+                }
+                snapshot.mCapabilities.put(serviceId, Collections.unmodifiableSet(supportedApis));
+                snapshot.mProbedAt.put(serviceId, probedAt);
+            }
+        } finally {
+            in.close();
+        }
+        return snapshot;
+    }
+
+    private static int readCount(final DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid count: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * 選択したサービス.
+     */
+    public static class Target {
+        private final String mServiceId;
+        private final String mName;
+
+        Target(final String serviceId, final String name) {
+            mServiceId = serviceId;
+            mName = name;
+        }
+
+        public String getServiceId() {
+            return mServiceId;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Target)) {
+                return false;
+            }
+            Target other = (Target) obj;
+            return mServiceId.equals(other.mServiceId) && mName.equals(other.mName);
+        }
+
+        @Override
+        public int hashCode() {
+            return mServiceId.hashCode() * 31 + mName.hashCode();
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+
+/**
+ * サンプルの統計値 (最小値・最大値・平均値・RMS・分散・合成値のピーク) をウィンドウ単位で集計するクラス.
+ *
+ * ウィンドウは直近 <code>windowSize</code> 個のサンプルで、<code>hop</code> 個のサンプルごとに集計結果を通知する.
+ * <code>hop</code> と <code>windowSize</code> が等しい場合はタンブリングウィンドウ、
+ * <code>hop</code> の方が小さい場合はスライディングウィンドウになる.
+ *
+ * 統計値はサンプルを追加するたびに差分で更新するので、1サンプルあたりの計算量は O(1) (最小値・最大値は償却 O(1)).
+ * 集計中も通知時もオブジェクトを生成しない. 通知する {@link Aggregate} は使い回すので、
+ * リスナーの外で参照する場合は {@link Aggregate#copyFrom(Aggregate)} で複製すること.
+ *
+ * このクラスはスレッドセーフではない.
+ */
+public class WindowAggregator implements SampleChannel.SampleSink {
+
+    /**
+     * 集計結果を受け取るリスナー.
+     */
+    public interface Listener {
+        /**
+         * 集計結果を受け取る.
+         *
+         * @param aggregate 集計結果. 呼び出し後に内容が変わる
+         */
+        void onAggregate(Aggregate aggregate);
+    }
+
+    /**
+     * 集計結果の種類: X軸.
+     */
+    public static final int AXIS_X = 0;
+
+    /**
+     * 集計結果の種類: Y軸.
+     */
+    public static final int AXIS_Y = 1;
+
+    /**
+     * 集計結果の種類: Z軸.
+     */
+    public static final int AXIS_Z = 2;
+
+    /**
+     * 集計結果の種類: 3軸の合成値 (ベクトルの大きさ).
+     */
+    public static final int AXIS_MAGNITUDE = 3;
+
+    /**
+     * 集計結果の種類の数.
+     */
+    private static final int AXIS_COUNT = 4;
+
+    /**
+     * ウィンドウのサンプル数.
+     */
+    private final int mWindowSize;
+
+    /**
+     * 集計結果を通知する間隔. 単位はサンプル数.
+     */
+    private final int mHop;
+
+    /**
+     * 種類ごとの統計値.
+     */
+    private final WindowStats[] mStats = new WindowStats[AXIS_COUNT];
+
+    /**
+     * ウィンドウ内のタイムスタンプ.
+     */
+    private final long[] mTimestamps;
+
+    /**
+     * 追加したサンプル数.
+     */
+    private long mCount;
+
+    /**
+     * 前回の通知から追加したサンプル数.
+     */
+    private int mSinceLastEmit;
+
+    /**
+     * 通知する集計結果.
+     */
+    private final Aggregate mAggregate = new Aggregate();
+
+    /**
+     * 集計結果を受け取るリスナー.
+     */
+    private final Listener mListener;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param windowSize ウィンドウのサンプル数
+     * @param hop 集計結果を通知する間隔. 単位はサンプル数. 1以上 <code>windowSize</code> 以下
+     * @param listener 集計結果を受け取るリスナー
+     */
+    public WindowAggregator(final int windowSize, final int hop, final Listener listener) {
+        if (windowSize <= 0 || hop <= 0 || hop > windowSize) {
+            throw new IllegalArgumentException("windowSize = " + windowSize + ", hop = " + hop);
+        }
+        mWindowSize = windowSize;
+        mHop = hop;
+        mListener = listener;
+        mTimestamps = new long[windowSize];
+        for (int i = 0; i < AXIS_COUNT; i++) {
+            mStats[i] = new WindowStats(windowSize);
+        }
+    }
+
+    /**
+     * タンブリングウィンドウで集計するオブジェクトを作成する.
+     *
+     * @param windowSize ウィンドウのサンプル数
+     * @param listener 集計結果を受け取るリスナー
+     * @return 集計するオブジェクト
+     */
+    public static WindowAggregator tumbling(final int windowSize, final Listener listener) {
+        return new WindowAggregator(windowSize, windowSize, listener);
+    }
+
+    /**
+     * スライディングウィンドウで集計するオブジェクトを作成する.
+     *
+     * @param windowSize ウィンドウのサンプル数
+     * @param hop 集計結果を通知する間隔. 単位はサンプル数
+     * @param listener 集計結果を受け取るリスナー
+     * @return 集計するオブジェクト
+     */
+    public static WindowAggregator sliding(final int windowSize, final int hop, final Listener listener) {
+        return new WindowAggregator(windowSize, hop, listener);
+    }
+
+    @Override
+    public void onSample(final long timestamp, final float x, final float y, final float z) {
+        mTimestamps[(int) (mCount % mWindowSize)] = timestamp;
+        mStats[AXIS_X].push(x);
+        mStats[AXIS_Y].push(y);
+        mStats[AXIS_Z].push(z);
+        mStats[AXIS_MAGNITUDE].push((float) Math.sqrt((double) x * x + (double) y * y + (double) z * z));
+        mCount++;
+
+        // 最初のウィンドウが埋まるまでは通知しない.
+        if (mCount < mWindowSize) {
+            return;
+        }
+        if (mCount == mWindowSize || ++mSinceLastEmit >= mHop) {
+            mSinceLastEmit = 0;
+            emit(timestamp);
+        }
+    }
+
+    private void emit(final long endTimestamp) {
+        Aggregate a = mAggregate;
+        a.mCount = mWindowSize;
+        a.mStartTimestamp = mTimestamps[(int) (mCount % mWindowSize)];
+        a.mEndTimestamp = endTimestamp;
+        for (int i = 0; i < AXIS_COUNT; i++) {
+            WindowStats stats = mStats[i];
+            a.mMin[i] = stats.min();
+            a.mMax[i] = stats.max();
+            a.mMean[i] = stats.mean();
+            a.mRms[i] = stats.rms();
+            a.mVariance[i] = stats.variance();
+        }
+        if (mListener != null) {
+            mListener.onAggregate(a);
+        }
+    }
+
+    /**
+     * 集計中のサンプルを破棄する.
+     */
+    public void reset() {
+        mCount = 0;
+        mSinceLastEmit = 0;
+        for (WindowStats stats : mStats) {
+            stats.reset();
+        }
+    }
+
+    /**
+     * ウィンドウのサンプル数を取得する.
+     *
+     * @return サンプル数
+     */
+    public int getWindowSize() {
+        return mWindowSize;
+    }
+
+    /**
+     * 集計結果を通知する間隔を取得する.
+     *
+     * @return 間隔. 単位はサンプル数
+     */
+    public int getHop() {
+        return mHop;
+    }
+
+    /**
+     * 1つの値の系列について、直近のウィンドウの統計値を差分で更新するクラス.
+     *
+     * 最小値・最大値は単調キューで管理する.
+     */
+    static class WindowStats {
+
+        /**
+         * 和を計算し直す間隔. 単位はウィンドウ数.
+         *
+         * 差分更新で蓄積する丸め誤差を定期的に取り除く.
+         */
+        private static final int RECOMPUTE_WINDOWS = 1024;
+
+        private final int mSize;
+        private final float[] mValues;
+        private long mCount;
+        private double mSum;
+        private double mSumOfSquares;
+
+        /**
+         * 最小値の候補のシーケンス番号. 値の昇順に並ぶ.
+         */
+        private final long[] mMinQueue;
+        private int mMinHead;
+        private int mMinLength;
+
+        /**
+         * 最大値の候補のシーケンス番号. 値の降順に並ぶ.
+         */
+        private final long[] mMaxQueue;
+        private int mMaxHead;
+        private int mMaxLength;
+
+        WindowStats(final int size) {
+            mSize = size;
+            mValues = new float[size];
+            mMinQueue = new long[size];
+            mMaxQueue = new long[size];
+        }
+
+        void push(final float value) {
+            long sequence = mCount;
+            int slot = (int) (sequence % mSize);
+            if (sequence >= mSize) {
+                float old = mValues[slot];
+                mSum -= old;
+                mSumOfSquares -= (double) old * old;
+                long expired = sequence - mSize;
+                if (mMinLength > 0 && mMinQueue[mMinHead] <= expired) {
+                    mMinHead = (mMinHead + 1) % mSize;
+                    mMinLength--;
+                }
+                if (mMaxLength > 0 && mMaxQueue[mMaxHead] <= expired) {
+                    mMaxHead = (mMaxHead + 1) % mSize;
+                    mMaxLength--;
+                }
+            }
+            mValues[slot] = value;
+            mSum += value;
+            mSumOfSquares += (double) value * value;
+
+            while (mMinLength > 0 && valueAt(mMinQueue[(mMinHead + mMinLength - 1) % mSize]) >= value) {
+                mMinLength--;
+            }
+            mMinQueue[(mMinHead + mMinLength) % mSize] = sequence;
+            mMinLength++;
+
+            while (mMaxLength > 0 && valueAt(mMaxQueue[(mMaxHead + mMaxLength - 1) % mSize]) <= value) {
+                mMaxLength--;
+            }
+            mMaxQueue[(mMaxHead + mMaxLength) % mSize] = sequence;
+            mMaxLength++;
+
+            mCount++;
+            if (mCount % ((long) mSize * RECOMPUTE_WINDOWS) == 0) {
+                recomputeSums();
+            }
+        }
+
+        private float valueAt(final long sequence) {
+            return mValues[(int) (sequence % mSize)];
+        }
+
+        private void recomputeSums() {
+            double sum = 0;
+            double sumOfSquares = 0;
+            int n = count();
+            for (int i = 0; i < n; i++) {
+                sum += mValues[i];
+                sumOfSquares += (double) mValues[i] * mValues[i];
+            }
+            mSum = sum;
+            mSumOfSquares = sumOfSquares;
+        }
+
+        int count() {
+            return (int) Math.min(mCount, mSize);
+        }
+
+        float min() {
+            return mMinLength > 0 ? valueAt(mMinQueue[mMinHead]) : Float.NaN;
+        }
+
+        float max() {
+            return mMaxLength > 0 ? valueAt(mMaxQueue[mMaxHead]) : Float.NaN;
+        }
+
+        float mean() {
+            int n = count();
+            return n > 0 ? (float) (mSum / n) : Float.NaN;
+        }
+
+        float rms() {
+            int n = count();
+            return n > 0 ? (float) Math.sqrt(Math.max(0, mSumOfSquares / n)) : Float.NaN;
+        }
+
+        float variance() {
+            int n = count();
+            if (n == 0) {
+                return Float.NaN;
+            }
+            double mean = mSum / n;
+            return (float) Math.max(0, mSumOfSquares / n - mean * mean);
+        }
+
+        void reset() {
+            mCount = 0;
+            mSum = 0;
+            mSumOfSquares = 0;
+            mMinHead = 0;
+            mMinLength = 0;
+            mMaxHead = 0;
+            mMaxLength = 0;
+        }
+    }
+
+    /**
+     * 1つのウィンドウの集計結果.
+     *
+     * 各統計値は AXIS_ で始まる定数で種類を指定して取得する.
+     */
+    public static class Aggregate {
+        private int mCount;
+        private long mStartTimestamp;
+        private long mEndTimestamp;
+        private final float[] mMin = new float[AXIS_COUNT];
+        private final float[] mMax = new float[AXIS_COUNT];
+        private final float[] mMean = new float[AXIS_COUNT];
+        private final float[] mRms = new float[AXIS_COUNT];
+        private final float[] mVariance = new float[AXIS_COUNT];
+
+        /**
+         * ウィンドウのサンプル数を取得する.
+         *
+         * @return サンプル数
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * ウィンドウ内の最初のサンプルのタイムスタンプを取得する.
+         *
+         * @return タイムスタンプ. 単位はミリ秒
+         */
+        public long getStartTimestamp() {
+            return mStartTimestamp;
+        }
+
+        /**
+         * ウィンドウ内の最後のサンプルのタイムスタンプを取得する.
+         *
+         * @return タイムスタンプ. 単位はミリ秒
+         */
+        public long getEndTimestamp() {
+            return mEndTimestamp;
+        }
+
+        public float getMin(final int axis) {
+            return mMin[axis];
+        }
+
+        public float getMax(final int axis) {
+            return mMax[axis];
+        }
+
+        public float getMean(final int axis) {
+            return mMean[axis];
+        }
+
+        public float getRms(final int axis) {
+            return mRms[axis];
+        }
+
+        public float getVariance(final int axis) {
+            return mVariance[axis];
+        }
+
+        /**
+         * 合成値のピーク (ウィンドウ内の最大値) を取得する.
+         *
+         * @return ピーク
+         */
+        public float getMagnitudePeak() {
+            return mMax[AXIS_MAGNITUDE];
+        }
+
+        /**
+         * 他の集計結果の内容をコピーする.
+         *
+         * @param other コピー元
+         */
+        public void copyFrom(final Aggregate other) {
+            mCount = other.mCount;
+            mStartTimestamp = other.mStartTimestamp;
+            mEndTimestamp = other.mEndTimestamp;
+            System.arraycopy(other.mMin, 0, mMin, 0, AXIS_COUNT);
+            System.arraycopy(other.mMax, 0, mMax, 0, AXIS_COUNT);
+            System.arraycopy(other.mMean, 0, mMean, 0, AXIS_COUNT);
+            System.arraycopy(other.mRms, 0, mRms, 0, AXIS_COUNT);
+            System.arraycopy(other.mVariance, 0, mVariance, 0, AXIS_COUNT);
+        }
+    }
+}
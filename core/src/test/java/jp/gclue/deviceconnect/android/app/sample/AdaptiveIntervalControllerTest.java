@@ -0,0 +1,114 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link AdaptiveIntervalController} のテスト.
+ */
+public class AdaptiveIntervalControllerTest {
+
+    private static final long SECOND = 1000000000L;
+
+    private static final long IDLE_NANOS = 10000L;
+
+    /**
+     * 変更の通知を記録するリスナー.
+     */
+    private static class RecordingListener implements AdaptiveIntervalController.Listener {
+        final List<Long> mIntervals = new ArrayList<>();
+
+        @Override
+        public void onIntervalChanged(final long oldInterval, final long newInterval, final int decision) {
+            mIntervals.add(newInterval);
+        }
+    }
+
+    private static AdaptiveIntervalController create(final RecordingListener listener) {
+        return new AdaptiveIntervalController(new AdaptiveIntervalController.Config()
+                .setIntervalRange(50, 800)
+                .setInitialInterval(200)
+                .setBacklogThresholds(2, 10)
+                .setHysteresis(3, 2000), listener);
+    }
+
+    @Test
+    public void speedsUpAfterStableIdleReadings() {
+        RecordingListener listener = new RecordingListener();
+        AdaptiveIntervalController controller = create(listener);
+
+        long now = 10 * SECOND;
+        assertEquals(200, controller.update(0, IDLE_NANOS, true, now));
+        assertEquals(200, controller.update(0, IDLE_NANOS, true, now + SECOND));
+        assertEquals(100, controller.update(0, IDLE_NANOS, true, now + 2 * SECOND));
+        assertEquals(1, controller.getFasterCount());
+        assertEquals(1, listener.mIntervals.size());
+    }
+
+    @Test
+    public void slowsDownOnBacklog() {
+        AdaptiveIntervalController controller = create(new RecordingListener());
+
+        long now = 10 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            controller.update(100, IDLE_NANOS, true, now + i * SECOND);
+        }
+        assertEquals(400, controller.getInterval());
+        assertEquals(AdaptiveIntervalController.DECISION_SLOWER, controller.getLastDecision());
+    }
+
+    @Test
+    public void slowsDownOnProcessingTime() {
+        AdaptiveIntervalController controller = create(new RecordingListener());
+
+        // 処理時間 150ms は通知間隔 200ms の 50% を超える.
+        long now = 10 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            controller.update(0, 150000000L, true, now + i * SECOND);
+        }
+        assertEquals(400, controller.getInterval());
+    }
+
+    @Test
+    public void alternatingReadingsDoNotFlap() {
+        RecordingListener listener = new RecordingListener();
+        AdaptiveIntervalController controller = create(listener);
+
+        long now = 10 * SECOND;
+        for (int i = 0; i < 20; i++) {
+            long backlog = (i % 2 == 0) ? 100 : 0;
+            controller.update(backlog, IDLE_NANOS, true, now + i * SECOND);
+        }
+        assertTrue(listener.mIntervals.isEmpty());
+        assertEquals(200, controller.getInterval());
+    }
+
+    @Test
+    public void cooldownLimitsChangeRate() {
+        AdaptiveIntervalController controller = create(new RecordingListener());
+
+        long now = 10 * SECOND;
+        for (int i = 0; i < 6; i++) {
+            controller.update(0, IDLE_NANOS, true, now + i * (SECOND / 2));
+        }
+        // 3回目で変更した後、2秒間は変更しない.
+        assertEquals(100, controller.getInterval());
+        assertTrue(controller.getHeldCount() > 0);
+    }
+
+    @Test
+    public void backgroundJumpsToMaxAndStaysWithinBounds() {
+        AdaptiveIntervalController controller = create(new RecordingListener());
+
+        long now = 10 * SECOND;
+        assertEquals(800, controller.update(0, IDLE_NANOS, false, now));
+        for (int i = 1; i < 40; i++) {
+            controller.update(0, IDLE_NANOS, true, now + i * 3 * SECOND);
+        }
+        assertEquals(50, controller.getInterval());
+    }
+}
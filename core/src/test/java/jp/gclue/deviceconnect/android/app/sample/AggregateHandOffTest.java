@@ -0,0 +1,138 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link AggregateHandOff} のテスト.
+ */
+public class AggregateHandOffTest {
+
+    private static final long SECOND = 1000000000L;
+
+    private static final long IDLE_NANOS = 10000L;
+
+    private static final int WINDOW = 10;
+
+    /**
+     * 読み出した集計結果を記録するオブジェクト.
+     */
+    private static class RecordingConsumer implements AggregateHandOff.Consumer {
+        final List<Long> mEndTimestamps = new ArrayList<>();
+        final List<Long> mReceivedAt = new ArrayList<>();
+
+        @Override
+        public void onAggregate(final WindowAggregator.Aggregate aggregate, final long receivedAt) {
+            mEndTimestamps.add(aggregate.getEndTimestamp());
+            mReceivedAt.add(receivedAt);
+        }
+    }
+
+    /**
+     * 集計結果を受け取った順に時刻を付けてキューに追加するリスナーを持つ集計処理を作成する.
+     */
+    private static WindowAggregator aggregatorFor(final AggregateHandOff handOff) {
+        return WindowAggregator.tumbling(WINDOW, new WindowAggregator.Listener() {
+            private long mNow;
+
+            @Override
+            public void onAggregate(final WindowAggregator.Aggregate aggregate) {
+                handOff.offer(aggregate, ++mNow);
+            }
+        });
+    }
+
+    private static void feed(final WindowAggregator aggregator, final int windows, final long[] timestamp) {
+        for (int i = 0; i < windows * WINDOW; i++) {
+            aggregator.onSample(timestamp[0]++, 0, 0, 1);
+        }
+    }
+
+    @Test
+    public void drain_deliversInOrderWithReceivedTime() {
+        AggregateHandOff handOff = new AggregateHandOff(4);
+        long[] timestamp = {0};
+        feed(aggregatorFor(handOff), 3, timestamp);
+
+        assertEquals(3, handOff.size());
+        assertEquals(3 * WINDOW, handOff.getPendingSampleCount());
+
+        RecordingConsumer consumer = new RecordingConsumer();
+        assertEquals(3, handOff.drain(consumer));
+        assertEquals(3, consumer.mEndTimestamps.size());
+        assertEquals(Long.valueOf(WINDOW - 1), consumer.mEndTimestamps.get(0));
+        assertEquals(Long.valueOf(3 * WINDOW - 1), consumer.mEndTimestamps.get(2));
+        assertEquals(Long.valueOf(1), consumer.mReceivedAt.get(0));
+        assertEquals(Long.valueOf(3), consumer.mReceivedAt.get(2));
+        assertEquals(0, handOff.size());
+        assertEquals(0, handOff.getPendingSampleCount());
+    }
+
+    @Test
+    public void offer_overwritesOldestWhenFull() {
+        AggregateHandOff handOff = new AggregateHandOff(4);
+        long[] timestamp = {0};
+        feed(aggregatorFor(handOff), 6, timestamp);
+
+        assertEquals(4, handOff.size());
+        assertEquals(4 * WINDOW, handOff.getPendingSampleCount());
+        assertEquals(2, handOff.getDroppedCount());
+
+        RecordingConsumer consumer = new RecordingConsumer();
+        handOff.drain(consumer);
+        assertEquals(Long.valueOf(3 * WINDOW - 1), consumer.mEndTimestamps.get(0));
+    }
+
+    @Test
+    public void clear_discardsPending() {
+        AggregateHandOff handOff = new AggregateHandOff(4);
+        long[] timestamp = {0};
+        feed(aggregatorFor(handOff), 2, timestamp);
+
+        handOff.clear();
+        assertEquals(0, handOff.size());
+        assertEquals(0, handOff.getPendingSampleCount());
+        assertEquals(0, handOff.drain(new RecordingConsumer()));
+        assertEquals(0, handOff.getDroppedCount());
+    }
+
+    @Test
+    public void intervalBacksOffWhileConsumerFallsBehind() {
+        AggregateHandOff handOff = new AggregateHandOff(16);
+        WindowAggregator aggregator = aggregatorFor(handOff);
+        AdaptiveIntervalController controller = new AdaptiveIntervalController(
+                new AdaptiveIntervalController.Config()
+                        .setIntervalRange(50, 800)
+                        .setInitialInterval(200)
+                        .setBacklogThresholds(4, 64)
+                        .setHysteresis(3, 2000), null);
+        RecordingConsumer consumer = new RecordingConsumer();
+        long[] timestamp = {0};
+        long now = 10 * SECOND;
+
+        // 読み出しが追いついている間は通知間隔を長くしない.
+        for (int i = 0; i < 3; i++) {
+            feed(aggregator, 2, timestamp);
+            handOff.drain(consumer);
+            controller.update(handOff.getPendingSampleCount(), IDLE_NANOS, true, now);
+            now += SECOND;
+        }
+        assertEquals(0, controller.getSlowerCount());
+        long interval = controller.getInterval();
+
+        // 読み出しが止まると、読み出し待ちのサンプル数が増えて通知間隔を長くする.
+        for (int i = 0; i < 5; i++) {
+            feed(aggregator, 3, timestamp);
+            controller.update(handOff.getPendingSampleCount(), IDLE_NANOS, true, now);
+            now += SECOND;
+        }
+        assertTrue(handOff.getPendingSampleCount() > 64);
+        assertEquals(1, controller.getSlowerCount());
+        assertEquals(AdaptiveIntervalController.DECISION_SLOWER, controller.getLastDecision());
+        assertEquals(interval * 2, controller.getInterval());
+    }
+}
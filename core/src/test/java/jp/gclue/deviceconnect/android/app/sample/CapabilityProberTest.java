@@ -0,0 +1,233 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link CapabilityProber} と {@link CapabilityCache} のテスト.
+ *
+ * getServiceInformation の代わりに、一定時間ブロックしてから結果を返すスタブを使用する.
+ */
+public class CapabilityProberTest {
+
+    private static final String TARGET = CapabilityCache.toSupportKey("deviceOrientation", "/onDeviceOrientation");
+
+    private static final String OTHER = CapabilityCache.toSupportKey("battery", "/onBatteryChange");
+
+    private static final long LATENCY = 50;
+
+    /**
+     * getServiceInformation のスタブ.
+     *
+     * 指定されたサービスのみ {@link #TARGET} をサポートしていると応答する.
+     */
+    private static class StubSource implements CapabilityProber.Source {
+        private final String mTargetServiceId;
+
+        StubSource(final String targetServiceId) {
+            mTargetServiceId = targetServiceId;
+        }
+
+        @Override
+        public Set<String> fetchSupportedApis(final String serviceId) {
+            try {
+                Thread.sleep(LATENCY);
+            } catch (InterruptedException e) {
+                return null;
+            }
+            if (serviceId.equals(mTargetServiceId)) {
+                return new HashSet<>(Arrays.asList(TARGET, OTHER));
+            }
+            return Collections.singleton(OTHER);
+        }
+    }
+
+    private static List<String> serviceIds(final int count) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add("service" + i);
+        }
+        return ids;
+    }
+
+    private static long timeToTarget(final int serviceCount, final int parallelism) throws Exception {
+        List<String> ids = serviceIds(serviceCount);
+        String target = ids.get(ids.size() - 1);
+        CapabilityProber prober = new CapabilityProber(new CapabilityCache(), new StubSource(target), parallelism);
+        try {
+            long start = System.nanoTime();
+            String found = prober.findSupportingService(ids, TARGET);
+            long elapsed = (System.nanoTime() - start) / 1000000L;
+            assertEquals(target, found);
+            return elapsed;
+        } finally {
+            prober.shutdown();
+        }
+    }
+
+    @Test
+    public void timeToTarget_isFlatUpToParallelism() throws Exception {
+        timeToTarget(1, 16); // ウォームアップ
+
+        long one = timeToTarget(1, 16);
+        long many = timeToTarget(16, 16);
+
+        // 逐次実行なら 16 * LATENCY かかるところ、並列実行によりほぼ1回分の時間で済む.
+        assertTrue("one = " + one + "ms, many = " + many + "ms", many < one + 3 * LATENCY);
+        assertTrue("many = " + many + "ms", many < 16 * LATENCY / 2);
+    }
+
+    @Test
+    public void findSupportingService_usesCache() throws Exception {
+        List<String> ids = serviceIds(4);
+        CapabilityProber prober = new CapabilityProber(new CapabilityCache(), new StubSource("service2"), 4);
+        try {
+            assertEquals("service2", prober.findSupportingService(ids, TARGET));
+            int probes = prober.getProbeCount();
+
+            long start = System.nanoTime();
+            assertEquals("service2", prober.findSupportingService(ids, TARGET));
+            long elapsed = (System.nanoTime() - start) / 1000000L;
+
+            assertEquals(probes, prober.getProbeCount());
+            assertTrue("elapsed = " + elapsed + "ms", elapsed < LATENCY);
+        } finally {
+            prober.shutdown();
+        }
+    }
+
+    @Test
+    public void findSupportingService_notFound() throws Exception {
+        CapabilityProber prober = new CapabilityProber(new CapabilityCache(), new StubSource("none"), 4);
+        try {
+            assertNull(prober.findSupportingService(serviceIds(6), TARGET));
+            assertEquals(6, prober.getProbeCount());
+
+            // 全サービスがキャッシュ済みなので問い合わせは発生しない.
+            assertNull(prober.findSupportingService(serviceIds(6), TARGET));
+            assertEquals(6, prober.getProbeCount());
+        } finally {
+            prober.shutdown();
+        }
+    }
+
+    @Test
+    public void findSupportingServices_returnsAllInOrder() throws Exception {
+        List<String> ids = serviceIds(6);
+        CapabilityProber prober = new CapabilityProber(new CapabilityCache(), new CapabilityProber.Source() {
+            @Override
+            public Set<String> fetchSupportedApis(final String serviceId) {
+                // 奇数番号のサービスのみサポートする.
+                int number = serviceId.charAt(serviceId.length() - 1) - '0';
+                return Collections.singleton(number % 2 == 1 ? TARGET : OTHER);
+            }
+        }, 4);
+        try {
+            assertEquals(Arrays.asList("service1", "service3", "service5"),
+                    prober.findSupportingServices(ids, TARGET));
+            assertEquals(6, prober.getProbeCount());
+
+            // キャッシュ済みのサービスには問い合わせない.
+            assertEquals(Arrays.asList("service1", "service3", "service5"),
+                    prober.findSupportingServices(ids, TARGET));
+            assertEquals(6, prober.getProbeCount());
+        } finally {
+            prober.shutdown();
+        }
+    }
+
+    @Test
+    public void cache_expiresAfterTtl() throws Exception {
+        CapabilityCache cache = new CapabilityCache(20);
+        cache.put("service0", Collections.singleton(TARGET));
+        assertNotNull(cache.get("service0"));
+
+        Thread.sleep(40);
+        assertNull(cache.get("service0"));
+    }
+
+    @Test
+    public void cache_restoredEntryKeepsOriginalProbeTime() throws Exception {
+        CapabilityCache cache = new CapabilityCache(1000);
+        long now = System.currentTimeMillis();
+
+        // 有効期間を過ぎた問い合わせ結果は登録しない.
+        assertFalse(cache.put("service0", Collections.singleton(TARGET), now - 2000));
+        assertNull(cache.get("service0"));
+        assertEquals(-1, cache.getProbedAt("service0"));
+
+        // 有効期間の残りだけ有効になる.
+        assertTrue(cache.put("service1", Collections.singleton(TARGET), now - 950));
+        assertNotNull(cache.get("service1"));
+        assertEquals(now - 950, cache.getProbedAt("service1"));
+        Thread.sleep(100);
+        assertNull(cache.get("service1"));
+    }
+
+    @Test
+    public void findSupportingService_cancelsProbesOnInterrupt() throws Exception {
+        final CountDownLatch started = new CountDownLatch(3);
+        final CountDownLatch cancelled = new CountDownLatch(3);
+        final CapabilityProber prober = new CapabilityProber(new CapabilityCache(), new CapabilityProber.Source() {
+            @Override
+            public Set<String> fetchSupportedApis(final String serviceId) {
+                started.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    cancelled.countDown();
+                }
+                return null;
+            }
+        }, 4);
+        try {
+            final CountDownLatch interrupted = new CountDownLatch(1);
+            Thread caller = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        prober.findSupportingService(serviceIds(3), TARGET);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                }
+            });
+            caller.start();
+            assertTrue(started.await(1, TimeUnit.SECONDS));
+            caller.interrupt();
+
+            assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+            assertTrue(cancelled.await(1, TimeUnit.SECONDS));
+        } finally {
+            prober.shutdown();
+        }
+    }
+
+    @Test
+    public void cache_retainAllRemovesDisappearedServices() {
+        CapabilityCache cache = new CapabilityCache();
+        cache.put("service0", Collections.singleton(TARGET));
+        cache.put("service1", Collections.singleton(OTHER));
+
+        cache.retainAll(Collections.singletonList("service1"));
+
+        assertNull(cache.get("service0"));
+        assertNotNull(cache.get("service1"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void toSupportKey_isCaseInsensitive() {
+        assertEquals(CapabilityCache.toSupportKey("DeviceOrientation", "/OnDeviceOrientation"), TARGET);
+    }
+}
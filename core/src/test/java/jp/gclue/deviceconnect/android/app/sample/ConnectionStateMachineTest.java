@@ -0,0 +1,186 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ConnectionStateMachine} のテスト.
+ */
+public class ConnectionStateMachineTest {
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * 開始の合図を待ってから準備を完了し、待機者を記録するタスク.
+     */
+    private static class GatedTask implements ConnectionStateMachine.Task<String, String> {
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mGate = new CountDownLatch(1);
+        final CountDownLatch mDone = new CountDownLatch(1);
+        final AtomicInteger mRuns = new AtomicInteger();
+        final List<String> mWaiters = Collections.synchronizedList(new ArrayList<String>());
+        volatile boolean mInterrupted;
+        ConnectionStateMachine<String, String> mMachine;
+
+        @Override
+        public void run(final ConnectionStateMachine.Flight<String, String> flight) throws InterruptedException {
+            mRuns.incrementAndGet();
+            try {
+                flight.advance(ConnectionStateMachine.STATE_DISCOVERING);
+                mStarted.countDown();
+                mGate.await();
+                flight.advance(ConnectionStateMachine.STATE_SUBSCRIBING);
+                mWaiters.addAll(mMachine.complete(flight));
+            } catch (InterruptedException e) {
+                mInterrupted = true;
+                throw e;
+            } finally {
+                mDone.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void join_runsOneSetupPerKey() throws Exception {
+        ConnectionStateMachine<String, String> machine = new ConnectionStateMachine<>(mExecutor, null);
+        GatedTask task = new GatedTask();
+        task.mMachine = machine;
+
+        assertTrue(machine.join("orientation", "a", task));
+        assertFalse(machine.join("orientation", "b", task));
+        assertFalse(machine.join("orientation", "a", task));
+        assertEquals(1, machine.getInFlightCount());
+
+        task.mGate.countDown();
+        assertTrue(task.mDone.await(5, TimeUnit.SECONDS));
+        assertEquals(1, task.mRuns.get());
+        assertEquals(2, task.mWaiters.size());
+        assertTrue(task.mWaiters.containsAll(Arrays.asList("a", "b")));
+        assertEquals(1, machine.getStartedCount());
+        assertEquals(2, machine.getJoinedCount());
+    }
+
+    @Test
+    public void join_afterCompletionStartsNewSetup() throws Exception {
+        ConnectionStateMachine<String, String> machine = new ConnectionStateMachine<>(mExecutor, null);
+        GatedTask first = new GatedTask();
+        first.mMachine = machine;
+        first.mGate.countDown();
+        machine.join("orientation", "a", first);
+        assertTrue(first.mDone.await(5, TimeUnit.SECONDS));
+        waitUntilIdle(machine, "orientation");
+
+        GatedTask second = new GatedTask();
+        second.mMachine = machine;
+        assertTrue(machine.join("orientation", "b", second));
+        second.mGate.countDown();
+        assertTrue(second.mDone.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void leave_lastWaiterCancelsAndInterrupts() throws Exception {
+        final List<String> states = Collections.synchronizedList(new ArrayList<String>());
+        ConnectionStateMachine<String, String> machine = new ConnectionStateMachine<>(mExecutor,
+                new ConnectionStateMachine.Listener<String>() {
+                    @Override
+                    public void onStateChanged(final String key, final int oldState, final int newState) {
+                        states.add(ConnectionStateMachine.stateToString(newState));
+                    }
+                });
+        GatedTask task = new GatedTask();
+        task.mMachine = machine;
+        machine.join("orientation", "a", task);
+        machine.join("orientation", "b", task);
+        assertTrue(task.mStarted.await(5, TimeUnit.SECONDS));
+
+        assertTrue(machine.leave("orientation", "a"));
+        assertEquals(1, machine.getInFlightCount());
+        assertTrue(machine.leave("orientation", "b"));
+
+        assertTrue(task.mDone.await(5, TimeUnit.SECONDS));
+        assertTrue(task.mInterrupted);
+        assertEquals(ConnectionStateMachine.STATE_IDLE, machine.getState("orientation"));
+        assertEquals("cancelled", states.get(states.size() - 1));
+    }
+
+    @Test
+    public void leave_duringVerificationInterruptsBeforeCompletion() throws Exception {
+        final ConnectionStateMachine<String, String> machine = new ConnectionStateMachine<>(mExecutor, null);
+        final CountDownLatch verifying = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<String> provisional = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger interrupted = new AtomicInteger();
+        machine.join("orientation", "a", new ConnectionStateMachine.Task<String, String>() {
+            @Override
+            public void run(final ConnectionStateMachine.Flight<String, String> flight) throws InterruptedException {
+                try {
+                    flight.advance(ConnectionStateMachine.STATE_SUBSCRIBING);
+                    provisional.addAll(machine.getWaiters(flight));
+                    flight.advance(ConnectionStateMachine.STATE_VERIFYING);
+                    verifying.countDown();
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(5));
+                    completed.addAll(machine.complete(flight));
+                } catch (InterruptedException e) {
+                    interrupted.incrementAndGet();
+                    throw e;
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        assertTrue(verifying.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("a"), provisional);
+        assertEquals(ConnectionStateMachine.STATE_VERIFYING, machine.getState("orientation"));
+
+        assertTrue(machine.leave("orientation", "a"));
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(1, interrupted.get());
+        assertTrue(completed.isEmpty());
+        assertEquals(ConnectionStateMachine.STATE_IDLE, machine.getState("orientation"));
+    }
+
+    @Test
+    public void shutdownNow_cancelsEverySetup() throws Exception {
+        ConnectionStateMachine<String, String> machine = new ConnectionStateMachine<>(mExecutor, null);
+        GatedTask orientation = new GatedTask();
+        orientation.mMachine = machine;
+        GatedTask battery = new GatedTask();
+        battery.mMachine = machine;
+        machine.join("orientation", "a", orientation);
+        machine.join("battery", "a", battery);
+        assertTrue(orientation.mStarted.await(5, TimeUnit.SECONDS));
+        assertTrue(battery.mStarted.await(5, TimeUnit.SECONDS));
+
+        machine.shutdownNow();
+        assertTrue(orientation.mDone.await(5, TimeUnit.SECONDS));
+        assertTrue(battery.mDone.await(5, TimeUnit.SECONDS));
+        assertEquals(0, machine.getInFlightCount());
+        assertTrue(orientation.mWaiters.isEmpty());
+    }
+
+    private static void waitUntilIdle(final ConnectionStateMachine<String, String> machine, final String key)
+            throws InterruptedException {
+        for (int i = 0; i < 500 && machine.getState(key) != ConnectionStateMachine.STATE_IDLE; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(ConnectionStateMachine.STATE_IDLE, machine.getState(key));
+    }
+}
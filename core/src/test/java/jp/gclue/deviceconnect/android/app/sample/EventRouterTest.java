@@ -0,0 +1,119 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link EventRouter}、{@link DConnectPath}、{@link PathRegistry} のテスト.
+ */
+public class EventRouterTest {
+
+    /**
+     * 振り分けられた配送先を記録するオブジェクト.
+     */
+    private static final EventRouter.Visitor<String, List<String>> RECORDER =
+            new EventRouter.Visitor<String, List<String>>() {
+                @Override
+                public int visit(final String target, final List<String> routed) {
+                    routed.add(target);
+                    return 1;
+                }
+            };
+
+    private static DConnectPath path(final String path) {
+        DConnectPath result = DConnectPath.parse(path);
+        assertNotNull(path, result);
+        return result;
+    }
+
+    @Test
+    public void parse_splitsSegments() {
+        DConnectPath p = path("/gotapi/mediaStreamRecording/preview/onDataAvailable");
+        assertEquals("gotapi", p.getApiName());
+        assertEquals("mediaStreamRecording", p.getProfileName());
+        assertEquals("preview", p.getInterfaceName());
+        assertEquals("onDataAvailable", p.getAttributeName());
+        assertEquals("/preview/onDataAvailable", p.getSubPath());
+        assertEquals("mediastreamrecording/preview/ondataavailable", p.getSupportKey());
+
+        DConnectPath q = path("/gotapi/deviceOrientation/onDeviceOrientation/");
+        assertNull(q.getInterfaceName());
+        assertEquals("/onDeviceOrientation", q.getSubPath());
+        assertFalse(q.isWildcard());
+
+        DConnectPath profile = path("/gotapi/battery");
+        assertNull(profile.getAttributeName());
+        assertTrue(profile.isWildcard());
+        assertEquals("/gotapi/battery", profile.toString());
+    }
+
+    @Test
+    public void parse_rejectsMalformedPaths() {
+        String[] inputs = {"", "/", "gotapi/battery", "/gotapi", "/gotapi//level", "/a/b/c/d/e"};
+        for (String input : inputs) {
+            assertNull(input, DConnectPath.parse(input));
+        }
+    }
+
+    @Test
+    public void registry_returnsSameInstance() {
+        PathRegistry registry = new PathRegistry(1);
+        DConnectPath first = registry.intern("/gotapi/battery/onBatteryChange");
+        assertSame(first, registry.intern("/gotapi/battery/onBatteryChange"));
+        assertNull(registry.intern("battery"));
+
+        // 上限を超えた分は保持しない.
+        assertNotNull(registry.intern("/gotapi/battery/level"));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void route_matchesExactPathIgnoringCase() {
+        EventRouter<String> router = new EventRouter<>();
+        router.add("host", path("/gotapi/deviceOrientation/onDeviceOrientation"), "a");
+        router.add("host", path("/gotapi/mediaStreamRecording/preview/onDataAvailable"), "b");
+
+        List<String> routed = new ArrayList<>();
+        assertEquals(1, router.route("HOST", "deviceorientation", null, "ONDEVICEORIENTATION", RECORDER, routed));
+        assertEquals(1, router.route("host", "mediaStreamRecording", "preview", "onDataAvailable", RECORDER, routed));
+        assertEquals(0, router.route("host", "mediaStreamRecording", null, "onDataAvailable", RECORDER, routed));
+        assertEquals(0, router.route("other", "deviceOrientation", null, "onDeviceOrientation", RECORDER, routed));
+        assertEquals("[a, b]", routed.toString());
+    }
+
+    @Test
+    public void route_matchesWildcards() {
+        EventRouter<String> router = new EventRouter<>();
+        router.add("host", path("/gotapi/deviceOrientation/onDeviceOrientation"), "exact");
+        router.add("host", path("/gotapi/deviceOrientation"), "profile");
+        router.add("*", path("/gotapi/deviceOrientation/onDeviceOrientation"), "anyService");
+        // インターフェースの "*" はインターフェースを省略したイベントにも一致する.
+        router.add("host", path("/gotapi/*/*/*"), "anyPath");
+
+        List<String> routed = new ArrayList<>();
+        assertEquals(4, router.route("host", "deviceOrientation", null, "onDeviceOrientation", RECORDER, routed));
+        assertEquals("[profile, exact, anyPath, anyService]", routed.toString());
+
+        routed.clear();
+        assertEquals(1, router.route("host", "mediaStreamRecording", "preview", "onDataAvailable", RECORDER, routed));
+        assertEquals("[anyPath]", routed.toString());
+    }
+
+    @Test
+    public void remove_prunesAndStopsRouting() {
+        EventRouter<String> router = new EventRouter<>();
+        DConnectPath p = path("/gotapi/battery/onBatteryChange");
+        router.add("host", p, "a");
+        router.add("host", p, "a");
+        assertEquals(1, router.size());
+
+        assertTrue(router.remove("host", p, "a"));
+        assertFalse(router.remove("host", p, "a"));
+        assertEquals(0, router.size());
+        assertEquals(0, router.route("host", "battery", null, "onBatteryChange", RECORDER, new ArrayList<String>()));
+    }
+}
@@ -0,0 +1,65 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link JsonParser} のテスト.
+ */
+public class JsonParserTest {
+
+    @Test
+    public void parse_buildsTree() {
+        Map<String, Object> root = JsonParser.parseObject(
+                " {\"a\": 1, \"b\": [true, false, null], \"c\": {\"d\": -2.5e1}, \"e\": \"x\\\"y\\u0041\"} ");
+
+        assertEquals(1L, root.get("a"));
+        assertEquals(Arrays.asList(true, false, null), root.get("b"));
+        assertEquals(-25.0, ((Map<?, ?>) root.get("c")).get("d"));
+        assertEquals("x\"yA", root.get("e"));
+    }
+
+    @Test
+    public void parse_handlesEmptyContainers() {
+        assertTrue(JsonParser.parseObject("{}").isEmpty());
+        assertTrue(((List<?>) JsonParser.parse("[ ]")).isEmpty());
+    }
+
+    @Test
+    public void parse_rejectsMalformedInput() {
+        String[] inputs = {"{", "{\"a\" 1}", "[1,]", "{\"a\":1} x", "tru", "\"\\q\"", ""};
+        for (String input : inputs) {
+            try {
+                JsonParser.parse(input);
+                fail("Accepted: " + input);
+            } catch (IllegalArgumentException e) {
+                // 期待通り.
+            }
+        }
+    }
+
+    @Test
+    public void orientationEvent_decodesIntoChannel() {
+        Map<String, Object> event = JsonParser.parseObject("{\"profile\":\"deviceOrientation\","
+                + "\"orientation\":{\"accelerationIncludingGravity\":{\"x\":1,\"y\":-2.5,\"z\":9.8}}}");
+        SampleChannel channel = new SampleChannel(4);
+        SampleChannel.Cursor cursor = channel.newCursor();
+
+        assertTrue(OrientationEventDecoder.decode(event, 100, channel));
+        final float[] values = new float[3];
+        cursor.drain(new SampleChannel.SampleSink() {
+            @Override
+            public void onSample(final long timestamp, final float x, final float y, final float z) {
+                values[0] = x;
+                values[1] = y;
+                values[2] = z;
+            }
+        });
+        assertArrayEquals(new float[] {1f, -2.5f, 9.8f}, values, 0);
+    }
+}
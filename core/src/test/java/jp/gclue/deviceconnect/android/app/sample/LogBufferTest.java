@@ -0,0 +1,98 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link LogBuffer} と {@link TimestampFormatter} のテスト.
+ */
+public class LogBufferTest {
+
+    @Test
+    public void append_evictsOldestLine() {
+        LogBuffer buffer = new LogBuffer(3);
+        for (int i = 0; i < 5; i++) {
+            buffer.append().append(i);
+        }
+
+        assertEquals(3, buffer.size());
+        assertEquals("4", buffer.get(0).toString());
+        assertEquals("3", buffer.get(1).toString());
+        assertEquals("2", buffer.get(2).toString());
+    }
+
+    @Test
+    public void append_reusesLines() {
+        LogBuffer buffer = new LogBuffer(2);
+        LogBuffer.Line first = buffer.append();
+        buffer.append();
+        assertSame(first, buffer.append());
+        assertEquals(0, first.length());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_outOfRange() {
+        LogBuffer buffer = new LogBuffer(2);
+        buffer.append();
+        buffer.get(1);
+    }
+
+    @Test
+    public void line_truncatesAtCapacity() {
+        LogBuffer buffer = new LogBuffer(1, 5);
+        LogBuffer.Line line = buffer.append().append("abc").append(12345L);
+        assertEquals(5, line.length());
+        assertEquals("abc", line.toString().substring(0, 3));
+    }
+
+    @Test
+    public void appendFloat_matchesStringFormat() {
+        Random random = new Random(0);
+        float[] fixed = {0f, -0f, 0.005f, -0.005f, 1.125f, -9.81f, 123.456f, 0.994999f, 9.995f};
+        for (float value : fixed) {
+            assertFloat(value);
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertFloat((random.nextFloat() - 0.5f) * 40f);
+        }
+    }
+
+    private static void assertFloat(final float value) {
+        LogBuffer buffer = new LogBuffer(1);
+        String expected = String.format(Locale.ENGLISH, "%.2f", value);
+        assertEquals("value = " + value, expected, buffer.append().append(value, 2).toString());
+    }
+
+    @Test
+    public void appendLong_handlesSignAndPadding() {
+        LogBuffer buffer = new LogBuffer(1);
+        assertEquals("-42", buffer.append().append(-42L).toString());
+        assertEquals("007", buffer.append().appendPadded(7, 3).toString());
+        assertEquals(String.valueOf(Long.MIN_VALUE), buffer.append().append(Long.MIN_VALUE).toString());
+    }
+
+    @Test
+    public void timestamp_matchesSimpleDateFormat() {
+        TimeZone timeZone = TimeZone.getTimeZone("Asia/Tokyo");
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SS", Locale.JAPAN);
+        format.setTimeZone(timeZone);
+        TimestampFormatter formatter = new TimestampFormatter(timeZone);
+        LogBuffer buffer = new LogBuffer(1);
+
+        long start = 1517700000000L;
+        long[] offsets = {0, 5, 99, 100, 999, 59999, 3599999, 3600000, 86399999, 86400000, 400L * 86400000L};
+        for (long offset : offsets) {
+            long millis = start + offset;
+            LogBuffer.Line line = buffer.append();
+            formatter.format(millis, line);
+            assertEquals(format.format(new Date(millis)), line.toString());
+        }
+    }
+}
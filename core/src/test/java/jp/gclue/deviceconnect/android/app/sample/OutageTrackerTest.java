@@ -0,0 +1,87 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class OutageTrackerTest {
+
+    private static final long MS = 1000000L;
+    private static final DConnectPath PATH = DConnectPath.parse("/gotapi/deviceOrientation/onDeviceOrientation");
+
+    private static void receive(final OutageTracker tracker, final String serviceId, final long nowNanos) {
+        tracker.onEvent(serviceId, "deviceOrientation", null, "onDeviceOrientation", nowNanos);
+    }
+
+    @Test
+    public void testOutageDuration() {
+        OutageTracker tracker = new OutageTracker();
+        assertEquals(-1, tracker.onReconnected(10 * MS));
+
+        assertTrue(tracker.onDisconnected(100 * MS));
+        assertFalse(tracker.onDisconnected(150 * MS));
+        assertTrue(tracker.isDisconnected());
+        assertEquals(400 * MS, tracker.onReconnected(500 * MS));
+        assertFalse(tracker.isDisconnected());
+
+        tracker.onDisconnected(1000 * MS);
+        tracker.onReconnected(1100 * MS);
+        assertEquals(2, tracker.getOutageCount());
+        assertEquals(500, tracker.getTotalOutageMillis());
+        assertEquals(400, tracker.getMaxOutageMillis());
+        assertEquals(100, tracker.getLastOutageMillis());
+    }
+
+    @Test
+    public void testMissedEventsPerSubscription() {
+        OutageTracker tracker = new OutageTracker();
+        tracker.add("a", PATH);
+        tracker.add("b", PATH);
+
+        // 20ms 間隔で受信.
+        for (int i = 0; i <= 10; i++) {
+            receive(tracker, "a", i * 20 * MS);
+        }
+        receive(tracker, "b", 0);
+        receive(tracker, "b", 100 * MS);
+
+        tracker.onDisconnected(210 * MS);
+        tracker.onReconnected(300 * MS);
+        assertEquals(0, tracker.getMissedCount("a", PATH));
+
+        // 200ms の後に 400ms: 間の 9件 (220, 240, ..., 380) が欠落.
+        receive(tracker, "a", 400 * MS);
+        assertEquals(9, tracker.getMissedCount("a", PATH));
+        // 復旧後は通常の受信として扱う.
+        receive(tracker, "a", 420 * MS);
+        assertEquals(9, tracker.getMissedCount("a", PATH));
+
+        // 100ms 間隔のサービスは 100ms の後に 500ms: 3件が欠落.
+        receive(tracker, "b", 500 * MS);
+        assertEquals(3, tracker.getMissedCount("b", PATH));
+        assertEquals(12, tracker.getTotalMissedCount());
+        assertEquals(2, tracker.getRecoveryLatency().getCount());
+
+        tracker.remove("a", PATH);
+        assertEquals(0, tracker.getMissedCount("a", PATH));
+        assertEquals(12, tracker.getTotalMissedCount());
+        assertEquals(0, tracker.onEvent("a", "deviceOrientation", null, "onDeviceOrientation", 600 * MS));
+        assertTrue(tracker.toJson().contains("\"missed\":12"));
+    }
+
+    @Test
+    public void testUnknownIntervalCountsNoMissedEvents() {
+        OutageTracker tracker = new OutageTracker();
+        tracker.add("a", PATH);
+        receive(tracker, "a", 0);
+
+        tracker.onDisconnected(10 * MS);
+        tracker.onReconnected(20 * MS);
+        receive(tracker, "a", 1000 * MS);
+        assertEquals(0, tracker.getMissedCount("a", PATH));
+        assertEquals(1, tracker.getRecoveryLatency().getCount());
+    }
+}
@@ -0,0 +1,67 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link PipelineMetrics} のテスト.
+ */
+public class PipelineMetricsTest {
+
+    private static final long MILLIS = 1000000L;
+
+    @Test
+    public void recordElapsed_countsLateEventsPerStage() {
+        PipelineMetrics metrics = new PipelineMetrics()
+                .setLateThreshold(PipelineMetrics.STAGE_HANDOFF, 10 * MILLIS);
+        metrics.recordElapsed(PipelineMetrics.STAGE_HANDOFF, 5 * MILLIS);
+        metrics.recordElapsed(PipelineMetrics.STAGE_HANDOFF, 20 * MILLIS);
+        metrics.recordElapsed(PipelineMetrics.STAGE_DECODE, 20 * MILLIS);
+
+        PipelineMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getCount(PipelineMetrics.STAGE_HANDOFF));
+        assertEquals(1, snapshot.getLateCount(PipelineMetrics.STAGE_HANDOFF));
+        assertEquals(20000, snapshot.getMaxMicros(PipelineMetrics.STAGE_HANDOFF));
+        // 閾値を設定していない段階は遅延を数えない.
+        assertEquals(0, snapshot.getLateCount(PipelineMetrics.STAGE_DECODE));
+    }
+
+    @Test
+    public void record_returnsEndTimeForNextStage() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        long start = System.nanoTime();
+        long end = metrics.record(PipelineMetrics.STAGE_RECEIVE, start);
+        assertTrue(end >= start);
+        assertEquals(1, metrics.getLatency(PipelineMetrics.STAGE_RECEIVE).getCount());
+    }
+
+    @Test
+    public void snapshot_isDetachedFromLaterRecords() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.addDropped(PipelineMetrics.STAGE_HANDOFF, 3);
+        metrics.addDropped(PipelineMetrics.STAGE_HANDOFF, 0);
+        PipelineMetrics.Snapshot snapshot = metrics.snapshot();
+
+        metrics.addDropped(PipelineMetrics.STAGE_HANDOFF, 1);
+        assertEquals(3, snapshot.getDroppedCount(PipelineMetrics.STAGE_HANDOFF));
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().getDroppedCount(PipelineMetrics.STAGE_HANDOFF));
+    }
+
+    @Test
+    public void toJson_containsEveryStage() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.recordElapsed(PipelineMetrics.STAGE_UI, 2 * MILLIS);
+
+        Map<String, Object> json = JsonParser.parseObject(metrics.snapshot().toJson());
+        Map<?, ?> stages = (Map<?, ?>) json.get("stages");
+        assertEquals(PipelineMetrics.STAGE_COUNT, stages.size());
+        Map<?, ?> ui = (Map<?, ?>) stages.get(PipelineMetrics.stageToString(PipelineMetrics.STAGE_UI));
+        assertEquals(1L, ui.get("count"));
+        assertEquals(2000L, ui.get("maxMicros"));
+    }
+}
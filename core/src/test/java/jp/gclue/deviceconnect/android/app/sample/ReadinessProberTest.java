@@ -0,0 +1,202 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ReadinessProber} と {@link Backoff} のテスト.
+ */
+public class ReadinessProberTest {
+
+    @Test
+    public void backoff_growsUntilCeiling() {
+        Backoff backoff = new Backoff(10, 80, 2.0, 0.0, new Random(0));
+        assertEquals(10, backoff.nextDelay());
+        assertEquals(20, backoff.nextDelay());
+        assertEquals(40, backoff.nextDelay());
+        assertEquals(80, backoff.nextDelay());
+        assertEquals(80, backoff.nextDelay());
+        assertEquals(5, backoff.getAttempts());
+
+        backoff.reset();
+        assertEquals(10, backoff.nextDelay());
+    }
+
+    @Test
+    public void backoff_jitterStaysInRange() {
+        Backoff backoff = new Backoff(100, 100, 2.0, 0.2, new Random(1));
+        for (int i = 0; i < 1000; i++) {
+            long delay = backoff.nextDelay();
+            assertTrue("delay = " + delay, delay >= 80 && delay <= 100);
+        }
+    }
+
+    @Test
+    public void await_returnsWhenReadyAndRecordsMetrics() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        ReadinessProber prober = new ReadinessProber(new Backoff(1, 4, 2.0, 0.0, new Random(0)));
+
+        boolean ready = prober.await(new ReadinessProber.Probe() {
+            @Override
+            public boolean isReady() {
+                return calls.incrementAndGet() >= 5;
+            }
+        });
+
+        assertTrue(ready);
+        ReadinessMetrics metrics = prober.getMetrics();
+        assertEquals(5, metrics.getLastAttempts());
+        assertEquals(5, metrics.getTotalAttempts());
+        assertEquals(5, metrics.getProbeLatency().getCount());
+        assertEquals(1, metrics.getReadyCount());
+        assertTrue(metrics.getLastTimeToReady() >= 0);
+    }
+
+    @Test
+    public void cancel_endsWaitImmediately() throws Exception {
+        final ReadinessProber prober = new ReadinessProber(new Backoff(10000, 10000, 2.0, 0.0, new Random(0)));
+        final CountDownLatch probed = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicBoolean result = new AtomicBoolean(true);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(prober.await(new ReadinessProber.Probe() {
+                        @Override
+                        public boolean isReady() {
+                            probed.countDown();
+                            return false;
+                        }
+                    }));
+                } catch (InterruptedException e) {
+                    // テストでは発生しない.
+                }
+                finished.countDown();
+            }
+        });
+        thread.start();
+
+        assertTrue(probed.await(1, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        prober.cancel();
+        assertTrue(finished.await(1, TimeUnit.SECONDS));
+        assertTrue((System.nanoTime() - start) < TimeUnit.MILLISECONDS.toNanos(500));
+        assertFalse(result.get());
+        assertEquals(1, prober.getMetrics().getCancelCount());
+    }
+
+    @Test
+    public void interrupt_endsWait() throws Exception {
+        final ReadinessProber prober = new ReadinessProber(new Backoff(10000, 10000, 2.0, 0.0, new Random(0)));
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    prober.await(new ReadinessProber.Probe() {
+                        @Override
+                        public boolean isReady() {
+                            return false;
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        });
+        thread.start();
+        Thread.sleep(50);
+        thread.interrupt();
+
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void concurrentWaiters_probeInParallelAndAllSeeCancel() throws Exception {
+        final ReadinessProber prober = new ReadinessProber(new Backoff(10000, 10000, 2.0, 0.0, new Random(0)));
+        final CountDownLatch probed = new CountDownLatch(2);
+        final CountDownLatch finished = new CountDownLatch(2);
+        final AtomicInteger cancelled = new AtomicInteger();
+        final ReadinessProber.Probe probe = new ReadinessProber.Probe() {
+            @Override
+            public boolean isReady() {
+                probed.countDown();
+                return false;
+            }
+        };
+        Runnable waiter = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!prober.await(probe)) {
+                        cancelled.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    // テストでは発生しない.
+                }
+                finished.countDown();
+            }
+        };
+        new Thread(waiter).start();
+        new Thread(waiter).start();
+
+        // 1つ目の待機が終わる前に、2つ目の待機も確認を始める.
+        assertTrue(probed.await(1, TimeUnit.SECONDS));
+        prober.cancel();
+        assertTrue(finished.await(1, TimeUnit.SECONDS));
+        assertEquals(2, cancelled.get());
+    }
+
+    @Test
+    public void interrupt_endsWaitWhileAnotherThreadWaits() throws Exception {
+        final ReadinessProber prober = new ReadinessProber(new Backoff(10000, 10000, 2.0, 0.0, new Random(0)));
+        final CountDownLatch probed = new CountDownLatch(2);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final ReadinessProber.Probe probe = new ReadinessProber.Probe() {
+            @Override
+            public boolean isReady() {
+                probed.countDown();
+                return false;
+            }
+        };
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    prober.await(probe);
+                } catch (InterruptedException e) {
+                    // テストでは発生しない.
+                }
+            }
+        });
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    prober.await(probe);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        });
+        first.start();
+        second.start();
+        assertTrue(probed.await(1, TimeUnit.SECONDS));
+
+        second.interrupt();
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        prober.cancel();
+        first.join(1000);
+        assertFalse(first.isAlive());
+    }
+}
@@ -0,0 +1,109 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SampleBatchPayload} のテスト.
+ */
+public class SampleBatchPayloadTest {
+
+    private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        mScheduler.shutdownNow();
+    }
+
+    /**
+     * 書き込んだ配列をキーごとに保持するオブジェクト.
+     */
+    private static class MapExtras implements SampleBatchPayload.Extras {
+        final Map<String, Object> mValues = new HashMap<>();
+
+        @Override
+        public void putLongArray(final String key, final long[] value) {
+            mValues.put(key, value);
+        }
+
+        @Override
+        public void putFloatArray(final String key, final float[] value) {
+            mValues.put(key, value);
+        }
+
+        @Override
+        public long[] getLongArray(final String key) {
+            return (long[]) mValues.get(key);
+        }
+
+        @Override
+        public float[] getFloatArray(final String key) {
+            return (float[]) mValues.get(key);
+        }
+    }
+
+    @Test
+    public void batcherOutput_roundTripsThroughPayload() {
+        final List<MapExtras> broadcasts = new ArrayList<>();
+        SampleBatcher batcher = new SampleBatcher(3, 1000, mScheduler, new SampleBatcher.Listener() {
+            @Override
+            public void onBatch(final SampleBatcher.Batch batch) {
+                MapExtras extras = new MapExtras();
+                SampleBatchPayload.write(batch, extras);
+                broadcasts.add(extras);
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            batcher.onSample(100 + i, i, -i, 9.8f);
+        }
+        batcher.flush();
+
+        assertEquals(2, broadcasts.size());
+        SampleBatchPayload first = SampleBatchPayload.read(broadcasts.get(0));
+        assertNotNull(first);
+        assertEquals(3, first.size());
+        assertEquals(100, first.getTimestamp(0));
+        assertEquals(102, first.getTimestamp(2));
+        assertEquals(2f, first.getX(2), 0f);
+        assertEquals(-2f, first.getY(2), 0f);
+        assertEquals(9.8f, first.getZ(2), 0f);
+
+        SampleBatchPayload second = SampleBatchPayload.read(broadcasts.get(1));
+        assertNotNull(second);
+        assertEquals(2, second.size());
+        assertEquals(104, second.getTimestamp(1));
+        assertEquals(4f, second.getX(1), 0f);
+    }
+
+    @Test
+    public void read_rejectsMissingOrMismatchedArrays() {
+        MapExtras extras = new MapExtras();
+        assertNull(SampleBatchPayload.read(extras));
+
+        extras.putLongArray(SampleBatchPayload.KEY_TIMESTAMPS, new long[] {1, 2});
+        extras.putFloatArray(SampleBatchPayload.KEY_X, new float[] {0, 0});
+        extras.putFloatArray(SampleBatchPayload.KEY_Y, new float[] {0, 0});
+        assertNull(SampleBatchPayload.read(extras));
+
+        extras.putFloatArray(SampleBatchPayload.KEY_Z, new float[] {0});
+        assertNull(SampleBatchPayload.read(extras));
+
+        extras.putFloatArray(SampleBatchPayload.KEY_Z, new float[] {0, 0});
+        assertNotNull(SampleBatchPayload.read(extras));
+
+        extras.putLongArray(SampleBatchPayload.KEY_TIMESTAMPS, new long[0]);
+        extras.putFloatArray(SampleBatchPayload.KEY_X, new float[0]);
+        extras.putFloatArray(SampleBatchPayload.KEY_Y, new float[0]);
+        extras.putFloatArray(SampleBatchPayload.KEY_Z, new float[0]);
+        assertNull(SampleBatchPayload.read(extras));
+    }
+}
@@ -0,0 +1,94 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SampleBatcher} のテスト.
+ */
+public class SampleBatcherTest {
+
+    private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private final List<SampleBatcher.Batch> mBatches = Collections.synchronizedList(new ArrayList<SampleBatcher.Batch>());
+
+    private final CountDownLatch mReceived = new CountDownLatch(1);
+
+    private final SampleBatcher.Listener mListener = new SampleBatcher.Listener() {
+        @Override
+        public void onBatch(final SampleBatcher.Batch batch) {
+            mBatches.add(batch);
+            mReceived.countDown();
+        }
+    };
+
+    @After
+    public void tearDown() {
+        mScheduler.shutdownNow();
+    }
+
+    @Test
+    public void onSample_flushesWhenFull() {
+        SampleBatcher batcher = new SampleBatcher(4, 60 * 1000, mScheduler, mListener);
+        for (int i = 0; i < 10; i++) {
+            batcher.onSample(i, i, -i, i * 2);
+        }
+
+        assertEquals(2, mBatches.size());
+        SampleBatcher.Batch batch = mBatches.get(1);
+        assertEquals(4, batch.size());
+        assertEquals(4, batch.getTimestamps()[0]);
+        assertEquals(-7f, batch.getY()[3], 0);
+        assertEquals(14f, batch.getZ()[3], 0);
+        assertEquals(SampleBatcher.REASON_SIZE, batch.getReason());
+        assertEquals(10, batcher.getSampleCount());
+    }
+
+    @Test
+    public void onSample_flushesAtDeadline() throws InterruptedException {
+        SampleBatcher batcher = new SampleBatcher(100, 20, mScheduler, mListener);
+        batcher.onSample(1, 1, 1, 1);
+        batcher.onSample(2, 2, 2, 2);
+
+        assertTrue(mReceived.await(5, TimeUnit.SECONDS));
+        assertEquals(1, mBatches.size());
+        assertEquals(2, mBatches.get(0).size());
+        assertEquals(SampleBatcher.REASON_DEADLINE, mBatches.get(0).getReason());
+        assertEquals(1, batcher.getFlushCount(SampleBatcher.REASON_DEADLINE));
+    }
+
+    @Test
+    public void flush_sendsPendingSamplesAndCancelsDeadline() throws InterruptedException {
+        SampleBatcher batcher = new SampleBatcher(100, 20, mScheduler, mListener);
+        assertEquals(0, batcher.flush());
+        batcher.onSample(1, 1, 1, 1);
+        assertEquals(1, batcher.flush());
+
+        Thread.sleep(60);
+        assertEquals(1, mBatches.size());
+        assertEquals(SampleBatcher.REASON_DEMAND, mBatches.get(0).getReason());
+        assertEquals(1, batcher.getBatchCount());
+    }
+
+    @Test
+    public void close_flushesAndDropsLaterSamples() {
+        SampleBatcher batcher = new SampleBatcher(100, 60 * 1000, mScheduler, mListener);
+        batcher.onSample(1, 1, 1, 1);
+        batcher.close();
+        batcher.onSample(2, 2, 2, 2);
+        batcher.flush();
+
+        assertEquals(1, mBatches.size());
+        assertEquals(1, batcher.getSampleCount());
+    }
+}
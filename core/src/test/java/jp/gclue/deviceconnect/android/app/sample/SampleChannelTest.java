@@ -0,0 +1,228 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SampleChannel} と {@link OrientationEventDecoder} のテスト.
+ */
+public class SampleChannelTest {
+
+    /**
+     * 受け取ったサンプルを配列に記録するオブジェクト.
+     */
+    private static class RecordingSink implements SampleChannel.SampleSink {
+        final long[] mTimestamps = new long[64];
+        final float[] mX = new float[64];
+        int mCount;
+
+        @Override
+        public void onSample(final long timestamp, final float x, final float y, final float z) {
+            mTimestamps[mCount] = timestamp;
+            mX[mCount] = x;
+            mCount++;
+        }
+    }
+
+    @Test
+    public void capacity_isRoundedUpToPowerOfTwo() {
+        assertEquals(8, new SampleChannel(5).getCapacity());
+        assertEquals(8, new SampleChannel(8).getCapacity());
+    }
+
+    @Test
+    public void drain_readsInOrder() {
+        SampleChannel channel = new SampleChannel(8);
+        SampleChannel.Cursor cursor = channel.newCursor();
+        for (int i = 0; i < 5; i++) {
+            channel.publish(i, i * 10f, 0, 0);
+        }
+
+        RecordingSink sink = new RecordingSink();
+        assertEquals(5, cursor.drain(sink));
+        assertArrayEquals(new long[] {0, 1, 2, 3, 4}, Arrays.copyOf(sink.mTimestamps, 5));
+        assertEquals(40f, sink.mX[4], 0);
+        assertEquals(0, cursor.drain(sink));
+    }
+
+    @Test
+    public void cursors_areIndependent() {
+        SampleChannel channel = new SampleChannel(8);
+        SampleChannel.Cursor first = channel.newCursor();
+        channel.publish(1, 1, 1, 1);
+        SampleChannel.Cursor second = channel.newCursor();
+        channel.publish(2, 2, 2, 2);
+
+        assertEquals(2, first.drain(new RecordingSink()));
+        assertEquals(1, second.drain(new RecordingSink()));
+    }
+
+    @Test
+    public void drain_skipsOverwrittenSamples() {
+        SampleChannel channel = new SampleChannel(4);
+        SampleChannel.Cursor cursor = channel.newCursor();
+        for (int i = 0; i < 10; i++) {
+            channel.publish(i, i, 0, 0);
+        }
+
+        // 書き込み位置から1周前の位置は次の書き込みで上書きされるので、読み出せるのは容量より1つ少ない.
+        RecordingSink sink = new RecordingSink();
+        assertEquals(3, cursor.drain(sink));
+        assertEquals(7, cursor.getDroppedCount());
+        assertEquals(7, sink.mTimestamps[0]);
+    }
+
+    @Test
+    public void drain_skipsSampleLappedByOneSlot() {
+        SampleChannel channel = new SampleChannel(4);
+        SampleChannel.Cursor cursor = channel.newCursor();
+        for (int i = 0; i < 4; i++) {
+            channel.publish(i, i, 0, 0);
+        }
+        // ちょうど1周遅れたサンプルは、書き込み中かもしれないので渡さない.
+        RecordingSink sink = new RecordingSink();
+        assertEquals(3, cursor.drain(sink));
+        assertEquals(1, cursor.getDroppedCount());
+        assertArrayEquals(new long[] {1, 2, 3}, Arrays.copyOf(sink.mTimestamps, 3));
+    }
+
+    @Test
+    public void drain_skipsSampleLappedByOneSlotWhileDraining() {
+        final SampleChannel channel = new SampleChannel(4);
+        SampleChannel.Cursor cursor = channel.newCursor();
+        for (int i = 0; i < 3; i++) {
+            channel.publish(i, i, 0, 0);
+        }
+        final RecordingSink sink = new RecordingSink();
+        int count = cursor.drain(new SampleChannel.SampleSink() {
+            @Override
+            public void onSample(final long timestamp, final float x, final float y, final float z) {
+                sink.onSample(timestamp, x, y, z);
+                if (timestamp == 0) {
+                    // 読み出し中に書き込みが進み、次に読むサンプルがちょうど1周遅れになる.
+                    channel.publish(3, 3, 0, 0);
+                    channel.publish(4, 4, 0, 0);
+                }
+            }
+        });
+        assertEquals(4, count);
+        assertEquals(1, cursor.getDroppedCount());
+        assertArrayEquals(new long[] {0, 2, 3, 4}, Arrays.copyOf(sink.mTimestamps, 4));
+    }
+
+    @Test
+    public void drain_neverReturnsTornSampleWhileWriterLaps() throws Exception {
+        // 書き込み側が何周も追い越す状況で、値の組がすべて同じサンプルのものであることを確認する.
+        final SampleChannel channel = new SampleChannel(4);
+        final SampleChannel.Cursor cursor = channel.newCursor();
+        final long total = 1000000;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (long i = 1; i <= total; i++) {
+                    channel.publish(i, i, -i, i * 2, (int) i);
+                }
+            }
+        });
+        final AtomicInteger torn = new AtomicInteger();
+        final long[] last = {0};
+        SampleChannel.SourceSampleSink sink = new SampleChannel.SourceSampleSink() {
+            @Override
+            public void onSample(final int source, final long timestamp, final float x, final float y, final float z) {
+                if (x != (float) timestamp || y != -(float) timestamp || z != (float) (timestamp * 2)
+                        || source != (int) timestamp || timestamp <= last[0]) {
+                    torn.incrementAndGet();
+                }
+                last[0] = timestamp;
+            }
+        };
+        writer.start();
+        while (writer.isAlive()) {
+            cursor.drain(sink);
+        }
+        writer.join();
+        cursor.drain(sink);
+        assertEquals(0, torn.get());
+        assertEquals(total, last[0]);
+    }
+
+    @Test
+    public void drain_passesSource() {
+        SampleChannel channel = new SampleChannel(4);
+        SampleChannel.Cursor cursor = channel.newCursor();
+        channel.publish(0, 0, 0, 0, 2);
+        channel.publish(1, 0, 0, 0);
+
+        final StringBuilder sources = new StringBuilder();
+        assertEquals(2, cursor.drain(new SampleChannel.SourceSampleSink() {
+            @Override
+            public void onSample(final int source, final long timestamp, final float x, final float y,
+                                 final float z) {
+                sources.append(source).append(',');
+            }
+        }));
+        assertEquals("2," + SampleChannel.SOURCE_UNKNOWN + ",", sources.toString());
+    }
+
+    @Test
+    public void listener_isNotifiedOnPublish() {
+        SampleChannel channel = new SampleChannel(4);
+        final AtomicInteger count = new AtomicInteger();
+        SampleChannel.Listener listener = new SampleChannel.Listener() {
+            @Override
+            public void onSampleAvailable(final SampleChannel ch) {
+                count.incrementAndGet();
+            }
+        };
+        channel.addListener(listener);
+        channel.publish(0, 0, 0, 0);
+        channel.removeListener(listener);
+        channel.publish(1, 0, 0, 0);
+
+        assertEquals(1, count.get());
+    }
+
+    @Test
+    public void decoder_extractsAccelerationIncludingGravity() {
+        Map<String, Object> acceleration = new HashMap<>();
+        acceleration.put("x", 1.5);
+        acceleration.put("y", -2.25);
+        acceleration.put("z", 9.8);
+        Map<String, Object> orientation = new HashMap<>();
+        orientation.put(OrientationEventDecoder.PARAM_ACCELERATION_INCLUDING_GRAVITY, acceleration);
+        Map<String, Object> event = new HashMap<>();
+        event.put(OrientationEventDecoder.PARAM_ORIENTATION, orientation);
+
+        SampleChannel channel = new SampleChannel(4);
+        SampleChannel.Cursor cursor = channel.newCursor();
+        assertTrue(OrientationEventDecoder.decode(event, 123, channel));
+
+        final float[] values = new float[4];
+        cursor.drain(new SampleChannel.SampleSink() {
+            @Override
+            public void onSample(final long timestamp, final float x, final float y, final float z) {
+                values[0] = timestamp;
+                values[1] = x;
+                values[2] = y;
+                values[3] = z;
+            }
+        });
+        assertArrayEquals(new float[] {123f, 1.5f, -2.25f, 9.8f}, values, 0.0001f);
+    }
+
+    @Test
+    public void decoder_ignoresOtherEvents() {
+        Map<String, Object> event = new HashMap<>();
+        event.put("battery", new HashMap<String, Object>());
+
+        SampleChannel channel = new SampleChannel(4);
+        assertFalse(OrientationEventDecoder.decode(event, 0, channel));
+        assertEquals(0, channel.getWriteSequence());
+    }
+}
@@ -0,0 +1,97 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class SampleFilterChainTest {
+
+    /**
+     * 通過したサンプルを記録するオブジェクト.
+     */
+    private static class RecordingSink implements SampleChannel.SampleSink {
+        final List<float[]> mSamples = new ArrayList<>();
+
+        @Override
+        public void onSample(final long timestamp, final float x, final float y, final float z) {
+            mSamples.add(new float[] {timestamp, x, y, z});
+        }
+    }
+
+    @Test
+    public void testDeadBandSuppressesNoise() {
+        RecordingSink sink = new RecordingSink();
+        SampleFilterChain chain = new SampleFilterChain.Builder()
+                .add(SampleFilterChain.deadBand(0.1f))
+                .build(sink);
+
+        chain.onSample(0, 0, 0, 9.8f);
+        assertTrue(chain.isLastPassed());
+        // ノイズ程度の変化は通さない. 比較の基準は直前に通したサンプル.
+        chain.onSample(1, 0.05f, -0.05f, 9.85f);
+        assertFalse(chain.isLastPassed());
+        chain.onSample(2, 0.09f, 0, 9.8f);
+        assertFalse(chain.isLastPassed());
+        chain.onSample(3, 0.2f, 0, 9.8f);
+        assertTrue(chain.isLastPassed());
+
+        assertEquals(2, sink.mSamples.size());
+        assertEquals(4, chain.getInputCount());
+        assertEquals(2, chain.getPassedCount());
+        assertEquals(2, chain.getSuppressedCount(0));
+        assertEquals(0.5, chain.getSuppressionRatio(), 0);
+    }
+
+    @Test
+    public void testLowPassAndComplementaryAddUp() {
+        RecordingSink low = new RecordingSink();
+        RecordingSink high = new RecordingSink();
+        SampleFilterChain lowChain = new SampleFilterChain.Builder()
+                .add(SampleFilterChain.lowPass(0.25f)).build(low);
+        SampleFilterChain highChain = new SampleFilterChain.Builder()
+                .add(SampleFilterChain.complementary(0.25f)).build(high);
+
+        float[] inputs = {9.8f, 10.8f, 8.8f, 9.8f, 12f};
+        for (int i = 0; i < inputs.length; i++) {
+            lowChain.onSample(i, inputs[i], 0, 0);
+            highChain.onSample(i, inputs[i], 0, 0);
+        }
+        assertEquals(10.05f, low.mSamples.get(1)[1], 0.0001f);
+        for (int i = 0; i < inputs.length; i++) {
+            assertEquals(inputs[i], low.mSamples.get(i)[1] + high.mSamples.get(i)[1], 0.0001f);
+        }
+    }
+
+    @Test
+    public void testSignificantChangeWithHeartbeat() {
+        RecordingSink sink = new RecordingSink();
+        SampleFilterChain.Builder builder = new SampleFilterChain.Builder()
+                .add(SampleFilterChain.lowPass(1f))
+                .add(SampleFilterChain.significantChange(1f, 1000));
+        SampleFilterChain chain = builder.build(sink);
+
+        chain.onSample(0, 0, 0, 0);
+        // 各軸の変化は小さくても、ベクトルの長さで判定する.
+        chain.onSample(100, 0.6f, 0.6f, 0.6f);
+        assertTrue(chain.isLastPassed());
+        chain.onSample(200, 0.7f, 0.6f, 0.6f);
+        assertFalse(chain.isLastPassed());
+        // 変化がなくても一定時間ごとに通す.
+        chain.onSample(1100, 0.7f, 0.6f, 0.6f);
+        assertTrue(chain.isLastPassed());
+        assertEquals(1, chain.getSuppressedCount(1));
+        assertEquals(0, chain.getSuppressedCount(0));
+        assertTrue(chain.toJson().contains("\"name\":\"significantChange(1.0, 1000ms)\",\"suppressed\":1"));
+
+        // 同じ構成で作成した列は状態を共有しない.
+        SampleFilterChain other = builder.build(new RecordingSink());
+        other.onSample(0, 0.7f, 0.6f, 0.6f);
+        assertTrue(other.isLastPassed());
+    }
+}
@@ -0,0 +1,146 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SampleRecorder} と {@link SampleRecording} のテスト.
+ */
+public class SampleRecordingTest {
+
+    /**
+     * 受け取ったサンプルを記録するシンク.
+     */
+    private static class CollectingSink implements SampleChannel.SampleSink {
+        final List<Long> mTimestamps = new ArrayList<>();
+        final List<Float> mX = new ArrayList<>();
+
+        @Override
+        public void onSample(final long timestamp, final float x, final float y, final float z) {
+            mTimestamps.add(timestamp);
+            mX.add(x);
+        }
+    }
+
+    private static File record(final int chunkSize, final int count, final boolean close) throws IOException {
+        File file = File.createTempFile("recording", ".bin");
+        SampleRecorder recorder = SampleRecorder.create(file, chunkSize);
+        for (int i = 0; i < count; i++) {
+            recorder.onSample(1000 + i * 10, i, -i, i * 0.5f);
+        }
+        if (close) {
+            recorder.close();
+        } else {
+            recorder.flush();
+        }
+        return file;
+    }
+
+    @Test
+    public void read_roundTripsAcrossChunks() throws IOException {
+        File file = record(8, 30, true);
+        SampleRecording recording = SampleRecording.open(file);
+        try {
+            assertTrue(recording.isIndexed());
+            assertEquals(30, recording.getSampleCount());
+            assertEquals(4, recording.getChunkCount());
+            assertEquals(1000, recording.getStartTimestamp());
+            assertEquals(1290, recording.getEndTimestamp());
+
+            CollectingSink sink = new CollectingSink();
+            SampleRecording.Reader reader = recording.newReader();
+            assertEquals(30, reader.read(sink, 100));
+            assertEquals(0, reader.read(sink, 100));
+            assertEquals(Long.valueOf(1290), sink.mTimestamps.get(29));
+            assertEquals(29f, sink.mX.get(29), 0);
+        } finally {
+            recording.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void seek_positionsAtFirstSampleNotBefore() throws IOException {
+        File file = record(8, 30, true);
+        SampleRecording recording = SampleRecording.open(file);
+        try {
+            SampleRecording.Reader reader = recording.newReader();
+            reader.seek(1175);
+            assertEquals(1180, reader.peekTimestamp());
+            CollectingSink sink = new CollectingSink();
+            assertEquals(3, reader.read(sink, 3));
+            assertEquals(Long.valueOf(1200), sink.mTimestamps.get(2));
+
+            reader.seek(5000);
+            assertEquals(Long.MAX_VALUE, reader.peekTimestamp());
+            reader.seek(0);
+            assertEquals(1000, reader.peekTimestamp());
+        } finally {
+            recording.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void open_rebuildsIndexOfUnclosedRecording() throws IOException {
+        File file = record(8, 20, false);
+        // 書き込み途中で切れたチャンクを模擬する.
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length());
+        raf.writeInt(8);
+        raf.writeInt(7);
+        raf.close();
+
+        SampleRecording recording = SampleRecording.open(file);
+        try {
+            assertFalse(recording.isIndexed());
+            assertEquals(20, recording.getSampleCount());
+            assertEquals(1190, recording.getEndTimestamp());
+        } finally {
+            recording.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void read_keepsNonMonotonicTimestamps() throws IOException {
+        File file = File.createTempFile("recording", ".bin");
+        SampleRecorder recorder = SampleRecorder.create(file, 4);
+        recorder.onSample(100, 0, 0, 0);
+        recorder.onSample(90, 0, 0, 0);
+        recorder.onSample(Long.MAX_VALUE / 2, 0, 0, 0);
+        recorder.close();
+
+        SampleRecording recording = SampleRecording.open(file);
+        try {
+            CollectingSink sink = new CollectingSink();
+            recording.newReader().read(sink, 10);
+            assertEquals(Long.valueOf(90), sink.mTimestamps.get(1));
+            assertEquals(Long.valueOf(Long.MAX_VALUE / 2), sink.mTimestamps.get(2));
+        } finally {
+            recording.close();
+            file.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsOtherFiles() throws IOException {
+        File file = File.createTempFile("recording", ".bin");
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.writeLong(0);
+            raf.writeLong(0);
+            raf.close();
+            SampleRecording.open(file);
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SampleReplayer} のテスト.
+ */
+public class SampleReplayerTest {
+
+    /**
+     * 待機した時間だけ時刻を進める {@link SampleReplayer.Clock}.
+     */
+    private static class FakeClock implements SampleReplayer.Clock {
+        long mNow;
+        long mSlept;
+
+        @Override
+        public long nanoTime() {
+            return mNow;
+        }
+
+        @Override
+        public void sleep(final long nanos) {
+            mNow += nanos;
+            mSlept += nanos;
+        }
+    }
+
+    private File mFile;
+    private SampleRecording mRecording;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("replay", ".bin");
+        SampleRecorder recorder = SampleRecorder.create(mFile, 16);
+        // 10ms 間隔で 100 サンプル (990ms).
+        for (int i = 0; i < 100; i++) {
+            recorder.onSample(i * 10, i, 0, 0);
+        }
+        recorder.close();
+        mRecording = SampleRecording.open(mFile);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mRecording.close();
+        mFile.delete();
+    }
+
+    @Test
+    public void replay_realTimeKeepsRecordedIntervals() throws Exception {
+        FakeClock clock = new FakeClock();
+        long count = new SampleReplayer(mRecording, clock).replay(1, counter());
+        assertEquals(100, count);
+        assertEquals(990 * 1000000L, clock.mSlept);
+    }
+
+    @Test
+    public void replay_fasterSpeedShortensWaits() throws Exception {
+        FakeClock clock = new FakeClock();
+        new SampleReplayer(mRecording, clock).replay(4, counter());
+        assertEquals(990 * 1000000L / 4, clock.mSlept);
+    }
+
+    @Test
+    public void replay_asFastAsPossibleNeverWaits() throws Exception {
+        FakeClock clock = new FakeClock();
+        long count = new SampleReplayer(mRecording, clock).replay(SampleReplayer.AS_FAST_AS_POSSIBLE, counter());
+        assertEquals(100, count);
+        assertEquals(0, clock.mSlept);
+    }
+
+    @Test
+    public void replay_rangeIsHalfOpenAndStartsWithoutWaiting() throws Exception {
+        FakeClock clock = new FakeClock();
+        long count = new SampleReplayer(mRecording, clock).replay(500, 600, 1, counter());
+        assertEquals(10, count);
+        assertEquals(90 * 1000000L, clock.mSlept);
+    }
+
+    @Test
+    public void cancel_stopsReplay() throws Exception {
+        final SampleReplayer replayer = new SampleReplayer(mRecording, new FakeClock());
+        final long[] received = new long[1];
+        long count = replayer.replay(SampleReplayer.AS_FAST_AS_POSSIBLE, new SampleChannel.SampleSink() {
+            @Override
+            public void onSample(final long timestamp, final float x, final float y, final float z) {
+                if (++received[0] == 5) {
+                    replayer.cancel();
+                }
+            }
+        });
+        assertEquals(5, count);
+    }
+
+    private static SampleChannel.SampleSink counter() {
+        return new SampleChannel.SampleSink() {
+            @Override
+            public void onSample(final long timestamp, final float x, final float y, final float z) {
+            }
+        };
+    }
+}
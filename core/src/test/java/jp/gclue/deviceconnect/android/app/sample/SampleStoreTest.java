@@ -0,0 +1,100 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SampleStore} のテスト.
+ */
+public class SampleStoreTest {
+
+    @Test
+    public void query_returnsHalfOpenRange() {
+        SampleStore store = new SampleStore(16);
+        for (int i = 0; i < 10; i++) {
+            store.append(1000 + i * 10, i, -i, 0);
+        }
+
+        SampleStore.Range range = store.query(1020, 1050, null);
+        assertEquals(3, range.size());
+        assertEquals(1020, range.getTimestamp(0));
+        assertEquals(4f, range.getX(2), 0);
+        assertEquals(-4f, range.getY(2), 0);
+
+        assertEquals(0, store.query(2000, 3000, range).size());
+        assertEquals(10, store.query(0, Long.MAX_VALUE, range).size());
+    }
+
+    @Test
+    public void append_overwritesOldest() {
+        SampleStore store = new SampleStore(4);
+        for (int i = 0; i < 10; i++) {
+            store.append(i, i, 0, 0);
+        }
+
+        assertEquals(4, store.size());
+        assertEquals(6, store.getOldestSequence());
+        SampleStore.Range range = store.query(0, 100, null);
+        assertEquals(4, range.size());
+        assertEquals(6, range.getTimestamp(0));
+        assertEquals(9, range.getTimestamp(3));
+    }
+
+    @Test
+    public void range_isInvalidatedWhenOverwritten() {
+        SampleStore store = new SampleStore(4);
+        for (int i = 0; i < 4; i++) {
+            store.append(i, i, 0, 0);
+        }
+        SampleStore.Range range = store.query(0, 2, null);
+        assertTrue(range.isValid());
+
+        store.append(4, 4, 0, 0);
+        assertFalse(range.isValid());
+    }
+
+    @Test
+    public void append_keepsTimestampsMonotonic() {
+        SampleStore store = new SampleStore(4);
+        store.append(100, 0, 0, 0);
+        store.append(50, 1, 0, 0);
+
+        SampleStore.Range range = store.query(100, 101, null);
+        assertEquals(2, range.size());
+        assertEquals(1f, range.getX(1), 0);
+    }
+
+    @Test
+    public void mappedStore_survivesReopen() throws Exception {
+        File file = File.createTempFile("samples", ".bin");
+        try {
+            SampleStore store = SampleStore.openMapped(file, 8);
+            for (int i = 0; i < 12; i++) {
+                store.append(i * 100, i, i * 2, i * 3);
+            }
+            store.close();
+
+            SampleStore reopened = SampleStore.openMapped(file, 8);
+            assertEquals(12, reopened.getWriteSequence());
+            SampleStore.Range range = reopened.query(0, Long.MAX_VALUE, null);
+            assertEquals(8, range.size());
+            assertEquals(400, range.getTimestamp(0));
+            assertEquals(33f, range.getZ(7), 0);
+
+            // 古いタイムスタンプは引き継いだ最後の値に切り上げられる.
+            reopened.append(0, 0, 0, 0);
+            assertEquals(2, reopened.query(1100, 1101, null).size());
+            reopened.close();
+
+            // 容量が異なる場合は空のストアとして初期化する.
+            SampleStore resized = SampleStore.openMapped(file, 16);
+            assertEquals(0, resized.size());
+            resized.close();
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class ServiceTableTest {
+
+    private static Map<String, String> services(final String... idAndNames) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < idAndNames.length; i += 2) {
+            map.put(idAndNames[i], idAndNames[i + 1]);
+        }
+        return map;
+    }
+
+    @Test
+    public void testIncrementalUpdate() {
+        ServiceTable table = new ServiceTable();
+        assertFalse(table.isSynced());
+
+        assertTrue(table.replaceAll(services("a", "A", "b", "B")));
+        assertTrue(table.isSynced());
+        long version = table.getVersion();
+        assertFalse(table.replaceAll(services("a", "A", "b", "B")));
+        assertEquals(version, table.getVersion());
+
+        assertTrue(table.update("c", "C", true));
+        assertFalse(table.update("c", "C", true));
+        assertTrue(table.update("a", null, false));
+        assertFalse(table.update("x", null, false));
+        assertEquals(services("b", "B", "c", "C"), table.snapshot());
+        assertEquals(version + 2, table.getVersion());
+        assertEquals(2, table.getFullSyncCount());
+        assertEquals(4, table.getUpdateCount());
+
+        table.invalidate();
+        assertFalse(table.isSynced());
+        // 取りこぼした可能性があっても、一覧は保持する.
+        assertEquals(services("b", "B", "c", "C"), table.snapshot());
+    }
+
+    @Test
+    public void testAwaitChange() throws InterruptedException {
+        final ServiceTable table = new ServiceTable();
+        assertFalse(table.awaitChange(table.getVersion(), 10));
+
+        final long version = table.getVersion();
+        final AtomicBoolean changed = new AtomicBoolean();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    changed.set(table.awaitChange(version, 10000));
+                } catch (InterruptedException e) {
+                    // ignore.
+                }
+            }
+        });
+        waiter.start();
+        Thread.sleep(50);
+        table.update("a", "A", true);
+        waiter.join(5000);
+        assertTrue(changed.get());
+
+        // 版番号が既に変わっていれば待機しない.
+        assertTrue(table.awaitChange(version, 10000));
+    }
+
+    @Test
+    public void testInvalidateWakesWaiter() throws InterruptedException {
+        ServiceTable table = new ServiceTable();
+        table.replaceAll(services("a", "A"));
+        long version = table.getVersion();
+        table.invalidate();
+        assertTrue(table.awaitChange(version, 0));
+    }
+}
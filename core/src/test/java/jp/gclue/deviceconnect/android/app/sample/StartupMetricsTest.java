@@ -0,0 +1,39 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link StartupMetrics} のテスト.
+ */
+public class StartupMetricsTest {
+
+    @Test
+    public void onEvent_recordsOnlyFirstEvent() {
+        StartupMetrics metrics = new StartupMetrics();
+        assertFalse(metrics.hasFirstEvent());
+        assertEquals(-1, metrics.getTimeToFirstEvent());
+
+        assertTrue(metrics.onEvent());
+        assertFalse(metrics.onEvent());
+        assertTrue(metrics.hasFirstEvent());
+        assertTrue(metrics.getTimeToFirstEvent() >= 0);
+    }
+
+    @Test
+    public void onSubscribed_keepsFirstMode() {
+        StartupMetrics metrics = new StartupMetrics();
+        metrics.onSubscribed(StartupMetrics.MODE_WARM);
+        metrics.onVerified(false);
+        metrics.onSubscribed(StartupMetrics.MODE_COLD);
+
+        assertEquals(StartupMetrics.MODE_WARM, metrics.getMode());
+        assertEquals(StartupMetrics.VERIFICATION_FAILED, metrics.getVerification());
+        assertTrue(metrics.toJson().contains("\"mode\":\"warm\""));
+
+        metrics.reset();
+        assertEquals(StartupMetrics.MODE_NONE, metrics.getMode());
+        assertEquals(-1, metrics.getTimeToSubscribe());
+    }
+}
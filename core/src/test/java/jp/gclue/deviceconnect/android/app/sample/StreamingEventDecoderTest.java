@@ -0,0 +1,97 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class StreamingEventDecoderTest {
+
+    private static final String EVENT_JSON = "{\"serviceId\":\"Host.dummy\","
+            + "\"profile\":\"deviceOrientation\",\"attribute\":\"onDeviceOrientation\","
+            + "\"orientation\":{"
+            + "\"acceleration\":{\"x\":0.012,\"y\":-0.034,\"z\":0.056},"
+            + "\"accelerationIncludingGravity\":{\"x\":0.123456,\"y\":9.806650,\"z\":-4.5e-1},"
+            + "\"interval\":200}}";
+
+    @Test
+    public void testDecodeRegisteredPath() {
+        StreamingEventDecoder decoder = new StreamingEventDecoder();
+        int index = OrientationEventDecoder.register(decoder);
+        StreamingEventDecoder.Result result = decoder.newResult();
+
+        assertTrue(decoder.decode(EVENT_JSON, result));
+        assertEquals(index, result.getPathIndex());
+        assertEquals("Host.dummy", result.getServiceId());
+        assertEquals(0.123456, result.getNumber(0), 0);
+        assertEquals(9.80665, result.getNumber(1), 0);
+        assertEquals(-0.45, result.getNumber(2), 0);
+
+        SampleChannel channel = new SampleChannel();
+        SampleChannel.Cursor cursor = channel.newCursor();
+        OrientationEventDecoder.decode(result, 100, channel);
+        final float[] sample = new float[3];
+        cursor.drain(new SampleChannel.SampleSink() {
+            @Override
+            public void onSample(final long timestamp, final float x, final float y, final float z) {
+                sample[0] = x;
+                sample[1] = y;
+                sample[2] = z;
+            }
+        });
+        assertEquals(0.123456f, sample[0], 0);
+        assertEquals(9.80665f, sample[1], 0);
+        assertEquals(-0.45f, sample[2], 0);
+    }
+
+    @Test
+    public void testSameValuesAsTree() {
+        StreamingEventDecoder decoder = new StreamingEventDecoder();
+        decoder.register(OrientationEventDecoder.PATH, "a", "b.c", "sentAt");
+        StreamingEventDecoder.Result result = decoder.newResult();
+        String[] numbers = {"0", "-0.5", "123456789.123456789", "1e300", "-2.5E-7", "0.1", "9007199254740993"};
+        for (String number : numbers) {
+            // フィールドの順番は問わない. 不要な配列や文字列は読み飛ばす.
+            String json = "{\"b\":{\"skip\":[1,{\"c\":2},\"]}\"],\"c\":" + number + "},"
+                    + "\"note\":\"a\\\"b\\\\\",\"a\":" + number + ",\"sentAt\":1234567890123456789,"
+                    + "\"attribute\":\"ONDEVICEORIENTATION\",\"profile\":\"deviceorientation\"}";
+            assertTrue(json, decoder.decode(json, result));
+            double expected = Double.parseDouble(number);
+            assertEquals(json, expected, result.getNumber(0), 0);
+            assertEquals(json, expected, result.getNumber(1), 0);
+            assertEquals(1234567890123456789L, result.getLong(2));
+        }
+    }
+
+    @Test
+    public void testFallbackCases() {
+        StreamingEventDecoder decoder = new StreamingEventDecoder();
+        OrientationEventDecoder.register(decoder);
+        StreamingEventDecoder.Result result = decoder.newResult();
+
+        // 登録していないAPIパス.
+        assertFalse(decoder.decode(EVENT_JSON.replace("onDeviceOrientation", "onBattery"), result));
+        assertFalse(decoder.decode(EVENT_JSON.replace("\"attribute\"", "\"interface\":\"x\",\"attribute\""), result));
+        // 値が揃わない.
+        assertFalse(decoder.decode(EVENT_JSON.replace("\"z\":-4.5e-1", "\"w\":1"), result));
+        assertFalse(decoder.decode(EVENT_JSON.replace("\"z\":-4.5e-1", "\"z\":\"1\""), result));
+        // 不正な JSON.
+        assertFalse(decoder.decode(EVENT_JSON.substring(0, EVENT_JSON.length() - 1), result));
+        assertFalse(decoder.decode("[]", result));
+        assertEquals(-1, result.getPathIndex());
+
+        // 前回の値が残っていても、今回含まれていなければ一致しない.
+        assertTrue(decoder.decode(EVENT_JSON, result));
+        assertFalse(decoder.decode(EVENT_JSON.replace("\"x\":0.123456", "\"v\":0"), result));
+
+        // 後から登録したAPIパスも同じ走査で取り出す.
+        int battery = decoder.register(DConnectPath.parse("/gotapi/battery/onBatteryChange"), "battery.level");
+        assertTrue(decoder.decode("{\"serviceId\":\"a\\u0062\",\"profile\":\"battery\","
+                + "\"attribute\":\"onBatteryChange\",\"battery\":{\"level\":0.5}}", result));
+        assertEquals(battery, result.getPathIndex());
+        assertEquals("ab", result.getServiceId());
+        assertEquals(0.5, result.getNumber(0), 0);
+    }
+}
@@ -0,0 +1,191 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SubscriptionRegistry} のテスト.
+ */
+public class SubscriptionRegistryTest {
+
+    private static final DConnectPath ORIENTATION = DConnectPath.parse("/gotapi/deviceOrientation/onDeviceOrientation");
+
+    private static final DConnectPath BATTERY = DConnectPath.parse("/gotapi/battery/onBatteryChange");
+
+    /**
+     * 登録・解除の要求を記録するコールバック.
+     */
+    private static class RecordingCallback implements SubscriptionRegistry.Callback {
+        final List<String> mEvents = new ArrayList<>();
+
+        @Override
+        public void onRegister(final SubscriptionRegistry.Subscription subscription) {
+            mEvents.add("+" + subscription.getServiceId() + subscription.getPath());
+        }
+
+        @Override
+        public void onUnregister(final SubscriptionRegistry.Subscription subscription) {
+            mEvents.add("-" + subscription.getServiceId() + subscription.getPath());
+        }
+    }
+
+    /**
+     * 受け取ったイベント数を数える購読者.
+     */
+    private static class CountingSubscriber implements SubscriptionRegistry.Subscriber {
+        int mCount;
+
+        @Override
+        public void onEvent(final SubscriptionRegistry.Subscription subscription, final Map<String, Object> event) {
+            mCount++;
+        }
+    }
+
+    @Test
+    public void subscribe_registersOncePerServiceAndPath() {
+        RecordingCallback callback = new RecordingCallback();
+        SubscriptionRegistry registry = new SubscriptionRegistry(callback);
+        CountingSubscriber a = new CountingSubscriber();
+        CountingSubscriber b = new CountingSubscriber();
+
+        registry.subscribe("host", ORIENTATION, a);
+        registry.subscribe("host", ORIENTATION, b);
+        registry.subscribe("host", ORIENTATION, b);
+        registry.subscribe("host", BATTERY, a);
+
+        assertEquals(2, callback.mEvents.size());
+        assertEquals(2, registry.findByPath(ORIENTATION).get(0).getSubscriberCount());
+    }
+
+    @Test
+    public void unsubscribe_unregistersWhenLastSubscriberLeaves() {
+        RecordingCallback callback = new RecordingCallback();
+        SubscriptionRegistry registry = new SubscriptionRegistry(callback);
+        CountingSubscriber a = new CountingSubscriber();
+        CountingSubscriber b = new CountingSubscriber();
+        registry.subscribe("host", ORIENTATION, a);
+        registry.subscribe("host", ORIENTATION, b);
+
+        assertTrue(registry.unsubscribe("host", ORIENTATION, a));
+        assertEquals(1, callback.mEvents.size());
+        assertEquals(1, registry.findByService("host").size());
+        assertTrue(registry.findByService("other").isEmpty());
+        assertFalse(registry.unsubscribe("host", ORIENTATION, a));
+
+        assertTrue(registry.unsubscribe("host", ORIENTATION, b));
+        assertEquals("-host/gotapi/deviceOrientation/onDeviceOrientation", callback.mEvents.get(1));
+        assertTrue(registry.getSubscriptions().isEmpty());
+    }
+
+    @Test
+    public void dispatch_routesToMatchingSubscribersOnly() {
+        SubscriptionRegistry registry = new SubscriptionRegistry(new RecordingCallback());
+        CountingSubscriber orientation = new CountingSubscriber();
+        CountingSubscriber battery = new CountingSubscriber();
+        registry.subscribe("host", ORIENTATION, orientation);
+        registry.subscribe("host", BATTERY, battery);
+
+        Map<String, Object> event = new HashMap<>();
+        assertEquals(1, registry.dispatch("host", "deviceorientation", null, "ondeviceorientation", event));
+        assertEquals(0, registry.dispatch("other", "deviceOrientation", null, "onDeviceOrientation", event));
+        assertEquals(0, registry.dispatch("host", "proximity", null, "onDeviceProximity", event));
+
+        assertEquals(1, orientation.mCount);
+        assertEquals(0, battery.mCount);
+    }
+
+    @Test
+    public void dispatch_includesWildcardSubscriptions() {
+        SubscriptionRegistry registry = new SubscriptionRegistry(new RecordingCallback());
+        CountingSubscriber exact = new CountingSubscriber();
+        CountingSubscriber all = new CountingSubscriber();
+        registry.subscribe("host", ORIENTATION, exact);
+        registry.subscribe(DConnectPath.WILDCARD, DConnectPath.parse("/gotapi/deviceOrientation"), all);
+
+        Map<String, Object> event = new HashMap<>();
+        assertEquals(2, registry.dispatch("host", "deviceOrientation", null, "onDeviceOrientation", event));
+        assertEquals(1, registry.dispatch("other", "deviceOrientation", null, "onDeviceOrientation", event));
+        assertEquals(1, exact.mCount);
+        assertEquals(2, all.mCount);
+    }
+
+    @Test
+    public void unsubscribeAll_andClear() {
+        RecordingCallback callback = new RecordingCallback();
+        SubscriptionRegistry registry = new SubscriptionRegistry(callback);
+        CountingSubscriber a = new CountingSubscriber();
+        CountingSubscriber b = new CountingSubscriber();
+        registry.subscribe("host", ORIENTATION, a);
+        registry.subscribe("host", BATTERY, a);
+        registry.subscribe("host", BATTERY, b);
+
+        assertEquals(2, registry.unsubscribeAll(a));
+        assertEquals(1, registry.getSubscriptions().size());
+
+        registry.clear();
+        assertTrue(registry.getSubscriptions().isEmpty());
+        assertEquals(4, callback.mEvents.size());
+    }
+
+    @Test(timeout = 10000)
+    public void callbacks_runOutsideRegistryLock() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final SubscriptionRegistry registry = new SubscriptionRegistry(new SubscriptionRegistry.Callback() {
+            @Override
+            public void onRegister(final SubscriptionRegistry.Subscription subscription) {
+                events.add("+" + subscription.getServiceId());
+                if ("slow".equals(subscription.getServiceId())) {
+                    entered.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            @Override
+            public void onUnregister(final SubscriptionRegistry.Subscription subscription) {
+                events.add("-" + subscription.getServiceId());
+            }
+        });
+        final CountingSubscriber a = new CountingSubscriber();
+        Thread slow = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                registry.subscribe("slow", ORIENTATION, a);
+            }
+        });
+        slow.start();
+        entered.await();
+
+        // 応答の遅いデバイスの登録中も、他の購読の操作は待たされない.
+        registry.subscribe("fast", ORIENTATION, a);
+        assertTrue(registry.unsubscribe("fast", ORIENTATION, a));
+        // 登録中に削除された組は、登録の完了後に解除する.
+        Thread cancel = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                registry.unsubscribe("slow", ORIENTATION, a);
+            }
+        });
+        cancel.start();
+        release.countDown();
+        slow.join();
+        cancel.join();
+
+        assertEquals(Arrays.asList("+slow", "+fast", "-fast", "-slow"), events);
+        assertTrue(registry.getSubscriptions().isEmpty());
+    }
+}
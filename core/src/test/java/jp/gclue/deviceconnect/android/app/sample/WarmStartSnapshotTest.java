@@ -0,0 +1,113 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link WarmStartSnapshot} のテスト.
+ */
+public class WarmStartSnapshotTest {
+
+    private static final String KEY = "deviceorientation/ondeviceorientation";
+
+    @Test
+    public void write_roundTrip() throws IOException {
+        File file = File.createTempFile("warm-start", ".bin");
+        try {
+            WarmStartSnapshot snapshot = new WarmStartSnapshot();
+            snapshot.putTarget(KEY, "host.abc", "Host");
+            snapshot.putCapabilities("host.abc", new HashSet<>(Arrays.asList(KEY, "battery/level")));
+            assertTrue(snapshot.isDirty());
+            snapshot.write(file);
+            assertFalse(snapshot.isDirty());
+            assertTrue(snapshot.getSavedAt() > 0);
+
+            WarmStartSnapshot loaded = WarmStartSnapshot.read(file);
+            assertEquals(snapshot.getSavedAt(), loaded.getSavedAt());
+            assertEquals("host.abc", loaded.getTarget(KEY).getServiceId());
+            assertEquals("Host", loaded.getTarget(KEY).getName());
+            Set<String> apis = loaded.getCapabilities("host.abc");
+            assertEquals(2, apis.size());
+            assertTrue(apis.contains("battery/level"));
+            assertFalse(loaded.isDirty());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void write_keepsProbeTime() throws IOException {
+        File file = File.createTempFile("warm-start", ".bin");
+        try {
+            WarmStartSnapshot snapshot = new WarmStartSnapshot();
+            snapshot.putCapabilities("host.abc", new HashSet<>(Arrays.asList(KEY)), 12345L);
+            snapshot.write(file);
+
+            WarmStartSnapshot loaded = WarmStartSnapshot.read(file);
+            assertEquals(12345L, loaded.getProbedAt("host.abc"));
+            assertEquals(0, loaded.getProbedAt("unknown"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void read_missingFileReturnsEmpty() throws IOException {
+        File file = new File(System.getProperty("java.io.tmpdir"), "warm-start-missing-" + System.nanoTime());
+        WarmStartSnapshot snapshot = WarmStartSnapshot.read(file);
+        assertNull(snapshot.getTarget(KEY));
+        assertEquals(0, snapshot.getSavedAt());
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsCorruptFile() throws IOException {
+        File file = File.createTempFile("warm-start", ".bin");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+            out.close();
+            WarmStartSnapshot.read(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void removeService_dropsTargetsAndCapabilities() {
+        WarmStartSnapshot snapshot = new WarmStartSnapshot();
+        snapshot.putTarget(KEY, "host.abc", "Host");
+        snapshot.putTarget("battery/level", "host.abc", "Host");
+        snapshot.putTarget("light/ontouch", "other", "Other");
+        snapshot.putCapabilities("host.abc", new HashSet<>(Arrays.asList(KEY)));
+
+        snapshot.removeService("host.abc");
+        assertNull(snapshot.getTarget(KEY));
+        assertNull(snapshot.getTarget("battery/level"));
+        assertNull(snapshot.getCapabilities("host.abc"));
+        assertEquals("other", snapshot.getTarget("light/ontouch").getServiceId());
+    }
+
+    @Test
+    public void putTarget_sameValueIsNotDirty() throws IOException {
+        File file = File.createTempFile("warm-start", ".bin");
+        try {
+            WarmStartSnapshot snapshot = new WarmStartSnapshot();
+            snapshot.putTarget(KEY, "host.abc", "Host");
+            snapshot.write(file);
+            snapshot.putTarget(KEY, "host.abc", "Host");
+            assertFalse(snapshot.isDirty());
+            snapshot.putTarget(KEY, "host.def", "Host");
+            assertTrue(snapshot.isDirty());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link WindowAggregator} のテスト.
+ */
+public class WindowAggregatorTest {
+
+    /**
+     * 通知された集計結果を複製して記録するリスナー.
+     */
+    private static class RecordingListener implements WindowAggregator.Listener {
+        final List<WindowAggregator.Aggregate> mAggregates = new ArrayList<>();
+
+        @Override
+        public void onAggregate(final WindowAggregator.Aggregate aggregate) {
+            WindowAggregator.Aggregate copy = new WindowAggregator.Aggregate();
+            copy.copyFrom(aggregate);
+            mAggregates.add(copy);
+        }
+    }
+
+    @Test
+    public void tumbling_emitsOncePerWindow() {
+        RecordingListener listener = new RecordingListener();
+        WindowAggregator aggregator = WindowAggregator.tumbling(4, listener);
+        for (int i = 0; i < 10; i++) {
+            aggregator.onSample(i * 10, i, 0, 0);
+        }
+
+        assertEquals(2, listener.mAggregates.size());
+        WindowAggregator.Aggregate second = listener.mAggregates.get(1);
+        assertEquals(4, second.getCount());
+        assertEquals(40, second.getStartTimestamp());
+        assertEquals(70, second.getEndTimestamp());
+        assertEquals(4f, second.getMin(WindowAggregator.AXIS_X), 0);
+        assertEquals(7f, second.getMax(WindowAggregator.AXIS_X), 0);
+        assertEquals(5.5f, second.getMean(WindowAggregator.AXIS_X), 1e-6f);
+        assertEquals(1.25f, second.getVariance(WindowAggregator.AXIS_X), 1e-4f);
+        assertEquals((float) Math.sqrt((16 + 25 + 36 + 49) / 4.0), second.getRms(WindowAggregator.AXIS_X), 1e-5f);
+    }
+
+    @Test
+    public void sliding_tracksMinAndMaxAcrossEvictions() {
+        RecordingListener listener = new RecordingListener();
+        WindowAggregator aggregator = WindowAggregator.sliding(3, 1, listener);
+        float[] values = {5, 1, 3, 2, 8, 0, 4};
+        for (int i = 0; i < values.length; i++) {
+            aggregator.onSample(i, values[i], 0, 0);
+        }
+
+        // ウィンドウ: [5,1,3] [1,3,2] [3,2,8] [2,8,0] [8,0,4]
+        float[] mins = {1, 1, 2, 0, 0};
+        float[] maxs = {5, 3, 8, 8, 8};
+        assertEquals(mins.length, listener.mAggregates.size());
+        for (int i = 0; i < mins.length; i++) {
+            WindowAggregator.Aggregate a = listener.mAggregates.get(i);
+            assertEquals(mins[i], a.getMin(WindowAggregator.AXIS_X), 0);
+            assertEquals(maxs[i], a.getMax(WindowAggregator.AXIS_X), 0);
+        }
+    }
+
+    @Test
+    public void sliding_emitsEveryHop() {
+        RecordingListener listener = new RecordingListener();
+        WindowAggregator aggregator = WindowAggregator.sliding(8, 2, listener);
+        for (int i = 0; i < 16; i++) {
+            aggregator.onSample(i, 0, 0, 0);
+        }
+
+        // 8件目で最初の通知、以降は2件ごと.
+        assertEquals(5, listener.mAggregates.size());
+        assertEquals(15, listener.mAggregates.get(4).getEndTimestamp());
+        assertEquals(8, listener.mAggregates.get(4).getStartTimestamp());
+    }
+
+    @Test
+    public void magnitudePeak_isLargestVectorLength() {
+        RecordingListener listener = new RecordingListener();
+        WindowAggregator aggregator = WindowAggregator.tumbling(3, listener);
+        aggregator.onSample(0, 1, 0, 0);
+        aggregator.onSample(1, 3, 4, 0);
+        aggregator.onSample(2, 0, 0, -2);
+
+        WindowAggregator.Aggregate a = listener.mAggregates.get(0);
+        assertEquals(5f, a.getMagnitudePeak(), 1e-6f);
+        assertEquals(1f, a.getMin(WindowAggregator.AXIS_MAGNITUDE), 1e-6f);
+        assertEquals(-2f, a.getMin(WindowAggregator.AXIS_Z), 0);
+    }
+
+    @Test
+    public void runningSums_matchDirectComputationAfterManySamples() {
+        RecordingListener listener = new RecordingListener();
+        WindowAggregator aggregator = WindowAggregator.sliding(16, 16, listener);
+        int n = 16 * 2000 + 5;
+        for (int i = 0; i < n; i++) {
+            aggregator.onSample(i, (float) Math.sin(i * 0.1) * 1000, 0, 0);
+        }
+
+        WindowAggregator.Aggregate last = listener.mAggregates.get(listener.mAggregates.size() - 1);
+        long end = last.getEndTimestamp();
+        double sum = 0;
+        for (long i = end - 15; i <= end; i++) {
+            sum += (float) Math.sin(i * 0.1) * 1000;
+        }
+        assertEquals(sum / 16, last.getMean(WindowAggregator.AXIS_X), 1e-3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hopLargerThanWindow_isRejected() {
+        new WindowAggregator(4, 5, null);
+    }
+}
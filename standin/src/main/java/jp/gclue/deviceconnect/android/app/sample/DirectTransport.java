@@ -0,0 +1,73 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+
+
+/**
+ * ソケットを使用せずに、同じ JVM の {@link StandInManager} を直接呼び出す通信方法.
+ *
+ * 端末内のプロセス間通信 (SDK の Intent による通信) は JVM では再現できないので、その代わりに使用する.
+ * 要求とイベントは HTTP と同じ JSON 文字列で受け渡し、イベントはキューを介して受信側のスレッドに渡すので、
+ * {@link HttpTransport} との差は接続、HTTP のヘッダ、WebSocket のフレームの処理にかかる時間になる.
+ */
+public class DirectTransport implements ManagerTransport {
+
+    private final StandInManager mManager;
+    private final String mOrigin;
+    private volatile StandInManager.DirectSession mSession;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param manager 接続先
+     * @param origin オリジン
+     */
+    public DirectTransport(final StandInManager manager, final String origin) {
+        mManager = manager;
+        mOrigin = origin;
+    }
+
+    @Override
+    public String getName() {
+        return "direct";
+    }
+
+    @Override
+    public Map<String, Object> request(final String method, final String apiPath, final String query)
+            throws IOException {
+        String response = mManager.handleDirect(method, apiPath, query, mOrigin);
+        try {
+            return JsonParser.parseObject(response);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed response: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void receive(final EventListener listener) throws IOException {
+        StandInManager.DirectSession session = mManager.openDirectSession(mOrigin);
+        mSession = session;
+        try {
+            listener.onOpen();
+            String text;
+            while ((text = session.take()) != null) {
+                listener.onMessage(text);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            session.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        StandInManager.DirectSession session = mSession;
+        if (session != null) {
+            session.close();
+        }
+    }
+}
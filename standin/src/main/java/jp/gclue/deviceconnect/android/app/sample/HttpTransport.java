@@ -0,0 +1,152 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * HTTP で要求し、WebSocket でイベントを受信する通信方法. SDK の既定の通信方法と同じ.
+ */
+public class HttpTransport implements ManagerTransport {
+
+    /**
+     * HTTP と WebSocket の接続のタイムアウト. 単位はミリ秒.
+     */
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    private final String mHost;
+    private final int mPort;
+    private final String mOrigin;
+    private volatile Socket mSocket;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param host Managerのホスト名
+     * @param port Managerのポート番号
+     * @param origin オリジン
+     */
+    public HttpTransport(final String host, final int port, final String origin) {
+        mHost = host;
+        mPort = port;
+        mOrigin = origin;
+    }
+
+    @Override
+    public String getName() {
+        return "http";
+    }
+
+    @Override
+    public Map<String, Object> request(final String method, final String apiPath, final String query)
+            throws IOException {
+        URL url = new URL("http", mHost, mPort, "/gotapi/" + apiPath + (query != null ? "?" + query : ""));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(CONNECT_TIMEOUT);
+            connection.setRequestProperty("X-GotAPI-Origin", mOrigin);
+            InputStream in = connection.getInputStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                body.write(buffer, 0, n);
+            }
+            in.close();
+            return JsonParser.parseObject(new String(body.toByteArray(), WebSocketCodec.UTF8));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed response: " + e.getMessage());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void receive(final EventListener listener) throws IOException {
+        Socket socket = new Socket();
+        mSocket = socket;
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(mHost, mPort), CONNECT_TIMEOUT);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            handshake(in, out);
+            listener.onOpen();
+
+            String text;
+            while ((text = WebSocketCodec.readText(in)) != null) {
+                listener.onMessage(text);
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore.
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        Socket socket = mSocket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore.
+            }
+        }
+    }
+
+    private void handshake(final InputStream in, final OutputStream out) throws IOException {
+        String key = WebSocketCodec.newKey();
+        String request = "GET /gotapi/websocket HTTP/1.1\r\n"
+                + "Host: " + mHost + ":" + mPort + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: " + key + "\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n";
+        out.write(request.getBytes(WebSocketCodec.UTF8));
+        out.flush();
+
+        String status = WebSocketCodec.readLine(in);
+        if (status == null || !status.contains(" 101 ")) {
+            throw new IOException("Unexpected status: " + status);
+        }
+        String accept = null;
+        String line;
+        while ((line = WebSocketCodec.readLine(in)) != null && !line.isEmpty()) {
+            if (line.toLowerCase(Locale.ENGLISH).startsWith("sec-websocket-accept:")) {
+                accept = line.substring(line.indexOf(':') + 1).trim();
+            }
+        }
+        if (!WebSocketCodec.acceptKey(key).equals(accept)) {
+            throw new IOException("Invalid Sec-WebSocket-Accept: " + accept);
+        }
+
+        WebSocketCodec.writeText(out, "{\"origin\":" + StandInManager.quote(mOrigin) + "}", true);
+        String response = WebSocketCodec.readText(in);
+        if (response == null) {
+            throw new IOException("Closed before the session was established.");
+        }
+        try {
+            Object result = JsonParser.parseObject(response).get("result");
+            if (!(result instanceof Number) || ((Number) result).intValue() != 0) {
+                throw new IOException("Error response: " + response);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed response: " + response);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+
+/**
+ * {@link SoakHarness} がManagerと通信する方法.
+ *
+ * Device Connect SDK の <code>DConnectSDKFactory.Type</code> に対応する. HTTP と WebSocket を使用する
+ * {@link HttpTransport} と、端末内のプロセス間通信の代わりに同じ JVM の {@link StandInManager} を直接呼び出す
+ * {@link DirectTransport} がある.
+ */
+public interface ManagerTransport extends Closeable {
+
+    /**
+     * イベントを受け取るリスナー.
+     */
+    interface EventListener {
+        /**
+         * イベントを受信できる状態になったことを通知する.
+         */
+        void onOpen();
+
+        /**
+         * イベントを受信したことを通知する.
+         *
+         * @param text イベントの JSON
+         */
+        void onMessage(String text);
+    }
+
+    /**
+     * 通信方法の名前を取得する.
+     *
+     * @return 名前
+     */
+    String getName();
+
+    /**
+     * Managerに要求を送信する.
+     *
+     * @param method メソッド
+     * @param apiPath <code>/gotapi/</code> 以降のパス
+     * @param query クエリ. ない場合は <code>null</code>
+     * @return 応答
+     * @throws IOException 通信に失敗した場合、または応答が JSON オブジェクトでない場合
+     */
+    Map<String, Object> request(String method, String apiPath, String query) throws IOException;
+
+    /**
+     * イベントを受信する接続を開き、切断されるまで受信したイベントをリスナーに渡す.
+     *
+     * 呼び出したスレッドで受信する. 再接続は呼び出し側で行う.
+     *
+     * @param listener リスナー
+     * @throws IOException 接続に失敗した場合、または切断された場合
+     */
+    void receive(EventListener listener) throws IOException;
+
+    /**
+     * イベントの受信を中断する. {@link #receive(EventListener)} は直ちに戻る.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,667 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * {@link StandInManager} に接続して、アプリ側のイベント処理の性能を計測する負荷試験・耐久試験のハーネス.
+ *
+ * <code>SampleService</code> と同じ手順で、起動確認、サービス検索、サポートAPIの取得、イベント登録を行い、
+ * 受信したイベントを次のパイプラインで処理する. Managerとの通信方法は {@link ManagerTransport} で切り替える.
+ * <pre>
+ * JSON の解析 → {@link OrientationEventDecoder} → {@link SampleChannel} → {@link SampleStore}, {@link WindowAggregator}
+ *             → {@link SubscriptionRegistry#dispatch(String, String, String, String, Map)}
+ * </pre>
+ * 段階ごとのレイテンシは {@link PipelineMetrics} で、送信から受信までのレイテンシはイベントの
+ * {@link StandInManager#PARAM_SENT_AT} で計測する. イベントの通し番号の欠けを欠落として数える.
+ * イベントの接続が切断された場合は {@link Backoff} で待機してから再接続する.
+ *
+ * JSON の解析は、既定では {@link StreamingEventDecoder} で必要な値だけを直接取り出し、
+ * 取り出せないイベントのみ {@link JsonParser} で解析する. この場合、購読者には空の {@link Map} を渡す.
+ * {@link #setStreamingDecode(boolean)} で常に {@link JsonParser} を使用するように切り替えられる.
+ *
+ * コマンドラインから実行する場合のオプションは {@link #main(String[])} を参照.
+ */
+public class SoakHarness implements Closeable {
+
+    /**
+     * サンプルを保存するストアの容量.
+     */
+    private static final int STORE_CAPACITY = 64 * 1024;
+
+    /**
+     * 集計するウィンドウのサンプル数.
+     */
+    private static final int WINDOW_SIZE = 50;
+
+    /**
+     * イベントの最初の接続を待つ時間. 単位はミリ秒.
+     */
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    /**
+     * コマンドラインから実行した場合のオリジン.
+     */
+    static final String ORIGIN = "jp.gclue.deviceconnect.android.app.sample.soak";
+
+    private static final String PARAM_SERVICE_ID = "serviceId";
+    private static final String PARAM_PROFILE = "profile";
+    private static final String PARAM_INTERFACE = "interface";
+    private static final String PARAM_ATTRIBUTE = "attribute";
+
+    private final ManagerTransport mTransport;
+
+    /**
+     * イベント登録時に指定する通知間隔. 単位はミリ秒.
+     */
+    private final long mInterval;
+
+    private final PipelineMetrics mMetrics = new PipelineMetrics();
+
+    /**
+     * イベントの送信から受信までのレイテンシ.
+     */
+    private final LatencyHistogram mEndToEnd = new LatencyHistogram();
+
+    /**
+     * イベントから必要な値を直接取り出すデコーダ.
+     */
+    private final StreamingEventDecoder mStreamingDecoder = new StreamingEventDecoder();
+
+    /**
+     * {@link #mStreamingDecoder} のデコード結果. イベント受信スレッドからのみ使用する.
+     */
+    private final StreamingEventDecoder.Result mDecodeResult = mStreamingDecoder.newResult();
+
+    /**
+     * {@link #mStreamingDecoder} に登録した、{@link OrientationEventDecoder#PATH} の番号.
+     */
+    private final int mOrientationPathIndex = OrientationEventDecoder.register(mStreamingDecoder,
+            StandInManager.PARAM_SEQ, StandInManager.PARAM_SENT_AT);
+
+    private volatile boolean mStreamingDecode = true;
+
+    private final SampleChannel mChannel = new SampleChannel();
+    private final SampleChannel.Cursor mCursor = mChannel.newCursor();
+    private final SampleStore mStore = new SampleStore(STORE_CAPACITY);
+    private final AtomicLong mAggregateCount = new AtomicLong();
+    private final WindowAggregator mAggregator = WindowAggregator.tumbling(WINDOW_SIZE,
+            new WindowAggregator.Listener() {
+                @Override
+                public void onAggregate(final WindowAggregator.Aggregate aggregate) {
+                    mAggregateCount.incrementAndGet();
+                }
+            });
+
+    /**
+     * チャネルから読み出したサンプルを保存と集計に渡すオブジェクト.
+     */
+    private final SampleChannel.SampleSink mPipelineSink = new SampleChannel.SampleSink() {
+        @Override
+        public void onSample(final long timestamp, final float x, final float y, final float z) {
+            mStore.append(timestamp, x, y, z);
+            mAggregator.onSample(timestamp, x, y, z);
+        }
+    };
+
+    private final AtomicLong mDeliveredCount = new AtomicLong();
+
+    /**
+     * イベントを受け取る購読者. 配送された数のみ数える.
+     */
+    private final SubscriptionRegistry.Subscriber mSubscriber = new SubscriptionRegistry.Subscriber() {
+        @Override
+        public void onEvent(final SubscriptionRegistry.Subscription subscription, final Map<String, Object> event) {
+            mDeliveredCount.incrementAndGet();
+        }
+    };
+
+    private final SubscriptionRegistry mSubscriptions = new SubscriptionRegistry(new SubscriptionRegistry.Callback() {
+        @Override
+        public void onRegister(final SubscriptionRegistry.Subscription subscription) {
+            updateEvent("PUT", subscription);
+        }
+
+        @Override
+        public void onUnregister(final SubscriptionRegistry.Subscription subscription) {
+            updateEvent("DELETE", subscription);
+        }
+    });
+
+    private final AtomicLong mReceivedCount = new AtomicLong();
+    private final AtomicLong mStreamingDecodedCount = new AtomicLong();
+    private final AtomicLong mMissingCount = new AtomicLong();
+    private final AtomicLong mReconnectCount = new AtomicLong();
+    private final AtomicLong mOutageNanos = new AtomicLong();
+    private final AtomicLong mRegisterErrorCount = new AtomicLong();
+
+    /**
+     * サービスごとに最後に受信したイベントの通し番号. イベント受信スレッドからのみ使用する.
+     */
+    private final Map<String, long[]> mLastSeqs = new HashMap<>();
+
+    /**
+     * 再接続の待ち時間. イベント受信スレッドからのみ使用する.
+     */
+    private final Backoff mBackoff = new Backoff(50, 2000);
+
+    /**
+     * 一度でも接続したかどうか. イベント受信スレッドからのみ使用する.
+     */
+    private boolean mEverOpened;
+
+    /**
+     * 切断した時刻 ({@link System#nanoTime()}). イベント受信スレッドからのみ使用する.
+     */
+    private long mDisconnectedAt;
+
+    /**
+     * イベントの接続を受け取るリスナー.
+     */
+    private final ManagerTransport.EventListener mEventListener = new ManagerTransport.EventListener() {
+        @Override
+        public void onOpen() {
+            if (mEverOpened) {
+                mReconnectCount.incrementAndGet();
+                mOutageNanos.addAndGet(System.nanoTime() - mDisconnectedAt);
+            }
+            mEverOpened = true;
+            mBackoff.reset();
+            mOpened.countDown();
+        }
+
+        @Override
+        public void onMessage(final String text) {
+            SoakHarness.this.onMessage(text);
+        }
+    };
+
+    private final CountDownLatch mOpened = new CountDownLatch(1);
+    private Thread mReceiveThread;
+    private volatile boolean mClosed;
+
+    /**
+     * コンストラクタ.
+     *
+     * @param host Managerのホスト名
+     * @param port Managerのポート番号
+     * @param origin オリジン
+     * @param interval イベント登録時に指定する通知間隔. 単位はミリ秒
+     */
+    public SoakHarness(final String host, final int port, final String origin, final long interval) {
+        this(new HttpTransport(host, port, origin), interval);
+    }
+
+    /**
+     * コンストラクタ.
+     *
+     * @param transport Managerとの通信方法
+     * @param interval イベント登録時に指定する通知間隔. 単位はミリ秒
+     */
+    public SoakHarness(final ManagerTransport transport, final long interval) {
+        mTransport = transport;
+        mInterval = interval;
+    }
+
+    /**
+     * イベントの解析に {@link StreamingEventDecoder} を使用するかどうかを設定する. 既定値は <code>true</code>.
+     *
+     * @param streaming 使用する場合は <code>true</code>. 常に {@link JsonParser} で解析する場合は <code>false</code>
+     */
+    public void setStreamingDecode(final boolean streaming) {
+        mStreamingDecode = streaming;
+    }
+
+    /**
+     * Managerに接続して、イベントを購読する.
+     *
+     * 起動確認、サービス検索、サポートAPIの取得を行い、{@link StandInManager#EVENT_PROFILE} をサポートするサービスの
+     * イベントを購読する. イベントの最初の接続が完了するまで待機する.
+     *
+     * @return 購読したサービスの数
+     * @throws IOException 接続に失敗した場合
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public int start() throws IOException, InterruptedException {
+        checkResult(request("GET", "availability", null));
+
+        mReceiveThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receiveLoop();
+            }
+        }, "SoakHarness-" + mTransport.getName());
+        mReceiveThread.start();
+        if (!mOpened.await(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            throw new IOException("Event connection is not opened.");
+        }
+
+        Map<String, Object> discovery = checkResult(request("GET", "serviceDiscovery", null));
+        DConnectPath path = DConnectPath.parse("/gotapi/" + StandInManager.EVENT_PROFILE
+                + "/" + StandInManager.EVENT_ATTRIBUTE);
+        int count = 0;
+        Object services = discovery.get("services");
+        if (services instanceof List) {
+            for (Object service : (List<?>) services) {
+                Object id = service instanceof Map ? ((Map<?, ?>) service).get("id") : null;
+                if (!(id instanceof String)) {
+                    continue;
+                }
+                String serviceId = (String) id;
+                if (getSupportedApis(serviceId).contains(path.getSupportKey())) {
+                    mSubscriptions.subscribe(serviceId, path, mSubscriber);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 購読を解除して、イベントの接続を切断する.
+     */
+    @Override
+    public void close() {
+        mSubscriptions.unsubscribeAll(mSubscriber);
+        mClosed = true;
+        mTransport.close();
+        if (mReceiveThread != null) {
+            mReceiveThread.interrupt();
+            try {
+                mReceiveThread.join(CONNECT_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Set<String> getSupportedApis(final String serviceId) throws IOException {
+        Map<String, Object> response = checkResult(request("GET", "serviceInformation",
+                PARAM_SERVICE_ID + "=" + URLEncoder.encode(serviceId, "UTF-8")));
+        Set<String> result = new HashSet<>();
+        Object supportApis = response.get("supportApis");
+        if (supportApis instanceof Map) {
+            for (Map.Entry<?, ?> profile : ((Map<?, ?>) supportApis).entrySet()) {
+                Object definition = profile.getValue();
+                Object paths = definition instanceof Map ? ((Map<?, ?>) definition).get("paths") : null;
+                if (paths instanceof Map) {
+                    for (Object subPath : ((Map<?, ?>) paths).keySet()) {
+                        result.add(CapabilityCache.toSupportKey((String) profile.getKey(), (String) subPath));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void updateEvent(final String method, final SubscriptionRegistry.Subscription subscription) {
+        DConnectPath path = subscription.getPath();
+        try {
+            String query = PARAM_SERVICE_ID + "=" + URLEncoder.encode(subscription.getServiceId(), "UTF-8")
+                    + "&interval=" + mInterval;
+            checkResult(request(method, path.toString().substring("/gotapi/".length()), query));
+        } catch (IOException e) {
+            mRegisterErrorCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Managerに要求を送信する.
+     *
+     * @param method メソッド
+     * @param apiPath <code>/gotapi/</code> 以降のパス
+     * @param query クエリ. ない場合は <code>null</code>
+     * @return 応答
+     * @throws IOException 通信に失敗した場合、または応答が JSON オブジェクトでない場合
+     */
+    Map<String, Object> request(final String method, final String apiPath, final String query) throws IOException {
+        return mTransport.request(method, apiPath, query);
+    }
+
+    private static Map<String, Object> checkResult(final Map<String, Object> response) throws IOException {
+        Object result = response.get("result");
+        if (!(result instanceof Number) || ((Number) result).intValue() != 0) {
+            throw new IOException("Error response: " + response);
+        }
+        return response;
+    }
+
+    /**
+     * イベントの接続と受信を繰り返す. 切断された場合は待機してから再接続する.
+     */
+    private void receiveLoop() {
+        while (!mClosed) {
+            try {
+                mTransport.receive(mEventListener);
+            } catch (IOException e) {
+                // 切断された. 以下で再接続する.
+            }
+            if (mClosed) {
+                break;
+            }
+            if (mEverOpened && mBackoff.getAttempts() == 0) {
+                mDisconnectedAt = System.nanoTime();
+            }
+            try {
+                Thread.sleep(mBackoff.nextDelay());
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 受信したイベントを処理する. <code>SampleService</code> のイベント受信と同じ計測を行う.
+     *
+     * @param text イベントの JSON
+     */
+    void onMessage(final String text) {
+        long start = System.nanoTime();
+        if (mStreamingDecode && mStreamingDecoder.decode(text, mDecodeResult)
+                && mDecodeResult.getPathIndex() == mOrientationPathIndex) {
+            onStreamingDecoded(start);
+            return;
+        }
+        Map<String, Object> event;
+        try {
+            event = JsonParser.parseObject(text);
+        } catch (IllegalArgumentException e) {
+            mMetrics.addDropped(PipelineMetrics.STAGE_RECEIVE, 1);
+            return;
+        }
+        mReceivedCount.incrementAndGet();
+        Object sentAt = event.get(StandInManager.PARAM_SENT_AT);
+        if (sentAt instanceof Number) {
+            mEndToEnd.record(start - ((Number) sentAt).longValue());
+        }
+        String serviceId = (String) event.get(PARAM_SERVICE_ID);
+        Object seq = event.get(StandInManager.PARAM_SEQ);
+        if (serviceId != null && seq instanceof Number) {
+            checkSequence(serviceId, ((Number) seq).longValue());
+        }
+
+        boolean decoded = OrientationEventDecoder.decode(event, System.currentTimeMillis(), mChannel);
+        if (decoded) {
+            mMetrics.record(PipelineMetrics.STAGE_DECODE, start);
+            mCursor.drain(mPipelineSink);
+        }
+        int delivered = mSubscriptions.dispatch(serviceId, (String) event.get(PARAM_PROFILE),
+                (String) event.get(PARAM_INTERFACE), (String) event.get(PARAM_ATTRIBUTE), event);
+        if (delivered > 0) {
+            mMetrics.record(PipelineMetrics.STAGE_NOTIFY, start);
+        } else if (!decoded) {
+            mMetrics.addDropped(PipelineMetrics.STAGE_RECEIVE, 1);
+        }
+        mMetrics.record(PipelineMetrics.STAGE_RECEIVE, start);
+    }
+
+    /**
+     * {@link StreamingEventDecoder} で取り出した値を処理する. {@link JsonParser} で解析した場合と同じ計測を行う.
+     */
+    private void onStreamingDecoded(final long start) {
+        StreamingEventDecoder.Result result = mDecodeResult;
+        mReceivedCount.incrementAndGet();
+        mStreamingDecodedCount.incrementAndGet();
+        // 登録したフィールドの順番は x, y, z, 通し番号, 送信時刻.
+        mEndToEnd.record(start - result.getLong(4));
+        String serviceId = result.getServiceId();
+        if (serviceId != null) {
+            checkSequence(serviceId, result.getLong(3));
+        }
+
+        OrientationEventDecoder.decode(result, System.currentTimeMillis(), mChannel);
+        mMetrics.record(PipelineMetrics.STAGE_DECODE, start);
+        mCursor.drain(mPipelineSink);
+        DConnectPath path = OrientationEventDecoder.PATH;
+        int delivered = mSubscriptions.dispatch(serviceId, path.getProfileName(), path.getInterfaceName(),
+                path.getAttributeName(), Collections.<String, Object>emptyMap());
+        if (delivered > 0) {
+            mMetrics.record(PipelineMetrics.STAGE_NOTIFY, start);
+        }
+        mMetrics.record(PipelineMetrics.STAGE_RECEIVE, start);
+    }
+
+    /**
+     * 通し番号の欠けを数える. 通し番号が戻った場合は、Manager側で登録し直されたものとして数え直す.
+     */
+    private void checkSequence(final String serviceId, final long seq) {
+        long[] last = mLastSeqs.get(serviceId);
+        if (last == null) {
+            mLastSeqs.put(serviceId, new long[] {seq});
+            return;
+        }
+        if (seq > last[0] + 1) {
+            mMissingCount.addAndGet(seq - last[0] - 1);
+        }
+        last[0] = seq;
+    }
+
+    public PipelineMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    public LatencyHistogram getEndToEndLatency() {
+        return mEndToEnd;
+    }
+
+    public long getReceivedCount() {
+        return mReceivedCount.get();
+    }
+
+    /**
+     * {@link StreamingEventDecoder} で処理したイベントの数を取得する.
+     *
+     * @return イベントの数
+     */
+    public long getStreamingDecodedCount() {
+        return mStreamingDecodedCount.get();
+    }
+
+    public long getDeliveredCount() {
+        return mDeliveredCount.get();
+    }
+
+    /**
+     * 通し番号の欠けから算出した、受信できなかったイベントの数を取得する.
+     *
+     * @return イベントの数
+     */
+    public long getMissingCount() {
+        return mMissingCount.get();
+    }
+
+    public long getReconnectCount() {
+        return mReconnectCount.get();
+    }
+
+    public long getRegisterErrorCount() {
+        return mRegisterErrorCount.get();
+    }
+
+    public long getAggregateCount() {
+        return mAggregateCount.get();
+    }
+
+    /**
+     * 計測結果を JSON 文字列に変換する.
+     *
+     * @param manager 同じ JVM で実行している {@link StandInManager}. ない場合は <code>null</code>
+     * @return JSON文字列
+     */
+    public String toJson(final StandInManager manager) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"received\":").append(getReceivedCount())
+                .append(",\"streamingDecoded\":").append(getStreamingDecodedCount())
+                .append(",\"delivered\":").append(getDeliveredCount())
+                .append(",\"missing\":").append(getMissingCount())
+                .append(",\"reconnects\":").append(getReconnectCount())
+                .append(",\"outageMillis\":").append(TimeUnit.NANOSECONDS.toMillis(mOutageNanos.get()))
+                .append(",\"registerErrors\":").append(getRegisterErrorCount())
+                .append(",\"aggregates\":").append(getAggregateCount())
+                .append(",\"storedSamples\":").append(mStore.getWriteSequence())
+                .append(",\"channelDropped\":").append(mCursor.getDroppedCount())
+                .append(",\"endToEnd\":");
+        appendLatency(json, mEndToEnd);
+        if (manager != null) {
+            json.append(",\"manager\":{\"sent\":").append(manager.getSentCount())
+                    .append(",\"dropped\":").append(manager.getDroppedCount())
+                    .append(",\"disconnects\":").append(manager.getDisconnectCount())
+                    .append(",\"sessions\":").append(manager.getSessionCount())
+                    .append(",\"requests\":").append(manager.getRequestCount())
+                    .append('}');
+        }
+        json.append(",\"pipeline\":").append(mMetrics.snapshot().toJson());
+        return json.append('}').toString();
+    }
+
+    /**
+     * レイテンシの統計値を JSON オブジェクトとして追加する.
+     *
+     * @param json 追加先
+     * @param latency レイテンシ
+     */
+    static void appendLatency(final StringBuilder json, final LatencyHistogram latency) {
+        json.append("{\"count\":").append(latency.getCount())
+                .append(",\"meanMicros\":").append(latency.getMeanMicros())
+                .append(",\"p50Micros\":").append(latency.getPercentileMicros(50))
+                .append(",\"p99Micros\":").append(latency.getPercentileMicros(99))
+                .append(",\"maxMicros\":").append(latency.getMaxMicros())
+                .append('}');
+    }
+
+    /**
+     * {@link StandInManager} を起動し、ハーネスを接続して指定した時間だけイベントを受信する.
+     *
+     * オプション:
+     * <ul>
+     *     <li><code>--services N</code> 合成するサービスの数 (既定値: 10)</li>
+     *     <li><code>--supporting N</code> イベントを生成するサービスの数 (既定値: サービスの数)</li>
+     *     <li><code>--rate N</code> サービスごとのイベントの生成レート. 単位は件/秒 (既定値: 100)</li>
+     *     <li><code>--duration MS</code> 計測時間 (既定値: 60000)</li>
+     *     <li><code>--response-latency MS</code> HTTP の応答の遅延 (既定値: 0)</li>
+     *     <li><code>--event-latency MS</code> イベントの送信の遅延 (既定値: 0)</li>
+     *     <li><code>--disconnect-every MS</code> WebSocket を切断する周期 (既定値: 0 = 切断しない)</li>
+     *     <li><code>--report-every MS</code> 途中経過を出力する周期 (既定値: 5000)</li>
+     *     <li><code>--output FILE</code> 最終結果の JSON の出力先</li>
+     *     <li><code>--decoder streaming|tree</code> イベントの解析方法 (既定値: streaming)</li>
+     *     <li><code>--transport http|direct</code> Managerとの通信方法 (既定値: http). {@link TransportBenchmark} も参照</li>
+     *     <li><code>--serve</code> ハーネスを接続せず、{@link StandInManager#DEFAULT_PORT} でサーバのみを起動する</li>
+     * </ul>
+     *
+     * @param args オプション
+     * @throws Exception 実行に失敗した場合
+     */
+    public static void main(final String[] args) throws Exception {
+        int services = 10;
+        int supporting = -1;
+        double rate = 100;
+        long duration = 60000;
+        long responseLatency = 0;
+        long eventLatency = 0;
+        long disconnectEvery = 0;
+        long reportEvery = 5000;
+        String output = null;
+        boolean serve = false;
+        boolean streaming = true;
+        String transport = "http";
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--serve".equals(arg)) {
+                serve = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value: " + arg);
+            }
+            String value = args[++i];
+            if ("--services".equals(arg)) {
+                services = Integer.parseInt(value);
+            } else if ("--supporting".equals(arg)) {
+                supporting = Integer.parseInt(value);
+            } else if ("--rate".equals(arg)) {
+                rate = Double.parseDouble(value);
+            } else if ("--duration".equals(arg)) {
+                duration = Long.parseLong(value);
+            } else if ("--response-latency".equals(arg)) {
+                responseLatency = Long.parseLong(value);
+            } else if ("--event-latency".equals(arg)) {
+                eventLatency = Long.parseLong(value);
+            } else if ("--disconnect-every".equals(arg)) {
+                disconnectEvery = Long.parseLong(value);
+            } else if ("--report-every".equals(arg)) {
+                reportEvery = Long.parseLong(value);
+            } else if ("--output".equals(arg)) {
+                output = value;
+            } else if ("--decoder".equals(arg)) {
+                if (!"streaming".equals(value) && !"tree".equals(value)) {
+                    throw new IllegalArgumentException("Unknown decoder: " + value);
+                }
+                streaming = "streaming".equals(value);
+            } else if ("--transport".equals(arg)) {
+                TransportBenchmark.checkTransport(value);
+                transport = value;
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        StandInManager.Config config = new StandInManager.Config()
+                .setServiceCount(services, supporting < 0 ? services : supporting)
+                .setEventRate(rate)
+                .setLatency(responseLatency, eventLatency)
+                .setDisconnectInterval(disconnectEvery);
+        StandInManager manager = new StandInManager(config);
+        if (serve) {
+            int port = manager.start(StandInManager.DEFAULT_PORT);
+            System.out.println("StandInManager is listening on 127.0.0.1:" + port);
+            Thread.sleep(Long.MAX_VALUE);
+            return;
+        }
+
+        int port = manager.start(0);
+        SoakHarness harness = new SoakHarness(TransportBenchmark.createTransport(transport, manager, port, ORIGIN),
+                Math.max(1, Math.round(1000 / Math.max(rate, 1))));
+        harness.setStreamingDecode(streaming);
+        try {
+            int subscribed = harness.start();
+            System.out.println("subscribed=" + subscribed + ", rate=" + rate + "/s per service, duration="
+                    + duration + "ms");
+            long end = System.currentTimeMillis() + duration;
+            long now;
+            while ((now = System.currentTimeMillis()) < end) {
+                Thread.sleep(Math.min(reportEvery, end - now));
+                System.out.println(harness.getMetrics().snapshot() + ", received=" + harness.getReceivedCount()
+                        + ", missing=" + harness.getMissingCount() + ", reconnects=" + harness.getReconnectCount());
+            }
+        } finally {
+            harness.close();
+            manager.close();
+        }
+
+        String json = harness.toJson(manager);
+        System.out.println(json);
+        if (output != null) {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(new File(output)), WebSocketCodec.UTF8);
+            try {
+                writer.write(json);
+            } finally {
+                writer.close();
+            }
+        }
+    }
+}
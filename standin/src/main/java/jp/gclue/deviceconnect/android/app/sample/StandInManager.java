@@ -0,0 +1,948 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * 負荷試験・耐久試験用に、Device Web API Managerの一部を模倣するローカルサーバ.
+ *
+ * Device Connect SDK が使用する次の HTTP と WebSocket の API のみを実装する.
+ * <ul>
+ *     <li><code>GET /gotapi/availability</code></li>
+ *     <li><code>GET /gotapi/serviceDiscovery</code></li>
+ *     <li><code>GET /gotapi/serviceInformation?serviceId=...</code></li>
+ *     <li><code>PUT/DELETE /gotapi/{profile}[/{interface}]/{attribute}?serviceId=...</code> (イベント登録・解除)</li>
+ *     <li><code>/gotapi/websocket</code> (イベントの通知)</li>
+ * </ul>
+ * サービスは {@link Config} で指定した数だけ合成する. イベントは登録ごとに指定したレートで生成し、
+ * 登録したオリジンの WebSocket に送信する. WebSocket が切断されていても登録は残るので、再接続すれば通知が再開する.
+ *
+ * 障害の注入として、応答とイベントの遅延、WebSocket の切断 ({@link #disconnectWebSockets()} と定期的な切断)、
+ * Managerの停止 ({@link #setAvailable(boolean)}) を行える.
+ *
+ * 端末内のプロセス間通信 (Intent) で接続する場合との比較用に、ソケットと HTTP を使用せずに同じ JVM から
+ * 要求とイベントの受信を行う {@link #handleDirect(String, String, String, String)} と
+ * {@link #openDirectSession(String)} も提供する.
+ *
+ * Android に依存しないので、通常の JVM で実行できる. 端末のアプリから使用する場合は
+ * <code>adb reverse tcp:4035 tcp:4035</code> で端末の localhost をこのサーバに転送する.
+ */
+public class StandInManager implements Closeable {
+
+    /**
+     * Device Web API Managerの既定のポート番号.
+     */
+    public static final int DEFAULT_PORT = 4035;
+
+    /**
+     * イベントを生成するAPIパス.
+     */
+    public static final String EVENT_PROFILE = "deviceOrientation";
+    public static final String EVENT_ATTRIBUTE = "onDeviceOrientation";
+
+    /**
+     * イベントを生成しないサービスが持つプロファイル.
+     */
+    private static final String OTHER_PROFILE = "battery";
+
+    /**
+     * イベントのパラメータ名: 生成した順の通し番号. 登録ごとに 0 から数える.
+     */
+    public static final String PARAM_SEQ = "seq";
+
+    /**
+     * イベントのパラメータ名: イベントを生成した時刻 ({@link System#nanoTime()}).
+     * 同じ JVM で受信した場合のみ、送信から受信までのレイテンシの計算に使用できる.
+     */
+    public static final String PARAM_SENT_AT = "sentAt";
+
+    /**
+     * 1回の生成処理で送信するイベント数の上限. 処理が遅れた場合に一度に大量に送信しないようにする.
+     */
+    private static final int MAX_EVENTS_PER_TICK = 1000;
+
+    /**
+     * イベントを生成する周期. 単位はミリ秒.
+     */
+    private static final long TICK_INTERVAL = 1;
+
+    // Device Connect のエラーコード.
+    static final int ERROR_NOT_SUPPORT_PROFILE = 2;
+    static final int ERROR_NOT_SUPPORT_ACTION = 3;
+    static final int ERROR_NOT_SUPPORT_ATTRIBUTE = 4;
+    static final int ERROR_EMPTY_SERVICE_ID = 5;
+    static final int ERROR_NOT_FOUND_SERVICE = 6;
+    static final int ERROR_INVALID_REQUEST_PARAMETER = 10;
+
+    /**
+     * 模倣の設定.
+     */
+    public static class Config {
+        /**
+         * 合成するサービスの数.
+         */
+        int mServiceCount = 1;
+
+        /**
+         * 合成するサービスのうち、{@link #EVENT_PROFILE} をサポートするサービスの数.
+         */
+        int mSupportingServiceCount = 1;
+
+        /**
+         * 登録ごとのイベントの生成レート. 単位は件/秒. 0 の場合は登録時の interval パラメータに従う.
+         */
+        double mEventRate;
+
+        /**
+         * HTTP の応答を返すまでの遅延. 単位はミリ秒.
+         */
+        long mResponseLatency;
+
+        /**
+         * イベントを生成してから送信するまでの遅延. 単位はミリ秒.
+         */
+        long mEventLatency;
+
+        /**
+         * WebSocket を定期的に切断する周期. 単位はミリ秒. 0 の場合は切断しない.
+         */
+        long mDisconnectInterval;
+
+        public Config setServiceCount(final int serviceCount, final int supportingServiceCount) {
+            if (serviceCount < 0 || supportingServiceCount < 0 || supportingServiceCount > serviceCount) {
+                throw new IllegalArgumentException("serviceCount = " + serviceCount
+                        + ", supportingServiceCount = " + supportingServiceCount);
+            }
+            mServiceCount = serviceCount;
+            mSupportingServiceCount = supportingServiceCount;
+            return this;
+        }
+
+        public Config setEventRate(final double eventRate) {
+            if (eventRate < 0 || Double.isNaN(eventRate)) {
+                throw new IllegalArgumentException("eventRate = " + eventRate);
+            }
+            mEventRate = eventRate;
+            return this;
+        }
+
+        public Config setLatency(final long responseLatency, final long eventLatency) {
+            if (responseLatency < 0 || eventLatency < 0) {
+                throw new IllegalArgumentException("responseLatency = " + responseLatency
+                        + ", eventLatency = " + eventLatency);
+            }
+            mResponseLatency = responseLatency;
+            mEventLatency = eventLatency;
+            return this;
+        }
+
+        public Config setDisconnectInterval(final long disconnectInterval) {
+            if (disconnectInterval < 0) {
+                throw new IllegalArgumentException("disconnectInterval = " + disconnectInterval);
+            }
+            mDisconnectInterval = disconnectInterval;
+            return this;
+        }
+    }
+
+    private final Config mConfig;
+
+    /**
+     * 合成したサービスの ID. 添字の小さい順に {@link #EVENT_PROFILE} をサポートする.
+     */
+    private final List<String> mServiceIds = new ArrayList<>();
+
+    /**
+     * サービスID (小文字) から合成したサービスの添字への対応.
+     */
+    private final Map<String, Integer> mServiceIndexes = new HashMap<>();
+
+    /**
+     * イベントの登録. キーは {@link #toRegistrationKey(String, String, String)} で作成する.
+     */
+    private final Map<String, Registration> mRegistrations = new ConcurrentHashMap<>();
+
+    /**
+     * オリジンごとの WebSocket の接続.
+     */
+    private final ConcurrentMap<String, Session> mSessions = new ConcurrentHashMap<>();
+
+    /**
+     * 受け付けた接続. 停止時にすべて閉じる.
+     */
+    private final List<Socket> mSockets = new CopyOnWriteArrayList<>();
+
+    private ServerSocket mServerSocket;
+    private ExecutorService mConnectionExecutor;
+    private ScheduledExecutorService mScheduler;
+    private volatile boolean mAvailable = true;
+    private volatile boolean mClosed;
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mSessionCount = new AtomicLong();
+    private final AtomicLong mSentCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mDisconnectCount = new AtomicLong();
+
+    /**
+     * コンストラクタ.
+     *
+     * @param config 模倣の設定
+     */
+    public StandInManager(final Config config) {
+        mConfig = config;
+        for (int i = 0; i < config.mServiceCount; i++) {
+            String serviceId = "StandIn" + i + ".standin.localhost";
+            mServiceIds.add(serviceId);
+            mServiceIndexes.put(serviceId.toLowerCase(Locale.ENGLISH), i);
+        }
+    }
+
+    /**
+     * サーバを開始する.
+     *
+     * @param port 待ち受けるポート番号. 0 の場合は空いているポートを使用する
+     * @return 待ち受けているポート番号
+     * @throws IOException ポートを開けなかった場合
+     */
+    public synchronized int start(final int port) throws IOException {
+        if (mServerSocket != null) {
+            throw new IllegalStateException("already started");
+        }
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+        mServerSocket = serverSocket;
+        mConnectionExecutor = Executors.newCachedThreadPool();
+        // イベントの生成と遅延させた送信を1つのスレッドで行い、送信順を通し番号の順に保つ.
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+
+        mConnectionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        });
+        mScheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                generateEvents();
+            }
+        }, TICK_INTERVAL, TICK_INTERVAL, TimeUnit.MILLISECONDS);
+        if (mConfig.mDisconnectInterval > 0) {
+            mScheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    disconnectWebSockets();
+                }
+            }, mConfig.mDisconnectInterval, mConfig.mDisconnectInterval, TimeUnit.MILLISECONDS);
+        }
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * サーバを停止する. 登録はすべて破棄する.
+     */
+    @Override
+    public synchronized void close() {
+        if (mServerSocket == null || mClosed) {
+            return;
+        }
+        mClosed = true;
+        closeQuietly(mServerSocket);
+        for (Socket socket : mSockets) {
+            closeQuietly(socket);
+        }
+        mScheduler.shutdownNow();
+        mConnectionExecutor.shutdownNow();
+        mRegistrations.clear();
+        for (Session session : mSessions.values()) {
+            session.close();
+        }
+        mSessions.clear();
+    }
+
+    public int getPort() {
+        return mServerSocket != null ? mServerSocket.getLocalPort() : -1;
+    }
+
+    /**
+     * 合成したサービスの ID の一覧を取得する.
+     *
+     * @return サービスIDの一覧. 先頭から {@link Config#setServiceCount(int, int)} で指定した数が
+     *         {@link #EVENT_PROFILE} をサポートする
+     */
+    public List<String> getServiceIds() {
+        return new ArrayList<>(mServiceIds);
+    }
+
+    /**
+     * Managerが起動しているかどうかを設定する.
+     *
+     * 停止中は、受け付けた HTTP 要求と WebSocket の接続を応答せずに切断する. 停止にした時点で WebSocket も切断する.
+     *
+     * @param available 起動している場合は <code>true</code>
+     */
+    public void setAvailable(final boolean available) {
+        mAvailable = available;
+        if (!available) {
+            disconnectWebSockets();
+        }
+    }
+
+    /**
+     * すべての WebSocket と {@link DirectSession} を切断する. イベントの登録は残す.
+     *
+     * @return 切断した接続の数
+     */
+    public int disconnectWebSockets() {
+        int count = 0;
+        for (Session session : mSessions.values()) {
+            if (mSessions.remove(session.mOrigin, session)) {
+                session.close();
+                count++;
+            }
+        }
+        mDisconnectCount.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * ソケットを使用せずに、同じ JVM から要求を処理する.
+     *
+     * HTTP の要求と同じ処理を行うが、接続とヘッダの解析、応答の送信を省く. 応答の遅延と停止中の扱いは HTTP と同じ.
+     *
+     * @param method メソッド
+     * @param apiPath <code>/gotapi/</code> 以降のパス
+     * @param query クエリ. ない場合は <code>null</code>
+     * @param origin オリジン
+     * @return 応答の JSON
+     * @throws IOException 停止中の場合
+     */
+    public String handleDirect(final String method, final String apiPath, final String query, final String origin)
+            throws IOException {
+        if (mClosed || !mAvailable) {
+            throw new IOException("Manager is not available.");
+        }
+        mRequestCount.incrementAndGet();
+        if (mConfig.mResponseLatency > 0) {
+            try {
+                Thread.sleep(mConfig.mResponseLatency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        Request request = new Request();
+        request.mMethod = method.toUpperCase(Locale.ENGLISH);
+        request.mPath = ("/gotapi/" + apiPath).toLowerCase(Locale.ENGLISH);
+        if (query != null) {
+            parseParameters(query, request.mParameters);
+        }
+        request.mHeaders.put("x-gotapi-origin", origin);
+        return handleRequest(request);
+    }
+
+    /**
+     * ソケットを使用せずに、同じ JVM でイベントを受信する接続を開く.
+     *
+     * WebSocket の接続と同じく、同じオリジンの既存の接続は切断する.
+     *
+     * @param origin オリジン
+     * @return 接続
+     * @throws IOException 停止中の場合
+     */
+    public DirectSession openDirectSession(final String origin) throws IOException {
+        if (mClosed || !mAvailable) {
+            throw new IOException("Manager is not available.");
+        }
+        mRequestCount.incrementAndGet();
+        DirectSession session = new DirectSession(origin);
+        Session old = mSessions.put(origin, session);
+        if (old != null) {
+            old.close();
+        }
+        mSessionCount.incrementAndGet();
+        return session;
+    }
+
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public long getSessionCount() {
+        return mSessionCount.get();
+    }
+
+    public int getActiveSessionCount() {
+        return mSessions.size();
+    }
+
+    public int getRegistrationCount() {
+        return mRegistrations.size();
+    }
+
+    /**
+     * 送信したイベントの数を取得する.
+     *
+     * @return イベントの数
+     */
+    public long getSentCount() {
+        return mSentCount.get();
+    }
+
+    /**
+     * 登録したオリジンの WebSocket が接続されていないため、または送信に失敗したため、送信しなかったイベントの数を取得する.
+     *
+     * @return イベントの数
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    public long getDisconnectCount() {
+        return mDisconnectCount.get();
+    }
+
+    private void acceptLoop() {
+        while (!mClosed) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // close() でソケットが閉じられた.
+                return;
+            }
+            try {
+                mConnectionExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleConnection(socket);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * 1つの接続を処理する. Keep-Alive の場合は同じ接続で続けて要求を処理する.
+     */
+    private void handleConnection(final Socket socket) {
+        mSockets.add(socket);
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            while (!mClosed) {
+                Request request = readRequest(in);
+                if (request == null || !mAvailable) {
+                    return;
+                }
+                mRequestCount.incrementAndGet();
+                if ("websocket".equalsIgnoreCase(request.mHeaders.get("upgrade"))) {
+                    handleWebSocket(socket, request, in, out);
+                    return;
+                }
+                if (mConfig.mResponseLatency > 0) {
+                    Thread.sleep(mConfig.mResponseLatency);
+                }
+                String body = handleRequest(request);
+                byte[] data = body.getBytes(WebSocketCodec.UTF8);
+                String header = "HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: application/json; charset=UTF-8\r\n"
+                        + "Content-Length: " + data.length + "\r\n"
+                        + "Connection: keep-alive\r\n\r\n";
+                out.write(header.getBytes(WebSocketCodec.UTF8));
+                out.write(data);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // 切断された.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mSockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private static Request readRequest(final InputStream in) throws IOException {
+        String requestLine = WebSocketCodec.readLine(in);
+        while (requestLine != null && requestLine.isEmpty()) {
+            requestLine = WebSocketCodec.readLine(in);
+        }
+        if (requestLine == null) {
+            return null;
+        }
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 2) {
+            throw new IOException("Malformed request line: " + requestLine);
+        }
+        Request request = new Request();
+        request.mMethod = parts[0].toUpperCase(Locale.ENGLISH);
+        String target = parts[1];
+
+        String line;
+        while ((line = WebSocketCodec.readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                request.mHeaders.put(line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH),
+                        line.substring(colon + 1).trim());
+            }
+        }
+
+        int query = target.indexOf('?');
+        request.mPath = (query >= 0 ? target.substring(0, query) : target).toLowerCase(Locale.ENGLISH);
+        if (query >= 0) {
+            parseParameters(target.substring(query + 1), request.mParameters);
+        }
+        String contentLength = request.mHeaders.get("content-length");
+        if (contentLength != null) {
+            int length = Integer.parseInt(contentLength);
+            ByteArrayOutputStream body = new ByteArrayOutputStream(length);
+            for (int i = 0; i < length; i++) {
+                int b = in.read();
+                if (b == -1) {
+                    throw new IOException("Unexpected end of body");
+                }
+                body.write(b);
+            }
+            String contentType = request.mHeaders.get("content-type");
+            if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+                parseParameters(new String(body.toByteArray(), WebSocketCodec.UTF8), request.mParameters);
+            }
+        }
+        return request;
+    }
+
+    private static void parseParameters(final String query, final Map<String, String> parameters)
+            throws UnsupportedEncodingException {
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            String name = eq >= 0 ? pair.substring(0, eq) : pair;
+            String value = eq >= 0 ? pair.substring(eq + 1) : "";
+            parameters.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+    }
+
+    /**
+     * HTTP の要求を処理して、応答の JSON を返す.
+     */
+    private String handleRequest(final Request request) {
+        DConnectPath path = DConnectPath.parse(request.mPath);
+        if (path == null || !"gotapi".equals(path.getApiName())) {
+            return error(ERROR_NOT_SUPPORT_PROFILE, "Invalid path: " + request.mPath);
+        }
+        String profile = path.getProfileName();
+        if (path.getAttributeName() == null && path.getInterfaceName() == null) {
+            if ("availability".equals(profile)) {
+                return "{\"result\":0,\"name\":\"StandInManager\",\"product\":\"Device Connect Manager\"}";
+            } else if ("servicediscovery".equals(profile)) {
+                return serviceDiscovery();
+            } else if ("serviceinformation".equals(profile)) {
+                return serviceInformation(request.mParameters.get("serviceId"));
+            }
+        }
+        return handleEvent(request, path);
+    }
+
+    private String serviceDiscovery() {
+        StringBuilder json = new StringBuilder("{\"result\":0,\"services\":[");
+        for (int i = 0; i < mServiceIds.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(quote(mServiceIds.get(i)))
+                    .append(",\"name\":").append(quote("Stand-in Device " + i))
+                    .append(",\"online\":true}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private String serviceInformation(final String serviceId) {
+        if (serviceId == null || serviceId.isEmpty()) {
+            return error(ERROR_EMPTY_SERVICE_ID, "serviceId is not specified.");
+        }
+        Integer index = mServiceIndexes.get(serviceId.toLowerCase(Locale.ENGLISH));
+        if (index == null) {
+            return error(ERROR_NOT_FOUND_SERVICE, "Service is not found: " + serviceId);
+        }
+        StringBuilder json = new StringBuilder("{\"result\":0,\"supportApis\":{");
+        if (index < mConfig.mSupportingServiceCount) {
+            json.append(quote(EVENT_PROFILE)).append(":{\"paths\":{")
+                    .append(quote("/" + EVENT_ATTRIBUTE)).append(":{\"put\":{},\"delete\":{}}}},");
+        }
+        json.append(quote(OTHER_PROFILE)).append(":{\"paths\":{\"/\":{\"get\":{}}}}}}");
+        return json.toString();
+    }
+
+    /**
+     * イベントの登録・解除を処理する.
+     */
+    private String handleEvent(final Request request, final DConnectPath path) {
+        String serviceId = request.mParameters.get("serviceId");
+        if (serviceId == null || serviceId.isEmpty()) {
+            return error(ERROR_EMPTY_SERVICE_ID, "serviceId is not specified.");
+        }
+        Integer index = mServiceIndexes.get(serviceId.toLowerCase(Locale.ENGLISH));
+        if (index == null) {
+            return error(ERROR_NOT_FOUND_SERVICE, "Service is not found: " + serviceId);
+        }
+        String supportKey = path.getSupportKey();
+        if (index >= mConfig.mSupportingServiceCount
+                || !CapabilityCache.toSupportKey(EVENT_PROFILE, "/" + EVENT_ATTRIBUTE).equals(supportKey)) {
+            if (OTHER_PROFILE.equals(path.getProfileName()) || EVENT_PROFILE.equalsIgnoreCase(path.getProfileName())) {
+                return error(ERROR_NOT_SUPPORT_ATTRIBUTE, "Not supported: " + request.mPath);
+            }
+            return error(ERROR_NOT_SUPPORT_PROFILE, "Not supported: " + request.mPath);
+        }
+        String origin = request.mHeaders.get("x-gotapi-origin");
+        if (origin == null) {
+            origin = request.mParameters.get("origin");
+        }
+        if (origin == null || origin.isEmpty()) {
+            return error(ERROR_INVALID_REQUEST_PARAMETER, "origin is not specified.");
+        }
+
+        String key = toRegistrationKey(origin, serviceId, supportKey);
+        if ("PUT".equals(request.mMethod)) {
+            double rate = mConfig.mEventRate;
+            if (rate <= 0) {
+                long interval = parseLong(request.mParameters.get("interval"), 100);
+                rate = 1000.0 / Math.max(1, interval);
+            }
+            mRegistrations.put(key, new Registration(origin, mServiceIds.get(index), rate));
+            return "{\"result\":0}";
+        } else if ("DELETE".equals(request.mMethod)) {
+            mRegistrations.remove(key);
+            return "{\"result\":0}";
+        } else {
+            return error(ERROR_NOT_SUPPORT_ACTION, "Not supported method: " + request.mMethod);
+        }
+    }
+
+    /**
+     * WebSocket の接続を処理する.
+     *
+     * 最初のメッセージでオリジンを受け取り、以降はそのオリジンに登録されたイベントを送信する.
+     * 同じオリジンの接続が既にある場合は、古い接続を切断する.
+     */
+    private void handleWebSocket(final Socket socket, final Request request,
+                                 final InputStream in, final OutputStream out) throws IOException {
+        String key = request.mHeaders.get("sec-websocket-key");
+        if (!"/gotapi/websocket".equals(request.mPath) || key == null) {
+            return;
+        }
+        String header = "HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + WebSocketCodec.acceptKey(key) + "\r\n\r\n";
+        out.write(header.getBytes(WebSocketCodec.UTF8));
+        out.flush();
+
+        String first = WebSocketCodec.readText(in);
+        if (first == null) {
+            return;
+        }
+        String origin;
+        try {
+            Map<String, Object> message = JsonParser.parseObject(first);
+            Object value = message.get("origin");
+            origin = value instanceof String ? (String) value : null;
+        } catch (IllegalArgumentException e) {
+            origin = null;
+        }
+        Session session = new WebSocketSession(origin, socket, out);
+        if (origin == null) {
+            session.send(error(ERROR_INVALID_REQUEST_PARAMETER, "origin is not specified."));
+            return;
+        }
+        session.send("{\"result\":0}");
+        Session old = mSessions.put(origin, session);
+        if (old != null) {
+            old.close();
+        }
+        mSessionCount.incrementAndGet();
+        try {
+            // クライアントからのメッセージは使用しないので、切断まで読み捨てる.
+            while (WebSocketCodec.readText(in) != null) {
+                continue;
+            }
+        } finally {
+            mSessions.remove(origin, session);
+        }
+    }
+
+    /**
+     * 登録ごとに、前回からの経過時間に応じた数のイベントを生成して送信する.
+     */
+    private void generateEvents() {
+        long now = System.nanoTime();
+        for (Registration registration : mRegistrations.values()) {
+            long due = (long) ((now - registration.mStartNanos) * registration.mRate / 1e9);
+            int count = (int) Math.min(due - registration.mSeq, MAX_EVENTS_PER_TICK);
+            for (int i = 0; i < count; i++) {
+                final long seq = registration.mSeq++;
+                final Registration target = registration;
+                final long sentAt = System.nanoTime();
+                if (mConfig.mEventLatency > 0) {
+                    try {
+                        mScheduler.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                sendEvent(target, seq, sentAt);
+                            }
+                        }, mConfig.mEventLatency, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException e) {
+                        return;
+                    }
+                } else {
+                    sendEvent(target, seq, sentAt);
+                }
+            }
+            if (due - registration.mSeq > MAX_EVENTS_PER_TICK) {
+                // 大きく遅れた分は送信せずに捨てる.
+                mDroppedCount.addAndGet(due - registration.mSeq);
+                registration.mSeq = due;
+            }
+        }
+    }
+
+    private void sendEvent(final Registration registration, final long seq, final long sentAt) {
+        Session session = mSessions.get(registration.mOrigin);
+        if (session == null) {
+            mDroppedCount.incrementAndGet();
+            return;
+        }
+        // 3軸の正弦波. 軸ごとに位相をずらす.
+        double t = seq / registration.mRate;
+        double x = 9.8 * Math.sin(2 * Math.PI * t);
+        double y = 9.8 * Math.sin(2 * Math.PI * t + 2 * Math.PI / 3);
+        double z = 9.8 * Math.sin(2 * Math.PI * t + 4 * Math.PI / 3);
+        String json = "{\"api\":\"gotapi\",\"serviceId\":" + quote(registration.mServiceId)
+                + ",\"profile\":\"" + EVENT_PROFILE + "\",\"attribute\":\"" + EVENT_ATTRIBUTE + "\""
+                + ",\"orientation\":{\"accelerationIncludingGravity\":{\"x\":" + x + ",\"y\":" + y + ",\"z\":" + z + "}"
+                + ",\"interval\":" + Math.round(1000 / registration.mRate) + "}"
+                + ",\"" + PARAM_SEQ + "\":" + seq + ",\"" + PARAM_SENT_AT + "\":" + sentAt + "}";
+        try {
+            session.send(json);
+            mSentCount.incrementAndGet();
+        } catch (IOException e) {
+            mDroppedCount.incrementAndGet();
+            session.close();
+        }
+    }
+
+    private static String toRegistrationKey(final String origin, final String serviceId, final String supportKey) {
+        return origin + "\n" + serviceId.toLowerCase(Locale.ENGLISH) + "\n" + supportKey;
+    }
+
+    private static String error(final int code, final String message) {
+        return "{\"result\":1,\"errorCode\":" + code + ",\"errorMessage\":" + quote(message) + "}";
+    }
+
+    private static long parseLong(final String value, final long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    static String quote(final String value) {
+        StringBuilder s = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                s.append('\\').append(c);
+            } else if (c < 0x20) {
+                s.append(String.format(Locale.ENGLISH, "\\u%04x", (int) c));
+            } else {
+                s.append(c);
+            }
+        }
+        return s.append('"').toString();
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore.
+        }
+    }
+
+    /**
+     * HTTP の要求.
+     */
+    private static class Request {
+        String mMethod;
+        String mPath;
+        final Map<String, String> mHeaders = new HashMap<>();
+        final Map<String, String> mParameters = new HashMap<>();
+    }
+
+    /**
+     * イベントの登録.
+     */
+    private static class Registration {
+        final String mOrigin;
+        final String mServiceId;
+
+        /**
+         * イベントの生成レート. 単位は件/秒.
+         */
+        final double mRate;
+
+        final long mStartNanos = System.nanoTime();
+
+        /**
+         * 次に生成するイベントの通し番号. イベントを生成するスレッドからのみ変更する.
+         */
+        long mSeq;
+
+        Registration(final String origin, final String serviceId, final double rate) {
+            mOrigin = origin;
+            mServiceId = serviceId;
+            mRate = rate;
+        }
+    }
+
+    /**
+     * イベントを送信する接続.
+     */
+    private abstract static class Session {
+        final String mOrigin;
+
+        Session(final String origin) {
+            mOrigin = origin;
+        }
+
+        abstract void send(String text) throws IOException;
+
+        abstract void close();
+    }
+
+    /**
+     * WebSocket の接続.
+     */
+    private static class WebSocketSession extends Session {
+        final Socket mSocket;
+        final OutputStream mOut;
+
+        WebSocketSession(final String origin, final Socket socket, final OutputStream out) {
+            super(origin);
+            mSocket = socket;
+            mOut = out;
+        }
+
+        @Override
+        synchronized void send(final String text) throws IOException {
+            WebSocketCodec.writeText(mOut, text, false);
+        }
+
+        @Override
+        void close() {
+            closeQuietly(mSocket);
+        }
+    }
+
+    /**
+     * ソケットを使用せずに、同じ JVM でイベントを受信する接続.
+     *
+     * イベントはキューを介して受信側のスレッドに渡す. キューが一杯になった場合は、
+     * WebSocket の送信が詰まった場合と同じく接続を切断する.
+     */
+    public static class DirectSession extends Session {
+
+        /**
+         * 受信されずに溜まっているイベントの上限.
+         */
+        private static final int QUEUE_CAPACITY = 4096;
+
+        /**
+         * 切断を受信側に知らせるための値.
+         */
+        private static final String CLOSED = new String("");
+
+        private final BlockingQueue<String> mQueue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        private volatile boolean mClosed;
+
+        DirectSession(final String origin) {
+            super(origin);
+        }
+
+        @Override
+        void send(final String text) throws IOException {
+            if (mClosed || !mQueue.offer(text)) {
+                throw new IOException("Session is closed or full.");
+            }
+        }
+
+        /**
+         * 次のイベントを受信する. イベントが届くまで待機する.
+         *
+         * @return イベントの JSON. 切断された場合は <code>null</code>
+         * @throws InterruptedException 待機中に割り込まれた場合
+         */
+        public String take() throws InterruptedException {
+            if (mClosed && mQueue.isEmpty()) {
+                return null;
+            }
+            String text = mQueue.take();
+            return text == CLOSED ? null : text;
+        }
+
+        /**
+         * 切断する. 受信待ちのスレッドには <code>null</code> を返す.
+         */
+        @Override
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            // 一杯の場合は溜まっているイベントを捨ててでも切断を知らせる.
+            while (!mQueue.offer(CLOSED)) {
+                mQueue.poll();
+            }
+        }
+    }
+}
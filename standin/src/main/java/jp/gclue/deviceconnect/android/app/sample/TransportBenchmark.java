@@ -0,0 +1,236 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Managerとの通信方法ごとに、要求の往復時間とイベントの配送時間を計測するベンチマーク.
+ *
+ * 通信方法ごとに新しい {@link StandInManager} を起動し、次の順に計測する.
+ * <ol>
+ *     <li>起動確認 (<code>availability</code>) とサポートAPIの取得 (<code>serviceInformation</code>) を
+ *     1件ずつ繰り返し、要求から応答までの時間を計測する.</li>
+ *     <li>{@link SoakHarness} でイベントを購読し、Managerが送信してから受信するまでの時間を計測する.</li>
+ * </ol>
+ * 計測の前に、同じ処理を捨て計測として実行する.
+ *
+ * 通信方法は次のとおり. 端末内のプロセス間通信 (SDK の Intent による通信) は JVM では再現できないので、
+ * <code>direct</code> で通信路の処理を除いた場合の下限を計測し、<code>http</code> との差を比較の目安にする.
+ * <ul>
+ *     <li><code>http</code> {@link HttpTransport}</li>
+ *     <li><code>direct</code> {@link DirectTransport}</li>
+ * </ul>
+ *
+ * コマンドラインから実行する場合のオプションは {@link #main(String[])} を参照.
+ */
+public final class TransportBenchmark {
+
+    private TransportBenchmark() {
+    }
+
+    /**
+     * 通信方法の名前を確認する.
+     *
+     * @param name 通信方法の名前
+     * @throws IllegalArgumentException 未知の名前の場合
+     */
+    static void checkTransport(final String name) {
+        if (!"http".equals(name) && !"direct".equals(name)) {
+            throw new IllegalArgumentException("Unknown transport: " + name);
+        }
+    }
+
+    /**
+     * 通信方法を作成する.
+     *
+     * @param name 通信方法の名前. <code>http</code> または <code>direct</code>
+     * @param manager 接続先
+     * @param port 接続先のポート番号
+     * @param origin オリジン
+     * @return 通信方法
+     * @throws IllegalArgumentException 未知の名前の場合
+     */
+    static ManagerTransport createTransport(final String name, final StandInManager manager, final int port,
+                                            final String origin) {
+        checkTransport(name);
+        if ("direct".equals(name)) {
+            return new DirectTransport(manager, origin);
+        }
+        return new HttpTransport("127.0.0.1", port, origin);
+    }
+
+    /**
+     * 要求を指定した回数だけ繰り返し、往復時間を記録する.
+     *
+     * @param transport 通信方法
+     * @param apiPath <code>/gotapi/</code> 以降のパス
+     * @param query クエリ. ない場合は <code>null</code>
+     * @param count 回数
+     * @param latency 記録先. ない場合は <code>null</code>
+     * @throws IOException 要求に失敗した場合
+     */
+    static void measureRequests(final ManagerTransport transport, final String apiPath, final String query,
+                                final int count, final LatencyHistogram latency) throws IOException {
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            Object result = transport.request("GET", apiPath, query).get("result");
+            if (latency != null) {
+                latency.record(System.nanoTime() - start);
+            }
+            if (!(result instanceof Number) || ((Number) result).intValue() != 0) {
+                throw new IOException("Error response: " + apiPath);
+            }
+        }
+    }
+
+    /**
+     * 1つの通信方法を計測して、結果の JSON を返す.
+     *
+     * @param name 通信方法の名前
+     * @param config 模倣の設定
+     * @param requests 計測する要求の回数
+     * @param warmup 捨て計測の時間. 単位はミリ秒. 要求の捨て計測は計測と同じ回数行う
+     * @param duration イベントを計測する時間. 単位はミリ秒
+     * @param interval イベント登録時に指定する通知間隔. 単位はミリ秒
+     * @return 計測結果の JSON
+     * @throws Exception 計測に失敗した場合
+     */
+    static String run(final String name, final StandInManager.Config config, final int requests,
+                      final long warmup, final long duration, final long interval) throws Exception {
+        StandInManager manager = new StandInManager(config);
+        try {
+            int port = manager.start(0);
+            ManagerTransport transport = createTransport(name, manager, port, SoakHarness.ORIGIN);
+            String query = "serviceId=" + URLEncoder.encode(manager.getServiceIds().get(0), "UTF-8");
+
+            LatencyHistogram availability = new LatencyHistogram();
+            LatencyHistogram serviceInformation = new LatencyHistogram();
+            measureRequests(transport, "availability", null, requests, null);
+            measureRequests(transport, "serviceInformation", query, requests, null);
+            measureRequests(transport, "availability", null, requests, availability);
+            measureRequests(transport, "serviceInformation", query, requests, serviceInformation);
+
+            SoakHarness harness = new SoakHarness(transport, interval);
+            int subscribed;
+            long received;
+            long missing;
+            try {
+                subscribed = harness.start();
+                Thread.sleep(warmup);
+                harness.getEndToEndLatency().reset();
+                long before = harness.getReceivedCount();
+                long missingBefore = harness.getMissingCount();
+                Thread.sleep(duration);
+                received = harness.getReceivedCount() - before;
+                missing = harness.getMissingCount() - missingBefore;
+            } finally {
+                harness.close();
+            }
+
+            StringBuilder json = new StringBuilder();
+            json.append("{\"transport\":").append(StandInManager.quote(name))
+                    .append(",\"requests\":").append(requests)
+                    .append(",\"availability\":");
+            SoakHarness.appendLatency(json, availability);
+            json.append(",\"serviceInformation\":");
+            SoakHarness.appendLatency(json, serviceInformation);
+            json.append(",\"events\":{\"subscribed\":").append(subscribed)
+                    .append(",\"received\":").append(received)
+                    .append(",\"missing\":").append(missing)
+                    .append(",\"perSecond\":").append(received * 1000 / Math.max(1, duration))
+                    .append(",\"endToEnd\":");
+            SoakHarness.appendLatency(json, harness.getEndToEndLatency());
+            return json.append("}}").toString();
+        } finally {
+            manager.close();
+        }
+    }
+
+    /**
+     * 指定した通信方法を順に計測し、結果を JSON で出力する.
+     *
+     * オプション:
+     * <ul>
+     *     <li><code>--transports NAME[,NAME...]</code> 計測する通信方法 (既定値: http,direct)</li>
+     *     <li><code>--requests N</code> 計測する要求の回数 (既定値: 2000)</li>
+     *     <li><code>--services N</code> イベントを生成するサービスの数 (既定値: 4)</li>
+     *     <li><code>--rate N</code> サービスごとのイベントの生成レート. 単位は件/秒 (既定値: 200)</li>
+     *     <li><code>--warmup MS</code> イベントの捨て計測の時間 (既定値: 2000)</li>
+     *     <li><code>--duration MS</code> イベントの計測時間 (既定値: 10000)</li>
+     *     <li><code>--output FILE</code> 結果の JSON の出力先</li>
+     * </ul>
+     *
+     * @param args オプション
+     * @throws Exception 実行に失敗した場合
+     */
+    public static void main(final String[] args) throws Exception {
+        List<String> transports = new ArrayList<>();
+        transports.add("http");
+        transports.add("direct");
+        int requests = 2000;
+        int services = 4;
+        double rate = 200;
+        long warmup = 2000;
+        long duration = 10000;
+        String output = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value: " + arg);
+            }
+            String value = args[++i];
+            if ("--transports".equals(arg)) {
+                transports.clear();
+                for (String name : value.split(",")) {
+                    checkTransport(name);
+                    transports.add(name);
+                }
+            } else if ("--requests".equals(arg)) {
+                requests = Integer.parseInt(value);
+            } else if ("--services".equals(arg)) {
+                services = Integer.parseInt(value);
+            } else if ("--rate".equals(arg)) {
+                rate = Double.parseDouble(value);
+            } else if ("--warmup".equals(arg)) {
+                warmup = Long.parseLong(value);
+            } else if ("--duration".equals(arg)) {
+                duration = Long.parseLong(value);
+            } else if ("--output".equals(arg)) {
+                output = value;
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        StandInManager.Config config = new StandInManager.Config()
+                .setServiceCount(services, services)
+                .setEventRate(rate);
+        long interval = Math.max(1, Math.round(1000 / Math.max(rate, 1)));
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < transports.size(); i++) {
+            String result = run(transports.get(i), config, requests, warmup, duration, interval);
+            System.out.println(result);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(result);
+        }
+        json.append(']');
+
+        if (output != null) {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(new File(output)), WebSocketCodec.UTF8);
+            try {
+                writer.write(json.toString());
+            } finally {
+                writer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+
+/**
+ * WebSocket (RFC 6455) のハンドシェイクとフレームの読み書き.
+ *
+ * {@link StandInManager} と {@link SoakHarness} が使用する最小限の実装で、テキストフレームとクローズフレームのみを扱う.
+ * ping を受信した場合は無視する.
+ */
+final class WebSocketCodec {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * Sec-WebSocket-Accept の計算に使用する GUID.
+     */
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    static final int OPCODE_CONTINUATION = 0x0;
+    static final int OPCODE_TEXT = 0x1;
+    static final int OPCODE_BINARY = 0x2;
+    static final int OPCODE_CLOSE = 0x8;
+    static final int OPCODE_PING = 0x9;
+    static final int OPCODE_PONG = 0xA;
+
+    /**
+     * 1フレームの最大長. これを超えるフレームは不正として扱う.
+     */
+    private static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+
+    private static final Random RANDOM = new Random();
+
+    private WebSocketCodec() {
+    }
+
+    /**
+     * Sec-WebSocket-Key から Sec-WebSocket-Accept を計算する.
+     *
+     * @param key Sec-WebSocket-Key
+     * @return Sec-WebSocket-Accept
+     */
+    static String acceptKey(final String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return base64(sha1.digest((key.trim() + GUID).getBytes(ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * クライアントが送信する Sec-WebSocket-Key を作成する.
+     *
+     * @return Sec-WebSocket-Key
+     */
+    static String newKey() {
+        byte[] nonce = new byte[16];
+        synchronized (RANDOM) {
+            RANDOM.nextBytes(nonce);
+        }
+        return base64(nonce);
+    }
+
+    static String base64(final byte[] data) {
+        StringBuilder s = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b0 = data[i] & 0xFF;
+            int b1 = i + 1 < data.length ? data[i + 1] & 0xFF : 0;
+            int b2 = i + 2 < data.length ? data[i + 2] & 0xFF : 0;
+            s.append(BASE64[b0 >> 2]);
+            s.append(BASE64[((b0 & 0x3) << 4) | (b1 >> 4)]);
+            s.append(i + 1 < data.length ? BASE64[((b1 & 0xF) << 2) | (b2 >> 6)] : '=');
+            s.append(i + 2 < data.length ? BASE64[b2 & 0x3F] : '=');
+        }
+        return s.toString();
+    }
+
+    /**
+     * HTTPのヘッダを1行読み込む.
+     *
+     * @param in 入力
+     * @return 行. 改行文字は含まない. 入力の終端に達した場合は <code>null</code>
+     * @throws IOException 読み込みに失敗した場合
+     */
+    static String readLine(final InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    /**
+     * テキストフレームを書き込む.
+     *
+     * @param out 出力
+     * @param text テキスト
+     * @param mask マスクする場合は <code>true</code>. クライアントからの送信ではマスクが必須
+     * @throws IOException 書き込みに失敗した場合
+     */
+    static void writeText(final OutputStream out, final String text, final boolean mask) throws IOException {
+        writeFrame(out, OPCODE_TEXT, text.getBytes(UTF8), mask);
+    }
+
+    /**
+     * クローズフレームを書き込む.
+     *
+     * @param out 出力
+     * @param mask マスクする場合は <code>true</code>
+     * @throws IOException 書き込みに失敗した場合
+     */
+    static void writeClose(final OutputStream out, final boolean mask) throws IOException {
+        writeFrame(out, OPCODE_CLOSE, new byte[0], mask);
+    }
+
+    static void writeFrame(final OutputStream out, final int opcode, final byte[] payload, final boolean mask)
+            throws IOException {
+        int length = payload.length;
+        byte[] header = new byte[14];
+        int n = 0;
+        header[n++] = (byte) (0x80 | opcode);
+        int maskBit = mask ? 0x80 : 0;
+        if (length < 126) {
+            header[n++] = (byte) (maskBit | length);
+        } else if (length < 65536) {
+            header[n++] = (byte) (maskBit | 126);
+            header[n++] = (byte) (length >> 8);
+            header[n++] = (byte) length;
+        } else {
+            header[n++] = (byte) (maskBit | 127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                header[n++] = (byte) ((long) length >> shift);
+            }
+        }
+        byte[] data = payload;
+        if (mask) {
+            byte[] key = new byte[4];
+            synchronized (RANDOM) {
+                RANDOM.nextBytes(key);
+            }
+            System.arraycopy(key, 0, header, n, 4);
+            n += 4;
+            data = new byte[length];
+            for (int i = 0; i < length; i++) {
+                data[i] = (byte) (payload[i] ^ key[i & 3]);
+            }
+        }
+        out.write(header, 0, n);
+        out.write(data);
+        out.flush();
+    }
+
+    /**
+     * 次のテキストメッセージを読み込む.
+     *
+     * 分割されたフレームは結合する. ping、pong、バイナリのフレームは読み飛ばす.
+     *
+     * @param in 入力
+     * @return テキスト. クローズフレームを受信した場合、または入力の終端に達した場合は <code>null</code>
+     * @throws IOException 読み込みに失敗した場合、またはフレームが不正な場合
+     */
+    static String readText(final InputStream in) throws IOException {
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        int messageOpcode = -1;
+        while (true) {
+            int b0 = in.read();
+            if (b0 == -1) {
+                return null;
+            }
+            int b1 = readByte(in);
+            boolean fin = (b0 & 0x80) != 0;
+            int opcode = b0 & 0x0F;
+            boolean masked = (b1 & 0x80) != 0;
+            long length = b1 & 0x7F;
+            if (length == 126) {
+                length = (readByte(in) << 8) | readByte(in);
+            } else if (length == 127) {
+                length = 0;
+                for (int i = 0; i < 8; i++) {
+                    length = (length << 8) | readByte(in);
+                }
+            }
+            if (length < 0 || length > MAX_PAYLOAD) {
+                throw new IOException("Frame too large: " + length);
+            }
+            byte[] key = new byte[4];
+            if (masked) {
+                readFully(in, key);
+            }
+            byte[] payload = new byte[(int) length];
+            readFully(in, payload);
+            if (masked) {
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] ^= key[i & 3];
+                }
+            }
+
+            if (opcode == OPCODE_CLOSE) {
+                return null;
+            }
+            if (opcode == OPCODE_PING || opcode == OPCODE_PONG) {
+                continue;
+            }
+            if (opcode != OPCODE_CONTINUATION) {
+                messageOpcode = opcode;
+                message.reset();
+            }
+            message.write(payload);
+            if (fin) {
+                if (messageOpcode == OPCODE_TEXT) {
+                    return new String(message.toByteArray(), UTF8);
+                }
+                message.reset();
+            }
+        }
+    }
+
+    private static int readByte(final InputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private static void readFully(final InputStream in, final byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int n = in.read(buffer, offset, buffer.length - offset);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            offset += n;
+        }
+    }
+}
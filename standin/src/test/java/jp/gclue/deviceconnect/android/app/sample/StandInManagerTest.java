@@ -0,0 +1,174 @@
+package jp.gclue.deviceconnect.android.app.sample;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class StandInManagerTest {
+
+    private static final String ORIGIN = "jp.gclue.deviceconnect.android.app.sample.test";
+
+    private StandInManager mManager;
+    private SoakHarness mHarness;
+
+    @Before
+    public void setUp() {
+        mManager = null;
+        mHarness = null;
+    }
+
+    @After
+    public void tearDown() {
+        if (mHarness != null) {
+            mHarness.close();
+        }
+        if (mManager != null) {
+            mManager.close();
+        }
+    }
+
+    private SoakHarness start(final StandInManager.Config config) throws IOException {
+        mManager = new StandInManager(config);
+        int port = mManager.start(0);
+        mHarness = new SoakHarness("127.0.0.1", port, ORIGIN, 10);
+        return mHarness;
+    }
+
+    private static void waitUntil(final Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.isSatisfied()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Condition {
+        boolean isSatisfied();
+    }
+
+    @Test
+    public void testDiscoveryAndServiceInformation() throws Exception {
+        SoakHarness harness = start(new StandInManager.Config().setServiceCount(3, 1));
+
+        assertEquals(0L, harness.request("GET", "availability", null).get("result"));
+        List<?> services = (List<?>) harness.request("GET", "serviceDiscovery", null).get("services");
+        assertEquals(3, services.size());
+
+        List<String> serviceIds = mManager.getServiceIds();
+        Map<String, Object> supporting = harness.request("GET", "serviceInformation", "serviceId=" + serviceIds.get(0));
+        assertTrue(((Map<?, ?>) supporting.get("supportApis")).containsKey(StandInManager.EVENT_PROFILE));
+        Map<String, Object> other = harness.request("GET", "serviceInformation", "serviceId=" + serviceIds.get(1));
+        assertTrue(!((Map<?, ?>) other.get("supportApis")).containsKey(StandInManager.EVENT_PROFILE));
+
+        Map<String, Object> unknown = harness.request("GET", "serviceInformation", "serviceId=unknown");
+        assertEquals(1L, unknown.get("result"));
+        assertEquals((long) StandInManager.ERROR_NOT_FOUND_SERVICE, unknown.get("errorCode"));
+        Map<String, Object> unsupported = harness.request("PUT", "deviceOrientation/onDeviceOrientation",
+                "serviceId=" + serviceIds.get(1));
+        assertEquals((long) StandInManager.ERROR_NOT_SUPPORT_ATTRIBUTE, unsupported.get("errorCode"));
+    }
+
+    @Test
+    public void testEventsFlowThroughPipeline() throws Exception {
+        final SoakHarness harness = start(new StandInManager.Config().setServiceCount(3, 2).setEventRate(500));
+
+        assertEquals(2, harness.start());
+        assertEquals(2, mManager.getRegistrationCount());
+        waitUntil(new Condition() {
+            @Override
+            public boolean isSatisfied() {
+                return harness.getReceivedCount() >= 200;
+            }
+        });
+        assertEquals(0, harness.getMissingCount());
+        assertTrue(harness.getDeliveredCount() > 0);
+        assertTrue(harness.getEndToEndLatency().getCount() > 0);
+        assertTrue(harness.getMetrics().snapshot().getCount(PipelineMetrics.STAGE_DECODE) > 0);
+
+        harness.close();
+        mHarness = null;
+        assertEquals(0, mManager.getRegistrationCount());
+        assertTrue(harness.toJson(mManager).contains("\"pipeline\":"));
+    }
+
+    @Test
+    public void testReconnectAfterDisconnect() throws Exception {
+        final SoakHarness harness = start(new StandInManager.Config().setServiceCount(1, 1).setEventRate(200));
+        harness.start();
+        waitUntil(new Condition() {
+            @Override
+            public boolean isSatisfied() {
+                return harness.getReceivedCount() >= 20;
+            }
+        });
+
+        assertEquals(1, mManager.disconnectWebSockets());
+        final long received = harness.getReceivedCount();
+        waitUntil(new Condition() {
+            @Override
+            public boolean isSatisfied() {
+                return harness.getReconnectCount() == 1 && harness.getReceivedCount() > received + 20;
+            }
+        });
+        // 登録は切断後も残り、再接続後にイベントが再開する. 切断中のイベントは欠落として数える.
+        assertEquals(1, mManager.getRegistrationCount());
+        assertEquals(2, mManager.getSessionCount());
+    }
+
+    @Test
+    public void testDirectTransport() throws Exception {
+        mManager = new StandInManager(new StandInManager.Config().setServiceCount(2, 1).setEventRate(200));
+        mManager.start(0);
+        final SoakHarness harness = new SoakHarness(new DirectTransport(mManager, ORIGIN), 10);
+        mHarness = harness;
+
+        assertEquals(1, harness.start());
+        waitUntil(new Condition() {
+            @Override
+            public boolean isSatisfied() {
+                return harness.getReceivedCount() >= 20;
+            }
+        });
+        assertTrue(harness.getEndToEndLatency().getCount() > 0);
+
+        // HTTP と同じく、切断されても再接続して受信を続ける.
+        assertEquals(1, mManager.disconnectWebSockets());
+        final long received = harness.getReceivedCount();
+        waitUntil(new Condition() {
+            @Override
+            public boolean isSatisfied() {
+                return harness.getReconnectCount() == 1 && harness.getReceivedCount() > received + 20;
+            }
+        });
+
+        harness.close();
+        mHarness = null;
+        assertEquals(0, mManager.getRegistrationCount());
+    }
+
+    @Test
+    public void testTransportBenchmark() throws Exception {
+        StandInManager.Config config = new StandInManager.Config().setServiceCount(1, 1).setEventRate(200);
+        for (String transport : new String[] {"http", "direct"}) {
+            String json = TransportBenchmark.run(transport, config, 10, 100, 300, 5);
+            assertTrue(json, json.startsWith("{\"transport\":\"" + transport + "\",\"requests\":10,"
+                    + "\"availability\":{\"count\":10,"));
+            assertTrue(json, json.contains("\"events\":{\"subscribed\":1,"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnavailable() throws Exception {
+        SoakHarness harness = start(new StandInManager.Config());
+        mManager.setAvailable(false);
+        harness.request("GET", "availability", null);
+    }
+}